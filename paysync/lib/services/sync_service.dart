@@ -155,7 +155,7 @@ class SyncService {
       print('Starting initial sync for user: $userId');
       try {
         final response = await http.get(
-          Uri.parse('$_baseUrl/users/$userId'),
+          Uri.parse('$_baseUrl/users/$userId?stream=true'),
           headers: {'Content-Type': 'application/json'},
         ).timeout(const Duration(seconds: 30));
   
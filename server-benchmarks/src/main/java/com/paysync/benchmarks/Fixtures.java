@@ -0,0 +1,188 @@
+package com.paysync.benchmarks;
+
+import com.google.cloud.Timestamp;
+import com.paysync.server.model.Event;
+import com.paysync.server.model.Transaction;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Documents shaped like the app's SQLite rows: 0/1 flags, ISO-8601 dates without an
+ * offset and comma-separated id lists. Generation is seeded so runs are comparable.
+ */
+final class Fixtures {
+
+    private static final String[] CURRENCIES = {"INR", "USD", "EUR"};
+    private static final String[] PAYMENT_METHODS = {"Cash", "UPI", "Card", "Bank Transfer"};
+    static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+    private Fixtures() {
+    }
+
+    static String userId(int user) {
+        return "user-" + user;
+    }
+
+    static String eventId(int user, int event) {
+        return "event-" + user + "-" + event;
+    }
+
+    static String transactionId(int user, int transaction) {
+        return "txn-" + user + "-" + transaction;
+    }
+
+    static Map<String, Object> user(int user, int events) {
+        List<String> eventIds = new ArrayList<>();
+        for (int event = 0; event < events; event++) {
+            eventIds.add(eventId(user, event));
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("userId", userId(user));
+        data.put("username", "User " + user);
+        data.put("email", "user" + user + "@example.com");
+        data.put("profileImageUrl", "");
+        data.put("defaultCurrency", CURRENCIES[user % CURRENCIES.length]);
+        data.put("onlineAmount", 0.0);
+        data.put("offlineAmount", 0.0);
+        data.put("events", String.join(",", eventIds));
+        data.put("defaultEventId", eventIds.isEmpty() ? "" : eventIds.get(0));
+        data.put("currencySymbol", "");
+        data.put("currencyName", "");
+        data.put("savingsGoals", "");
+        data.put("createdAt", START.toString());
+        data.put("updatedAt", START.toString());
+        data.put("preferences", "{}");
+        return data;
+    }
+
+    // Members are the owner plus the next few users, so events are shared across accounts
+    static Map<String, Object> event(int user, int event, int members, int users) {
+        List<String> memberIds = new ArrayList<>();
+        for (int member = 0; member < members; member++) {
+            memberIds.add(userId((user + member) % users));
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("eventId", eventId(user, event));
+        data.put("nameOfEvent", "Event " + event);
+        data.put("createdBy", userId(user));
+        data.put("transactions", "");
+        data.put("onlineAmountOfEvent", 0.0);
+        data.put("offlineAmountOfEvent", 0.0);
+        data.put("members", String.join(",", memberIds));
+        data.put("currency", CURRENCIES[event % CURRENCIES.length]);
+        data.put("budget", 5000.0);
+        data.put("createdAt", START.toString());
+        data.put("updatedAt", START.toString());
+        return data;
+    }
+
+    static Map<String, Object> transaction(Random random, int user, int transaction, int events) {
+        LocalDateTime dateTime = START.plusMinutes(transaction * 97L);
+        Map<String, Object> data = new HashMap<>();
+        data.put("transactionId", transactionId(user, transaction));
+        data.put("userId", userId(user));
+        data.put("eventId", eventId(user, random.nextInt(Math.max(1, events))));
+        data.put("isOnline", random.nextInt(2));
+        data.put("isCredit", random.nextInt(5) == 0 ? 1 : 0);
+        data.put("amount", Math.round(random.nextDouble() * 500_00) / 100.0);
+        data.put("currency", CURRENCIES[random.nextInt(CURRENCIES.length)]);
+        data.put("paymentMethod", PAYMENT_METHODS[random.nextInt(PAYMENT_METHODS.length)]);
+        data.put("location", "Bengaluru");
+        data.put("dateTime", dateTime.toString());
+        data.put("note", "Expense " + transaction);
+        data.put("imageUrl", null);
+        data.put("recurring", 0);
+        data.put("onlineBalanceAfter", 0.0);
+        data.put("offlineBalanceAfter", 0.0);
+        data.put("recurringType", null);
+        data.put("createdAt", dateTime.toString());
+        data.put("updatedAt", dateTime.toString());
+        return data;
+    }
+
+    static Map<String, Object> savingsGoal(int user, int goal) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("goalId", "goal-" + user + "-" + goal);
+        data.put("userId", userId(user));
+        data.put("goalName", "Goal " + goal);
+        data.put("targetAmount", 10000.0);
+        data.put("currentSavings", 2500.0);
+        data.put("currency", CURRENCIES[user % CURRENCIES.length]);
+        data.put("deadline", START.plusMonths(6).toString());
+        data.put("status", "active");
+        data.put("createdAt", START.toString());
+        data.put("updatedAt", START.toString());
+        return data;
+    }
+
+    // A POST /api/sync/changes body with one user's transactions
+    static Map<String, Object> syncPayload(Random random, int user, int transactions, int events) {
+        Map<String, Object> documents = new HashMap<>();
+        for (int transaction = 0; transaction < transactions; transaction++) {
+            documents.put(transactionId(user, transaction), transaction(random, user, transaction, events));
+        }
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("transactions", documents);
+        return payload;
+    }
+
+    static Transaction typedTransaction(Random random, int user, int transaction) {
+        Transaction typed = new Transaction();
+        typed.setTransactionId(transactionId(user, transaction));
+        typed.setUserId(userId(user));
+        typed.setEventId(eventId(user, 0));
+        typed.setIsOnline(random.nextBoolean());
+        typed.setIsCredit(random.nextInt(5) == 0);
+        typed.setAmount(Math.round(random.nextDouble() * 500_00) / 100.0);
+        typed.setCurrency(CURRENCIES[random.nextInt(CURRENCIES.length)]);
+        typed.setPaymentMethod(PAYMENT_METHODS[random.nextInt(PAYMENT_METHODS.length)]);
+        typed.setLocation("Bengaluru");
+        typed.setDateTime(Timestamp.ofTimeSecondsAndNanos(1_704_099_600L + transaction * 5820L, 0));
+        typed.setNote("Expense " + transaction);
+        typed.setRecurring(false);
+        typed.setCreatedAt(typed.getDateTime());
+        typed.setUpdatedAt(typed.getDateTime());
+        typed.setAmountInEventCurrency(typed.getAmount());
+        typed.setAmountInUserCurrency(typed.getAmount());
+        return typed;
+    }
+
+    static Event typedEvent(int user, int event, int members, int transactions) {
+        Event typed = new Event();
+        typed.setEventId(eventId(user, event));
+        typed.setNameOfEvent("Event " + event);
+        typed.setCreatedBy(userId(user));
+        List<String> memberIds = new ArrayList<>();
+        for (int member = 0; member < members; member++) {
+            memberIds.add(userId(user + member));
+        }
+        typed.setMembers(memberIds);
+        List<String> transactionIds = new ArrayList<>();
+        for (int transaction = 0; transaction < transactions; transaction++) {
+            transactionIds.add(transactionId(user, transaction));
+        }
+        typed.setTransactions(transactionIds);
+        typed.setOnlineAmountOfEvent(1250.0);
+        typed.setOfflineAmountOfEvent(300.0);
+        typed.setCurrency("INR");
+        typed.setBudget(5000.0);
+        typed.setCreatedAt(Timestamp.ofTimeSecondsAndNanos(1_704_099_600L, 0));
+        typed.setUpdatedAt(Timestamp.ofTimeSecondsAndNanos(1_704_099_600L, 0));
+        return typed;
+    }
+
+    // Deep copy, since SyncService stamps and extends the maps it is given
+    static Map<String, Object> copy(Map<String, Object> source) {
+        Map<String, Object> copy = new HashMap<>(source.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            Object value = entry.getValue();
+            copy.put(entry.getKey(), value instanceof Map ? copy((Map<String, Object>) value) : value);
+        }
+        return copy;
+    }
+}
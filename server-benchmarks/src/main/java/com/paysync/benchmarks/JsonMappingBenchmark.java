@@ -0,0 +1,103 @@
+package com.paysync.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.Event;
+import com.paysync.server.model.Transaction;
+import com.paysync.server.repository.TransactionDocuments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-document mapping costs: Jackson for the REST bodies, using the same builder
+ * Spring MVC configures its converter with, and {@link TransactionDocuments} for
+ * turning stored documents into transactions and back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonMappingBenchmark {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private Transaction transaction;
+    private Event event;
+    private byte[] transactionJson;
+    private byte[] eventJson;
+    private Map<String, Object> typedDocument;
+    private Map<String, Object> syncedDocument;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        Random random = new Random(11);
+        transaction = Fixtures.typedTransaction(random, 0, 0);
+        event = Fixtures.typedEvent(0, 0, ServerState.MEMBERS_PER_EVENT, 200);
+
+        // Clients send timestamps as strings Jackson can't bind to Timestamp, so the inputs leave them out
+        Transaction incomingTransaction = Fixtures.typedTransaction(random, 0, 1);
+        incomingTransaction.setDateTime(null);
+        incomingTransaction.setCreatedAt(null);
+        incomingTransaction.setUpdatedAt(null);
+        transactionJson = objectMapper.writeValueAsBytes(incomingTransaction);
+        Event incomingEvent = Fixtures.typedEvent(0, 1, ServerState.MEMBERS_PER_EVENT, 200);
+        incomingEvent.setCreatedAt(null);
+        incomingEvent.setUpdatedAt(null);
+        eventJson = objectMapper.writeValueAsBytes(incomingEvent);
+
+        typedDocument = TransactionDocuments.toDocument(transaction);
+        syncedDocument = Fixtures.transaction(random, 0, 2, ServerState.EVENTS_PER_USER);
+    }
+
+    @Benchmark
+    public byte[] serializeTransaction() throws IOException {
+        return objectMapper.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public Transaction deserializeTransaction() throws IOException {
+        return objectMapper.readValue(transactionJson, Transaction.class);
+    }
+
+    @Benchmark
+    public byte[] serializeEvent() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public Event deserializeEvent() throws IOException {
+        return objectMapper.readValue(eventJson, Event.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> transactionToDocument() {
+        return TransactionDocuments.toDocument(transaction);
+    }
+
+    @Benchmark
+    public Transaction transactionFromDocument() {
+        return TransactionDocuments.fromDocument(transaction.getTransactionId(), typedDocument);
+    }
+
+    // Documents written by the sync endpoint keep the app's 0/1 flags and ISO date strings
+    @Benchmark
+    public Transaction transactionFromSyncedDocument() {
+        return TransactionDocuments.fromDocument("txn-0-2", syncedDocument);
+    }
+}
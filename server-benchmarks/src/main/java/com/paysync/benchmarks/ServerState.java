@@ -0,0 +1,93 @@
+package com.paysync.benchmarks;
+
+import com.paysync.server.ServerApplication;
+import com.paysync.server.service.SyncService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The server's Spring context on the in-memory embedded store, seeded through the
+ * sync endpoint's code path with users, shared events, transactions and savings goals.
+ * After {@link #baseline} a slice of the accounts is synced again, so deltas taken
+ * from it return realistic change sets rather than everything or nothing.
+ */
+@State(Scope.Benchmark)
+public class ServerState {
+
+    static final int USERS = 100;
+    static final int EVENTS_PER_USER = 4;
+    static final int MEMBERS_PER_EVENT = 5;
+    static final int GOALS_PER_USER = 2;
+    // Every CHANGED_USER_STRIDE-th user re-syncs after the baseline
+    static final int CHANGED_USER_STRIDE = 10;
+
+    @Param({"100", "1000"})
+    public int transactionsPerUser;
+
+    ConfigurableApplicationContext context;
+    SyncService syncService;
+    String baseline;
+
+    @Setup(Level.Trial)
+    public void start() throws InterruptedException {
+        context = new SpringApplicationBuilder(ServerApplication.class)
+            .web(WebApplicationType.NONE)
+            .run("--paysync.storage.backend=embedded",
+                "--paysync.storage.embedded.path=",
+                "--paysync.sync.coalesce-window-ms=0",
+                "--paysync.recurring.enabled=false",
+                "--spring.devtools.restart.enabled=false",
+                "--logging.level.root=WARN");
+        syncService = context.getBean(SyncService.class);
+
+        Random random = new Random(42);
+        for (int user = 0; user < USERS; user++) {
+            syncService.syncToFirestore(account(random, user));
+        }
+
+        // lastSynced has millisecond resolution, keep the baseline strictly between the two rounds
+        baseline = String.valueOf(System.currentTimeMillis());
+        Thread.sleep(2);
+
+        for (int user = 0; user < USERS; user += CHANGED_USER_STRIDE) {
+            syncService.syncToFirestore(Fixtures.syncPayload(random, user, transactionsPerUser / 10, EVENTS_PER_USER));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    private Map<String, Object> account(Random random, int user) {
+        Map<String, Object> users = new HashMap<>();
+        users.put(Fixtures.userId(user), Fixtures.user(user, EVENTS_PER_USER));
+
+        Map<String, Object> events = new HashMap<>();
+        for (int event = 0; event < EVENTS_PER_USER; event++) {
+            events.put(Fixtures.eventId(user, event), Fixtures.event(user, event, MEMBERS_PER_EVENT, USERS));
+        }
+
+        Map<String, Object> goals = new HashMap<>();
+        for (int goal = 0; goal < GOALS_PER_USER; goal++) {
+            goals.put("goal-" + user + "-" + goal, Fixtures.savingsGoal(user, goal));
+        }
+
+        Map<String, Object> payload = Fixtures.syncPayload(random, user, transactionsPerUser, EVENTS_PER_USER);
+        payload.put("users", users);
+        payload.put("events", events);
+        payload.put("savings_goals", goals);
+        return payload;
+    }
+}
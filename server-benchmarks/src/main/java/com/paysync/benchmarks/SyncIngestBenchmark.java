@@ -0,0 +1,85 @@
+package com.paysync.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.SyncResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POST /api/sync/changes: parsing the request body into nested maps, and the
+ * validate, stamp, normalize and write pass {@code SyncService} makes over them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SyncIngestBenchmark {
+
+    @Param({"100", "1000"})
+    public int documents;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Map<String, Object> template;
+    private byte[] body;
+    private Map<String, Object> payload;
+    private Map<String, Object> unchangedPayload;
+    private long revision;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        template = Fixtures.syncPayload(new Random(7), 0, documents, ServerState.EVENTS_PER_USER);
+        body = objectMapper.writeValueAsBytes(template);
+    }
+
+    @Setup(Level.Iteration)
+    public void writeTemplate(ServerState server) {
+        server.syncService.syncToFirestore(Fixtures.copy(template));
+    }
+
+    // syncToFirestore stamps the maps it is given, so every call gets a fresh copy.
+    // Documents are touched on every call, since unchanged ones are acknowledged without a write
+    @Setup(Level.Invocation)
+    public void copyPayload() {
+        payload = Fixtures.copy(template);
+        String updatedAt = Fixtures.START.plusSeconds(++revision).toString();
+        for (Object documents : payload.values()) {
+            for (Object document : ((Map<?, ?>) documents).values()) {
+                ((Map<String, Object>) document).put("updatedAt", updatedAt);
+            }
+        }
+        unchangedPayload = Fixtures.copy(template);
+    }
+
+    @Benchmark
+    public SyncResult ingest(ServerState server) {
+        return server.syncService.syncToFirestore(payload);
+    }
+
+    // Every document was written with this content during setup
+    @Benchmark
+    public SyncResult ingestUnchanged(ServerState server) {
+        return server.syncService.syncToFirestore(unchangedPayload);
+    }
+
+    @Benchmark
+    public Map<?, ?> parsePayload() throws IOException {
+        return objectMapper.readValue(body, Map.class);
+    }
+}
@@ -0,0 +1,62 @@
+package com.paysync.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.SyncPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sync read paths: user-scoped and global deltas, a page of the paginated delta,
+ * and the full-account response both built in memory and streamed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyncReadBenchmark {
+
+    private static final int PAGE_SIZE = 200;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Benchmark
+    public Map<String, Object> userDelta(ServerState server) {
+        return server.syncService.getUserChangesFromFirestore(Fixtures.userId(0), server.baseline);
+    }
+
+    @Benchmark
+    public Map<String, Object> globalDelta(ServerState server) {
+        return server.syncService.getChangesFromFirestore(server.baseline);
+    }
+
+    @Benchmark
+    public SyncPage changesPage(ServerState server) {
+        return server.syncService.getChangesPage(server.baseline, null, PAGE_SIZE);
+    }
+
+    // Includes serialization, since that is where the buffered response pays for its size
+    @Benchmark
+    public void fullAccount(ServerState server) throws IOException {
+        Map<String, Object> account = server.syncService.getUserDataFromFirestore(Fixtures.userId(0));
+        objectMapper.writeValue(OutputStream.nullOutputStream(), account);
+    }
+
+    @Benchmark
+    public void fullAccountStreamed(ServerState server) throws IOException {
+        server.syncService.streamUserData(Fixtures.userId(0), OutputStream.nullOutputStream());
+    }
+}
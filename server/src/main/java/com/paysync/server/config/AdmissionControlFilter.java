@@ -0,0 +1,79 @@
+package com.paysync.server.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-user admission control for the endpoints that name a user in their path. Each
+ * user gets a token bucket; a request that finds it empty is answered straight away
+ * with 429 and a {@code Retry-After} of when a token will be free, rather than taking
+ * a worker and a store read. A bucket left alone long enough to have refilled is
+ * dropped, which makes no difference to what it admits. Requests that don't name a
+ * user pass through.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    // /api/sync/users/{userId}/..., /transactions/user/{userId}/... and /insights/{userId}/...
+    private static final Pattern USER_PATH = Pattern.compile("^/(?:api/sync/users|transactions/user|insights)/([^/]+)");
+
+    private final double burst;
+    private final double refillPerSecond;
+    private final Cache<String, TokenBucket> buckets;
+    private final Counter rejected;
+
+    public AdmissionControlFilter(int burst, double refillPerSecond, long maxUsers, MeterRegistry meterRegistry) {
+        this.burst = burst;
+        this.refillPerSecond = refillPerSecond;
+        long refillMs = (long) Math.ceil(burst * 1000 / refillPerSecond);
+        this.buckets = Caffeine.newBuilder()
+            .maximumSize(maxUsers)
+            .expireAfterAccess(Duration.ofMillis(Math.max(1000, refillMs)))
+            .build();
+        this.rejected = Counter.builder("paysync.admission.rejected")
+            .description("Requests turned away with 429 because the user's token bucket was empty")
+            .register(meterRegistry);
+    }
+
+    static String userOf(String path) {
+        Matcher matcher = USER_PATH.matcher(path);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String userId = userOf(request.getRequestURI().substring(request.getContextPath().length()));
+        if (userId == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long now = System.nanoTime();
+        long waitNanos = buckets.get(userId, id -> new TokenBucket(burst, refillPerSecond, now)).tryTake(now);
+        if (waitNanos == 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+        rejected.increment();
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"Too many requests, retry after " + retryAfterSeconds + " seconds\"}");
+    }
+}
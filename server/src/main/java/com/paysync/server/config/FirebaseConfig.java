@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -16,7 +17,9 @@ import com.google.firebase.cloud.FirestoreClient;
 
 import jakarta.annotation.PostConstruct;
 
+// Only needed when documents are stored in Firestore
 @Configuration
+@ConditionalOnProperty(name = "paysync.storage.backend", havingValue = "firestore", matchIfMissing = true)
 public class FirebaseConfig {
 
     @PostConstruct
@@ -0,0 +1,45 @@
+package com.paysync.server.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.Firestore;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import com.paysync.server.repository.FirestoreDocumentStore;
+import com.paysync.server.repository.InstrumentedDocumentStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Selects the document store with {@code paysync.storage.backend}: "firestore" (the
+ * default) or "embedded" for a single-node local store that needs no credentials.
+ * Either one is wrapped with the same store metrics.
+ */
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "paysync.storage.backend", havingValue = "firestore", matchIfMissing = true)
+    public DocumentStore firestoreDocumentStore(Firestore firestore, MeterRegistry meterRegistry) {
+        return new InstrumentedDocumentStore(new FirestoreDocumentStore(firestore, meterRegistry), meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "paysync.storage.backend", havingValue = "embedded")
+    public DocumentStore embeddedDocumentStore(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                               @Value("${paysync.storage.embedded.path:./data}") String path,
+                                               @Value("${paysync.storage.embedded.fsync:false}") boolean fsync) {
+        try {
+            // A blank path keeps everything in memory
+            EmbeddedDocumentStore store = new EmbeddedDocumentStore(objectMapper, path.isBlank() ? null : Paths.get(path), fsync);
+            return new InstrumentedDocumentStore(store, meterRegistry);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open embedded store at " + path, e);
+        }
+    }
+}
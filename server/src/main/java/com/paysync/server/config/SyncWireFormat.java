@@ -0,0 +1,71 @@
+package com.paysync.server.config;
+
+/**
+ * Encodings the sync API can read and write. JSON stays the default so older
+ * clients are unaffected; Smile and CBOR are binary Jackson formats that carry the
+ * same documents, and Smile also back-references repeated field names and short
+ * values instead of writing them out on every document.
+ */
+public enum SyncWireFormat {
+    JSON("application/json"),
+    SMILE("application/x-jackson-smile"),
+    CBOR("application/cbor");
+
+    private final String mediaType;
+
+    SyncWireFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * The format an Accept header prefers: the highest quality concrete match, the
+     * earliest listed on a tie, and JSON when nothing matches.
+     */
+    public static SyncWireFormat negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        SyncWireFormat best = JSON;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            SyncWireFormat format = forMediaType(parts[0].trim());
+            if (format == null) {
+                continue;
+            }
+            double quality = quality(parts);
+            if (quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static SyncWireFormat forMediaType(String mediaType) {
+        for (SyncWireFormat format : values()) {
+            if (format.mediaType.equalsIgnoreCase(mediaType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
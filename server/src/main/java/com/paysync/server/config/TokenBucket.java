@@ -0,0 +1,34 @@
+package com.paysync.server.config;
+
+/**
+ * Admits bursts of up to {@code capacity} requests and refills at a steady rate after
+ * that. Times are passed in, in nanoseconds from {@link System#nanoTime()}, so the
+ * bucket is easy to test.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double capacity, double tokensPerSecond, long nowNanos) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.refilledAt = nowNanos;
+    }
+
+    // Takes a token and returns 0, or leaves the bucket as is and returns the nanoseconds until a token is free
+    synchronized long tryTake(long nowNanos) {
+        if (nowNanos > refilledAt) {
+            tokens = Math.min(capacity, tokens + (nowNanos - refilledAt) * tokensPerNano);
+            refilledAt = nowNanos;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
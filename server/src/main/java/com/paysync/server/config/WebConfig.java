@@ -0,0 +1,77 @@
+package com.paysync.server.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    // Streaming responses for large accounts can outlive the container's default async timeout
+    @Value("${paysync.async.request-timeout-ms:300000}")
+    private long asyncRequestTimeoutMs;
+
+    @Value("${paysync.sync.max-inflated-bytes:67108864}")
+    private long maxInflatedBytes;
+
+    // Per-user request rate: burst requests at once, then refill-per-second
+    @Value("${paysync.admission.burst:20}")
+    private int admissionBurst;
+
+    @Value("${paysync.admission.refill-per-second:5}")
+    private double admissionRefillPerSecond;
+
+    @Value("${paysync.admission.max-users:100000}")
+    private long admissionMaxUsers;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(asyncRequestTimeoutMs);
+    }
+
+    // Binary encodings for clients that ask for them, built from Boot's builder so they share the JSON mapper's settings
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        SmileFactory factory = SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build();
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(factory).build());
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    // Responses are gzipped by the connector (server.compression); uploads are inflated here
+    @Bean
+    public FilterRegistrationBean<RequestDecompressionFilter> syncRequestDecompressionFilter() {
+        FilterRegistrationBean<RequestDecompressionFilter> registration =
+            new FilterRegistrationBean<>(new RequestDecompressionFilter(maxInflatedBytes));
+        registration.addUrlPatterns("/api/sync/*");
+        return registration;
+    }
+
+    // Runs before the other filters, so a turned-away request costs as little as possible
+    @Bean
+    @ConditionalOnProperty(name = "paysync.admission.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(MeterRegistry meterRegistry) {
+        FilterRegistrationBean<AdmissionControlFilter> registration = new FilterRegistrationBean<>(
+            new AdmissionControlFilter(admissionBurst, admissionRefillPerSecond, admissionMaxUsers, meterRegistry));
+        registration.addUrlPatterns("/api/sync/*", "/transactions/*", "/insights/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+}
@@ -0,0 +1,23 @@
+package com.paysync.server.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Turns a call that ran past {@code paysync.async.call-timeout-ms} into a 503 the
+ * client can retry, instead of a 500.
+ */
+@RestControllerAdvice
+public class AsyncTimeoutHandler {
+
+    @ExceptionHandler(TimeoutException.class)
+    public ResponseEntity<?> handleTimeout(TimeoutException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .body(Map.of("error", "The request took too long, please retry"));
+    }
+}
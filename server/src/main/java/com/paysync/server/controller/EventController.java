@@ -0,0 +1,42 @@
+package com.paysync.server.controller;
+
+import com.paysync.server.model.EventSummary;
+import com.paysync.server.model.Settlement;
+import com.paysync.server.service.BlockingTasks;
+import com.paysync.server.service.EventSummaryService;
+import com.paysync.server.service.SettlementService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/events")
+public class EventController {
+
+    @Autowired
+    private EventSummaryService eventSummaryService;
+
+    @Autowired
+    private SettlementService settlementService;
+
+    @Autowired
+    private BlockingTasks blockingTasks;
+
+    @GetMapping("/{eventId}/summary")
+    public CompletableFuture<ResponseEntity<EventSummary>> getEventSummary(@PathVariable String eventId) {
+        return blockingTasks.submit(() -> eventSummaryService.getSummary(eventId)).thenApply(ResponseEntity::ok);
+    }
+
+    @PostMapping("/{eventId}/summary/rebuild")
+    public CompletableFuture<ResponseEntity<EventSummary>> rebuildEventSummary(@PathVariable String eventId) {
+        return blockingTasks.submit(() -> eventSummaryService.rebuild(eventId)).thenApply(ResponseEntity::ok);
+    }
+
+    // Transfers between the event's members that settle everyone's share of its spending
+    @GetMapping("/{eventId}/settlement")
+    public CompletableFuture<ResponseEntity<Settlement>> getSettlement(@PathVariable String eventId) {
+        return blockingTasks.submit(() -> settlementService.getSettlement(eventId)).thenApply(ResponseEntity::ok);
+    }
+}
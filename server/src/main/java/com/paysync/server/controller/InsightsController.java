@@ -0,0 +1,54 @@
+package com.paysync.server.controller;
+
+import com.paysync.server.model.InsightBucket;
+import com.paysync.server.service.BlockingTasks;
+import com.paysync.server.service.InsightsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/insights")
+public class InsightsController {
+
+    @Autowired
+    private InsightsService insightsService;
+
+    @Autowired
+    private BlockingTasks blockingTasks;
+
+    // bucket: day, week or month; from/to are epoch millis; offsetMinutes is the client's UTC offset.
+    // Amounts are in the user's default currency unless a currency is given
+    @GetMapping("/{userId}/totals")
+    public CompletableFuture<ResponseEntity<List<InsightBucket>>> getTotals(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "day") String bucket,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "0") int offsetMinutes,
+            @RequestParam(required = false) String currency) {
+        return blockingTasks.submit(() -> insightsService.getTotals(userId, bucket, from, to, offsetMinutes, currency))
+            .thenApply(ResponseEntity::ok);
+    }
+
+    // by: payment-method, event, currency, type (credit/debit) or mode (online/offline)
+    @GetMapping("/{userId}/breakdown")
+    public CompletableFuture<ResponseEntity<List<InsightBucket>>> getBreakdown(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "payment-method") String by,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false) String currency) {
+        return blockingTasks.submit(() -> insightsService.getBreakdown(userId, by, from, to, currency))
+            .thenApply(ResponseEntity::ok);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> handleBadRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+}
@@ -1,11 +1,33 @@
 package com.paysync.server.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.config.RequestDecompressionFilter;
+import com.paysync.server.config.SyncWireFormat;
+import com.paysync.server.model.SyncChanges;
+import com.paysync.server.model.SyncPage;
+import com.paysync.server.model.SyncResult;
+import com.paysync.server.service.BlockingTasks;
+import com.paysync.server.service.ChangeFeedService;
+import com.paysync.server.service.JournaledIngest;
 import com.paysync.server.service.SyncService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/sync")
@@ -14,21 +36,151 @@ public class SyncController {
     @Autowired
     private SyncService syncService;
 
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private JournaledIngest journaledIngest;
+
+    @Autowired
+    private BlockingTasks blockingTasks;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MappingJackson2SmileHttpMessageConverter smileConverter;
+
+    @Autowired
+    private MappingJackson2CborHttpMessageConverter cborConverter;
+
+    @Value("${paysync.sync.default-page-size:200}")
+    private int defaultPageSize;
+
     @PostMapping("/changes")
-    public ResponseEntity<?> syncChanges(@RequestBody Map<String, Object> changes) {
-        syncService.syncToFirestore(changes);
-        return ResponseEntity.ok().build();
+    public CompletableFuture<ResponseEntity<?>> syncChanges(@RequestBody SyncChanges changes,
+                                                            HttpServletRequest request) {
+        recordPayload(request, "changes");
+        CompletableFuture<SyncResult> result;
+        if (!journaledIngest.isEnabled()) {
+            result = blockingTasks.submit(() -> syncService.syncToFirestore(changes));
+        } else if (JournaledIngest.isJournaled(changes)) {
+            result = blockingTasks.withTimeout(journaledIngest.accept(changes));
+        } else {
+            // Versioned documents are checked against the store before they are answered, after what was journaled
+            result = blockingTasks.withTimeout(journaledIngest.drained()
+                .thenCompose(ignored -> blockingTasks.submit(() -> syncService.syncToFirestore(changes))));
+        }
+        return result.thenApply(this::syncResponse);
+    }
+
+    // Same shape as /changes, but each document holds only the fields that changed
+    @PostMapping("/patches")
+    public CompletableFuture<ResponseEntity<?>> syncPatches(@RequestBody SyncChanges patches,
+                                                            HttpServletRequest request) {
+        recordPayload(request, "patches");
+        // Patches apply on top of what the store holds, so they wait for journaled changes to land first
+        CompletableFuture<Void> ready = journaledIngest.isEnabled()
+            ? journaledIngest.drained() : CompletableFuture.completedFuture(null);
+        return blockingTasks.withTimeout(ready.thenCompose(ignored -> blockingTasks.submit(() -> syncService.syncPatches(patches))))
+            .thenApply(this::syncResponse);
+    }
+
+    // 207 tells the client some documents need to be resent
+    private ResponseEntity<?> syncResponse(SyncResult result) {
+        return ResponseEntity.status(result.hasFailures() ? HttpStatus.MULTI_STATUS : HttpStatus.OK).body(result);
+    }
+
+    // A full or stopped journal is temporary, so the client is told to retry
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<?> handleJournalFull(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, "5")
+            .body(Map.of("error", e.getMessage()));
+    }
+
+    // Bytes on the wire, so gzipped uploads count at their compressed size; chunked uploads are left out
+    private void recordPayload(HttpServletRequest request, String endpoint) {
+        Object compressedLength = request.getAttribute(RequestDecompressionFilter.WIRE_BYTES_ATTRIBUTE);
+        long wireBytes = compressedLength != null ? (Long) compressedLength : request.getContentLengthLong();
+        if (wireBytes >= 0) {
+            DistributionSummary.builder("paysync.sync.payload.bytes")
+                .tag("endpoint", endpoint)
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(wireBytes);
+        }
     }
 
     @GetMapping("/changes")
-    public ResponseEntity<?> getChanges(@RequestParam String lastSyncTimestamp) {
-        Map<String, Object> changes = syncService.getChangesFromFirestore(lastSyncTimestamp);
-        return ResponseEntity.ok(changes);
+    public CompletableFuture<ResponseEntity<?>> getChanges(@RequestParam String lastSyncTimestamp,
+                                                           @RequestParam(required = false) Integer limit,
+                                                           @RequestParam(required = false) String pageToken) {
+        // Paginated mode is opt-in so older clients keep the single-response behaviour
+        if (limit != null || pageToken != null) {
+            return blockingTasks.submit(() -> {
+                SyncPage page = syncService.getChangesPage(lastSyncTimestamp, pageToken, limit != null ? limit : defaultPageSize);
+                return ResponseEntity.ok(page);
+            });
+        }
+        return blockingTasks.submit(() -> ResponseEntity.ok(syncService.getChangesFromFirestore(lastSyncTimestamp)));
+    }
+
+    @GetMapping("/users/{userId}/changes")
+    public CompletableFuture<ResponseEntity<?>> getUserChanges(@PathVariable String userId,
+                                                               @RequestParam String lastSyncTimestamp) {
+        return blockingTasks.submit(() -> ResponseEntity.ok(syncService.getUserChangesFromFirestore(userId, lastSyncTimestamp)));
+    }
+
+    // Server-sent change feed; since is a lastSynced value, and a reconnect's Last-Event-ID takes its place
+    @GetMapping(value = "/users/{userId}/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getUserFeed(@PathVariable String userId,
+                                  @RequestParam(required = false) String since,
+                                  @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        String cursor = lastEventId != null && !lastEventId.isBlank() ? lastEventId : since;
+        if (cursor == null) {
+            throw new IllegalArgumentException("since or Last-Event-ID is required");
+        }
+        try {
+            return changeFeedService.subscribe(userId, Long.parseLong(cursor.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
     }
 
     @GetMapping("/users/{userId}")  // Changed from /user/{userId} to /users/{userId}
-    public ResponseEntity<?> getUserData(@PathVariable String userId) {
-        Map<String, Object> userData = syncService.getUserDataFromFirestore(userId);
-        return ResponseEntity.ok(userData);
+    public CompletableFuture<ResponseEntity<?>> getUserData(@PathVariable String userId,
+                                                            @RequestParam(defaultValue = "false") boolean stream,
+                                                            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        if (stream) {
+            // Streamed bodies bypass the message converters, so the encoding is negotiated here
+            SyncWireFormat format = SyncWireFormat.negotiate(accept);
+            ObjectMapper mapper = streamingMapper(format);
+            // Written on the MVC task executor, which runs on virtual threads
+            StreamingResponseBody body = out -> syncService.streamUserData(userId, out, mapper);
+            return CompletableFuture.completedFuture(ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getMediaType()))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(body));
+        }
+        // Concurrent requests for the same account share one read
+        return syncService.readUserData(userId).<ResponseEntity<?>>thenApply(ResponseEntity::ok);
+    }
+
+    private ObjectMapper streamingMapper(SyncWireFormat format) {
+        switch (format) {
+            case SMILE: return smileConverter.getObjectMapper();
+            case CBOR: return cborConverter.getObjectMapper();
+            default: return objectMapper;
+        }
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> handleBadRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
     }
 }
\ No newline at end of file
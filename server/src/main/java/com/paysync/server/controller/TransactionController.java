@@ -1,12 +1,24 @@
 package com.paysync.server.controller;
 
+import com.paysync.server.model.BulkImportResult;
 import com.paysync.server.model.Transaction;
+import com.paysync.server.service.BlockingTasks;
+import com.paysync.server.service.BulkTransactionImporter;
+import com.paysync.server.service.LedgerExportService;
 import com.paysync.server.service.TransactionService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/transactions")
@@ -15,41 +27,123 @@ public class TransactionController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private BulkTransactionImporter bulkImporter;
+
+    @Autowired
+    private LedgerExportService exportService;
+
+    @Autowired
+    private BlockingTasks blockingTasks;
+
+    // Large imports may run as long as the request itself is allowed to
+    @Value("${paysync.async.request-timeout-ms:300000}")
+    private long importTimeoutMs;
+
     @PostMapping
-    public ResponseEntity<Transaction> createTransaction(@RequestBody Transaction transaction) {
-        Transaction createdTransaction = transactionService.createTransaction(transaction);
-        return ResponseEntity.ok(createdTransaction);
+    public CompletableFuture<ResponseEntity<Transaction>> createTransaction(@RequestBody Transaction transaction) {
+        return blockingTasks.withTimeout(transactionService.createTransaction(transaction)).thenApply(ResponseEntity::ok);
+    }
+
+    // Body is CSV with a header row, or one JSON object per line; 207 lists the rows that failed
+    @PostMapping(value = "/bulk", consumes = {"text/csv", "application/x-ndjson"})
+    public CompletableFuture<ResponseEntity<BulkImportResult>> importTransactions(HttpServletRequest request) {
+        BulkTransactionImporter.Format format = request.getContentType().toLowerCase().startsWith("text/csv")
+            ? BulkTransactionImporter.Format.CSV : BulkTransactionImporter.Format.NDJSON;
+        return blockingTasks.submit(() -> bulkImporter.importTransactions(request.getInputStream(), format), importTimeoutMs)
+            .thenApply(result -> ResponseEntity.status(result.hasFailures() ? HttpStatus.MULTI_STATUS : HttpStatus.OK).body(result));
     }
 
     @GetMapping("/{transactionId}")
-    public ResponseEntity<Transaction> getTransaction(@PathVariable String transactionId) {
-        Transaction transaction = transactionService.getTransaction(transactionId);
-        return ResponseEntity.ok(transaction);
+    public CompletableFuture<ResponseEntity<Transaction>> getTransaction(@PathVariable String transactionId) {
+        return blockingTasks.withTimeout(transactionService.getTransaction(transactionId)).thenApply(ResponseEntity::ok);
     }
 
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Transaction>> getUserTransactions(@PathVariable String userId) {
-        List<Transaction> transactions = transactionService.getUserTransactions(userId);
-        return ResponseEntity.ok(transactions);
+    public CompletableFuture<ResponseEntity<List<Transaction>>> getUserTransactions(@PathVariable String userId) {
+        return blockingTasks.withTimeout(transactionService.getUserTransactions(userId)).thenApply(ResponseEntity::ok);
     }
 
     @GetMapping("/event/{eventId}")
-    public ResponseEntity<List<Transaction>> getEventTransactions(@PathVariable String eventId) {
-        List<Transaction> transactions = transactionService.getEventTransactions(eventId);
-        return ResponseEntity.ok(transactions);
+    public CompletableFuture<ResponseEntity<List<Transaction>>> getEventTransactions(@PathVariable String eventId) {
+        return blockingTasks.withTimeout(transactionService.getEventTransactions(eventId)).thenApply(ResponseEntity::ok);
+    }
+
+    // format=csv|ndjson, fields=comma-separated columns, from/to=epoch millis (to is exclusive)
+    @GetMapping("/user/{userId}/export")
+    public ResponseEntity<StreamingResponseBody> exportUserTransactions(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return export(LedgerExportService.Request.of("userId", userId, format, fields, from, to), "user", acceptEncoding);
+    }
+
+    @GetMapping("/event/{eventId}/export")
+    public ResponseEntity<StreamingResponseBody> exportEventTransactions(
+            @PathVariable String eventId,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return export(LedgerExportService.Request.of("eventId", eventId, format, fields, from, to), "event", acceptEncoding);
+    }
+
+    private ResponseEntity<StreamingResponseBody> export(LedgerExportService.Request request, String owner, String acceptEncoding) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        boolean csv = request.getFormat() == LedgerExportService.Format.CSV;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(csv ? "text/csv;charset=UTF-8" : MediaType.APPLICATION_NDJSON_VALUE))
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + owner + "-transactions." + (csv ? "csv" : "ndjson") + "\"")
+            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(out -> exportService.export(request, out, gzip));
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
     }
 
     @PutMapping("/{transactionId}")
-    public ResponseEntity<Transaction> updateTransaction(
+    public CompletableFuture<ResponseEntity<Transaction>> updateTransaction(
             @PathVariable String transactionId,
             @RequestBody Transaction transaction) {
-        Transaction updatedTransaction = transactionService.updateTransaction(transactionId, transaction);
-        return ResponseEntity.ok(updatedTransaction);
+        return blockingTasks.withTimeout(transactionService.updateTransaction(transactionId, transaction))
+            .thenApply(ResponseEntity::ok);
+    }
+
+    // Changes only the fields in the body; values may be in the app's synced form (0/1 flags, ISO-8601 dates)
+    @PatchMapping("/{transactionId}")
+    public CompletableFuture<ResponseEntity<Transaction>> patchTransaction(
+            @PathVariable String transactionId,
+            @RequestBody Map<String, Object> fields) {
+        return blockingTasks.withTimeout(transactionService.patchTransaction(transactionId, fields))
+            .thenApply(ResponseEntity::ok);
     }
 
     @DeleteMapping("/{transactionId}")
-    public ResponseEntity<Void> deleteTransaction(@PathVariable String transactionId) {
-        transactionService.deleteTransaction(transactionId);
-        return ResponseEntity.ok().build();
+    public CompletableFuture<ResponseEntity<Void>> deleteTransaction(@PathVariable String transactionId) {
+        return blockingTasks.withTimeout(transactionService.deleteTransaction(transactionId))
+            .thenApply(deleted -> ResponseEntity.ok().build());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> handleBadRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.paysync.server.model;
+
+public class BulkImportError {
+    // Line of the upload the row starts on
+    private long row;
+    private String error;
+
+    // Default constructor
+    public BulkImportError() {
+    }
+
+    public BulkImportError(long row, String error) {
+        this.row = row;
+        this.error = error;
+    }
+
+    // Getters and Setters
+    public long getRow() { return row; }
+    public void setRow(long row) { this.row = row; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
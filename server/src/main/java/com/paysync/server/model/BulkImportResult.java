@@ -0,0 +1,41 @@
+package com.paysync.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BulkImportResult {
+    private long imported;
+    private long failed;
+    // Only the first errors are listed; failed counts all of them
+    private List<BulkImportError> errors;
+    private boolean errorsTruncated;
+
+    // Default constructor
+    public BulkImportResult() {
+        this.errors = new ArrayList<>();
+    }
+
+    public BulkImportResult(long imported, long failed, List<BulkImportError> errors, boolean errorsTruncated) {
+        this.imported = imported;
+        this.failed = failed;
+        this.errors = errors;
+        this.errorsTruncated = errorsTruncated;
+    }
+
+    public boolean hasFailures() {
+        return failed > 0;
+    }
+
+    // Getters and Setters
+    public long getImported() { return imported; }
+    public void setImported(long imported) { this.imported = imported; }
+
+    public long getFailed() { return failed; }
+    public void setFailed(long failed) { this.failed = failed; }
+
+    public List<BulkImportError> getErrors() { return errors; }
+    public void setErrors(List<BulkImportError> errors) { this.errors = errors; }
+
+    public boolean isErrorsTruncated() { return errorsTruncated; }
+    public void setErrorsTruncated(boolean errorsTruncated) { this.errorsTruncated = errorsTruncated; }
+}
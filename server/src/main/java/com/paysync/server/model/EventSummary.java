@@ -0,0 +1,61 @@
+package com.paysync.server.model;
+
+public class EventSummary {
+    private String eventId;
+    private Double onlineCredit;
+    private Double onlineDebit;
+    private Double offlineCredit;
+    private Double offlineDebit;
+    private Long transactionCount;
+    private Long unconvertedCount;
+    private Double budget;
+    private String currency;
+
+    // Default constructor
+    public EventSummary() {
+        this.onlineCredit = 0.0;
+        this.onlineDebit = 0.0;
+        this.offlineCredit = 0.0;
+        this.offlineDebit = 0.0;
+        this.transactionCount = 0L;
+        this.unconvertedCount = 0L;
+    }
+
+    // Net amounts match Event.onlineAmountOfEvent and Event.offlineAmountOfEvent
+    public Double getOnlineAmountOfEvent() { return onlineCredit - onlineDebit; }
+
+    public Double getOfflineAmountOfEvent() { return offlineCredit - offlineDebit; }
+
+    public Double getTotalDebit() { return onlineDebit + offlineDebit; }
+
+    public Double getRemainingBudget() { return budget == null ? null : budget - getTotalDebit(); }
+
+    // Getters and Setters
+    public String getEventId() { return eventId; }
+    public void setEventId(String eventId) { this.eventId = eventId; }
+
+    public Double getOnlineCredit() { return onlineCredit; }
+    public void setOnlineCredit(Double onlineCredit) { this.onlineCredit = onlineCredit; }
+
+    public Double getOnlineDebit() { return onlineDebit; }
+    public void setOnlineDebit(Double onlineDebit) { this.onlineDebit = onlineDebit; }
+
+    public Double getOfflineCredit() { return offlineCredit; }
+    public void setOfflineCredit(Double offlineCredit) { this.offlineCredit = offlineCredit; }
+
+    public Double getOfflineDebit() { return offlineDebit; }
+    public void setOfflineDebit(Double offlineDebit) { this.offlineDebit = offlineDebit; }
+
+    public Long getTransactionCount() { return transactionCount; }
+    public void setTransactionCount(Long transactionCount) { this.transactionCount = transactionCount; }
+
+    // Transactions left out of the totals because their amount couldn't be converted into the event's currency
+    public Long getUnconvertedCount() { return unconvertedCount; }
+    public void setUnconvertedCount(Long unconvertedCount) { this.unconvertedCount = unconvertedCount; }
+
+    public Double getBudget() { return budget; }
+    public void setBudget(Double budget) { this.budget = budget; }
+
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+}
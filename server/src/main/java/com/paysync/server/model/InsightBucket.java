@@ -0,0 +1,34 @@
+package com.paysync.server.model;
+
+public class InsightBucket {
+    private String key;
+    private Double credit;
+    private Double debit;
+    private Long count;
+
+    // Default constructor
+    public InsightBucket() {
+    }
+
+    public InsightBucket(String key, Double credit, Double debit, Long count) {
+        this.key = key;
+        this.credit = credit;
+        this.debit = debit;
+        this.count = count;
+    }
+
+    public Double getNet() { return credit - debit; }
+
+    // Getters and Setters
+    public String getKey() { return key; }
+    public void setKey(String key) { this.key = key; }
+
+    public Double getCredit() { return credit; }
+    public void setCredit(Double credit) { this.credit = credit; }
+
+    public Double getDebit() { return debit; }
+    public void setDebit(Double debit) { this.debit = debit; }
+
+    public Long getCount() { return count; }
+    public void setCount(Long count) { this.count = count; }
+}
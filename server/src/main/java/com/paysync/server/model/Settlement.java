@@ -0,0 +1,108 @@
+package com.paysync.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Who owes whom in an event: each member's net position after splitting the event's
+ * spending equally, and the transfers that settle every position. Amounts are in the
+ * event's currency.
+ */
+public class Settlement {
+    private String eventId;
+    private Long eventVersion;
+    private String currency;
+    private Double totalSpent;
+    private int unconvertedTransactions;
+    private List<MemberBalance> balances;
+    private List<Transfer> transfers;
+
+    // Default constructor
+    public Settlement() {
+        this.balances = new ArrayList<>();
+        this.transfers = new ArrayList<>();
+    }
+
+    public static class MemberBalance {
+        private String userId;
+        private Double paid;
+        private Double share;
+        private Double net;
+
+        // Default constructor
+        public MemberBalance() {
+        }
+
+        public MemberBalance(String userId, Double paid, Double share, Double net) {
+            this.userId = userId;
+            this.paid = paid;
+            this.share = share;
+            this.net = net;
+        }
+
+        // Getters and Setters
+        public String getUserId() { return userId; }
+        public void setUserId(String userId) { this.userId = userId; }
+
+        // Debits the member made for the event less credits they received
+        public Double getPaid() { return paid; }
+        public void setPaid(Double paid) { this.paid = paid; }
+
+        public Double getShare() { return share; }
+        public void setShare(Double share) { this.share = share; }
+
+        // Positive when the member is owed money, negative when they owe it
+        public Double getNet() { return net; }
+        public void setNet(Double net) { this.net = net; }
+    }
+
+    public static class Transfer {
+        private String from;
+        private String to;
+        private Double amount;
+
+        // Default constructor
+        public Transfer() {
+        }
+
+        public Transfer(String from, String to, Double amount) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+
+        // Getters and Setters
+        public String getFrom() { return from; }
+        public void setFrom(String from) { this.from = from; }
+
+        public String getTo() { return to; }
+        public void setTo(String to) { this.to = to; }
+
+        public Double getAmount() { return amount; }
+        public void setAmount(Double amount) { this.amount = amount; }
+    }
+
+    // Getters and Setters
+    public String getEventId() { return eventId; }
+    public void setEventId(String eventId) { this.eventId = eventId; }
+
+    // The version of the event document the members were read from
+    public Long getEventVersion() { return eventVersion; }
+    public void setEventVersion(Long eventVersion) { this.eventVersion = eventVersion; }
+
+    public String getCurrency() { return currency; }
+    public void setCurrency(String currency) { this.currency = currency; }
+
+    public Double getTotalSpent() { return totalSpent; }
+    public void setTotalSpent(Double totalSpent) { this.totalSpent = totalSpent; }
+
+    // Transactions left out because their amount couldn't be converted into the event's currency
+    public int getUnconvertedTransactions() { return unconvertedTransactions; }
+    public void setUnconvertedTransactions(int unconvertedTransactions) { this.unconvertedTransactions = unconvertedTransactions; }
+
+    public List<MemberBalance> getBalances() { return balances; }
+    public void setBalances(List<MemberBalance> balances) { this.balances = balances; }
+
+    public List<Transfer> getTransfers() { return transfers; }
+    public void setTransfers(List<Transfer> transfers) { this.transfers = transfers; }
+}
@@ -0,0 +1,242 @@
+package com.paysync.server.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.paysync.server.repository.DocumentStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sync upload, {@code {collection: {documentId: document}}}, read straight from the
+ * request stream. Each document is bound into one map as its tokens arrive, with the
+ * fields its {@link SyncCollection} types checked on the way, so nothing is built
+ * twice. A document with a mistyped field, a bad id or version, or in a collection
+ * the app doesn't sync is set aside as rejected and the rest are read on; only a
+ * payload that isn't well-formed at all fails as a whole.
+ */
+@JsonDeserialize(using = SyncChanges.Reader.class)
+public final class SyncChanges {
+
+    private final List<SyncDocument> documents;
+    private final List<SyncWriteResult> rejected;
+
+    public SyncChanges(List<SyncDocument> documents, List<SyncWriteResult> rejected) {
+        this.documents = documents;
+        this.rejected = rejected;
+    }
+
+    public List<SyncDocument> getDocuments() { return documents; }
+
+    // A failed result for each document that didn't pass the schema
+    public List<SyncWriteResult> getRejected() { return rejected; }
+
+    /**
+     * The accepted documents in the shape the app sends them, with each version put
+     * back, so writing this and reading it again gives the same documents.
+     */
+    @JsonValue
+    public Map<String, Map<String, Object>> toWire() {
+        Map<String, Map<String, Object>> wire = new LinkedHashMap<>();
+        for (SyncDocument document : documents) {
+            Map<String, Object> data = document.data();
+            if (document.expectedVersion() != null) {
+                data = new HashMap<>(data);
+                data.put(DocumentStore.VERSION, document.expectedVersion());
+            }
+            wire.computeIfAbsent(document.collection().getCollection(), collection -> new LinkedHashMap<>())
+                .put(document.documentId(), data);
+        }
+        return wire;
+    }
+
+    public static final class Reader extends StdDeserializer<SyncChanges> {
+
+        // Marks a value that doesn't have its field's type; the value's tokens have been consumed
+        private static final Object INVALID = new Object();
+
+        public Reader() {
+            super(SyncChanges.class);
+        }
+
+        @Override
+        public SyncChanges deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                return (SyncChanges) context.handleUnexpectedToken(SyncChanges.class, parser);
+            }
+            // Keyed by collection and id, so a document repeated in the payload is written once, as its last copy
+            Map<String, SyncDocument> documents = new LinkedHashMap<>();
+            List<SyncWriteResult> rejected = new ArrayList<>();
+            for (String name = parser.nextFieldName(); name != null; name = parser.nextFieldName()) {
+                JsonToken token = parser.nextToken();
+                SyncCollection collection = SyncCollection.forName(name);
+                if (collection == null || token != JsonToken.START_OBJECT) {
+                    rejected.add(SyncWriteResult.failed(name, null,
+                        collection == null ? "Unknown collection" : "Collection payload must be an object"));
+                    parser.skipChildren();
+                    continue;
+                }
+                for (String documentId = parser.nextFieldName(); documentId != null; documentId = parser.nextFieldName()) {
+                    parser.nextToken();
+                    SyncDocument document = readDocument(parser, context, collection, documentId, rejected);
+                    if (document != null) {
+                        documents.put(name + "/" + documentId, document);
+                    }
+                }
+            }
+            return new SyncChanges(new ArrayList<>(documents.values()), rejected);
+        }
+
+        // Null, with the reason added to rejected, when the document doesn't pass
+        private static SyncDocument readDocument(JsonParser parser, DeserializationContext context, SyncCollection collection,
+                                                 String documentId, List<SyncWriteResult> rejected) throws IOException {
+            String invalid = null;
+            if (documentId.isBlank() || documentId.contains("/")) {
+                invalid = "Invalid document id";
+            } else if (parser.currentToken() != JsonToken.START_OBJECT) {
+                invalid = "Document payload must be an object";
+            }
+            if (invalid != null) {
+                parser.skipChildren();
+                rejected.add(SyncWriteResult.failed(collection.getCollection(), documentId, invalid));
+                return null;
+            }
+
+            Map<String, Object> data = new HashMap<>(collection.expectedFields() * 4 / 3 + 1);
+            Long version = null;
+            List<String> ids = null;
+            for (String field = parser.nextFieldName(); field != null; field = parser.nextFieldName()) {
+                JsonToken token = parser.nextToken();
+                if (invalid != null) {
+                    parser.skipChildren();
+                } else if (field.equals(DocumentStore.VERSION)) {
+                    if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER
+                            && parser.getLongValue() >= 0) {
+                        version = parser.getLongValue();
+                    } else if (token != JsonToken.VALUE_NULL) {
+                        invalid = "Invalid version: " + parser.getText();
+                        parser.skipChildren();
+                    }
+                } else {
+                    SyncCollection.FieldType type = collection.typeOf(field);
+                    Object value = type == null ? untyped(parser, context) : typed(parser, type);
+                    if (value == INVALID) {
+                        invalid = "Invalid " + field + ": expected " + describe(type);
+                    } else {
+                        data.put(field, value);
+                        if (field.equals(collection.getIdListField()) && value != null) {
+                            ids = normalizedIds(value);
+                        }
+                    }
+                }
+            }
+            if (invalid != null) {
+                rejected.add(SyncWriteResult.failed(collection.getCollection(), documentId, invalid));
+                return null;
+            }
+            return new SyncDocument(collection, documentId, data, version, ids);
+        }
+
+        private static Object typed(JsonParser parser, SyncCollection.FieldType type) throws IOException {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            switch (type) {
+                case STRING:
+                    return token == JsonToken.VALUE_STRING ? parser.getText() : skipped(parser);
+                case NUMBER:
+                    if (token == JsonToken.VALUE_NUMBER_INT) {
+                        return parser.getNumberValue();
+                    }
+                    return token == JsonToken.VALUE_NUMBER_FLOAT ? (Object) parser.getDoubleValue() : skipped(parser);
+                case FLAG:
+                    if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+                        return token == JsonToken.VALUE_TRUE;
+                    }
+                    boolean bit = token == JsonToken.VALUE_NUMBER_INT
+                        && (parser.getLongValue() == 0 || parser.getLongValue() == 1);
+                    return bit ? parser.getNumberValue() : skipped(parser);
+                case TIME:
+                    if (token == JsonToken.VALUE_STRING) {
+                        return parser.getText();
+                    }
+                    return token == JsonToken.VALUE_NUMBER_INT ? parser.getNumberValue() : skipped(parser);
+                default:
+                    if (token == JsonToken.VALUE_STRING) {
+                        return parser.getText();
+                    }
+                    return token == JsonToken.START_ARRAY ? stringList(parser) : skipped(parser);
+            }
+        }
+
+        private static Object stringList(JsonParser parser) throws IOException {
+            List<String> values = new ArrayList<>();
+            boolean valid = true;
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token == JsonToken.VALUE_STRING) {
+                    values.add(parser.getText());
+                } else {
+                    valid = false;
+                    parser.skipChildren();
+                }
+            }
+            return valid ? values : INVALID;
+        }
+
+        private static Object skipped(JsonParser parser) throws IOException {
+            parser.skipChildren();
+            return INVALID;
+        }
+
+        // What Jackson would bind the value to as an Object, without going through it for scalars
+        private static Object untyped(JsonParser parser, DeserializationContext context) throws IOException {
+            switch (parser.currentToken()) {
+                case VALUE_STRING:
+                    return parser.getText();
+                case VALUE_NUMBER_INT:
+                    return parser.getNumberValue();
+                case VALUE_NUMBER_FLOAT:
+                    return parser.getDoubleValue();
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                case VALUE_NULL:
+                    return null;
+                default:
+                    return context.readValue(parser, Object.class);
+            }
+        }
+
+        // Trimmed, without blanks; the app has stored these both as comma-separated text and as arrays
+        private static List<String> normalizedIds(Object value) {
+            List<String> ids = new ArrayList<>();
+            Iterable<String> parts = value instanceof String ? List.of(((String) value).split(",")) : (List<String>) value;
+            for (String id : parts) {
+                if (!id.isBlank()) {
+                    ids.add(id.trim());
+                }
+            }
+            return ids;
+        }
+
+        private static String describe(SyncCollection.FieldType type) {
+            switch (type) {
+                case STRING: return "a string";
+                case NUMBER: return "a number";
+                case FLAG: return "a boolean or 0/1";
+                case TIME: return "an ISO-8601 string or epoch milliseconds";
+                default: return "a comma-separated string or an array of strings";
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.paysync.server.model;
+
+import java.util.Map;
+
+/**
+ * The collections the app syncs and the fields it sends for each, typed the way the
+ * app's SQLite rows arrive: REAL columns as numbers, INTEGER flags as 0/1 or booleans,
+ * TEXT timestamps as ISO strings. Fields not listed here (the app's own bookkeeping
+ * columns) are accepted as they are and stored untouched.
+ */
+public enum SyncCollection {
+
+    USERS("users", "events", "eventIds", Map.ofEntries(
+        Map.entry("userId", FieldType.STRING),
+        Map.entry("username", FieldType.STRING),
+        Map.entry("email", FieldType.STRING),
+        Map.entry("profileImageUrl", FieldType.STRING),
+        Map.entry("defaultCurrency", FieldType.STRING),
+        Map.entry("onlineAmount", FieldType.NUMBER),
+        Map.entry("offlineAmount", FieldType.NUMBER),
+        Map.entry("events", FieldType.ID_LIST),
+        Map.entry("defaultEventId", FieldType.STRING),
+        Map.entry("createdAt", FieldType.TIME),
+        Map.entry("updatedAt", FieldType.TIME))),
+
+    EVENTS("events", "members", "memberIds", Map.ofEntries(
+        Map.entry("eventId", FieldType.STRING),
+        Map.entry("nameOfEvent", FieldType.STRING),
+        Map.entry("createdBy", FieldType.STRING),
+        Map.entry("transactions", FieldType.ID_LIST),
+        Map.entry("onlineAmountOfEvent", FieldType.NUMBER),
+        Map.entry("offlineAmountOfEvent", FieldType.NUMBER),
+        Map.entry("members", FieldType.ID_LIST),
+        Map.entry("currency", FieldType.STRING),
+        Map.entry("budget", FieldType.NUMBER),
+        Map.entry("createdAt", FieldType.TIME),
+        Map.entry("updatedAt", FieldType.TIME))),
+
+    TRANSACTIONS("transactions", null, null, Map.ofEntries(
+        Map.entry("transactionId", FieldType.STRING),
+        Map.entry("userId", FieldType.STRING),
+        Map.entry("eventId", FieldType.STRING),
+        Map.entry("isOnline", FieldType.FLAG),
+        Map.entry("isCredit", FieldType.FLAG),
+        Map.entry("amount", FieldType.NUMBER),
+        Map.entry("currency", FieldType.STRING),
+        Map.entry("paymentMethod", FieldType.STRING),
+        Map.entry("location", FieldType.STRING),
+        Map.entry("dateTime", FieldType.TIME),
+        Map.entry("note", FieldType.STRING),
+        Map.entry("imageUrl", FieldType.STRING),
+        Map.entry("recurring", FieldType.FLAG),
+        Map.entry("recurringType", FieldType.STRING),
+        Map.entry("createdAt", FieldType.TIME),
+        Map.entry("updatedAt", FieldType.TIME))),
+
+    SAVINGS_GOALS("savings_goals", null, null, Map.ofEntries(
+        Map.entry("goalId", FieldType.STRING),
+        Map.entry("userId", FieldType.STRING),
+        Map.entry("goalName", FieldType.STRING),
+        Map.entry("targetAmount", FieldType.NUMBER),
+        Map.entry("currentSavings", FieldType.NUMBER),
+        Map.entry("currency", FieldType.STRING),
+        Map.entry("deadline", FieldType.TIME),
+        Map.entry("status", FieldType.STRING),
+        Map.entry("createdAt", FieldType.TIME),
+        Map.entry("updatedAt", FieldType.TIME)));
+
+    public enum FieldType {
+        STRING,
+        NUMBER,
+        // A boolean, or the 0/1 an INTEGER column holds
+        FLAG,
+        // An ISO-8601 string or epoch milliseconds
+        TIME,
+        // A comma-separated string or an array of strings
+        ID_LIST
+    }
+
+    private final String collection;
+    private final String idListField;
+    private final String normalizedIdsField;
+    private final Map<String, FieldType> fields;
+
+    SyncCollection(String collection, String idListField, String normalizedIdsField, Map<String, FieldType> fields) {
+        this.collection = collection;
+        this.idListField = idListField;
+        this.normalizedIdsField = normalizedIdsField;
+        this.fields = fields;
+    }
+
+    public static SyncCollection forName(String collection) {
+        for (SyncCollection candidate : values()) {
+            if (candidate.collection.equals(collection)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public String getCollection() { return collection; }
+
+    // The id list the server keeps a normalized copy of, or null
+    public String getIdListField() { return idListField; }
+
+    // Where the normalized copy is stored, or null
+    public String getNormalizedIdsField() { return normalizedIdsField; }
+
+    // Null for fields the schema doesn't type
+    public FieldType typeOf(String field) {
+        return fields.get(field);
+    }
+
+    // Room for the typed fields, a few of the app's own, and the fields the server adds
+    int expectedFields() {
+        return fields.size() + 8;
+    }
+}
@@ -0,0 +1,17 @@
+package com.paysync.server.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One document of a sync upload, checked against its collection's
+ * {@link SyncCollection} schema as it was read.
+ *
+ * @param data            the fields as the app sent them, less {@code version}
+ * @param expectedVersion the version the app last received, or null to write unconditionally
+ * @param ids             the collection's id list, normalized to a list, or null when the
+ *                        document doesn't have that field
+ */
+public record SyncDocument(SyncCollection collection, String documentId, Map<String, Object> data,
+                           Long expectedVersion, List<String> ids) {
+}
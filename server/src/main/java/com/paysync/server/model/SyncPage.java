@@ -0,0 +1,31 @@
+package com.paysync.server.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SyncPage {
+    private Map<String, Object> changes;
+    private String nextPageToken;
+    private boolean hasMore;
+
+    // Default constructor
+    public SyncPage() {
+        this.changes = new HashMap<>();
+    }
+
+    public SyncPage(Map<String, Object> changes, String nextPageToken) {
+        this.changes = changes;
+        this.nextPageToken = nextPageToken;
+        this.hasMore = nextPageToken != null;
+    }
+
+    // Getters and Setters
+    public Map<String, Object> getChanges() { return changes; }
+    public void setChanges(Map<String, Object> changes) { this.changes = changes; }
+
+    public String getNextPageToken() { return nextPageToken; }
+    public void setNextPageToken(String nextPageToken) { this.nextPageToken = nextPageToken; }
+
+    public boolean isHasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+}
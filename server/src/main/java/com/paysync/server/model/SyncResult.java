@@ -0,0 +1,48 @@
+package com.paysync.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SyncResult {
+    private int written;
+    private int failed;
+    // Of the failed, those that lost to a newer version of their document
+    private int conflicts;
+    private List<SyncWriteResult> results;
+
+    // Default constructor
+    public SyncResult() {
+        this.results = new ArrayList<>();
+    }
+
+    public SyncResult(List<SyncWriteResult> results) {
+        this.results = results;
+        for (SyncWriteResult result : results) {
+            if (result.isSuccess()) {
+                written++;
+            } else {
+                failed++;
+            }
+            if (result.isConflict()) {
+                conflicts++;
+            }
+        }
+    }
+
+    public boolean hasFailures() {
+        return failed > 0;
+    }
+
+    // Getters and Setters
+    public int getWritten() { return written; }
+    public void setWritten(int written) { this.written = written; }
+
+    public int getFailed() { return failed; }
+    public void setFailed(int failed) { this.failed = failed; }
+
+    public int getConflicts() { return conflicts; }
+    public void setConflicts(int conflicts) { this.conflicts = conflicts; }
+
+    public List<SyncWriteResult> getResults() { return results; }
+    public void setResults(List<SyncWriteResult> results) { this.results = results; }
+}
@@ -0,0 +1,62 @@
+package com.paysync.server.model;
+
+public class SyncWriteResult {
+    private String collection;
+    private String documentId;
+    private boolean success;
+    private String error;
+    // The document's version after the write, when it was written
+    private Long version;
+    // The write was conditional and the document had moved on; the app fetches it and merges
+    private boolean conflict;
+
+    // Default constructor
+    public SyncWriteResult() {
+    }
+
+    public SyncWriteResult(String collection, String documentId, boolean success, String error) {
+        this.collection = collection;
+        this.documentId = documentId;
+        this.success = success;
+        this.error = error;
+    }
+
+    public static SyncWriteResult ok(String collection, String documentId) {
+        return new SyncWriteResult(collection, documentId, true, null);
+    }
+
+    public static SyncWriteResult ok(String collection, String documentId, long version) {
+        SyncWriteResult result = ok(collection, documentId);
+        result.version = version;
+        return result;
+    }
+
+    public static SyncWriteResult conflict(String collection, String documentId, String error) {
+        SyncWriteResult result = failed(collection, documentId, error);
+        result.conflict = true;
+        return result;
+    }
+
+    public static SyncWriteResult failed(String collection, String documentId, String error) {
+        return new SyncWriteResult(collection, documentId, false, error);
+    }
+
+    // Getters and Setters
+    public String getCollection() { return collection; }
+    public void setCollection(String collection) { this.collection = collection; }
+
+    public String getDocumentId() { return documentId; }
+    public void setDocumentId(String documentId) { this.documentId = documentId; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+
+    public boolean isConflict() { return conflict; }
+    public void setConflict(boolean conflict) { this.conflict = conflict; }
+}
@@ -20,6 +20,9 @@ public class Transaction {
     private String recurringType;
     private Timestamp createdAt;
     private Timestamp updatedAt;
+    // Normalized on write by the server
+    private Double amountInEventCurrency;
+    private Double amountInUserCurrency;
 
     // Default constructor
     public Transaction() {
@@ -29,6 +32,28 @@ public class Transaction {
          * All fields will be initialized through setters.
          */
     }
+
+    // A copy that can be changed without affecting this one
+    public Transaction(Transaction other) {
+        this.transactionId = other.transactionId;
+        this.userId = other.userId;
+        this.eventId = other.eventId;
+        this.isOnline = other.isOnline;
+        this.isCredit = other.isCredit;
+        this.amount = other.amount;
+        this.currency = other.currency;
+        this.paymentMethod = other.paymentMethod;
+        this.location = other.location;
+        this.dateTime = other.dateTime;
+        this.note = other.note;
+        this.imageUrl = other.imageUrl;
+        this.recurring = other.recurring;
+        this.recurringType = other.recurringType;
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+        this.amountInEventCurrency = other.amountInEventCurrency;
+        this.amountInUserCurrency = other.amountInUserCurrency;
+    }
         
     
 
@@ -80,4 +105,10 @@ public class Transaction {
 
     public Timestamp getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Timestamp updatedAt) { this.updatedAt = updatedAt; }
+
+    public Double getAmountInEventCurrency() { return amountInEventCurrency; }
+    public void setAmountInEventCurrency(Double amountInEventCurrency) { this.amountInEventCurrency = amountInEventCurrency; }
+
+    public Double getAmountInUserCurrency() { return amountInUserCurrency; }
+    public void setAmountInUserCurrency(Double amountInUserCurrency) { this.amountInUserCurrency = amountInUserCurrency; }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.paysync.server.repository;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The query shapes the services rely on: equality filters, one array-contains
+ * filter, one greater-than filter, ordering by a field then document id, a
+ * keyset cursor, a limit and a field projection. Every backend must support
+ * exactly this set.
+ */
+public class DocumentQuery {
+    private final Map<String, Object> equalTo = new LinkedHashMap<>();
+    private String arrayContainsField;
+    private Object arrayContainsValue;
+    private String greaterThanField;
+    private Object greaterThanValue;
+    private String orderByField;
+    private boolean ordered;
+    private Object startAfterValue;
+    private String startAfterId;
+    private int limit;
+    private Set<String> selectedFields;
+
+    public static DocumentQuery create() {
+        return new DocumentQuery();
+    }
+
+    public DocumentQuery whereEqualTo(String field, Object value) {
+        equalTo.put(field, value);
+        return this;
+    }
+
+    public DocumentQuery whereArrayContains(String field, Object value) {
+        this.arrayContainsField = field;
+        this.arrayContainsValue = value;
+        return this;
+    }
+
+    public DocumentQuery whereGreaterThan(String field, Object value) {
+        this.greaterThanField = field;
+        this.greaterThanValue = value;
+        return this;
+    }
+
+    // Results are ordered by this field, then by document id
+    public DocumentQuery orderBy(String field) {
+        this.orderByField = field;
+        this.ordered = true;
+        return this;
+    }
+
+    public DocumentQuery orderByDocumentId() {
+        this.orderByField = null;
+        this.ordered = true;
+        return this;
+    }
+
+    // Cursor for orderBy(field): the last (value, id) seen
+    public DocumentQuery startAfter(Object value, String documentId) {
+        this.startAfterValue = value;
+        this.startAfterId = documentId;
+        return this;
+    }
+
+    // Cursor for orderByDocumentId()
+    public DocumentQuery startAfter(String documentId) {
+        this.startAfterValue = null;
+        this.startAfterId = documentId;
+        return this;
+    }
+
+    public DocumentQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    // Only these fields are read and returned; without it documents come back whole
+    public DocumentQuery select(String... fields) {
+        this.selectedFields = new LinkedHashSet<>(Arrays.asList(fields));
+        return this;
+    }
+
+    public Map<String, Object> getEqualTo() { return equalTo; }
+    public String getArrayContainsField() { return arrayContainsField; }
+    public Object getArrayContainsValue() { return arrayContainsValue; }
+    public String getGreaterThanField() { return greaterThanField; }
+    public Object getGreaterThanValue() { return greaterThanValue; }
+    public String getOrderByField() { return orderByField; }
+    public boolean isOrdered() { return ordered; }
+    public Object getStartAfterValue() { return startAfterValue; }
+    public String getStartAfterId() { return startAfterId; }
+    public int getLimit() { return limit; }
+    public Set<String> getSelectedFields() { return selectedFields; }
+}
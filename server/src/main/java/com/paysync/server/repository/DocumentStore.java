@@ -0,0 +1,92 @@
+package com.paysync.server.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Storage SPI for the users, events, transactions and savings_goals collections
+ * (and the server's own derived collections). Documents are plain maps. Every
+ * operation is asynchronous; callers that need the result block on the returned
+ * future. The backend is chosen with {@code paysync.storage.backend}.
+ * <p>
+ * Documents of the synced collections are read with a {@link #VERSION}: microseconds
+ * since the epoch that change with every write to the document and only ever grow,
+ * as a Long. It is the store's own bookkeeping, so a version passed back in data is
+ * not written. A write made with {@link DocumentWrite#ifVersion} only applies if
+ * the document still has that version, which is checked as part of the commit.
+ */
+public interface DocumentStore {
+
+    String USERS = "users";
+    String EVENTS = "events";
+    String TRANSACTIONS = "transactions";
+    String SAVINGS_GOALS = "savings_goals";
+    Set<String> SYNCED_COLLECTIONS = Set.of(USERS, EVENTS, TRANSACTIONS, SAVINGS_GOALS);
+
+    String VERSION = "version";
+
+    // A fresh id for a document the caller is about to create
+    String newDocumentId(String collection);
+
+    // Completes with null when the document doesn't exist
+    CompletableFuture<Map<String, Object>> get(String collection, String documentId);
+
+    // Completes with the documents that exist, keyed by id
+    CompletableFuture<Map<String, Map<String, Object>>> getAll(String collection, Collection<String> documentIds);
+
+    CompletableFuture<List<StoredDocument>> query(String collection, DocumentQuery query);
+
+    CompletableFuture<List<String>> listIds(String collection);
+
+    /**
+     * Calls {@code onChange} with the documents matching {@code query}, first those
+     * matching when listening starts and then each batch that is added or modified
+     * while matching, until the subscription is closed. Deletes and documents that
+     * stop matching aren't reported. Calls for one subscription never overlap and
+     * should return quickly. {@code onError} is called at most once, after which
+     * nothing more is delivered.
+     */
+    DocumentSubscription listen(String collection, DocumentQuery query, Consumer<List<StoredDocument>> onChange,
+                                Consumer<Throwable> onError);
+
+    /**
+     * Applies all writes atomically and completes with the commit time, which is also
+     * the version stamped on the synced documents written. Fails with
+     * {@link VersionConflictException}, writing nothing, when a conditional write's
+     * document has moved on.
+     */
+    CompletableFuture<Instant> commit(List<DocumentWrite> writes);
+
+    /**
+     * Atomically reads a document, replaces it with {@code data} (deleting it when
+     * {@code data} is null) and applies the writes {@code related} derives from the
+     * previous version. Completes with the previous version, or null if there was none.
+     */
+    CompletableFuture<Map<String, Object>> replace(String collection, String documentId, Map<String, Object> data,
+                                                   Function<Map<String, Object>, List<DocumentWrite>> related);
+
+    /**
+     * Atomically reads a document, overwrites only {@code fields} and applies the writes
+     * {@code related} derives from the previous version. Fields not given keep whatever
+     * value they have when the write lands. Completes with the previous version, or with
+     * null, writing nothing, if there was none.
+     */
+    CompletableFuture<Map<String, Object>> patch(String collection, String documentId, Map<String, Object> fields,
+                                                 Function<Map<String, Object>, List<DocumentWrite>> related);
+
+    /**
+     * Atomically reads a document (null when there is none) and replaces it with what
+     * {@code update} returns, or leaves it as it is when that is null. {@code update}
+     * may be called more than once and must not have side effects. Completes with the
+     * document as it stands afterwards.
+     */
+    CompletableFuture<Map<String, Object>> compute(String collection, String documentId,
+                                                   UnaryOperator<Map<String, Object>> update);
+}
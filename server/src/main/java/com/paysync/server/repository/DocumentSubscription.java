@@ -0,0 +1,11 @@
+package com.paysync.server.repository;
+
+/**
+ * A live {@link DocumentStore#listen} registration. Closing it stops delivery;
+ * a callback already running may still finish.
+ */
+public interface DocumentSubscription extends AutoCloseable {
+
+    @Override
+    void close();
+}
@@ -0,0 +1,98 @@
+package com.paysync.server.repository;
+
+import com.google.cloud.Timestamp;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Tolerant readers for document fields. Documents written through the REST API are
+ * typed, while documents synced from the app carry SQLite values (0/1 flags, numbers
+ * as strings, ISO-8601 dates), and every backend must read both the same way.
+ */
+public final class DocumentValues {
+
+    private DocumentValues() {
+    }
+
+    public static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    public static boolean asBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        if (value instanceof String) {
+            return "true".equalsIgnoreCase((String) value) || "1".equals(value);
+        }
+        return false;
+    }
+
+    public static double asDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return 0.0;
+            }
+        }
+        return 0.0;
+    }
+
+    public static long toEpochMillis(Object value) {
+        if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            return timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1_000_000;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            String text = (String) value;
+            try {
+                return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // Dart's toIso8601String() omits the offset for local times
+            }
+            try {
+                return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return 0;
+            }
+        }
+        if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli();
+        }
+        return 0;
+    }
+
+    // Null stays null; anything else goes through toEpochMillis
+    public static Timestamp asTimestamp(Object value) {
+        if (value == null || value instanceof Timestamp) {
+            return (Timestamp) value;
+        }
+        return Timestamp.ofTimeMicroseconds(toEpochMillis(value) * 1000);
+    }
+
+    public static Double asNullableDouble(Object value) {
+        return value == null ? null : asDouble(value);
+    }
+
+    public static Boolean asNullableBoolean(Object value) {
+        return value == null ? null : asBoolean(value);
+    }
+}
@@ -0,0 +1,77 @@
+package com.paysync.server.repository;
+
+import java.util.Map;
+
+/**
+ * One write in an atomic {@link DocumentStore#commit} group.
+ */
+public class DocumentWrite {
+
+    public enum Type {
+        // Replace the whole document
+        SET,
+        // Overwrite only the given fields, creating the document if needed
+        MERGE,
+        // Overwrite only the given fields; fails if the document doesn't exist
+        UPDATE,
+        // Add the given numbers to the fields, creating them at zero if needed
+        INCREMENT,
+        DELETE
+    }
+
+    private final Type type;
+    private final String collection;
+    private final String documentId;
+    private final Map<String, Object> data;
+    private final Long expectedVersion;
+
+    private DocumentWrite(Type type, String collection, String documentId, Map<String, Object> data, Long expectedVersion) {
+        this.type = type;
+        this.collection = collection;
+        this.documentId = documentId;
+        this.data = data;
+        this.expectedVersion = expectedVersion;
+    }
+
+    private DocumentWrite(Type type, String collection, String documentId, Map<String, Object> data) {
+        this(type, collection, documentId, data, null);
+    }
+
+    public static DocumentWrite set(String collection, String documentId, Map<String, Object> data) {
+        return new DocumentWrite(Type.SET, collection, documentId, data);
+    }
+
+    public static DocumentWrite merge(String collection, String documentId, Map<String, Object> fields) {
+        return new DocumentWrite(Type.MERGE, collection, documentId, fields);
+    }
+
+    public static DocumentWrite update(String collection, String documentId, Map<String, Object> fields) {
+        return new DocumentWrite(Type.UPDATE, collection, documentId, fields);
+    }
+
+    // Values must be Numbers
+    public static DocumentWrite increment(String collection, String documentId, Map<String, Object> deltas) {
+        return new DocumentWrite(Type.INCREMENT, collection, documentId, deltas);
+    }
+
+    public static DocumentWrite delete(String collection, String documentId) {
+        return new DocumentWrite(Type.DELETE, collection, documentId, null);
+    }
+
+    /**
+     * This write, applied only if the document's {@link DocumentStore#VERSION} is
+     * {@code version} when it commits; 0 means the document must not exist yet. On
+     * Firestore a conditional SET, or a DELETE at version 0, is only supported in
+     * {@link DocumentStore#commit}, which reads the document before staging it.
+     */
+    public DocumentWrite ifVersion(long version) {
+        return new DocumentWrite(type, collection, documentId, data, version);
+    }
+
+    public Type getType() { return type; }
+    public String getCollection() { return collection; }
+    public String getDocumentId() { return documentId; }
+    public Map<String, Object> getData() { return data; }
+    // Null for an unconditional write
+    public Long getExpectedVersion() { return expectedVersion; }
+}
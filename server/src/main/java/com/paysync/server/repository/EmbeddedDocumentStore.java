@@ -0,0 +1,833 @@
+package com.paysync.server.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Single-node {@link DocumentStore} that keeps every document in memory and makes
+ * writes durable by appending each commit as one line to {@code documents.log}.
+ * On startup the log is replayed and rewritten with one entry per live document.
+ * userId and eventId equality, memberIds array-contains and lastSynced ranges are
+ * answered from in-memory indexes; other filters are checked per candidate.
+ * Without a directory nothing is persisted, which suits tests and benchmarks.
+ * Listeners are matched against each commit and called in commit order from a
+ * single notifier thread, outside the store's lock. Versions come from a
+ * {@link HybridClock} read once per commit, and are logged with the commit so a
+ * replay restores them.
+ */
+@Slf4j
+public class EmbeddedDocumentStore implements DocumentStore, Closeable {
+
+    static final String LOG_FILE = "documents.log";
+
+    private static final Set<String> HASH_INDEXED_FIELDS = Set.of("userId", "eventId");
+    private static final Set<String> ARRAY_INDEXED_FIELDS = Set.of("memberIds");
+    private static final String RANGE_INDEXED_FIELD = "lastSynced";
+    private static final String TIMESTAMP_TAG = "$timestamp";
+    private static final Map<String, Object> DELETED = Collections.emptyMap();
+
+    private final ObjectMapper objectMapper;
+    private final Path logPath;
+    private final boolean fsync;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HybridClock clock = new HybridClock();
+    private final Map<String, CollectionData> collections = new HashMap<>();
+    private FileOutputStream logFile;
+    private OutputStream logOut;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService notifier = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "embedded-store-listeners");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final class Listener implements DocumentSubscription {
+        private final String collection;
+        private final DocumentQuery query;
+        private final Consumer<List<StoredDocument>> onChange;
+        private volatile boolean closed;
+
+        Listener(String collection, DocumentQuery query, Consumer<List<StoredDocument>> onChange) {
+            this.collection = collection;
+            this.query = query;
+            this.onChange = onChange;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            listeners.remove(this);
+        }
+    }
+
+    private static final class CollectionData {
+        private final TreeMap<String, Map<String, Object>> documents = new TreeMap<>();
+        // field -> indexed value -> document ids
+        private final Map<String, Map<Object, Set<String>>> valueIndexes = new HashMap<>();
+        private final TreeMap<Double, Set<String>> rangeIndex = new TreeMap<>();
+
+        void put(String id, Map<String, Object> data) {
+            Map<String, Object> previous = documents.put(id, data);
+            if (previous != null) {
+                unindex(id, previous);
+            }
+            index(id, data);
+        }
+
+        void remove(String id) {
+            Map<String, Object> previous = documents.remove(id);
+            if (previous != null) {
+                unindex(id, previous);
+            }
+        }
+
+        private void index(String id, Map<String, Object> data) {
+            for (String field : HASH_INDEXED_FIELDS) {
+                Object value = data.get(field);
+                if (value != null) {
+                    valueIndexes.computeIfAbsent(field, k -> new HashMap<>())
+                        .computeIfAbsent(indexKey(value), k -> new HashSet<>()).add(id);
+                }
+            }
+            for (String field : ARRAY_INDEXED_FIELDS) {
+                if (data.get(field) instanceof List) {
+                    for (Object element : (List<?>) data.get(field)) {
+                        valueIndexes.computeIfAbsent(field, k -> new HashMap<>())
+                            .computeIfAbsent(indexKey(element), k -> new HashSet<>()).add(id);
+                    }
+                }
+            }
+            if (data.get(RANGE_INDEXED_FIELD) instanceof Number) {
+                rangeIndex.computeIfAbsent(((Number) data.get(RANGE_INDEXED_FIELD)).doubleValue(), k -> new HashSet<>()).add(id);
+            }
+        }
+
+        private void unindex(String id, Map<String, Object> data) {
+            for (String field : HASH_INDEXED_FIELDS) {
+                Object value = data.get(field);
+                if (value != null) {
+                    removeFromIndex(valueIndexes.get(field), indexKey(value), id);
+                }
+            }
+            for (String field : ARRAY_INDEXED_FIELDS) {
+                if (data.get(field) instanceof List) {
+                    for (Object element : (List<?>) data.get(field)) {
+                        removeFromIndex(valueIndexes.get(field), indexKey(element), id);
+                    }
+                }
+            }
+            if (data.get(RANGE_INDEXED_FIELD) instanceof Number) {
+                removeFromIndex(rangeIndex, ((Number) data.get(RANGE_INDEXED_FIELD)).doubleValue(), id);
+            }
+        }
+
+        private static <K> void removeFromIndex(Map<K, Set<String>> index, K key, String id) {
+            if (index == null) {
+                return;
+            }
+            Set<String> ids = index.get(key);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+
+        Set<String> indexed(String field, Object value) {
+            Map<Object, Set<String>> index = valueIndexes.get(field);
+            Set<String> ids = index == null ? null : index.get(indexKey(value));
+            return ids == null ? Collections.emptySet() : ids;
+        }
+    }
+
+    public EmbeddedDocumentStore(ObjectMapper objectMapper, Path directory, boolean fsync) throws IOException {
+        this.objectMapper = objectMapper;
+        this.logPath = directory == null ? null : directory.resolve(LOG_FILE);
+        this.fsync = fsync;
+        if (directory != null) {
+            Files.createDirectories(directory);
+            replay();
+            compact();
+            logFile = new FileOutputStream(logPath.toFile(), true);
+            logOut = new BufferedOutputStream(logFile, 64 * 1024);
+        }
+    }
+
+    // Memory-only store
+    public EmbeddedDocumentStore(ObjectMapper objectMapper) throws IOException {
+        this(objectMapper, null, false);
+    }
+
+    @Override
+    public String newDocumentId(String collection) {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> get(String collection, String documentId) {
+        lock.readLock().lock();
+        try {
+            CollectionData data = collections.get(collection);
+            Map<String, Object> document = data == null ? null : data.documents.get(documentId);
+            return CompletableFuture.completedFuture(document == null ? null : copyMap(document));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Map<String, Object>>> getAll(String collection, Collection<String> documentIds) {
+        lock.readLock().lock();
+        try {
+            Map<String, Map<String, Object>> documents = new HashMap<>();
+            CollectionData data = collections.get(collection);
+            if (data != null) {
+                for (String documentId : documentIds) {
+                    Map<String, Object> document = data.documents.get(documentId);
+                    if (document != null) {
+                        documents.put(documentId, copyMap(document));
+                    }
+                }
+            }
+            return CompletableFuture.completedFuture(documents);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<StoredDocument>> query(String collection, DocumentQuery query) {
+        lock.readLock().lock();
+        try {
+            CollectionData data = collections.get(collection);
+            if (data == null) {
+                return CompletableFuture.completedFuture(new ArrayList<>());
+            }
+
+            List<String> matches = new ArrayList<>();
+            for (String id : candidates(data, query)) {
+                if (matches(data.documents.get(id), query)) {
+                    matches.add(id);
+                }
+            }
+
+            // Without an explicit order, Firestore orders by the range field, then by id
+            String orderField = query.isOrdered() ? query.getOrderByField() : query.getGreaterThanField();
+            Comparator<String> byId = Comparator.naturalOrder();
+            Comparator<String> order = orderField == null ? byId
+                : Comparator.<String, Object>comparing(id -> data.documents.get(id).get(orderField), EmbeddedDocumentStore::compareValues)
+                    .thenComparing(byId);
+            matches.sort(order);
+
+            List<StoredDocument> documents = new ArrayList<>();
+            for (String id : matches) {
+                if (query.getStartAfterId() != null && !isAfterCursor(data.documents.get(id), id, orderField, query)) {
+                    continue;
+                }
+                documents.add(new StoredDocument(id, project(data.documents.get(id), query.getSelectedFields())));
+                if (query.getLimit() > 0 && documents.size() == query.getLimit()) {
+                    break;
+                }
+            }
+            return CompletableFuture.completedFuture(documents);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listIds(String collection) {
+        lock.readLock().lock();
+        try {
+            CollectionData data = collections.get(collection);
+            return CompletableFuture.completedFuture(data == null ? new ArrayList<>() : new ArrayList<>(data.documents.keySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public DocumentSubscription listen(String collection, DocumentQuery query, Consumer<List<StoredDocument>> onChange,
+                                       Consumer<Throwable> onError) {
+        Listener listener = new Listener(collection, query, onChange);
+        // Registered under the lock so no commit falls between the initial matches and the first change
+        lock.readLock().lock();
+        try {
+            List<StoredDocument> current = query(collection, query).join();
+            listeners.add(listener);
+            deliver(listener, current);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return listener;
+    }
+
+    @Override
+    public CompletableFuture<Instant> commit(List<DocumentWrite> writes) {
+        lock.writeLock().lock();
+        try {
+            return CompletableFuture.completedFuture(HybridClock.toInstant(apply(writes)));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> replace(String collection, String documentId, Map<String, Object> data,
+                                                          Function<Map<String, Object>, List<DocumentWrite>> related) {
+        lock.writeLock().lock();
+        try {
+            CollectionData existing = collections.get(collection);
+            Map<String, Object> previous = existing == null ? null : existing.documents.get(documentId);
+            Map<String, Object> previousCopy = previous == null ? null : copyMap(previous);
+
+            List<DocumentWrite> writes = new ArrayList<>();
+            writes.add(data == null ? DocumentWrite.delete(collection, documentId) : DocumentWrite.set(collection, documentId, data));
+            writes.addAll(related.apply(previousCopy == null ? null : copyMap(previousCopy)));
+            apply(writes);
+            return CompletableFuture.completedFuture(previousCopy);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> patch(String collection, String documentId, Map<String, Object> fields,
+                                                        Function<Map<String, Object>, List<DocumentWrite>> related) {
+        lock.writeLock().lock();
+        try {
+            CollectionData existing = collections.get(collection);
+            Map<String, Object> previous = existing == null ? null : existing.documents.get(documentId);
+            if (previous == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            Map<String, Object> previousCopy = copyMap(previous);
+
+            List<DocumentWrite> writes = new ArrayList<>();
+            writes.add(DocumentWrite.update(collection, documentId, fields));
+            writes.addAll(related.apply(copyMap(previousCopy)));
+            apply(writes);
+            return CompletableFuture.completedFuture(previousCopy);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> compute(String collection, String documentId,
+                                                          UnaryOperator<Map<String, Object>> update) {
+        lock.writeLock().lock();
+        try {
+            CollectionData existing = collections.get(collection);
+            Map<String, Object> current = existing == null ? null : existing.documents.get(documentId);
+            Map<String, Object> currentCopy = current == null ? null : copyMap(current);
+            Map<String, Object> next = update.apply(currentCopy == null ? null : copyMap(currentCopy));
+            if (next == null) {
+                return CompletableFuture.completedFuture(currentCopy);
+            }
+            apply(List.of(DocumentWrite.set(collection, documentId, next)));
+            return CompletableFuture.completedFuture(copyMap(collections.get(collection).documents.get(documentId)));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        notifier.shutdown();
+        lock.writeLock().lock();
+        try {
+            if (logOut != null) {
+                logOut.flush();
+                logFile.getFD().sync();
+                logOut.close();
+                logOut = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Computes every resulting document first, so an UPDATE of a missing document or a
+     * version conflict fails the whole group before anything is logged, then logs the
+     * group as one line and applies it. Returns the version stamped on the synced
+     * documents written. Callers hold the write lock.
+     */
+    private long apply(List<DocumentWrite> writes) throws IOException {
+        long version = clock.next();
+        Map<String, Map<String, Object>> staged = new LinkedHashMap<>();
+        for (DocumentWrite write : writes) {
+            String key = write.getCollection() + "/" + write.getDocumentId();
+            Map<String, Object> current = staged.containsKey(key) ? staged.get(key) : currentDocument(write);
+            if (current == DELETED) {
+                current = null;
+            }
+            if (write.getExpectedVersion() != null && !hasVersion(current, write.getExpectedVersion())) {
+                throw new VersionConflictException(key + " is no longer at version " + write.getExpectedVersion());
+            }
+            Map<String, Object> next = nextVersion(write, current);
+            if (next != null && SYNCED_COLLECTIONS.contains(write.getCollection())) {
+                next.put(VERSION, version);
+            }
+            staged.put(key, next == null ? DELETED : next);
+        }
+
+        appendToLog(writes, version);
+
+        for (Map.Entry<String, Map<String, Object>> entry : staged.entrySet()) {
+            int slash = entry.getKey().indexOf('/');
+            String collection = entry.getKey().substring(0, slash);
+            String documentId = entry.getKey().substring(slash + 1);
+            if (entry.getValue() == DELETED) {
+                CollectionData data = collections.get(collection);
+                if (data != null) {
+                    data.remove(documentId);
+                }
+            } else {
+                collections.computeIfAbsent(collection, k -> new CollectionData()).put(documentId, entry.getValue());
+            }
+        }
+
+        if (!listeners.isEmpty()) {
+            notifyListeners(staged);
+        }
+        return version;
+    }
+
+    private void notifyListeners(Map<String, Map<String, Object>> staged) {
+        for (Listener listener : listeners) {
+            List<StoredDocument> changed = new ArrayList<>();
+            String prefix = listener.collection + "/";
+            for (Map.Entry<String, Map<String, Object>> entry : staged.entrySet()) {
+                Map<String, Object> document = entry.getValue();
+                if (document != DELETED && entry.getKey().startsWith(prefix) && matches(document, listener.query)) {
+                    String documentId = entry.getKey().substring(prefix.length());
+                    changed.add(new StoredDocument(documentId, project(document, listener.query.getSelectedFields())));
+                }
+            }
+            if (!changed.isEmpty()) {
+                deliver(listener, changed);
+            }
+        }
+    }
+
+    private void deliver(Listener listener, List<StoredDocument> documents) {
+        notifier.execute(() -> {
+            if (listener.closed) {
+                return;
+            }
+            try {
+                listener.onChange.accept(documents);
+            } catch (RuntimeException e) {
+                log.warn("Listener on {} failed", listener.collection, e);
+            }
+        });
+    }
+
+    private Map<String, Object> currentDocument(DocumentWrite write) {
+        CollectionData data = collections.get(write.getCollection());
+        return data == null ? null : data.documents.get(write.getDocumentId());
+    }
+
+    private static boolean hasVersion(Map<String, Object> document, long expected) {
+        if (expected == 0) {
+            return document == null;
+        }
+        return document != null && document.get(VERSION) instanceof Number && ((Number) document.get(VERSION)).longValue() == expected;
+    }
+
+    // Returns null when the write leaves no document
+    private static Map<String, Object> nextVersion(DocumentWrite write, Map<String, Object> current) {
+        switch (write.getType()) {
+            case SET:
+                return copyMap(write.getData());
+            case UPDATE:
+                if (current == null) {
+                    throw new IllegalStateException("No document to update: " + write.getCollection() + "/" + write.getDocumentId());
+                }
+                // fall through
+            case MERGE: {
+                Map<String, Object> merged = current == null ? new HashMap<>() : new HashMap<>(current);
+                merged.putAll(copyMap(write.getData()));
+                return merged;
+            }
+            case INCREMENT: {
+                Map<String, Object> incremented = current == null ? new HashMap<>() : new HashMap<>(current);
+                write.getData().forEach((field, delta) -> incremented.put(field, add(incremented.get(field), (Number) delta)));
+                return incremented;
+            }
+            default:
+                return null;
+        }
+    }
+
+    // Same result types as FieldValue.increment: integers stay Long unless either side is a Double
+    private static Number add(Object current, Number delta) {
+        Number base = current instanceof Number ? (Number) current : 0L;
+        if (base instanceof Double || delta instanceof Double || delta instanceof Float) {
+            return base.doubleValue() + delta.doubleValue();
+        }
+        return base.longValue() + delta.longValue();
+    }
+
+    private void appendToLog(List<DocumentWrite> writes, long version) throws IOException {
+        if (logOut == null) {
+            return;
+        }
+        List<Map<String, Object>> entries = new ArrayList<>(writes.size());
+        for (DocumentWrite write : writes) {
+            Map<String, Object> entry = toLogEntry(write);
+            if (SYNCED_COLLECTIONS.contains(write.getCollection())) {
+                entry.put("v", version);
+            }
+            entries.add(entry);
+        }
+        logOut.write(objectMapper.writeValueAsBytes(entries));
+        logOut.write('\n');
+        logOut.flush();
+        if (fsync) {
+            logFile.getFD().sync();
+        }
+    }
+
+    private Map<String, Object> toLogEntry(DocumentWrite write) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("t", write.getType().name());
+        entry.put("c", write.getCollection());
+        entry.put("id", write.getDocumentId());
+        if (write.getData() != null) {
+            entry.put("d", encode(write.getData()));
+        }
+        return entry;
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<Map<String, Object>> entries;
+                try {
+                    entries = objectMapper.readValue(line, new TypeReference<List<Map<String, Object>>>() {});
+                } catch (IOException e) {
+                    // A torn final line from a crash mid-append; the commit never completed
+                    log.warn("Ignoring unreadable entry at line {} of {}", lines + 1, logPath);
+                    break;
+                }
+                List<DocumentWrite> writes = new ArrayList<>(entries.size());
+                List<Number> versions = new ArrayList<>(entries.size());
+                for (Map<String, Object> entry : entries) {
+                    writes.add(fromLogEntry(entry));
+                    versions.add((Number) entry.get("v"));
+                }
+                replayGroup(writes, versions);
+                lines++;
+            }
+        }
+        log.info("Replayed {} commits from {}", lines, logPath);
+    }
+
+    // Versions are null for entries that don't stamp one, including the SETs written by compact()
+    private void replayGroup(List<DocumentWrite> writes, List<Number> versions) {
+        for (int i = 0; i < writes.size(); i++) {
+            DocumentWrite write = writes.get(i);
+            Map<String, Object> current = currentDocument(write);
+            if (write.getType() == DocumentWrite.Type.UPDATE && current == null) {
+                continue;
+            }
+            Map<String, Object> next = nextVersion(write, current);
+            if (next != null && versions.get(i) != null) {
+                next.put(VERSION, versions.get(i).longValue());
+            }
+            if (next != null && next.get(VERSION) instanceof Number) {
+                clock.observe(((Number) next.get(VERSION)).longValue());
+            }
+            if (next == null) {
+                CollectionData data = collections.get(write.getCollection());
+                if (data != null) {
+                    data.remove(write.getDocumentId());
+                }
+            } else {
+                collections.computeIfAbsent(write.getCollection(), k -> new CollectionData()).put(write.getDocumentId(), next);
+            }
+        }
+    }
+
+    private DocumentWrite fromLogEntry(Map<String, Object> entry) {
+        DocumentWrite.Type type = DocumentWrite.Type.valueOf((String) entry.get("t"));
+        String collection = (String) entry.get("c");
+        String documentId = (String) entry.get("id");
+        Map<String, Object> data = entry.get("d") == null ? null : (Map<String, Object>) decode(entry.get("d"));
+        switch (type) {
+            case SET: return DocumentWrite.set(collection, documentId, data);
+            case MERGE: return DocumentWrite.merge(collection, documentId, data);
+            case UPDATE: return DocumentWrite.update(collection, documentId, data);
+            case INCREMENT: return DocumentWrite.increment(collection, documentId, data);
+            default: return DocumentWrite.delete(collection, documentId);
+        }
+    }
+
+    // Rewrites the log as one SET per live document, replacing the old file atomically
+    private void compact() throws IOException {
+        Path compacted = logPath.resolveSibling(LOG_FILE + ".compact");
+        try (FileOutputStream file = new FileOutputStream(compacted.toFile());
+             OutputStream out = new BufferedOutputStream(file, 64 * 1024)) {
+            for (Map.Entry<String, CollectionData> collection : collections.entrySet()) {
+                for (Map.Entry<String, Map<String, Object>> document : collection.getValue().documents.entrySet()) {
+                    DocumentWrite write = DocumentWrite.set(collection.getKey(), document.getKey(), document.getValue());
+                    out.write(objectMapper.writeValueAsBytes(List.of(toLogEntry(write))));
+                    out.write('\n');
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(compacted, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Collection<String> candidates(CollectionData data, DocumentQuery query) {
+        Collection<String> best = null;
+        for (Map.Entry<String, Object> filter : query.getEqualTo().entrySet()) {
+            if (HASH_INDEXED_FIELDS.contains(filter.getKey())) {
+                Set<String> ids = data.indexed(filter.getKey(), filter.getValue());
+                if (best == null || ids.size() < best.size()) {
+                    best = ids;
+                }
+            }
+        }
+        if (query.getArrayContainsField() != null && ARRAY_INDEXED_FIELDS.contains(query.getArrayContainsField())) {
+            Set<String> ids = data.indexed(query.getArrayContainsField(), query.getArrayContainsValue());
+            if (best == null || ids.size() < best.size()) {
+                best = ids;
+            }
+        }
+        if (best == null && RANGE_INDEXED_FIELD.equals(query.getGreaterThanField())
+                && query.getGreaterThanValue() instanceof Number) {
+            NavigableMap<Double, Set<String>> tail =
+                data.rangeIndex.tailMap(((Number) query.getGreaterThanValue()).doubleValue(), false);
+            List<String> ids = new ArrayList<>();
+            tail.values().forEach(ids::addAll);
+            best = ids;
+        }
+        return best == null ? data.documents.keySet() : best;
+    }
+
+    // Missing fields never match, as in Firestore
+    private static boolean matches(Map<String, Object> document, DocumentQuery query) {
+        for (Map.Entry<String, Object> filter : query.getEqualTo().entrySet()) {
+            Object value = document.get(filter.getKey());
+            if (value == null || compareValues(value, filter.getValue()) != 0) {
+                return false;
+            }
+        }
+        if (query.getArrayContainsField() != null) {
+            Object value = document.get(query.getArrayContainsField());
+            if (!(value instanceof List)
+                    || ((List<?>) value).stream().noneMatch(element -> compareValues(element, query.getArrayContainsValue()) == 0)) {
+                return false;
+            }
+        }
+        if (query.getGreaterThanField() != null) {
+            Object value = document.get(query.getGreaterThanField());
+            if (value == null || typeRank(value) != typeRank(query.getGreaterThanValue())
+                    || compareValues(value, query.getGreaterThanValue()) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAfterCursor(Map<String, Object> document, String id, String orderField, DocumentQuery query) {
+        if (orderField != null) {
+            int byValue = compareValues(document.get(orderField), query.getStartAfterValue());
+            if (byValue != 0) {
+                return byValue > 0;
+            }
+        }
+        return id.compareTo(query.getStartAfterId()) > 0;
+    }
+
+    // Orders values by type first, then within the type, like Firestore's value ordering
+    static int compareValues(Object a, Object b) {
+        int byType = Integer.compare(typeRank(a), typeRank(b));
+        if (byType != 0) {
+            return byType;
+        }
+        if (a instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof Boolean) {
+            return Boolean.compare((Boolean) a, (Boolean) b);
+        }
+        if (a instanceof Timestamp) {
+            return ((Timestamp) a).compareTo((Timestamp) b);
+        }
+        if (a instanceof String) {
+            return ((String) a).compareTo((String) b);
+        }
+        return a == null ? 0 : a.toString().compareTo(b.toString());
+    }
+
+    private static int typeRank(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof Number) {
+            return 2;
+        }
+        if (value instanceof Timestamp) {
+            return 3;
+        }
+        return value instanceof String ? 4 : 5;
+    }
+
+    // Numbers are indexed by value so 5 and 5L land in the same bucket
+    private static Object indexKey(Object value) {
+        return value instanceof Number ? (Object) ((Number) value).doubleValue() : value;
+    }
+
+    /**
+     * Deep copy with the value types Firestore returns: Long and Double for numbers and
+     * Timestamp for dates. Callers freely mutate the maps they pass in and get back.
+     */
+    static Map<String, Object> copyMap(Map<String, Object> map) {
+        Map<String, Object> copy = new HashMap<>(Math.max(4, map.size() * 4 / 3 + 1));
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            copy.put(entry.getKey(), copyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    // Copies only the selected fields, as a Firestore projection query returns them
+    private static Map<String, Object> project(Map<String, Object> document, Set<String> fields) {
+        if (fields == null) {
+            return copyMap(document);
+        }
+        Map<String, Object> copy = new HashMap<>(Math.max(4, fields.size() * 4 / 3 + 1));
+        for (String field : fields) {
+            if (document.containsKey(field)) {
+                copy.put(field, copyValue(document.get(field)));
+            }
+        }
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            return copyMap((Map<String, Object>) value);
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                copy.add(copyValue(element));
+            }
+            return copy;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        if (value instanceof Date) {
+            return Timestamp.of((Date) value);
+        }
+        if (value instanceof Instant) {
+            return Timestamp.ofTimeSecondsAndNanos(((Instant) value).getEpochSecond(), ((Instant) value).getNano());
+        }
+        return value;
+    }
+
+    // JSON has no timestamp type, so timestamps are written as {"$timestamp": "<RFC 3339>"}
+    private static Object encode(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> encoded = new LinkedHashMap<>();
+            ((Map<String, Object>) value).forEach((key, element) -> encoded.put(key, encode(element)));
+            return encoded;
+        }
+        if (value instanceof List) {
+            List<Object> encoded = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                encoded.add(encode(element));
+            }
+            return encoded;
+        }
+        Object copied = copyValue(value);
+        if (copied instanceof Timestamp) {
+            return Collections.singletonMap(TIMESTAMP_TAG, copied.toString());
+        }
+        return copied;
+    }
+
+    private static Object decode(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            if (map.size() == 1 && map.get(TIMESTAMP_TAG) instanceof String) {
+                return Timestamp.parseTimestamp((String) map.get(TIMESTAMP_TAG));
+            }
+            Map<String, Object> decoded = new HashMap<>();
+            map.forEach((key, element) -> decoded.put(key, decode(element)));
+            return decoded;
+        }
+        if (value instanceof List) {
+            List<Object> decoded = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                decoded.add(decode(element));
+            }
+            return decoded;
+        }
+        return copyValue(value);
+    }
+}
@@ -0,0 +1,466 @@
+package com.paysync.server.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.UpdateBuilder;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link DocumentStore} backed by Cloud Firestore. A document's version is its update
+ * time, in microseconds, added to documents of the synced collections as they are read
+ * and never stored, so writes that bypass the server (the app updates some documents
+ * directly) move it too. Conditional writes therefore become update-time preconditions,
+ * which Firestore checks within the commit. Replacing a document at a version also
+ * reads it first, to delete the fields the new version no longer has.
+ */
+public class FirestoreDocumentStore implements DocumentStore {
+
+    // Keeps each getAll request a reasonable size
+    private static final int GET_ALL_CHUNK_SIZE = 500;
+
+    // Ids read per query when listing a collection
+    private static final int LIST_PAGE_SIZE = 1000;
+
+    private final Firestore firestore;
+    private final DistributionSummary getAllChunks;
+
+    public FirestoreDocumentStore(Firestore firestore, MeterRegistry registry) {
+        this.firestore = firestore;
+        this.getAllChunks = DistributionSummary.builder("paysync.firestore.getall.chunks")
+            .description("Firestore getAll requests issued per lookup")
+            .register(registry);
+    }
+
+    @Override
+    public String newDocumentId(String collection) {
+        return firestore.collection(collection).document().getId();
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> get(String collection, String documentId) {
+        return toCompletable(firestore.collection(collection).document(documentId).get())
+            .thenApply(doc -> doc.exists() ? data(collection, doc) : null);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Map<String, Object>>> getAll(String collection, Collection<String> documentIds) {
+        List<CompletableFuture<List<DocumentSnapshot>>> lookups = new ArrayList<>();
+        List<DocumentReference> chunk = new ArrayList<>();
+        for (String documentId : documentIds) {
+            chunk.add(firestore.collection(collection).document(documentId));
+            if (chunk.size() == GET_ALL_CHUNK_SIZE) {
+                lookups.add(toCompletable(firestore.getAll(chunk.toArray(new DocumentReference[0]))));
+                chunk = new ArrayList<>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            lookups.add(toCompletable(firestore.getAll(chunk.toArray(new DocumentReference[0]))));
+        }
+        getAllChunks.record(lookups.size());
+
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            Map<String, Map<String, Object>> documents = new HashMap<>();
+            for (CompletableFuture<List<DocumentSnapshot>> lookup : lookups) {
+                for (DocumentSnapshot doc : lookup.join()) {
+                    if (doc.exists()) {
+                        documents.put(doc.getId(), data(collection, doc));
+                    }
+                }
+            }
+            return documents;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<StoredDocument>> query(String collection, DocumentQuery spec) {
+        return toCompletable(toQuery(collection, spec).get()).thenApply(snapshot -> {
+            List<StoredDocument> documents = new ArrayList<>(snapshot.size());
+            for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                documents.add(new StoredDocument(doc.getId(), data(collection, doc)));
+            }
+            return documents;
+        });
+    }
+
+    @Override
+    public DocumentSubscription listen(String collection, DocumentQuery spec, Consumer<List<StoredDocument>> onChange,
+                                       Consumer<Throwable> onError) {
+        // Firestore runs snapshot callbacks for one listener in order on its own executor
+        ListenerRegistration registration = toQuery(collection, spec).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                onError.accept(error);
+                return;
+            }
+            List<StoredDocument> changed = new ArrayList<>();
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                if (change.getType() != DocumentChange.Type.REMOVED) {
+                    changed.add(new StoredDocument(change.getDocument().getId(), data(collection, change.getDocument())));
+                }
+            }
+            if (!changed.isEmpty()) {
+                onChange.accept(changed);
+            }
+        });
+        return registration::remove;
+    }
+
+    private Query toQuery(String collection, DocumentQuery spec) {
+        Query query = firestore.collection(collection);
+        for (Map.Entry<String, Object> filter : spec.getEqualTo().entrySet()) {
+            query = query.whereEqualTo(filter.getKey(), filter.getValue());
+        }
+        if (spec.getArrayContainsField() != null) {
+            query = query.whereArrayContains(spec.getArrayContainsField(), spec.getArrayContainsValue());
+        }
+        if (spec.getGreaterThanField() != null) {
+            query = query.whereGreaterThan(spec.getGreaterThanField(), spec.getGreaterThanValue());
+        }
+        if (spec.isOrdered()) {
+            if (spec.getOrderByField() != null) {
+                query = query.orderBy(spec.getOrderByField());
+            }
+            query = query.orderBy(FieldPath.documentId());
+            if (spec.getStartAfterId() != null) {
+                query = spec.getOrderByField() != null
+                    ? query.startAfter(spec.getStartAfterValue(), spec.getStartAfterId())
+                    : query.startAfter(spec.getStartAfterId());
+            }
+        }
+        if (spec.getLimit() > 0) {
+            query = query.limit(spec.getLimit());
+        }
+        if (spec.getSelectedFields() != null) {
+            query = query.select(spec.getSelectedFields().toArray(new String[0]));
+        }
+        return query;
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listIds(String collection) {
+        return listIds(collection, null, new ArrayList<>());
+    }
+
+    // Pages through the ids with queries that select no fields, each page chained on the last without blocking
+    private CompletableFuture<List<String>> listIds(String collection, String startAfter, List<String> ids) {
+        Query query = firestore.collection(collection).select(new String[0])
+            .orderBy(FieldPath.documentId())
+            .limit(LIST_PAGE_SIZE);
+        if (startAfter != null) {
+            query = query.startAfter(startAfter);
+        }
+        return toCompletable(query.get()).thenCompose(snapshot -> {
+            for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                ids.add(doc.getId());
+            }
+            if (snapshot.size() < LIST_PAGE_SIZE) {
+                return CompletableFuture.completedFuture(ids);
+            }
+            return listIds(collection, ids.get(ids.size() - 1), ids);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Instant> commit(List<DocumentWrite> writes) {
+        if (writes.size() == 1 && writes.get(0).getType() == DocumentWrite.Type.SET && writes.get(0).getExpectedVersion() == null) {
+            // A single set doesn't need a batch
+            DocumentWrite write = writes.get(0);
+            DocumentReference ref = firestore.collection(write.getCollection()).document(write.getDocumentId());
+            return toCompletable(ref.set(unversioned(write.getData())))
+                .thenApply(FirestoreDocumentStore::commitTime);
+        }
+        boolean conditional = false;
+        List<DocumentReference> readFirst = new ArrayList<>();
+        for (DocumentWrite write : writes) {
+            conditional |= write.getExpectedVersion() != null;
+            if (isReadFirst(write)) {
+                readFirst.add(firestore.collection(write.getCollection()).document(write.getDocumentId()));
+            }
+        }
+        CompletableFuture<Instant> committed = readCurrent(readFirst).thenCompose(current -> {
+            WriteBatch batch = firestore.batch();
+            for (DocumentWrite write : writes) {
+                if (!isReadFirst(write)) {
+                    stage(batch, write);
+                } else if (!stageAgainst(batch, write, current.get(write.getCollection() + "/" + write.getDocumentId()))) {
+                    return CompletableFuture.failedFuture(new VersionConflictException(
+                        write.getCollection() + "/" + write.getDocumentId() + " is no longer at version " + write.getExpectedVersion()));
+                }
+            }
+            return toCompletable(batch.commit())
+                .thenApply(results -> results.isEmpty() ? Instant.now() : commitTime(results.get(0)));
+        });
+        if (!conditional) {
+            return committed;
+        }
+        return committed.exceptionallyCompose(failure -> CompletableFuture.failedFuture(isPreconditionFailure(failure)
+            ? new VersionConflictException("A document written conditionally has changed", failure)
+            : failure));
+    }
+
+    /**
+     * Conditional writes Firestore has no precondition for: replacing a document at a
+     * version, where the fields the new version drops have to be found and deleted, and
+     * deleting a document that must not exist.
+     */
+    private static boolean isReadFirst(DocumentWrite write) {
+        Long expected = write.getExpectedVersion();
+        return expected != null && (write.getType() == DocumentWrite.Type.SET ? expected != 0
+            : write.getType() == DocumentWrite.Type.DELETE && expected == 0);
+    }
+
+    // Keyed by "collection/id"; documents that don't exist are left out
+    private CompletableFuture<Map<String, DocumentSnapshot>> readCurrent(List<DocumentReference> refs) {
+        if (refs.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        return toCompletable(firestore.getAll(refs.toArray(new DocumentReference[0]))).thenApply(docs -> {
+            Map<String, DocumentSnapshot> current = new HashMap<>();
+            for (DocumentSnapshot doc : docs) {
+                if (doc.exists()) {
+                    current.put(doc.getReference().getPath(), doc);
+                }
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Stages a read-first write against the version read, or returns false if that is
+     * already not the expected one. A replacement becomes an update of every field of
+     * the new version plus deletes of the fields it drops, under an update-time
+     * precondition, so the document read is the one replaced. Field names are taken
+     * literally, not as dotted paths. A delete of a document that doesn't exist is
+     * dropped: it has nothing to do, and a create racing it is ordered after it.
+     */
+    private boolean stageAgainst(WriteBatch batch, DocumentWrite write, DocumentSnapshot current) {
+        long expected = write.getExpectedVersion();
+        if (write.getType() == DocumentWrite.Type.DELETE) {
+            return current == null;
+        }
+        if (current == null || current.getUpdateTime() == null || toMicros(current.getUpdateTime()) != expected) {
+            return false;
+        }
+        Map<String, Object> fields = new HashMap<>();
+        Map<String, Object> previous = current.getData();
+        if (previous != null) {
+            for (String field : previous.keySet()) {
+                fields.put(field, FieldValue.delete());
+            }
+        }
+        fields.putAll(unversioned(write.getData()));
+        List<Object> moreFieldsAndValues = new ArrayList<>();
+        FieldPath first = null;
+        Object firstValue = null;
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (first == null) {
+                first = FieldPath.of(field.getKey());
+                firstValue = field.getValue();
+            } else {
+                moreFieldsAndValues.add(FieldPath.of(field.getKey()));
+                moreFieldsAndValues.add(field.getValue());
+            }
+        }
+        if (first == null) {
+            // Nothing on either side; the write still has to fail if the document moves on
+            batch.update(current.getReference(), Map.of(), updatedAt(expected));
+        } else {
+            batch.update(current.getReference(), updatedAt(expected), first, firstValue, moreFieldsAndValues.toArray());
+        }
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> replace(String collection, String documentId, Map<String, Object> data,
+                                                          Function<Map<String, Object>, List<DocumentWrite>> related) {
+        DocumentReference ref = firestore.collection(collection).document(documentId);
+        return toCompletable(firestore.runTransaction(tx -> {
+            DocumentSnapshot previous = tx.get(ref).get();
+            Map<String, Object> previousData = previous.exists() ? data(collection, previous) : null;
+            if (data == null) {
+                tx.delete(ref);
+            } else {
+                tx.set(ref, unversioned(data));
+            }
+            for (DocumentWrite write : related.apply(previousData)) {
+                stage(tx, write);
+            }
+            return previousData;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> patch(String collection, String documentId, Map<String, Object> fields,
+                                                        Function<Map<String, Object>, List<DocumentWrite>> related) {
+        DocumentReference ref = firestore.collection(collection).document(documentId);
+        return toCompletable(firestore.runTransaction(tx -> {
+            DocumentSnapshot previous = tx.get(ref).get();
+            if (!previous.exists()) {
+                return null;
+            }
+            Map<String, Object> previousData = data(collection, previous);
+            tx.update(ref, unversioned(fields));
+            for (DocumentWrite write : related.apply(previousData)) {
+                stage(tx, write);
+            }
+            return previousData;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> compute(String collection, String documentId,
+                                                          UnaryOperator<Map<String, Object>> update) {
+        DocumentReference ref = firestore.collection(collection).document(documentId);
+        return toCompletable(firestore.runTransaction(tx -> {
+            DocumentSnapshot current = tx.get(ref).get();
+            Map<String, Object> currentData = current.exists() ? data(collection, current) : null;
+            Map<String, Object> next = update.apply(currentData);
+            if (next == null) {
+                return currentData;
+            }
+            tx.set(ref, unversioned(next));
+            return next;
+        }));
+    }
+
+    private void stage(UpdateBuilder<?> builder, DocumentWrite write) {
+        if (isReadFirst(write)) {
+            // These need the read commit makes before staging them
+            throw new IllegalArgumentException("Conditional write only supported in commit: " + write.getCollection()
+                + "/" + write.getDocumentId());
+        }
+        DocumentReference ref = firestore.collection(write.getCollection()).document(write.getDocumentId());
+        Map<String, Object> data = write.getData();
+        if (write.getType() == DocumentWrite.Type.INCREMENT) {
+            data = new HashMap<>();
+            for (Map.Entry<String, Object> delta : write.getData().entrySet()) {
+                data.put(delta.getKey(), increment((Number) delta.getValue()));
+            }
+        }
+        if (data != null) {
+            data = unversioned(data);
+        }
+        Long expected = write.getExpectedVersion();
+        if (expected != null) {
+            if (write.getType() == DocumentWrite.Type.DELETE) {
+                builder.delete(ref, updatedAt(expected));
+            } else if (expected == 0) {
+                builder.create(ref, data);
+            } else {
+                builder.update(ref, data, updatedAt(expected));
+            }
+            return;
+        }
+        switch (write.getType()) {
+            case SET:
+                builder.set(ref, data);
+                break;
+            case MERGE:
+            case INCREMENT:
+                builder.set(ref, data, SetOptions.merge());
+                break;
+            case UPDATE:
+                builder.update(ref, data);
+                break;
+            default:
+                builder.delete(ref);
+        }
+    }
+
+    // The version a caller read back with a document is never written
+    private static Map<String, Object> unversioned(Map<String, Object> data) {
+        if (!data.containsKey(VERSION)) {
+            return data;
+        }
+        Map<String, Object> unversioned = new HashMap<>(data);
+        unversioned.remove(VERSION);
+        return unversioned;
+    }
+
+    // Documents of the synced collections carry their update time as their version
+    private static Map<String, Object> data(String collection, DocumentSnapshot doc) {
+        Map<String, Object> data = doc.getData();
+        if (data != null && SYNCED_COLLECTIONS.contains(collection) && doc.getUpdateTime() != null) {
+            data.put(VERSION, toMicros(doc.getUpdateTime()));
+        }
+        return data;
+    }
+
+    private static Precondition updatedAt(long version) {
+        return Precondition.updatedAt(Timestamp.ofTimeMicroseconds(version));
+    }
+
+    private static long toMicros(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000L + timestamp.getNanos() / 1_000;
+    }
+
+    // Update time mismatches, creates of existing documents and updates of missing ones
+    private static boolean isPreconditionFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException) {
+                StatusCode.Code code = ((ApiException) cause).getStatusCode().getCode();
+                return code == StatusCode.Code.FAILED_PRECONDITION || code == StatusCode.Code.ALREADY_EXISTS
+                    || code == StatusCode.Code.NOT_FOUND;
+            }
+        }
+        return false;
+    }
+
+    private static FieldValue increment(Number delta) {
+        if (delta instanceof Double || delta instanceof Float) {
+            return FieldValue.increment(delta.doubleValue());
+        }
+        return FieldValue.increment(delta.longValue());
+    }
+
+    // Kept to the microsecond, as it is also the version of the documents written
+    private static Instant commitTime(WriteResult result) {
+        Timestamp updateTime = result.getUpdateTime();
+        return Instant.ofEpochSecond(updateTime.getSeconds(), updateTime.getNanos());
+    }
+
+    static <T> CompletableFuture<T> toCompletable(ApiFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+}
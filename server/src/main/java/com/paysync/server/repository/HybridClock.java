@@ -0,0 +1,30 @@
+package com.paysync.server.repository;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Hybrid logical clock in microseconds since the epoch. Each reading is the wall
+ * clock when that is ahead of the last one and the last one plus one otherwise, so
+ * readings strictly increase even when the wall clock steps back or many are taken
+ * within a microsecond, and stay close to real time.
+ */
+final class HybridClock {
+
+    private long last;
+
+    synchronized long next() {
+        long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        last = Math.max(now, last + 1);
+        return last;
+    }
+
+    // Moves the clock past a reading taken earlier, e.g. one read back from disk
+    synchronized void observe(long reading) {
+        last = Math.max(last, reading);
+    }
+
+    static Instant toInstant(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+}
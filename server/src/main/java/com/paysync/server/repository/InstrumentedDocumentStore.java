@@ -0,0 +1,165 @@
+package com.paysync.server.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Wraps a {@link DocumentStore} with metrics, the same for every backend:
+ * <ul>
+ *   <li>{@code paysync.store.requests}: a timer with a percentile histogram per
+ *   collection, operation and outcome, measured until the future completes</li>
+ *   <li>{@code paysync.store.documents}: documents read or written per call</li>
+ *   <li>{@code paysync.store.in.flight}: futures not yet completed</li>
+ * </ul>
+ * A commit touching several collections is tagged {@code mixed}. Closing it closes
+ * the wrapped store.
+ */
+public class InstrumentedDocumentStore implements DocumentStore, Closeable {
+
+    private final DocumentStore delegate;
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> documentCounts = new ConcurrentHashMap<>();
+
+    public InstrumentedDocumentStore(DocumentStore delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+        Gauge.builder("paysync.store.in.flight", inFlight, AtomicInteger::get)
+            .description("Document store calls that haven't completed")
+            .register(registry);
+    }
+
+    @Override
+    public String newDocumentId(String collection) {
+        return delegate.newDocumentId(collection);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> get(String collection, String documentId) {
+        return timed(collection, "get", () -> delegate.get(collection, documentId), data -> data == null ? 0 : 1);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Map<String, Object>>> getAll(String collection, Collection<String> documentIds) {
+        return timed(collection, "getAll", () -> delegate.getAll(collection, documentIds), Map::size);
+    }
+
+    @Override
+    public CompletableFuture<List<StoredDocument>> query(String collection, DocumentQuery query) {
+        return timed(collection, "query", () -> delegate.query(collection, query), List::size);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listIds(String collection) {
+        return timed(collection, "listIds", () -> delegate.listIds(collection), List::size);
+    }
+
+    // Not timed, since a subscription has no end; delivered batch sizes are recorded instead
+    @Override
+    public DocumentSubscription listen(String collection, DocumentQuery query, Consumer<List<StoredDocument>> onChange,
+                                       Consumer<Throwable> onError) {
+        DistributionSummary delivered = documentCount(collection, "listen");
+        return delegate.listen(collection, query, documents -> {
+            delivered.record(documents.size());
+            onChange.accept(documents);
+        }, onError);
+    }
+
+    @Override
+    public CompletableFuture<Instant> commit(List<DocumentWrite> writes) {
+        return timed(collectionOf(writes), "commit", () -> delegate.commit(writes), commitTime -> writes.size());
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> replace(String collection, String documentId, Map<String, Object> data,
+                                                          Function<Map<String, Object>, List<DocumentWrite>> related) {
+        return timed(collection, "replace", () -> delegate.replace(collection, documentId, data, related), previous -> 1);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> patch(String collection, String documentId, Map<String, Object> fields,
+                                                        Function<Map<String, Object>, List<DocumentWrite>> related) {
+        return timed(collection, "patch", () -> delegate.patch(collection, documentId, fields, related),
+            previous -> previous == null ? 0 : 1);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> compute(String collection, String documentId,
+                                                          UnaryOperator<Map<String, Object>> update) {
+        return timed(collection, "compute", () -> delegate.compute(collection, documentId, update),
+            document -> document == null ? 0 : 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private <T> CompletableFuture<T> timed(String collection, String operation, Supplier<CompletableFuture<T>> call,
+                                           Function<T, Integer> documents) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            timer(collection, operation, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        return future.whenComplete((value, error) -> {
+            inFlight.decrementAndGet();
+            timer(collection, operation, error == null ? "success" : "error")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (error == null) {
+                documentCount(collection, operation).record(documents.apply(value));
+            }
+        });
+    }
+
+    private Timer timer(String collection, String operation, String outcome) {
+        return timers.computeIfAbsent(collection + '|' + operation + '|' + outcome, key -> Timer.builder("paysync.store.requests")
+            .tags("collection", collection, "operation", operation, "outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry));
+    }
+
+    private DistributionSummary documentCount(String collection, String operation) {
+        return documentCounts.computeIfAbsent(collection + '|' + operation, key -> DistributionSummary.builder("paysync.store.documents")
+            .tags("collection", collection, "operation", operation)
+            .publishPercentileHistogram()
+            .register(registry));
+    }
+
+    private static String collectionOf(List<DocumentWrite> writes) {
+        String collection = null;
+        for (DocumentWrite write : writes) {
+            if (collection == null) {
+                collection = write.getCollection();
+            } else if (!collection.equals(write.getCollection())) {
+                return "mixed";
+            }
+        }
+        return collection == null ? "none" : collection;
+    }
+}
@@ -0,0 +1,20 @@
+package com.paysync.server.repository;
+
+import java.util.Map;
+
+public class StoredDocument {
+    private final String id;
+    private final Map<String, Object> data;
+
+    public StoredDocument(String id, Map<String, Object> data) {
+        this.id = id;
+        this.data = data;
+    }
+
+    public String getId() { return id; }
+    public Map<String, Object> getData() { return data; }
+
+    public Object get(String field) {
+        return data.get(field);
+    }
+}
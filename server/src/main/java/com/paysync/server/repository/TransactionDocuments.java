@@ -0,0 +1,87 @@
+package com.paysync.server.repository;
+
+import com.paysync.server.model.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps {@link Transaction} to and from its stored document, with the same field
+ * names Firestore's bean mapper uses, so typed and synced documents stay interchangeable.
+ */
+public final class TransactionDocuments {
+
+    // Set by the server whenever a transaction is written
+    private static final Set<String> SERVER_FIELDS = Set.of("transactionId", "amountInEventCurrency", "amountInUserCurrency");
+
+    private TransactionDocuments() {
+    }
+
+    public static Map<String, Object> toDocument(Transaction transaction) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("transactionId", transaction.getTransactionId());
+        data.put("userId", transaction.getUserId());
+        data.put("eventId", transaction.getEventId());
+        data.put("isOnline", transaction.getIsOnline());
+        data.put("isCredit", transaction.getIsCredit());
+        data.put("amount", transaction.getAmount());
+        data.put("currency", transaction.getCurrency());
+        data.put("paymentMethod", transaction.getPaymentMethod());
+        data.put("location", transaction.getLocation());
+        data.put("dateTime", transaction.getDateTime());
+        data.put("note", transaction.getNote());
+        data.put("imageUrl", transaction.getImageUrl());
+        data.put("recurring", transaction.getRecurring());
+        data.put("recurringType", transaction.getRecurringType());
+        data.put("createdAt", transaction.getCreatedAt());
+        data.put("updatedAt", transaction.getUpdatedAt());
+        data.put("amountInEventCurrency", transaction.getAmountInEventCurrency());
+        data.put("amountInUserCurrency", transaction.getAmountInUserCurrency());
+        return data;
+    }
+
+    /**
+     * The stored form of just the given fields, with values read the way
+     * {@link #fromDocument} reads them. Throws IllegalArgumentException for fields a
+     * transaction doesn't have or that the server sets.
+     */
+    public static Map<String, Object> toFields(String transactionId, Map<String, Object> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("Patch must change at least one field");
+        }
+        Map<String, Object> document = toDocument(fromDocument(transactionId, fields));
+        Map<String, Object> converted = new HashMap<>();
+        for (String field : fields.keySet()) {
+            if (!document.containsKey(field) || SERVER_FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Cannot patch transaction field: " + field);
+            }
+            converted.put(field, document.get(field));
+        }
+        return converted;
+    }
+
+    // Also reads documents synced from the app, which Firestore's toObject() rejects
+    public static Transaction fromDocument(String transactionId, Map<String, Object> data) {
+        Transaction transaction = new Transaction();
+        transaction.setTransactionId(transactionId);
+        transaction.setUserId(DocumentValues.asString(data.get("userId")));
+        transaction.setEventId(DocumentValues.asString(data.get("eventId")));
+        transaction.setIsOnline(DocumentValues.asNullableBoolean(data.get("isOnline")));
+        transaction.setIsCredit(DocumentValues.asNullableBoolean(data.get("isCredit")));
+        transaction.setAmount(DocumentValues.asNullableDouble(data.get("amount")));
+        transaction.setCurrency(DocumentValues.asString(data.get("currency")));
+        transaction.setPaymentMethod(DocumentValues.asString(data.get("paymentMethod")));
+        transaction.setLocation(DocumentValues.asString(data.get("location")));
+        transaction.setDateTime(DocumentValues.asTimestamp(data.get("dateTime")));
+        transaction.setNote(DocumentValues.asString(data.get("note")));
+        transaction.setImageUrl(DocumentValues.asString(data.get("imageUrl")));
+        transaction.setRecurring(DocumentValues.asNullableBoolean(data.get("recurring")));
+        transaction.setRecurringType(DocumentValues.asString(data.get("recurringType")));
+        transaction.setCreatedAt(DocumentValues.asTimestamp(data.get("createdAt")));
+        transaction.setUpdatedAt(DocumentValues.asTimestamp(data.get("updatedAt")));
+        transaction.setAmountInEventCurrency(DocumentValues.asNullableDouble(data.get("amountInEventCurrency")));
+        transaction.setAmountInUserCurrency(DocumentValues.asNullableDouble(data.get("amountInUserCurrency")));
+        return transaction;
+    }
+}
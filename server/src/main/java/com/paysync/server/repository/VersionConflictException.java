@@ -0,0 +1,16 @@
+package com.paysync.server.repository;
+
+/**
+ * A conditional write found its document at a different version than it expected,
+ * so the commit it was part of wrote nothing.
+ */
+public class VersionConflictException extends RuntimeException {
+
+    public VersionConflictException(String message) {
+        super(message);
+    }
+
+    public VersionConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
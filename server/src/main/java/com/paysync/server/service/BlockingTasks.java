@@ -0,0 +1,88 @@
+package com.paysync.server.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs work that still blocks on the document store on virtual threads, so request
+ * threads are released while it waits. Every future returned here fails with a
+ * {@link java.util.concurrent.TimeoutException} after {@code paysync.async.call-timeout-ms};
+ * a timed-out or cancelled task is interrupted, which abandons its pending reads.
+ * {@code paysync.tasks.wait} measures how long tasks waited to start and
+ * {@code paysync.tasks.in.flight} counts those whose result is still pending.
+ */
+@Component
+public class BlockingTasks {
+
+    @Value("${paysync.async.call-timeout-ms:60000}")
+    private long callTimeoutMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Owned here rather than exposed as a bean, which would replace Boot's applicationTaskExecutor
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Timer waitTimer;
+
+    @PostConstruct
+    public void initialize() {
+        waitTimer = Timer.builder("paysync.tasks.wait")
+            .description("Time from submitting a blocking task until it starts running")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        Gauge.builder("paysync.tasks.in.flight", inFlight, AtomicInteger::get)
+            .description("Blocking tasks whose result is still pending")
+            .register(meterRegistry);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(task, callTimeoutMs);
+    }
+
+    // For the few operations, like full rebuilds, that are expected to outlast the call timeout
+    public <T> CompletableFuture<T> submit(Callable<T> task, long timeoutMs) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        inFlight.incrementAndGet();
+        Future<?> running = executor.submit(() -> {
+            waitTimer.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            inFlight.decrementAndGet();
+            if (error != null) {
+                running.cancel(true);
+            }
+        });
+        return result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Applies the call timeout to a future that doesn't need a thread of its own
+    public <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future) {
+        return future.orTimeout(callTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,423 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import com.paysync.server.model.BulkImportError;
+import com.paysync.server.model.BulkImportResult;
+import com.paysync.server.model.Transaction;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.TransactionDocuments;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+/**
+ * Imports transactions from a CSV or NDJSON upload. Rows are parsed as they arrive,
+ * validated one by one and committed in batches together with their event totals,
+ * with a bounded number of batches in flight. While that many are pending, reading
+ * the upload pauses, so memory use depends on the batch settings and not on the
+ * size of the upload. Transaction ids are assigned here, as for POST /transactions.
+ */
+@Service
+@Slf4j
+public class BulkTransactionImporter {
+
+    public enum Format { CSV, NDJSON }
+
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    // Every row adds one write and at most one event total, so this keeps commits under 500 writes
+    private static final int MAX_BATCH_SIZE = 250;
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final String[] REQUIRED_COLUMNS = {"userId", "amount", "dateTime"};
+
+    private static final Pattern CURRENCY_CODE = Pattern.compile("[A-Za-z]{3}");
+
+    @Value("${paysync.bulk.batch-size:200}")
+    private int batchSize;
+
+    @Value("${paysync.bulk.max-in-flight-batches:4}")
+    private int maxInFlight;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private CurrencyService currencyService;
+
+    @Autowired
+    private EventSummaryService eventSummaryService;
+
+    @Autowired
+    private TransactionCache transactionCache;
+
+    @Autowired
+    private List<TransactionChangeListener> changeListeners;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final class Row {
+        final long line;
+        final Transaction transaction;
+
+        Row(long line, Transaction transaction) {
+            this.line = line;
+            this.transaction = transaction;
+        }
+    }
+
+    // Rows of the upload; next() returns null at the end
+    private interface RowSource {
+        Map<String, ?> next() throws IOException;
+
+        long line();
+    }
+
+    private static final class Report {
+        private long imported;
+        private long failed;
+        private final List<BulkImportError> errors = new ArrayList<>();
+
+        synchronized void imported(int rows) {
+            imported += rows;
+        }
+
+        synchronized void failed(long line, String error) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new BulkImportError(line, error));
+            }
+        }
+
+        synchronized BulkImportResult toResult() {
+            errors.sort(Comparator.comparingLong(BulkImportError::getRow));
+            return new BulkImportResult(imported, failed, new ArrayList<>(errors), failed > errors.size());
+        }
+    }
+
+    public BulkImportResult importTransactions(InputStream in, Format format) throws IOException {
+        int rowsPerBatch = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        int permitCount = Math.max(1, maxInFlight);
+        Semaphore permits = new Semaphore(permitCount);
+        Report report = new Report();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        RowSource rows = format == Format.CSV ? csvRows(reader) : ndjsonRows(reader);
+        List<Row> batch = new ArrayList<>(rowsPerBatch);
+        try {
+            while (true) {
+                Map<String, ?> fields;
+                try {
+                    fields = rows.next();
+                } catch (CsvRowReader.MalformedRowException e) {
+                    report.failed(rows.line(), e.getMessage() + "; the rest of the file was not read");
+                    break;
+                } catch (IllegalArgumentException e) {
+                    report.failed(rows.line(), e.getMessage());
+                    continue;
+                }
+                if (fields == null) {
+                    break;
+                }
+
+                try {
+                    batch.add(new Row(rows.line(), parseRow(fields)));
+                } catch (IllegalArgumentException e) {
+                    report.failed(rows.line(), e.getMessage());
+                    continue;
+                }
+                if (batch.size() == rowsPerBatch) {
+                    submit(batch, permits, report);
+                    batch = new ArrayList<>(rowsPerBatch);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch, permits, report);
+            }
+
+            // Wait for the batches still in flight
+            permits.acquire(permitCount);
+            permits.release(permitCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while importing transactions", e);
+        }
+        return report.toResult();
+    }
+
+    private RowSource csvRows(BufferedReader reader) throws IOException {
+        CsvRowReader csv = new CsvRowReader(reader);
+        for (String column : REQUIRED_COLUMNS) {
+            if (!csv.getHeader().contains(column)) {
+                throw new IllegalArgumentException("CSV header is missing the " + column + " column");
+            }
+        }
+        return new RowSource() {
+            @Override
+            public Map<String, ?> next() throws IOException {
+                return csv.next();
+            }
+
+            @Override
+            public long line() {
+                return csv.getRecordLine();
+            }
+        };
+    }
+
+    private RowSource ndjsonRows(BufferedReader reader) {
+        return new RowSource() {
+            private long line;
+
+            @Override
+            public Map<String, ?> next() throws IOException {
+                String text;
+                do {
+                    text = reader.readLine();
+                    line++;
+                } while (text != null && text.isBlank());
+                if (text == null) {
+                    return null;
+                }
+                if (text.length() > MAX_LINE_LENGTH) {
+                    throw new IllegalArgumentException("Line is longer than " + MAX_LINE_LENGTH + " characters");
+                }
+                try {
+                    return objectMapper.readValue(text, Map.class);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+                }
+            }
+
+            @Override
+            public long line() {
+                return line;
+            }
+        };
+    }
+
+    // Blocks while maxInFlight batches are pending, which is what pauses reading the upload
+    private void submit(List<Row> batch, Semaphore permits, Report report) throws InterruptedException {
+        permits.acquire();
+        CompletableFuture<?> commit;
+        try {
+            commit = commit(batch);
+        } catch (RuntimeException e) {
+            permits.release();
+            failAll(batch, report, e);
+            return;
+        }
+        commit.whenComplete((result, failure) -> {
+            try {
+                if (failure == null) {
+                    report.imported(batch.size());
+                } else {
+                    failAll(batch, report, failure);
+                }
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private CompletableFuture<?> commit(List<Row> batch) {
+        Timestamp now = Timestamp.now();
+        long syncedAt = System.currentTimeMillis();
+        List<SyncBatchWriter.PendingWrite> documents = new ArrayList<>(batch.size());
+        for (Row row : batch) {
+            Transaction transaction = row.transaction;
+            transaction.setTransactionId(documentStore.newDocumentId(DocumentStore.TRANSACTIONS));
+            transaction.setCreatedAt(now);
+            transaction.setUpdatedAt(now);
+            Map<String, Object> document = TransactionDocuments.toDocument(transaction);
+            // Delta sync and the change feed deliver documents by this stamp
+            document.put("lastSynced", syncedAt);
+            documents.add(new SyncBatchWriter.PendingWrite(DocumentStore.TRANSACTIONS, transaction.getTransactionId(), document));
+        }
+        // One currency lookup per collection for the whole batch
+        currencyService.normalizeDocuments(documents);
+
+        List<DocumentWrite> writes = new ArrayList<>(documents.size() * 2);
+        List<LedgerEntry> entries = new ArrayList<>(documents.size());
+        EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+        for (SyncBatchWriter.PendingWrite document : documents) {
+            LedgerEntry entry = LedgerEntry.fromDocument(document.getDocumentId(), document.getData());
+            entries.add(entry);
+            deltas.add(null, entry);
+            writes.add(DocumentWrite.set(DocumentStore.TRANSACTIONS, document.getDocumentId(), document.getData()));
+        }
+        writes.addAll(eventSummaryService.writes(deltas));
+
+        return documentStore.commit(writes).thenRun(() -> {
+            for (int i = 0; i < documents.size(); i++) {
+                SyncBatchWriter.PendingWrite document = documents.get(i);
+                transactionCache.created(TransactionDocuments.fromDocument(document.getDocumentId(), document.getData()));
+                for (TransactionChangeListener listener : changeListeners) {
+                    listener.onTransactionChanged(null, entries.get(i));
+                }
+            }
+        });
+    }
+
+    private void failAll(List<Row> batch, Report report, Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        log.warn("Import batch of {} rows failed: {}", batch.size(), cause.getMessage());
+        for (Row row : batch) {
+            report.failed(row.line, "Write failed: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Validates one row against the {@link Transaction} model. CSV rows carry strings
+     * and NDJSON rows carry JSON values; both are accepted for every field. Unknown
+     * columns are ignored.
+     */
+    static Transaction parseRow(Map<String, ?> fields) {
+        Transaction transaction = new Transaction();
+        transaction.setUserId(documentId(fields, "userId", true));
+        transaction.setEventId(documentId(fields, "eventId", false));
+        transaction.setAmount(amount(fields));
+        transaction.setIsCredit(flag(fields, "isCredit"));
+        transaction.setIsOnline(flag(fields, "isOnline"));
+        transaction.setRecurring(flag(fields, "recurring"));
+        transaction.setCurrency(currency(fields));
+        transaction.setDateTime(dateTime(fields));
+        transaction.setPaymentMethod(text(fields, "paymentMethod"));
+        transaction.setLocation(text(fields, "location"));
+        transaction.setNote(text(fields, "note"));
+        transaction.setImageUrl(text(fields, "imageUrl"));
+        transaction.setRecurringType(text(fields, "recurringType"));
+        return transaction;
+    }
+
+    // Blank values count as missing
+    private static String text(Map<String, ?> fields, String field) {
+        Object value = fields.get(field);
+        if (value == null) {
+            return null;
+        }
+        String text = value.toString().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static String documentId(Map<String, ?> fields, String field, boolean required) {
+        String id = text(fields, field);
+        if (id == null) {
+            if (required) {
+                throw new IllegalArgumentException(field + " is required");
+            }
+            return null;
+        }
+        if (id.contains("/")) {
+            throw new IllegalArgumentException(field + " must not contain '/'");
+        }
+        return id;
+    }
+
+    private static double amount(Map<String, ?> fields) {
+        Object value = fields.get("amount");
+        double amount;
+        if (value instanceof Number) {
+            amount = ((Number) value).doubleValue();
+        } else {
+            String text = text(fields, "amount");
+            if (text == null) {
+                throw new IllegalArgumentException("amount is required");
+            }
+            try {
+                amount = Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("amount must be a number");
+            }
+        }
+        if (Double.isNaN(amount) || Double.isInfinite(amount) || amount < 0) {
+            throw new IllegalArgumentException("amount must be a non-negative number");
+        }
+        return amount;
+    }
+
+    // Accepts the app's 0/1 flags as well as booleans; missing means false
+    private static boolean flag(Map<String, ?> fields, String field) {
+        Object value = fields.get(field);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        String text = value instanceof Number ? value.toString() : text(fields, field);
+        if (text == null) {
+            return false;
+        }
+        switch (text.toLowerCase()) {
+            case "true":
+            case "1":
+                return true;
+            case "false":
+            case "0":
+                return false;
+            default:
+                throw new IllegalArgumentException(field + " must be true, false, 1 or 0");
+        }
+    }
+
+    private static String currency(Map<String, ?> fields) {
+        String currency = text(fields, "currency");
+        if (currency == null) {
+            return null;
+        }
+        if (!CURRENCY_CODE.matcher(currency).matches()) {
+            throw new IllegalArgumentException("currency must be a three-letter code");
+        }
+        return currency.toUpperCase();
+    }
+
+    // ISO-8601 with or without an offset (no offset means UTC), a plain date, or epoch millis
+    private static Timestamp dateTime(Map<String, ?> fields) {
+        Object value = fields.get("dateTime");
+        if (value instanceof Number) {
+            return Timestamp.ofTimeMicroseconds(((Number) value).longValue() * 1000);
+        }
+        String text = text(fields, "dateTime");
+        if (text == null) {
+            throw new IllegalArgumentException("dateTime is required");
+        }
+        try {
+            return Timestamp.ofTimeMicroseconds(OffsetDateTime.parse(text).toInstant().toEpochMilli() * 1000);
+        } catch (DateTimeParseException e) {
+            // Fall through to the formats without an offset
+        }
+        try {
+            return Timestamp.ofTimeMicroseconds(LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli() * 1000);
+        } catch (DateTimeParseException e) {
+            // Fall through to a plain date
+        }
+        try {
+            return Timestamp.ofTimeMicroseconds(LocalDate.parse(text).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli() * 1000);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("dateTime must be an ISO-8601 date or date-time");
+        }
+    }
+}
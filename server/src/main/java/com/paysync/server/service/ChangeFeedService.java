@@ -0,0 +1,443 @@
+package com.paysync.server.service;
+
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentSubscription;
+import com.paysync.server.repository.StoredDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes a user's changes over server-sent events instead of leaving the app to poll
+ * {@code /api/sync/changes}. Changes come from document store listeners grouped into
+ * topics: one per user (their user document, transactions, savings goals and the
+ * events they belong to) and one per event (its document and every member's
+ * transactions). A topic is opened by its first subscriber and closed with its
+ * last, so all members of an event share one listener. A connection subscribes to
+ * its user's topic and to each event the user is a member of, following membership
+ * as it changes. A member who is removed is sent the event document that removes
+ * them before their connection leaves the event's topic.
+ * <p>
+ * Each event is a {@code changes} message shaped like the delta sync response, and
+ * its id is a lastSynced cursor: reconnecting with it as {@code Last-Event-ID} first
+ * replays what changed after it, then continues live. A write can commit after one
+ * stamped later has been sent, so the replay reaches back
+ * {@code paysync.feed.listen-overlap-ms} before the cursor, and the app may be sent
+ * documents it already has. Changes are coalesced for
+ * {@code paysync.feed.batch-window-ms} before being sent. A connection that falls
+ * more than {@code paysync.feed.max-queued-documents} behind drops its queue and
+ * catches up from its cursor instead, so a slow client costs bounded memory.
+ */
+@Slf4j
+@Service
+public class ChangeFeedService {
+
+    private static final String USER_TOPIC = "user:";
+    private static final String EVENT_TOPIC = "event:";
+
+    // Wakes a sender whose queue overflowed
+    private static final FeedItem RESYNC = new FeedItem(null, null);
+
+    @Value("${paysync.feed.max-queued-documents:2000}")
+    private int maxQueuedDocuments;
+
+    @Value("${paysync.feed.batch-window-ms:200}")
+    private long batchWindowMs;
+
+    @Value("${paysync.feed.max-batch-documents:500}")
+    private int maxBatchDocuments;
+
+    @Value("${paysync.feed.heartbeat-ms:25000}")
+    private long heartbeatMs;
+
+    // Clients reconnect with Last-Event-ID, which also refreshes long-lived listeners
+    @Value("${paysync.feed.connection-ttl-ms:900000}")
+    private long connectionTtlMs;
+
+    // Covers ingests that took their lastSynced before a listener started or a cursor was sent but committed after
+    @Value("${paysync.feed.listen-overlap-ms:60000}")
+    private long listenOverlapMs;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private SyncService syncService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final Set<FeedConnection> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private DistributionSummary batchSizes;
+    private Counter resyncs;
+
+    @PostConstruct
+    public void initialize() {
+        Gauge.builder("paysync.feed.connections", connections, Set::size)
+            .description("Open change feed connections")
+            .register(meterRegistry);
+        Gauge.builder("paysync.feed.topics", topics, Map::size)
+            .description("Topics with an open document store listener")
+            .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("paysync.feed.batch.documents")
+            .description("Documents per change feed message")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        resyncs = Counter.builder("paysync.feed.resyncs")
+            .description("Connections that fell behind and caught up from their cursor")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Opens a feed of the user's changes after {@code since} (a lastSynced value, as
+     * passed to the delta sync).
+     */
+    public SseEmitter subscribe(String userId, long since) {
+        return subscribe(userId, since, new SseEmitter(connectionTtlMs));
+    }
+
+    SseEmitter subscribe(String userId, long since, SseEmitter emitter) {
+        FeedConnection connection = new FeedConnection(userId, since, emitter);
+        emitter.onCompletion(connection::close);
+        emitter.onTimeout(connection::close);
+        emitter.onError(error -> connection.close());
+        connections.add(connection);
+        senders.execute(connection::run);
+        return emitter;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        new ArrayList<>(connections).forEach(FeedConnection::close);
+        senders.shutdownNow();
+    }
+
+    private void join(FeedConnection connection, String key) {
+        topics.compute(key, (k, topic) -> {
+            if (topic == null) {
+                topic = new Topic(k);
+            }
+            topic.subscribers.add(connection);
+            return topic;
+        });
+    }
+
+    private void leave(FeedConnection connection, String key) {
+        topics.computeIfPresent(key, (k, topic) -> {
+            topic.subscribers.remove(connection);
+            if (topic.subscribers.isEmpty()) {
+                topic.listeners.forEach(DocumentSubscription::close);
+                return null;
+            }
+            return topic;
+        });
+    }
+
+    private static long lastSynced(Map<String, Object> data) {
+        Object value = data.get("lastSynced");
+        return value instanceof Number ? ((Number) value).longValue() : Long.MIN_VALUE;
+    }
+
+    private static final class FeedItem {
+        private final String collection;
+        private final StoredDocument document;
+
+        FeedItem(String collection, StoredDocument document) {
+            this.collection = collection;
+            this.document = document;
+        }
+    }
+
+    /**
+     * The shared listeners behind one user or one event. An event topic also tracks the
+     * event's members, so its transactions only reach connections of current members.
+     */
+    private final class Topic {
+        private final String eventId;
+        private final Set<FeedConnection> subscribers = ConcurrentHashMap.newKeySet();
+        private final List<DocumentSubscription> listeners = new ArrayList<>();
+        private volatile Set<String> members;
+
+        Topic(String key) {
+            long changedAfter = System.currentTimeMillis() - listenOverlapMs;
+            if (key.startsWith(EVENT_TOPIC)) {
+                eventId = key.substring(EVENT_TOPIC.length());
+                listen(DocumentStore.EVENTS, DocumentQuery.create().whereEqualTo("eventId", eventId));
+                listen(DocumentStore.TRANSACTIONS, DocumentQuery.create()
+                    .whereEqualTo("eventId", eventId)
+                    .whereGreaterThan("lastSynced", changedAfter));
+            } else {
+                eventId = null;
+                String userId = key.substring(USER_TOPIC.length());
+                listen(DocumentStore.USERS, DocumentQuery.create().whereEqualTo("userId", userId));
+                listen(DocumentStore.EVENTS, DocumentQuery.create()
+                    .whereArrayContains(SyncService.MEMBER_IDS_FIELD, userId)
+                    .whereGreaterThan("lastSynced", changedAfter));
+                for (String collection : new String[] {DocumentStore.TRANSACTIONS, DocumentStore.SAVINGS_GOALS}) {
+                    listen(collection, DocumentQuery.create()
+                        .whereEqualTo("userId", userId)
+                        .whereGreaterThan("lastSynced", changedAfter));
+                }
+            }
+        }
+
+        private void listen(String collection, DocumentQuery query) {
+            listeners.add(documentStore.listen(collection, query, documents -> publish(collection, documents), this::fail));
+        }
+
+        private void publish(String collection, List<StoredDocument> documents) {
+            boolean eventDocument = eventId != null && collection.equals(DocumentStore.EVENTS);
+            if (eventDocument) {
+                members = new HashSet<>(SyncService.parseIdList(documents.get(documents.size() - 1).get(SyncService.MEMBER_IDS_FIELD)));
+            }
+            Set<String> currentMembers = members;
+            for (FeedConnection connection : subscribers) {
+                // The event document itself always goes out, so a removed member's connection sees it and leaves
+                if (eventDocument || currentMembers == null || currentMembers.contains(connection.userId)) {
+                    for (StoredDocument document : documents) {
+                        connection.offer(new FeedItem(collection, document));
+                    }
+                }
+            }
+        }
+
+        // A listener that fails stops for good; subscribers reconnect and resume from their cursors
+        private void fail(Throwable error) {
+            log.warn("Change feed listener failed, closing {} connections", subscribers.size(), error);
+            new ArrayList<>(subscribers).forEach(FeedConnection::close);
+        }
+    }
+
+    private final class FeedConnection {
+        private final String userId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<FeedItem> queue = new ArrayBlockingQueue<>(maxQueuedDocuments);
+        private final AtomicBoolean resync = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Set<String> joined = ConcurrentHashMap.newKeySet();
+        private final long since;
+        private long cursor;
+        private volatile Thread sender;
+
+        FeedConnection(String userId, long since, SseEmitter emitter) {
+            this.userId = userId;
+            this.since = since;
+            this.cursor = since;
+            this.emitter = emitter;
+        }
+
+        // Called from listener callbacks, so it never blocks
+        void offer(FeedItem item) {
+            if (!queue.offer(item) && resync.compareAndSet(false, true)) {
+                resyncs.increment();
+                queue.clear();
+                queue.offer(RESYNC);
+            }
+        }
+
+        void run() {
+            sender = Thread.currentThread();
+            try {
+                // Listen first, then read what changed since the cursor, so nothing falls between the two
+                joinTopic(USER_TOPIC + userId);
+                for (StoredDocument event : documentStore.query(DocumentStore.EVENTS, DocumentQuery.create()
+                        .whereArrayContains(SyncService.MEMBER_IDS_FIELD, userId)
+                        .select()).get()) {
+                    joinTopic(EVENT_TOPIC + event.getId());
+                }
+                catchUp();
+
+                while (!closed.get()) {
+                    FeedItem first = queue.poll(heartbeatMs, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        emitter.send(SseEmitter.event().comment("keep-alive"));
+                        continue;
+                    }
+                    Map<String, Map<String, Map<String, Object>>> changes = new LinkedHashMap<>();
+                    int count = add(changes, first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
+                    while (count < maxBatchDocuments) {
+                        FeedItem next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        count += add(changes, next);
+                    }
+                    if (resync.getAndSet(false)) {
+                        // Whatever was dropped changed after the cursor, so the catch-up read includes it
+                        queue.clear();
+                        catchUp();
+                    } else {
+                        Set<String> removedFrom = followMembership(changes.get(DocumentStore.EVENTS));
+                        send(changes);
+                        for (String key : removedFrom) {
+                            if (joined.remove(key)) {
+                                leave(this, key);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Change feed for user {} closed by the client", userId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("Change feed for user {} failed", userId, e);
+            } finally {
+                close();
+            }
+        }
+
+        // Coalesces by document, keeping the latest version; returns 1 for a new document
+        private int add(Map<String, Map<String, Map<String, Object>>> changes, FeedItem item) {
+            if (item == RESYNC || lastSynced(item.document.getData()) <= replayFrom(since)) {
+                return 0;
+            }
+            Map<String, Object> previous = changes.computeIfAbsent(item.collection, k -> new LinkedHashMap<>())
+                .put(item.document.getId(), item.document.getData());
+            return previous == null ? 1 : 0;
+        }
+
+        private void catchUp() throws IOException, InterruptedException, ExecutionException {
+            long after = replayFrom(cursor);
+            Map<String, Map<String, Map<String, Object>>> changes = new LinkedHashMap<>();
+            Map<String, Object> userChanges = syncService.getUserChangesFromFirestore(userId, Long.toString(after));
+            userChanges.forEach((collection, documents) ->
+                changes.put(collection, new LinkedHashMap<>((Map<String, Map<String, Object>>) documents)));
+            // The user delta only returns events the user is a member of, with memberIds already stripped
+            for (String eventId : changes.getOrDefault(DocumentStore.EVENTS, Map.of()).keySet()) {
+                joinTopic(EVENT_TOPIC + eventId);
+            }
+
+            // Other members' transactions aren't part of the user delta
+            for (String key : joined) {
+                if (!key.startsWith(EVENT_TOPIC)) {
+                    continue;
+                }
+                for (StoredDocument transaction : documentStore.query(DocumentStore.TRANSACTIONS, DocumentQuery.create()
+                        .whereEqualTo("eventId", key.substring(EVENT_TOPIC.length()))
+                        .whereGreaterThan("lastSynced", after)).get()) {
+                    changes.computeIfAbsent(DocumentStore.TRANSACTIONS, k -> new LinkedHashMap<>())
+                        .put(transaction.getId(), transaction.getData());
+                }
+            }
+            send(changes);
+        }
+
+        /**
+         * Joins the topics of events the user is now a member of. Returns the topics of
+         * those they were removed from, to leave once the documents that say so are sent.
+         */
+        private Set<String> followMembership(Map<String, Map<String, Object>> events) {
+            Set<String> removedFrom = new HashSet<>();
+            if (events == null) {
+                return removedFrom;
+            }
+            events.forEach((eventId, event) -> {
+                if (SyncService.parseIdList(event.get(SyncService.MEMBER_IDS_FIELD)).contains(userId)) {
+                    joinTopic(EVENT_TOPIC + eventId);
+                } else {
+                    removedFrom.add(EVENT_TOPIC + eventId);
+                }
+            });
+            return removedFrom;
+        }
+
+        // Where a replay from the cursor starts, early enough for writes that committed after a later one was sent
+        private long replayFrom(long cursor) {
+            return cursor < Long.MIN_VALUE + listenOverlapMs ? Long.MIN_VALUE : cursor - listenOverlapMs;
+        }
+
+        /**
+         * Sends documents in lastSynced order, split into messages of at most
+         * {@code paysync.feed.max-batch-documents}. Each message's id is a cursor that
+         * resumes after it without skipping documents that share its lastSynced.
+         */
+        private void send(Map<String, Map<String, Map<String, Object>>> changes) throws IOException {
+            List<FeedItem> documents = new ArrayList<>();
+            changes.forEach((collection, byId) ->
+                byId.forEach((id, data) -> documents.add(new FeedItem(collection, new StoredDocument(id, data)))));
+            if (documents.isEmpty()) {
+                return;
+            }
+            documents.sort(Comparator.comparingLong(item -> lastSynced(item.document.getData())));
+
+            for (int start = 0; start < documents.size(); start += maxBatchDocuments) {
+                int end = Math.min(start + maxBatchDocuments, documents.size());
+                Map<String, Map<String, Object>> message = new LinkedHashMap<>();
+                for (FeedItem item : documents.subList(start, end)) {
+                    // Listener documents are shared by every subscriber, so strip a copy
+                    Map<String, Object> data = new HashMap<>(item.document.getData());
+                    SyncService.stripServerFields(data);
+                    message.computeIfAbsent(item.collection, k -> new LinkedHashMap<>()).put(item.document.getId(), data);
+                }
+                long last = lastSynced(documents.get(end - 1).document.getData());
+                if (end < documents.size() && lastSynced(documents.get(end).document.getData()) == last) {
+                    last--;
+                }
+                cursor = Math.max(cursor, last);
+                emitter.send(SseEmitter.event()
+                    .name("changes")
+                    .id(Long.toString(cursor))
+                    .data(message, MediaType.APPLICATION_JSON));
+                batchSizes.record(end - start);
+            }
+        }
+
+        private void joinTopic(String key) {
+            if (!closed.get() && joined.add(key)) {
+                join(this, key);
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            connections.remove(this);
+            for (String key : joined) {
+                leave(this, key);
+            }
+            joined.clear();
+            Thread thread = sender;
+            if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+            try {
+                emitter.complete();
+            } catch (RuntimeException e) {
+                // Already completed by the container
+            }
+        }
+    }
+}
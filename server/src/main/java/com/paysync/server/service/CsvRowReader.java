@@ -0,0 +1,164 @@
+package com.paysync.server.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads RFC 4180 CSV one record at a time, keyed by the header row. Quoted fields
+ * may contain commas, doubled quotes and line breaks. Only the current record is
+ * held in memory. Blank lines are skipped.
+ */
+final class CsvRowReader {
+
+    // Guards against an unterminated quote swallowing the rest of the upload
+    static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    private final Reader in;
+    private final List<String> header;
+    private int pushedBack = -2;
+    private long line = 1;
+    private long recordLine;
+
+    CsvRowReader(Reader in) throws IOException {
+        this.in = in;
+        int first = in.read();
+        // Spreadsheet exports often start with a byte order mark
+        if (first != '\uFEFF') {
+            pushedBack = first;
+        }
+        List<String> names = readRecord();
+        if (names == null) {
+            throw new IllegalArgumentException("CSV is empty, expected a header row");
+        }
+        header = new ArrayList<>(names.size());
+        for (String name : names) {
+            header.add(name.trim());
+        }
+    }
+
+    List<String> getHeader() {
+        return header;
+    }
+
+    // The line the last record returned by next() started on
+    long getRecordLine() {
+        return recordLine;
+    }
+
+    /**
+     * Returns the next record keyed by column name, or null at the end of input.
+     * Missing trailing fields are left out; extra fields are an error.
+     */
+    Map<String, String> next() throws IOException {
+        List<String> fields = readRecord();
+        if (fields == null) {
+            return null;
+        }
+        if (fields.size() > header.size()) {
+            throw new IllegalArgumentException("Row has " + fields.size() + " fields but the header has " + header.size());
+        }
+        Map<String, String> row = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            row.put(header.get(i), fields.get(i));
+        }
+        return row;
+    }
+
+    private List<String> readRecord() throws IOException {
+        int c = read();
+        // Skip blank lines between records
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c == -1) {
+            return null;
+        }
+        recordLine = line;
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStarted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new MalformedRowException("Unterminated quoted field");
+                }
+                if (c == '"') {
+                    int following = read();
+                    if (following == '"') {
+                        append(field, '"');
+                    } else {
+                        quoted = false;
+                        c = following;
+                        continue;
+                    }
+                } else {
+                    append(field, (char) c);
+                }
+            } else if (c == '"' && !fieldStarted) {
+                quoted = true;
+                fieldStarted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStarted = false;
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int following = read();
+                    if (following != '\n') {
+                        unread(following);
+                    }
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                append(field, (char) c);
+                fieldStarted = true;
+            }
+            c = read();
+        }
+    }
+
+    private void append(StringBuilder field, char c) {
+        if (field.length() >= MAX_FIELD_LENGTH) {
+            throw new MalformedRowException("Field is longer than " + MAX_FIELD_LENGTH + " characters");
+        }
+        field.append(c);
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (pushedBack != -2) {
+            c = pushedBack;
+            pushedBack = -2;
+        } else {
+            c = in.read();
+        }
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private void unread(int c) {
+        if (c == '\n') {
+            line--;
+        }
+        pushedBack = c;
+    }
+
+    /**
+     * A record that can't be parsed. Reading can't resume after one, since the
+     * reader no longer knows where the next record starts.
+     */
+    static final class MalformedRowException extends IllegalArgumentException {
+        MalformedRowException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.paysync.server.model.Transaction;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentValues;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Converts transaction amounts between currencies using a rate table loaded from
+ * {@code paysync.currency.rates-file} (reloaded when the file changes) or the bundled
+ * {@code currency-rates.json} snapshot. Transactions are normalized once when they are
+ * written, into their event's currency and their user's default currency.
+ * <p>
+ * An amount that can't be converted, because the transaction's currency or the target
+ * isn't in the rate table, is stored as null rather than unconverted. Event totals and
+ * settlements leave such transactions out and count them, and insights in the user's
+ * currency leave them out. Amounts are only worked out when a transaction is written:
+ * changing an event's currency or a user's default currency doesn't convert the
+ * transactions already written, which keep their amounts in the previous currency until
+ * they are next written.
+ */
+@Service
+@Slf4j
+public class CurrencyService {
+
+    public static final String EVENT_AMOUNT_FIELD = "amountInEventCurrency";
+    public static final String USER_AMOUNT_FIELD = "amountInUserCurrency";
+
+    private static final String DEFAULT_RATES = "currency-rates.json";
+
+    @Value("${paysync.currency.rates-file:}")
+    private String ratesFile;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    private volatile RateTable rates;
+    private volatile long ratesFileModified = -1;
+
+    // Currency of each event and user, keyed by "collection/id"; "" when none is set
+    private Cache<String, String> ownerCurrencies;
+
+    @PostConstruct
+    public void initialize() {
+        ownerCurrencies = Caffeine.newBuilder()
+            .maximumSize(50_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+        try {
+            if (ratesFile == null || ratesFile.isBlank()) {
+                try (InputStream in = new ClassPathResource(DEFAULT_RATES).getInputStream()) {
+                    rates = parse(in);
+                }
+            } else {
+                reloadIfChanged();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load currency rates", e);
+        }
+        log.info("Loaded {} currency rates against {}", rates.size(), rates.getBase());
+    }
+
+    @Scheduled(fixedDelayString = "${paysync.currency.reload-interval-ms:60000}")
+    public void reloadIfChanged() {
+        if (ratesFile == null || ratesFile.isBlank()) {
+            return;
+        }
+        File file = new File(ratesFile);
+        long modified = file.lastModified();
+        if (modified == 0 || modified == ratesFileModified) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            rates = parse(in);
+            ratesFileModified = modified;
+            log.info("Reloaded {} currency rates from {}", rates.size(), ratesFile);
+        } catch (IOException | RuntimeException e) {
+            // Keep serving the previous table
+            log.error("Failed to reload currency rates from {}: ", ratesFile, e);
+            if (rates == null) {
+                throw new RuntimeException("Failed to load currency rates", e);
+            }
+        }
+    }
+
+    private RateTable parse(InputStream in) throws IOException {
+        JsonNode root = objectMapper.readTree(in);
+        Map<String, Double> parsed = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = root.path("rates").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            parsed.put(field.getKey(), field.getValue().asDouble());
+        }
+        return new RateTable(root.path("base").asText("USD"), parsed);
+    }
+
+    RateTable currentRates() {
+        return rates;
+    }
+
+    // Returns NaN when either currency is unknown
+    public double convert(double amount, String from, String to) {
+        return amount * rates.factor(from, to);
+    }
+
+    /**
+     * Sets the normalized amounts on a transaction about to be written through the API.
+     * The event and user currencies are looked up concurrently when not cached.
+     */
+    public CompletableFuture<Transaction> normalize(Transaction transaction) {
+        CompletableFuture<String> eventCurrency = transaction.getEventId() == null
+            ? CompletableFuture.completedFuture("") : currencyOf("events", transaction.getEventId());
+        CompletableFuture<String> userCurrency = transaction.getUserId() == null
+            ? CompletableFuture.completedFuture("") : currencyOf("users", transaction.getUserId());
+        return eventCurrency.thenCombine(userCurrency, (eventTarget, userTarget) -> {
+            double amount = transaction.getAmount() == null ? 0.0 : transaction.getAmount();
+            transaction.setAmountInEventCurrency(normalized(amount, transaction.getCurrency(), eventTarget));
+            transaction.setAmountInUserCurrency(normalized(amount, transaction.getCurrency(), userTarget));
+            return transaction;
+        });
+    }
+
+    // Whether changing these transaction fields changes the normalized amounts
+    public static boolean affectsConversion(Map<String, Object> fields) {
+        return fields.containsKey("amount") || fields.containsKey("currency")
+            || fields.containsKey("eventId") || fields.containsKey("userId");
+    }
+
+    /**
+     * Sets the normalized amounts on synced transaction documents. Event and user
+     * currencies come from the same change set when present, then from the cache,
+     * and the rest are read with one getAll per collection.
+     */
+    public void normalizeDocuments(List<SyncBatchWriter.PendingWrite> writes) {
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            // A patch that leaves the currency alone says nothing about it
+            if (write.getCollection().equals("events") && (!write.isPatch() || write.getData().containsKey("currency"))) {
+                ownerCurrencies.put("events/" + write.getDocumentId(), stringOrEmpty(write.getData().get("currency")));
+            } else if (write.getCollection().equals("users")
+                    && (!write.isPatch() || write.getData().containsKey("defaultCurrency"))) {
+                ownerCurrencies.put("users/" + write.getDocumentId(), stringOrEmpty(write.getData().get("defaultCurrency")));
+            }
+        }
+
+        Set<String> missing = new HashSet<>();
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            if (write.getCollection().equals("transactions")) {
+                addIfMissing(missing, "events", write.getData().get("eventId"));
+                addIfMissing(missing, "users", write.getData().get("userId"));
+            }
+        }
+        if (!missing.isEmpty()) {
+            fetchCurrencies(missing);
+        }
+
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            if (!write.getCollection().equals("transactions")) {
+                continue;
+            }
+            Map<String, Object> data = write.getData();
+            double amount = DocumentValues.asDouble(data.get("amount"));
+            String currency = DocumentValues.asString(data.get("currency"));
+            Object eventId = data.get("eventId");
+            Object userId = data.get("userId");
+            String eventCurrency = eventId == null ? "" : ownerCurrencies.asMap().getOrDefault("events/" + eventId, "");
+            String userCurrency = userId == null ? "" : ownerCurrencies.asMap().getOrDefault("users/" + userId, "");
+            data.put(EVENT_AMOUNT_FIELD, normalized(amount, currency, eventCurrency));
+            data.put(USER_AMOUNT_FIELD, normalized(amount, currency, userCurrency));
+        }
+    }
+
+    // The amount as it is when no target or no currency is set; null when either currency is unknown
+    private Double normalized(double amount, String from, String to) {
+        if (to.isEmpty() || from == null || from.equalsIgnoreCase(to)) {
+            return amount;
+        }
+        double converted = convert(amount, from, to);
+        if (Double.isNaN(converted)) {
+            return null;
+        }
+        return converted;
+    }
+
+    private CompletableFuture<String> currencyOf(String collection, String id) {
+        String key = collection + "/" + id;
+        String cached = ownerCurrencies.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return documentStore.get(collection, id).thenApply(doc -> {
+            String currency = doc == null ? "" : stringOrEmpty(doc.get(currencyField(collection)));
+            ownerCurrencies.put(key, currency);
+            return currency;
+        });
+    }
+
+    private void addIfMissing(Set<String> missing, String collection, Object id) {
+        if (id != null && !id.toString().isEmpty() && !id.toString().contains("/")
+                && ownerCurrencies.getIfPresent(collection + "/" + id) == null) {
+            missing.add(collection + "/" + id);
+        }
+    }
+
+    private void fetchCurrencies(Set<String> keys) {
+        Map<String, Set<String>> idsByCollection = new HashMap<>();
+        for (String key : keys) {
+            int slash = key.indexOf('/');
+            idsByCollection.computeIfAbsent(key.substring(0, slash), k -> new HashSet<>()).add(key.substring(slash + 1));
+        }
+        Map<String, CompletableFuture<Map<String, Map<String, Object>>>> lookups = new HashMap<>();
+        idsByCollection.forEach((collection, ids) -> lookups.put(collection, documentStore.getAll(collection, ids)));
+        try {
+            for (Map.Entry<String, Set<String>> entry : idsByCollection.entrySet()) {
+                String collection = entry.getKey();
+                Map<String, Map<String, Object>> docs = lookups.get(collection).get();
+                for (String id : entry.getValue()) {
+                    Map<String, Object> doc = docs.get(id);
+                    ownerCurrencies.put(collection + "/" + id, doc == null ? "" : stringOrEmpty(doc.get(currencyField(collection))));
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error fetching currencies", e);
+        }
+    }
+
+    private static String currencyField(String collection) {
+        return collection.equals("users") ? "defaultCurrency" : "currency";
+    }
+
+    private static String stringOrEmpty(Object value) {
+        return value == null ? "" : value.toString();
+    }
+}
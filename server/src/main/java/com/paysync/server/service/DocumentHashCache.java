@@ -0,0 +1,142 @@
+package com.paysync.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.paysync.server.repository.DocumentStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Content hashes of the documents sync last wrote, each with the version the write
+ * gave the document, so a document the app sends again unchanged can be acknowledged
+ * without another store write. Only a document sent with that same version is skipped:
+ * one sent without a version, or with another, is written as usual, since the stored
+ * document may have moved on through another instance, the REST API or the app's own
+ * direct writes. The hash covers what the app sent and leaves out lastSynced and the
+ * fields the server derives. Transactions changed through this instance are forgotten
+ * straight away, and entries expire after a few seconds, which bounds how long a
+ * change made elsewhere can go unseen by a resend that still names the old version.
+ */
+@Component
+public class DocumentHashCache implements TransactionChangeListener {
+
+    // Stamped or derived by the server, so they say nothing about what the app changed
+    private static final Set<String> IGNORED_FIELDS = Set.of(
+        "lastSynced", DocumentStore.VERSION, SyncService.MEMBER_IDS_FIELD, SyncService.EVENT_IDS_FIELD,
+        CurrencyService.EVENT_AMOUNT_FIELD, CurrencyService.USER_AMOUNT_FIELD);
+
+    @Value("${paysync.sync.hash-cache.max-entries:200000}")
+    private long maxEntries;
+
+    @Value("${paysync.sync.hash-cache.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private record Written(long hash, long version) {}
+
+    private Cache<String, Written> hashes;
+
+    @PostConstruct
+    public void initialize() {
+        hashes = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, hashes, "sync.documentHashes");
+    }
+
+    /**
+     * True when the last successful sync write of this document had the same content
+     * and gave it {@code expectedVersion}, the version the app says it is writing over.
+     * Always false for a document sent without a version.
+     */
+    public boolean isUnchanged(String collection, String documentId, long hash, Long expectedVersion) {
+        if (expectedVersion == null) {
+            return false;
+        }
+        Written previous = hashes.getIfPresent(collection + "/" + documentId);
+        return previous != null && previous.hash() == hash && previous.version() == expectedVersion;
+    }
+
+    public void written(String collection, String documentId, long hash, long version) {
+        hashes.put(collection + "/" + documentId, new Written(hash, version));
+    }
+
+    public void forget(String collection, String documentId) {
+        hashes.invalidate(collection + "/" + documentId);
+    }
+
+    @Override
+    public void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        // Sync records its own hashes after notifying listeners, so this only drops other writers' versions
+        if (before != null) {
+            hashes.invalidate("transactions/" + before.getTransactionId());
+        }
+        if (after != null) {
+            hashes.invalidate("transactions/" + after.getTransactionId());
+        }
+    }
+
+    /**
+     * 64-bit hash of a document as the app sent it. Map keys are visited in sorted
+     * order so field order doesn't matter, and every value is tagged with its type so
+     * "1" and 1 differ.
+     */
+    static long contentHash(Map<String, Object> document) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (Map.Entry<String, Object> field : new TreeMap<>(document).entrySet()) {
+            if (!IGNORED_FIELDS.contains(field.getKey())) {
+                putKey(hasher, field.getKey());
+                putValue(hasher, field.getValue());
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    // Length-prefixed so adjacent keys and values can't run into each other
+    private static void putKey(Hasher hasher, String key) {
+        hasher.putInt(key.length()).putString(key, StandardCharsets.UTF_8);
+    }
+
+    private static void putValue(Hasher hasher, Object value) {
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else if (value instanceof Boolean) {
+            hasher.putByte((byte) 1).putBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            hasher.putByte((byte) 2).putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            hasher.putByte((byte) 3).putLong(((Number) value).longValue());
+        } else if (value instanceof Map) {
+            Map<String, Object> map = new TreeMap<>((Map<String, Object>) value);
+            hasher.putByte((byte) 4).putInt(map.size());
+            map.forEach((key, element) -> {
+                putKey(hasher, key);
+                putValue(hasher, element);
+            });
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            hasher.putByte((byte) 5).putInt(list.size());
+            list.forEach(element -> putValue(hasher, element));
+        } else {
+            String text = value.toString();
+            hasher.putByte((byte) 6).putInt(text.length()).putString(text, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.Settlement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Running per-member totals of one event's transactions, in millionths of the event's
+ * currency so that adding and taking back a transaction is exact. Each transaction is
+ * kept by id, so a change replaces what that transaction contributed before and a
+ * change seen twice is applied once. Settling rounds the totals to the currency's own
+ * minor unit (cents, whole yen), splits them equally between the members and pairs
+ * debtors with creditors greedily; the result is kept until the transactions or the
+ * event change. A transaction whose amount couldn't be converted into the event's
+ * currency is left out and counted. Instances are guarded by their own lock.
+ * <p>
+ * The balances also track the event summary revision they account for: the one read
+ * before they were loaded, plus one for each change notified since. A summary at a
+ * later revision has changes, made on another instance, that they never saw.
+ */
+final class EventBalances implements LedgerCache.Ledger {
+
+    private record Posting(String userId, long amount) {}
+
+    private record Key(Long eventVersion, String currency, List<String> members, long revision) {}
+
+    private static final int STORED_DIGITS = 6;
+    // For a missing or unknown currency code
+    private static final int DEFAULT_DIGITS = 2;
+
+    private static final class Member {
+        long paid;
+        int transactions;
+    }
+
+    // A member still owed or owing money while transfers are worked out
+    private record Party(String userId, long amount) {}
+
+    // Larger amounts first; ties by id so the same balances always give the same transfers
+    private static final Comparator<Party> LARGEST_FIRST = Comparator.comparingLong(Party::amount).reversed()
+        .thenComparing(Party::userId);
+
+    private final Map<String, Posting> postings = new HashMap<>();
+    // Members with transactions in the event; a member whose last one goes is dropped
+    private final Map<String, Member> members = new HashMap<>();
+    // Transactions whose amount couldn't be converted into the event's currency, left out
+    private final Set<String> unconverted = new HashSet<>();
+    private long revision;
+    private long storeRevision;
+
+    private Key settledAt;
+    private Settlement settled;
+
+    EventBalances() {
+        this(0);
+    }
+
+    EventBalances(long storeRevision) {
+        this.storeRevision = storeRevision;
+    }
+
+    @Override
+    public synchronized void upsert(LedgerEntry entry) {
+        boolean counted = entry.getUserId() != null && !Double.isNaN(entry.getEventAmount());
+        Posting previous = counted
+            ? postings.put(entry.getTransactionId(), new Posting(entry.getUserId(), paid(entry)))
+            : postings.remove(entry.getTransactionId());
+        if (previous != null) {
+            take(previous);
+        }
+        if (Double.isNaN(entry.getEventAmount())) {
+            unconverted.add(entry.getTransactionId());
+        } else {
+            unconverted.remove(entry.getTransactionId());
+        }
+        if (counted) {
+            Member member = members.computeIfAbsent(entry.getUserId(), userId -> new Member());
+            member.paid += paid(entry);
+            member.transactions++;
+        }
+        revision++;
+    }
+
+    @Override
+    public synchronized void remove(String transactionId) {
+        Posting previous = postings.remove(transactionId);
+        if (unconverted.remove(transactionId)) {
+            revision++;
+        }
+        if (previous != null) {
+            take(previous);
+            revision++;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return postings.size() + unconverted.size();
+    }
+
+    @Override
+    public synchronized void notified() {
+        storeRevision++;
+    }
+
+    // Whether the event's transactions have changes in the store these balances never saw
+    synchronized boolean isBehind(long summaryRevision) {
+        return summaryRevision > storeRevision;
+    }
+
+    /**
+     * The settlement between the event's members and anyone else who has transactions
+     * in it, reused as long as neither the transactions nor the event have changed since
+     * it was worked out.
+     */
+    synchronized Settlement settle(String eventId, Long eventVersion, String currency, List<String> eventMembers) {
+        Key key = new Key(eventVersion, currency, eventMembers, revision);
+        if (key.equals(settledAt)) {
+            return settled;
+        }
+
+        TreeSet<String> participants = new TreeSet<>(eventMembers);
+        participants.addAll(members.keySet());
+        int digits = fractionDigits(currency);
+        Map<String, Long> paidByMember = new HashMap<>();
+        long total = 0;
+        for (Map.Entry<String, Member> member : members.entrySet()) {
+            long paid = toMinor(member.getValue().paid, digits);
+            paidByMember.put(member.getKey(), paid);
+            total += paid;
+        }
+
+        Settlement settlement = new Settlement();
+        settlement.setEventId(eventId);
+        settlement.setEventVersion(eventVersion);
+        settlement.setCurrency(currency);
+        settlement.setTotalSpent(major(total, digits));
+        settlement.setUnconvertedTransactions(unconverted.size());
+        if (!participants.isEmpty()) {
+            // The minor units that don't divide evenly go one each to the first members by id
+            long share = Math.floorDiv(total, participants.size());
+            long remainder = Math.floorMod(total, participants.size());
+            Map<String, Long> nets = new HashMap<>();
+            int index = 0;
+            for (String userId : participants) {
+                long owed = share + (index++ < remainder ? 1 : 0);
+                long paid = paidByMember.getOrDefault(userId, 0L);
+                nets.put(userId, paid - owed);
+                settlement.getBalances().add(new Settlement.MemberBalance(userId,
+                    major(paid, digits), major(owed, digits), major(paid - owed, digits)));
+            }
+            settlement.getTransfers().addAll(transfers(nets, digits));
+        }
+
+        settledAt = key;
+        settled = settlement;
+        return settlement;
+    }
+
+    /**
+     * Transfers that bring every net balance to zero, largest debtor paying largest
+     * creditor first. Each transfer clears at least one of the two, so there are fewer
+     * transfers than members with a balance, found in O(n log n). Nets are in minor
+     * units of a currency with the given number of fraction digits.
+     */
+    static List<Settlement.Transfer> transfers(Map<String, Long> nets, int digits) {
+        PriorityQueue<Party> creditors = new PriorityQueue<>(LARGEST_FIRST);
+        PriorityQueue<Party> debtors = new PriorityQueue<>(LARGEST_FIRST);
+        nets.forEach((userId, net) -> {
+            if (net > 0) {
+                creditors.add(new Party(userId, net));
+            } else if (net < 0) {
+                debtors.add(new Party(userId, -net));
+            }
+        });
+
+        List<Settlement.Transfer> transfers = new ArrayList<>();
+        while (!creditors.isEmpty() && !debtors.isEmpty()) {
+            Party creditor = creditors.poll();
+            Party debtor = debtors.poll();
+            long amount = Math.min(creditor.amount(), debtor.amount());
+            transfers.add(new Settlement.Transfer(debtor.userId(), creditor.userId(), major(amount, digits)));
+            if (creditor.amount() > amount) {
+                creditors.add(new Party(creditor.userId(), creditor.amount() - amount));
+            }
+            if (debtor.amount() > amount) {
+                debtors.add(new Party(debtor.userId(), debtor.amount() - amount));
+            }
+        }
+        return transfers;
+    }
+
+    private void take(Posting posting) {
+        Member member = members.get(posting.userId());
+        member.paid -= posting.amount();
+        if (--member.transactions == 0) {
+            members.remove(posting.userId());
+        }
+    }
+
+    // Spending for the event counts towards what a member paid, money they received from it against
+    private static long paid(LedgerEntry entry) {
+        long amount = Math.round(entry.getEventAmount() * Math.pow(10, STORED_DIGITS));
+        return entry.isCredit() ? -amount : amount;
+    }
+
+    static int fractionDigits(String currency) {
+        try {
+            int digits = currency == null ? DEFAULT_DIGITS : Currency.getInstance(currency).getDefaultFractionDigits();
+            return digits < 0 ? DEFAULT_DIGITS : Math.min(digits, STORED_DIGITS);
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_DIGITS;
+        }
+    }
+
+    // Rounded half up to the currency's minor unit
+    private static long toMinor(long stored, int digits) {
+        long unit = (long) Math.pow(10, STORED_DIGITS - digits);
+        return Math.floorDiv(stored + unit / 2, unit);
+    }
+
+    private static double major(long minor, int digits) {
+        return minor / Math.pow(10, digits);
+    }
+}
@@ -0,0 +1,462 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.EventSummary;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentValues;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.StoredDocument;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Maintains per-event credit and debit totals in the {@code event_summaries} collection.
+ * Every transaction write commits the difference between the old and new version as an
+ * increment in the same commit, so summaries are read in O(1) without scanning the
+ * ledger. Each increment also adds the number of the event's transactions it changes to
+ * the summary's {@code revision}, so the revision counts every committed change to the
+ * event's transactions, on any instance, even one that leaves the totals as they were.
+ * <p>
+ * A rebuild recomputes totals from the transactions and replaces a summary only if its
+ * revision hasn't moved since the scan started, so it never erases increments that
+ * landed meanwhile; those are left for the next rebuild. {@link #rebuildAll()} runs
+ * nightly on one instance, on {@code paysync.summaries.rebuild-cron}, as a repair.
+ * <p>
+ * The app reads an event's totals from its {@code onlineAmountOfEvent} and
+ * {@code offlineAmountOfEvent}, so shortly after a summary changes, or the app uploads
+ * the event with its own figures, the net amounts are copied onto the event document
+ * and stamped with lastSynced. The event records the revision it was given, so a copy
+ * that arrives late never replaces a newer one.
+ */
+@Service
+@Slf4j
+public class EventSummaryService implements TransactionChangeListener {
+
+    static final String COLLECTION_NAME = "event_summaries";
+
+    // Bumped by every increment and rebuild, so a rebuild or a cached copy of the event's
+    // transactions can tell whether they changed since it was read
+    static final String REVISION = "revision";
+
+    // The summary revision an event document's amounts were copied from
+    static final String PUBLISHED_REVISION_FIELD = "summaryRevision";
+
+    // Holds the start of the last scheduled rebuild, so only one instance runs it
+    private static final String REBUILDS = "summary_rebuilds";
+
+    // Other instances firing within this long of a claimed rebuild leave it to that one
+    private static final long REBUILD_CLAIM_MS = TimeUnit.HOURS.toMillis(1);
+
+    // A rebuild of one event scans again at most this many times while increments keep landing
+    private static final int MAX_REBUILD_ATTEMPTS = 3;
+
+    private static final int PAGE_SIZE = 1000;
+
+    // Summaries replaced, or events copied onto, concurrently
+    private static final int CONCURRENT_UPDATES = 50;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Value("${paysync.summaries.publish-delay-ms:1000}")
+    private long publishDelayMs;
+
+    private final Set<String> unpublished = new LinkedHashSet<>();
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "summary-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Per-event differences accumulated from a set of transaction changes.
+     */
+    public static final class Deltas {
+        private final Map<String, Totals> byEvent = new HashMap<>();
+        // Transaction changes per event; one that stays in its event counts once
+        private final Map<String, Long> changes = new HashMap<>();
+
+        // Either side may be null for creates and deletes
+        public void add(LedgerEntry before, LedgerEntry after) {
+            if (before != null && before.getEventId() != null) {
+                byEvent.computeIfAbsent(before.getEventId(), k -> new Totals()).add(before, -1);
+                changes.merge(before.getEventId(), 1L, Long::sum);
+            }
+            if (after != null && after.getEventId() != null) {
+                byEvent.computeIfAbsent(after.getEventId(), k -> new Totals()).add(after, 1);
+                if (before == null || !after.getEventId().equals(before.getEventId())) {
+                    changes.merge(after.getEventId(), 1L, Long::sum);
+                }
+            }
+        }
+
+        public boolean isEmpty() {
+            return byEvent.values().stream().allMatch(Totals::isZero);
+        }
+
+        // Events whose totals these deltas change
+        public Set<String> eventIds() {
+            Set<String> changed = new LinkedHashSet<>();
+            byEvent.forEach((eventId, totals) -> {
+                if (!totals.isZero()) {
+                    changed.add(eventId);
+                }
+            });
+            return changed;
+        }
+    }
+
+    private static final class Totals {
+        private double onlineCredit;
+        private double onlineDebit;
+        private double offlineCredit;
+        private double offlineDebit;
+        private long transactionCount;
+        // Transactions whose amount couldn't be converted into the event's currency, left out of the totals
+        private long unconvertedCount;
+
+        void add(LedgerEntry entry, int sign) {
+            transactionCount += sign;
+            if (Double.isNaN(entry.getEventAmount())) {
+                unconvertedCount += sign;
+                return;
+            }
+            // Totals are kept in the event's currency
+            double amount = sign * entry.getEventAmount();
+            if (entry.isOnline()) {
+                if (entry.isCredit()) {
+                    onlineCredit += amount;
+                } else {
+                    onlineDebit += amount;
+                }
+            } else {
+                if (entry.isCredit()) {
+                    offlineCredit += amount;
+                } else {
+                    offlineDebit += amount;
+                }
+            }
+        }
+
+        boolean isZero() {
+            return onlineCredit == 0 && onlineDebit == 0 && offlineCredit == 0 && offlineDebit == 0
+                && transactionCount == 0 && unconvertedCount == 0;
+        }
+
+        Map<String, Object> toFields() {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("onlineCredit", onlineCredit);
+            fields.put("onlineDebit", onlineDebit);
+            fields.put("offlineCredit", offlineCredit);
+            fields.put("offlineDebit", offlineDebit);
+            fields.put("transactionCount", transactionCount);
+            fields.put("unconvertedCount", unconvertedCount);
+            return fields;
+        }
+    }
+
+    /**
+     * The summary increments for a set of deltas, to commit together with the
+     * transaction writes themselves so both apply atomically. A change that leaves an
+     * event's totals as they were, such as a new payer or note, still bumps its revision.
+     */
+    public List<DocumentWrite> writes(Deltas deltas) {
+        List<DocumentWrite> writes = new ArrayList<>();
+        deltas.changes.forEach((eventId, count) -> {
+            Totals totals = deltas.byEvent.get(eventId);
+            Map<String, Object> fields = totals.isZero() ? new HashMap<>() : totals.toFields();
+            fields.put(REVISION, count);
+            writes.add(DocumentWrite.increment(COLLECTION_NAME, eventId, fields));
+        });
+        return writes;
+    }
+
+    // Committed writes are reported here, so the events whose totals they changed are copied
+    @Override
+    public void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        Deltas deltas = new Deltas();
+        deltas.add(before, after);
+        republish(deltas.eventIds());
+    }
+
+    public EventSummary getSummary(String eventId) {
+        CompletableFuture<Map<String, Object>> summaryFuture = documentStore.get(COLLECTION_NAME, eventId);
+        CompletableFuture<Map<String, Object>> eventFuture = documentStore.get(DocumentStore.EVENTS, eventId);
+
+        try {
+            EventSummary summary = new EventSummary();
+            summary.setEventId(eventId);
+
+            Map<String, Object> summaryDoc = summaryFuture.get();
+            if (summaryDoc != null) {
+                summary.setOnlineCredit(DocumentValues.asDouble(summaryDoc.get("onlineCredit")));
+                summary.setOnlineDebit(DocumentValues.asDouble(summaryDoc.get("onlineDebit")));
+                summary.setOfflineCredit(DocumentValues.asDouble(summaryDoc.get("offlineCredit")));
+                summary.setOfflineDebit(DocumentValues.asDouble(summaryDoc.get("offlineDebit")));
+                Object count = summaryDoc.get("transactionCount");
+                summary.setTransactionCount(count instanceof Number ? ((Number) count).longValue() : 0L);
+                Object unconverted = summaryDoc.get("unconvertedCount");
+                summary.setUnconvertedCount(unconverted instanceof Number ? ((Number) unconverted).longValue() : 0L);
+            }
+
+            Map<String, Object> eventDoc = eventFuture.get();
+            if (eventDoc != null) {
+                Object budget = eventDoc.get("budget");
+                summary.setBudget(budget == null ? null : DocumentValues.asDouble(budget));
+                summary.setCurrency(DocumentValues.asString(eventDoc.get("currency")));
+            }
+            return summary;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error fetching event summary", e);
+        }
+    }
+
+    /**
+     * Recomputes one event's summary from its transactions, scanning again when
+     * increments land during the scan.
+     */
+    public EventSummary rebuild(String eventId) {
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Long revision = revisionOf(documentStore.get(COLLECTION_NAME, eventId).get());
+                Map<String, Totals> totals = new HashMap<>();
+                scan(DocumentStore.TRANSACTIONS, DocumentQuery.create().whereEqualTo("eventId", eventId),
+                    doc -> addTransaction(doc, totals));
+                if (replaceAt(eventId, revision, totals.getOrDefault(eventId, new Totals())).get()) {
+                    break;
+                }
+                if (attempt == MAX_REBUILD_ATTEMPTS) {
+                    throw new RuntimeException("Summary of event " + eventId + " kept changing during its rebuild");
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error rebuilding event summary", e);
+        }
+        republish(List.of(eventId));
+        return getSummary(eventId);
+    }
+
+    /**
+     * Recomputes every event summary from the full transactions collection. Summaries
+     * whose events no longer have transactions are zeroed, and those that changed
+     * during the scan, including ones created by it, are left to their increments.
+     * Returns the number of summaries written.
+     */
+    public int rebuildAll() {
+        // Revisions before the scan; an event missing here had no summary yet
+        Map<String, Long> revisions = new HashMap<>();
+        scan(COLLECTION_NAME, DocumentQuery.create(), doc -> revisions.put(doc.getId(), revisionOf(doc.getData())));
+        Map<String, Totals> totals = new HashMap<>();
+        scan(DocumentStore.TRANSACTIONS, DocumentQuery.create(), doc -> addTransaction(doc, totals));
+
+        List<String> eventIds = new ArrayList<>(revisions.keySet());
+        totals.keySet().stream().filter(eventId -> !revisions.containsKey(eventId)).forEach(eventIds::add);
+        int rebuilt = 0;
+        try {
+            for (int i = 0; i < eventIds.size(); i += CONCURRENT_UPDATES) {
+                List<CompletableFuture<Boolean>> replaced = new ArrayList<>();
+                for (String eventId : eventIds.subList(i, Math.min(i + CONCURRENT_UPDATES, eventIds.size()))) {
+                    replaced.add(replaceAt(eventId, revisions.get(eventId), totals.getOrDefault(eventId, new Totals())));
+                }
+                for (CompletableFuture<Boolean> future : replaced) {
+                    rebuilt += future.get() ? 1 : 0;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error rebuilding event summaries", e);
+        }
+        republish(eventIds);
+
+        log.info("Rebuilt {} event summaries; {} changed during the rebuild and were left as they are",
+            rebuilt, eventIds.size() - rebuilt);
+        return rebuilt;
+    }
+
+    // Every instance fires on the same cron; the first to claim the run does it
+    @Scheduled(cron = "${paysync.summaries.rebuild-cron:0 30 3 * * *}")
+    public void scheduledRebuild() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> claim;
+        try {
+            claim = documentStore.compute(REBUILDS, "last", current -> {
+                if (current != null && now - DocumentValues.asDouble(current.get("startedAt")) < REBUILD_CLAIM_MS) {
+                    return null;
+                }
+                Map<String, Object> started = new HashMap<>();
+                started.put("startedAt", now);
+                return started;
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error claiming the event summary rebuild", e);
+        }
+        if (DocumentValues.asDouble(claim.get("startedAt")) == now) {
+            rebuildAll();
+        }
+    }
+
+    /**
+     * Queues events to have their totals copied onto their documents. Queued events
+     * are copied together after {@code paysync.summaries.publish-delay-ms}, so a large
+     * sync copies each event once.
+     */
+    public void republish(Collection<String> eventIds) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+        synchronized (unpublished) {
+            boolean idle = unpublished.isEmpty();
+            unpublished.addAll(eventIds);
+            if (idle && !publisher.isShutdown()) {
+                publisher.schedule(this::publishQueued, publishDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void publishQueued() {
+        List<String> eventIds;
+        synchronized (unpublished) {
+            eventIds = new ArrayList<>(unpublished);
+            unpublished.clear();
+        }
+        for (int i = 0; i < eventIds.size(); i += CONCURRENT_UPDATES) {
+            List<String> chunk = eventIds.subList(i, Math.min(i + CONCURRENT_UPDATES, eventIds.size()));
+            try {
+                publish(chunk).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // Queued again, so the copy is retried after the delay
+                log.error("Failed to copy totals onto {} events: ", chunk.size(), e.getCause());
+                republish(chunk);
+            }
+        }
+    }
+
+    /**
+     * Copies each summary's net amounts onto its event document, unless the event
+     * already has them from this revision or a later one. Events that don't exist
+     * yet are skipped; they are copied when the app uploads them.
+     */
+    CompletableFuture<Void> publish(Collection<String> eventIds) {
+        return documentStore.getAll(COLLECTION_NAME, eventIds).thenCompose(summaries -> {
+            long now = System.currentTimeMillis();
+            List<CompletableFuture<?>> copies = new ArrayList<>(eventIds.size());
+            for (String eventId : eventIds) {
+                Map<String, Object> summary = summaries.get(eventId);
+                copies.add(documentStore.compute(DocumentStore.EVENTS, eventId, event -> withTotals(event, summary, now)));
+            }
+            return CompletableFuture.allOf(copies.toArray(new CompletableFuture[0]));
+        });
+    }
+
+    /**
+     * The event with the summary's amounts, or null when it is missing, already has a
+     * later revision's, or has this revision's unchanged. The app may have overwritten
+     * them since they were copied, in which case they are copied again.
+     */
+    private static Map<String, Object> withTotals(Map<String, Object> event, Map<String, Object> summary, long now) {
+        if (event == null) {
+            return null;
+        }
+        Long revision = revisionOf(summary);
+        long current = revision == null ? 0 : revision;
+        double online = summary == null ? 0.0
+            : DocumentValues.asDouble(summary.get("onlineCredit")) - DocumentValues.asDouble(summary.get("onlineDebit"));
+        double offline = summary == null ? 0.0
+            : DocumentValues.asDouble(summary.get("offlineCredit")) - DocumentValues.asDouble(summary.get("offlineDebit"));
+        Object published = event.get(PUBLISHED_REVISION_FIELD);
+        if (published instanceof Number) {
+            long publishedRevision = ((Number) published).longValue();
+            boolean unchanged = DocumentValues.asDouble(event.get("onlineAmountOfEvent")) == online
+                && DocumentValues.asDouble(event.get("offlineAmountOfEvent")) == offline;
+            if (publishedRevision > current || publishedRevision == current && unchanged) {
+                return null;
+            }
+        }
+        Map<String, Object> next = new HashMap<>(event);
+        next.put("onlineAmountOfEvent", online);
+        next.put("offlineAmountOfEvent", offline);
+        next.put(PUBLISHED_REVISION_FIELD, current);
+        next.put("lastSynced", now);
+        return next;
+    }
+
+    /**
+     * Replaces a summary with {@code totals} if it is still at {@code revision} (null:
+     * there is no summary), bumping the revision. Completes with whether it did.
+     */
+    private CompletableFuture<Boolean> replaceAt(String eventId, Long revision, Totals totals) {
+        AtomicBoolean replaced = new AtomicBoolean();
+        return documentStore.compute(COLLECTION_NAME, eventId, current -> {
+            // May run more than once; the last run decides
+            replaced.set(Objects.equals(revisionOf(current), revision));
+            if (!replaced.get()) {
+                return null;
+            }
+            Map<String, Object> rebuilt = totals.toFields();
+            rebuilt.put(REVISION, revision == null ? 1L : revision + 1);
+            return rebuilt;
+        }).thenApply(ignored -> replaced.get());
+    }
+
+    // Null when there is no summary; summaries written before revisions were kept are at 0
+    static Long revisionOf(Map<String, Object> summary) {
+        if (summary == null) {
+            return null;
+        }
+        Object revision = summary.get(REVISION);
+        return revision instanceof Number ? ((Number) revision).longValue() : 0L;
+    }
+
+    private static void addTransaction(StoredDocument doc, Map<String, Totals> totals) {
+        LedgerEntry entry = LedgerEntry.fromDocument(doc.getId(), doc.getData());
+        if (entry.getEventId() != null) {
+            totals.computeIfAbsent(entry.getEventId(), k -> new Totals()).add(entry, 1);
+        }
+    }
+
+    // Pages through a collection in document order so memory holds one page plus what the caller keeps
+    private void scan(String collection, DocumentQuery base, Consumer<StoredDocument> consumer) {
+        base.orderByDocumentId().limit(PAGE_SIZE);
+
+        try {
+            while (true) {
+                List<StoredDocument> docs = documentStore.query(collection, base).get();
+                docs.forEach(consumer);
+                if (docs.size() < PAGE_SIZE) {
+                    return;
+                }
+                base.startAfter(docs.get(docs.size() - 1).getId());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error scanning " + collection, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdown();
+        publishQueued();
+    }
+}
@@ -0,0 +1,326 @@
+package com.paysync.server.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal kept in memory-mapped segment files. Entries get consecutive
+ * sequence numbers and are written with a plain memory copy; {@link #sync()} forces
+ * everything appended so far to disk in one go, and entries become readable through
+ * {@link #next()} once they are durable. The reader records how far it has applied
+ * with {@link #checkpoint(long)}, which deletes the segments wholly behind it. On open
+ * the journal is scanned and reading resumes after the checkpoint. An entry torn by a
+ * crash fails its checksum, and the journal ends where it starts.
+ * <p>
+ * Each entry is a 16-byte header (payload length, CRC32C of sequence and payload,
+ * sequence) followed by the payload. A segment is named after its first sequence and
+ * its unused tail is zeros, which reads as a zero length.
+ */
+final class IngestJournal implements Closeable {
+
+    static final int HEADER_BYTES = 16;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    record Entry(long sequence, byte[] payload) {}
+
+    private static final class Segment {
+        final Path path;
+        final long firstSequence;
+        final MappedByteBuffer buffer;
+        int position;
+        int forcedTo;
+
+        Segment(Path path, long firstSequence, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+
+    // Oldest first; appends go to the last one
+    private final List<Segment> segments = new ArrayList<>();
+    // Segments written to since the last sync
+    private final List<Segment> dirty = new ArrayList<>();
+    private final Object syncLock = new Object();
+
+    private long nextSequence;
+    private long durableSequence;
+    private long checkpointSequence;
+
+    private Segment readSegment;
+    private int readOffset;
+    private long readSequence;
+
+    private IngestJournal(Path directory, int segmentBytes, long maxBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the journal in {@code directory}, creating it if needed. {@code maxBytes}
+     * bounds the segments kept on disk, so the backlog of unapplied entries can't grow
+     * without limit.
+     */
+    static IngestJournal open(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        IngestJournal journal = new IngestJournal(directory, segmentBytes, maxBytes);
+        journal.recover();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        checkpointSequence = Files.exists(checkpoint) ? readCheckpoint(checkpoint) : 0;
+
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        long lastSequence = checkpointSequence;
+        boolean ended = false;
+        for (Path path : paths) {
+            long firstSequence = Long.parseLong(path.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+            // Segments after a gap hold only entries that followed a torn one, which were never acknowledged
+            if (ended || (!segments.isEmpty() && firstSequence != lastSequence + 1)) {
+                ended = true;
+                Files.delete(path);
+                continue;
+            }
+            Segment segment = new Segment(path, firstSequence, map(path, Files.size(path)));
+            long sequence = firstSequence;
+            byte[] payload;
+            while ((payload = readAt(segment, segment.position, sequence)) != null) {
+                segment.position += HEADER_BYTES + payload.length;
+                sequence++;
+            }
+            if (sequence == firstSequence) {
+                // Created just before a crash; appends start a fresh one
+                ended = true;
+                Files.delete(path);
+                continue;
+            }
+            segment.forcedTo = segment.position;
+            segments.add(segment);
+            lastSequence = sequence - 1;
+        }
+
+        nextSequence = Math.max(lastSequence, checkpointSequence) + 1;
+        if (segments.isEmpty() || lastSequence < checkpointSequence) {
+            newSegment(segmentBytes);
+        }
+        durableSequence = nextSequence - 1;
+        // Segments wholly behind the checkpoint are already applied
+        while (segments.size() > 1 && segments.get(1).firstSequence <= checkpointSequence + 1) {
+            Files.delete(segments.remove(0).path);
+        }
+
+        readSegment = segments.get(0);
+        readOffset = 0;
+        readSequence = readSegment.firstSequence;
+        while (readSequence <= checkpointSequence && readSequence < nextSequence) {
+            skipEntry();
+        }
+    }
+
+    /**
+     * Appends an entry and returns its sequence; it is durable after the next
+     * {@link #sync()}. Fails with {@link RejectedExecutionException} while the journal
+     * holds {@code maxBytes} of segments.
+     */
+    synchronized long append(byte[] payload) throws IOException {
+        int length = HEADER_BYTES + payload.length;
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.position + length > segment.buffer.capacity()) {
+            int capacity = Math.max(segmentBytes, length);
+            if (mappedBytes() + capacity > maxBytes) {
+                throw new RejectedExecutionException("Ingest journal is full");
+            }
+            segment = newSegment(capacity);
+        }
+        long sequence = nextSequence++;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(payload.length).putInt(checksum(sequence, payload)).putLong(sequence);
+        segment.buffer.put(segment.position + HEADER_BYTES, payload);
+        segment.buffer.put(segment.position, header.array());
+        segment.position += length;
+        if (!dirty.contains(segment)) {
+            dirty.add(segment);
+        }
+        return sequence;
+    }
+
+    /**
+     * Forces every entry appended so far to disk and returns the last durable sequence.
+     * Appends carry on while the force runs, which is what lets one sync cover many.
+     */
+    long sync() {
+        synchronized (syncLock) {
+            List<Segment> forcing;
+            List<Integer> forcingTo = new ArrayList<>();
+            long upTo;
+            synchronized (this) {
+                upTo = nextSequence - 1;
+                forcing = new ArrayList<>(dirty);
+                for (Segment segment : forcing) {
+                    forcingTo.add(segment.position);
+                }
+                dirty.clear();
+            }
+            for (int i = 0; i < forcing.size(); i++) {
+                Segment segment = forcing.get(i);
+                segment.buffer.force(segment.forcedTo, forcingTo.get(i) - segment.forcedTo);
+                segment.forcedTo = forcingTo.get(i);
+            }
+            synchronized (this) {
+                durableSequence = Math.max(durableSequence, upTo);
+                return durableSequence;
+            }
+        }
+    }
+
+    synchronized long lastSequence() {
+        return nextSequence - 1;
+    }
+
+    synchronized long checkpointed() {
+        return checkpointSequence;
+    }
+
+    // The next durable entry after the last one returned, or null when there is none yet
+    synchronized Entry next() {
+        if (readSequence > durableSequence) {
+            return null;
+        }
+        if (readOffset >= readSegment.position && readSegment != segments.get(segments.size() - 1)) {
+            readSegment = segments.get(segments.indexOf(readSegment) + 1);
+            readOffset = 0;
+        }
+        byte[] payload = readAt(readSegment, readOffset, readSequence);
+        if (payload == null) {
+            throw new IllegalStateException("Ingest journal entry " + readSequence + " is unreadable");
+        }
+        Entry entry = new Entry(readSequence, payload);
+        readOffset += HEADER_BYTES + payload.length;
+        readSequence++;
+        return entry;
+    }
+
+    /**
+     * Records that entries up to {@code sequence} are applied, so they aren't read
+     * back after a restart, and deletes the segments that only hold such entries.
+     */
+    void checkpoint(long sequence) throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(16).putLong(sequence).putLong(~sequence).flip());
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        List<Segment> applied = new ArrayList<>();
+        synchronized (this) {
+            checkpointSequence = Math.max(checkpointSequence, sequence);
+            while (segments.size() > 1 && segments.get(1).firstSequence <= checkpointSequence + 1
+                    && segments.get(0) != readSegment) {
+                applied.add(segments.remove(0));
+            }
+        }
+        for (Segment segment : applied) {
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    @Override
+    public void close() {
+        sync();
+    }
+
+    private synchronized long mappedBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.buffer.capacity();
+        }
+        return total;
+    }
+
+    private Segment newSegment(int capacity) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", nextSequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, nextSequence, map(path, capacity));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void skipEntry() {
+        Entry entry = next();
+        if (entry == null) {
+            throw new IllegalStateException("Ingest journal ends before its checkpoint " + checkpointSequence);
+        }
+    }
+
+    // The payload of the entry at offset if it is intact and has the expected sequence, else null
+    private static byte[] readAt(Segment segment, int offset, long expectedSequence) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (offset + HEADER_BYTES > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - HEADER_BYTES) {
+            return null;
+        }
+        int checksum = buffer.getInt(offset + 4);
+        long sequence = buffer.getLong(offset + 8);
+        if (sequence != expectedSequence) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(offset + HEADER_BYTES, payload);
+        return checksum(sequence, payload) == checksum ? payload : null;
+    }
+
+    private static int checksum(long sequence, byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(8).putLong(sequence).flip());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path path, long size) throws IOException {
+        // The mapping outlives the channel; READ_WRITE extends a new file to size with zeros
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // A torn checkpoint reads as none, which only means applied entries are applied again
+    private static long readCheckpoint(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != 16) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long sequence = buffer.getLong();
+        return buffer.getLong() == ~sequence ? sequence : 0;
+    }
+}
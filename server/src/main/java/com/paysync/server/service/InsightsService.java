@@ -0,0 +1,82 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.InsightBucket;
+import com.paysync.server.repository.DocumentStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Spending insights computed from per-user columnar ledgers. A user's ledger is loaded
+ * from the document store on first use, kept current from transaction change notifications, and
+ * evicted by total row count and TTL.
+ */
+@Service
+public class InsightsService implements TransactionChangeListener {
+
+    @Value("${paysync.insights.max-rows:2000000}")
+    private long maxRows;
+
+    // Bounds how long a change missed while a ledger was loading can go unnoticed
+    @Value("${paysync.insights.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private CurrencyService currencyService;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    private LedgerCache<UserLedgerColumns> ledgers;
+
+    @PostConstruct
+    public void initialize() {
+        ledgers = new LedgerCache<>(documentStore, "userId", LedgerEntry::getUserId, userId -> new UserLedgerColumns(),
+            maxRows, Duration.ofMinutes(ttlMinutes), meterRegistry, "insights.ledgers");
+    }
+
+    public List<InsightBucket> getTotals(String userId, String granularity, Long from, Long to, int offsetMinutes,
+                                         String currency) {
+        UserLedgerColumns.Granularity bucket = parse(UserLedgerColumns.Granularity.class, granularity);
+        return ledger(userId).timeBuckets(bucket, lower(from), upper(to), offsetMinutes * 60_000L,
+            currencyService.currentRates(), currency);
+    }
+
+    public List<InsightBucket> getBreakdown(String userId, String dimension, Long from, Long to, String currency) {
+        UserLedgerColumns.Dimension by = parse(UserLedgerColumns.Dimension.class, dimension);
+        return ledger(userId).groupBy(by, lower(from), upper(to), currencyService.currentRates(), currency);
+    }
+
+    @Override
+    public void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        ledgers.onTransactionChanged(before, after);
+    }
+
+    private UserLedgerColumns ledger(String userId) {
+        return ledgers.get(userId);
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+    }
+
+    private static long lower(Long from) {
+        return from == null ? Long.MIN_VALUE : from;
+    }
+
+    private static long upper(Long to) {
+        return to == null ? Long.MAX_VALUE : to;
+    }
+}
@@ -0,0 +1,430 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.SyncChanges;
+import com.paysync.server.model.SyncDocument;
+import com.paysync.server.model.SyncResult;
+import com.paysync.server.model.SyncWriteResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledges sync uploads once they are in a local journal instead of once they are
+ * in the document store, so the app's wait depends on the local disk rather than on
+ * the backend. A change set is validated, appended to an {@link IngestJournal} and
+ * answered after the next group sync, which a flusher thread runs every
+ * {@code group-commit-ms} for all appends waiting on it. A drainer thread applies the
+ * journal in order through {@link SyncService#syncToFirestore}, merging consecutive
+ * entries into batches, retrying documents that fail with backoff, and checkpointing
+ * after each batch. A document still failing after {@code max-attempts} is appended to
+ * {@code dead-letter.jsonl} beside the journal and the drain moves on. After a restart
+ * everything past the checkpoint is applied again, which is harmless as a document's
+ * later version always lands last.
+ * <p>
+ * Change sets with a document sent at a version, and patches, are not journaled, since
+ * whether they apply depends on what the store holds and the app has to hear about a
+ * conflict. They are applied directly once the journal has drained, so they land after
+ * the versions acknowledged before them. If the drainer stops, appends are refused with
+ * {@link RejectedExecutionException}, waits for the drain fail and health reports down.
+ * The journal lives on this instance's disk, which therefore has to survive restarts.
+ */
+@Component
+@Slf4j
+public class JournaledIngest implements HealthIndicator {
+
+    static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+
+    @Value("${paysync.sync.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${paysync.sync.journal.path:./journal}")
+    private String path;
+
+    @Value("${paysync.sync.journal.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    // Uploads are refused with 503 while this much of the journal is waiting to be applied
+    @Value("${paysync.sync.journal.max-bytes:1073741824}")
+    private long maxBytes;
+
+    @Value("${paysync.sync.journal.group-commit-ms:2}")
+    private long groupCommitMs;
+
+    @Value("${paysync.sync.journal.drain-batch-documents:2000}")
+    private int drainBatchDocuments;
+
+    // A document the store refuses this many times is moved to the dead-letter file
+    @Value("${paysync.sync.journal.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${paysync.sync.journal.retry-max-ms:60000}")
+    private long retryMaxMs;
+
+    @Autowired
+    private SyncService syncService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private IngestJournal journal;
+    private Thread flusher;
+    private Thread drainer;
+    private volatile boolean running;
+    private volatile long applied;
+    // Why the drainer stopped, or null while it runs
+    private volatile RuntimeException stopped;
+
+    // Appends waiting for a sync, and patches waiting for the drain, by the sequence they wait for
+    private final List<Waiter> unsynced = new ArrayList<>();
+    private final List<Waiter> undrained = new ArrayList<>();
+    private final Object drainSignal = new Object();
+
+    private Timer appendTimer;
+    private Counter deadLetters;
+
+    private record Waiter(long sequence, CompletableFuture<Void> future) {}
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = IngestJournal.open(Path.of(path), segmentBytes, maxBytes);
+        applied = journal.checkpointed();
+        appendTimer = Timer.builder("paysync.journal.append")
+            .description("Time from receiving a change set until it is durable in the journal")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        deadLetters = Counter.builder("paysync.journal.dead.letters")
+            .description("Journaled documents moved to the dead-letter file instead of being applied")
+            .register(meterRegistry);
+        Gauge.builder("paysync.journal.backlog", this, ingest -> ingest.journal.lastSequence() - ingest.applied)
+            .description("Journal entries not yet applied to the document store")
+            .register(meterRegistry);
+
+        running = true;
+        flusher = new Thread(this::flush, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        drainer = new Thread(this::drain, "journal-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        log.info("Ingest journal at {} opened, {} entries to apply", path, journal.lastSequence() - applied);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (journal == null) {
+            return;
+        }
+        running = false;
+        drainer.interrupt();
+        drainer.join(TimeUnit.SECONDS.toMillis(10));
+        synchronized (unsynced) {
+            unsynced.notifyAll();
+        }
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        // Whatever wasn't applied is read back on the next start
+        journal.close();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Health health() {
+        if (!enabled) {
+            return Health.up().build();
+        }
+        RuntimeException failure = stopped;
+        if (failure != null) {
+            return Health.down(failure).withDetail("appliedThrough", applied).build();
+        }
+        return Health.up().withDetail("backlog", journal.lastSequence() - applied).build();
+    }
+
+    // Whether accept takes this change set; ones with a document sent at a version are applied directly
+    public static boolean isJournaled(SyncChanges changes) {
+        for (SyncDocument document : changes.getDocuments()) {
+            if (document.expectedVersion() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Journals the documents of a change set that passed its schema. Completes once they
+     * are durable, with every journaled document reported as written; only the documents
+     * rejected while reading the change set are reported as failed. Fails with
+     * {@link RejectedExecutionException} while the journal is full or no longer applied.
+     */
+    public CompletableFuture<SyncResult> accept(SyncChanges changes) {
+        if (!isJournaled(changes)) {
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("Change sets with versioned documents are applied directly"));
+        }
+        if (stopped != null) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Ingest journal is not being applied"));
+        }
+        long started = System.nanoTime();
+        List<SyncWriteResult> results = new ArrayList<>(changes.getRejected());
+        if (changes.getDocuments().isEmpty()) {
+            return CompletableFuture.completedFuture(new SyncResult(results));
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(changes);
+            synchronized (unsynced) {
+                unsynced.add(new Waiter(journal.append(payload), durable));
+                unsynced.notifyAll();
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to journal sync changes", e));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return durable.thenApply(ignored -> {
+            appendTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            for (SyncDocument document : changes.getDocuments()) {
+                results.add(SyncWriteResult.ok(document.collection().getCollection(), document.documentId()));
+            }
+            return new SyncResult(results);
+        });
+    }
+
+    // Completes once everything journaled so far has been applied; fails if the drainer has stopped
+    public CompletableFuture<Void> drained() {
+        long sequence = journal.lastSequence();
+        synchronized (undrained) {
+            if (applied >= sequence) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (stopped != null) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Ingest journal is not being applied"));
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            undrained.add(new Waiter(sequence, future));
+            return future;
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            synchronized (unsynced) {
+                while (running && unsynced.isEmpty()) {
+                    try {
+                        unsynced.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running && unsynced.isEmpty()) {
+                    return;
+                }
+            }
+            if (groupCommitMs > 0 && running) {
+                // Lets appends arriving together share one force
+                try {
+                    Thread.sleep(groupCommitMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            long durable;
+            try {
+                durable = journal.sync();
+            } catch (RuntimeException e) {
+                log.error("Failed to sync the ingest journal: ", e);
+                synchronized (unsynced) {
+                    unsynced.forEach(waiter -> waiter.future().completeExceptionally(e));
+                    unsynced.clear();
+                }
+                continue;
+            }
+            complete(unsynced, durable);
+            synchronized (drainSignal) {
+                drainSignal.notifyAll();
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            drainInOrder();
+        } catch (RuntimeException e) {
+            // Stopping keeps everything from this entry on in the journal, to be applied after a restart
+            log.error("Stopped applying the ingest journal at entry {}: ", applied + 1, e);
+            synchronized (undrained) {
+                stopped = e;
+                RejectedExecutionException rejected = new RejectedExecutionException("Ingest journal is not being applied", e);
+                undrained.forEach(waiter -> waiter.future().completeExceptionally(rejected));
+                undrained.clear();
+            }
+        }
+    }
+
+    private void drainInOrder() {
+        Map<String, SyncDocument> batch = new LinkedHashMap<>();
+        while (running) {
+            long last = applied;
+            int documents = 0;
+            IngestJournal.Entry entry;
+            while (documents < drainBatchDocuments && (entry = journal.next()) != null) {
+                documents += merge(batch, entry);
+                last = entry.sequence();
+            }
+            if (last == applied) {
+                synchronized (drainSignal) {
+                    try {
+                        drainSignal.wait(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            try {
+                apply(batch);
+                journal.checkpoint(last);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // The batch is applied; without the checkpoint it is only applied again after a restart
+                log.error("Failed to checkpoint the ingest journal: ", e);
+            }
+            applied = last;
+            batch.clear();
+            complete(undrained, last);
+        }
+    }
+
+    // Adds an entry to the batch, later versions replacing earlier ones, and returns its document count
+    private int merge(Map<String, SyncDocument> batch, IngestJournal.Entry entry) {
+        SyncChanges changes;
+        try {
+            changes = objectMapper.readValue(entry.payload(), SyncChanges.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Ingest journal entry " + entry.sequence() + " can't be read", e);
+        }
+        for (SyncDocument document : changes.getDocuments()) {
+            batch.put(key(document.collection().getCollection(), document.documentId()), document);
+        }
+        return changes.getDocuments().size();
+    }
+
+    /**
+     * Applies a batch, retrying the documents that fail, and returns once each is written
+     * or dead-lettered. A document the store refuses is reported failed on its own, so
+     * only it counts towards {@code max-attempts}. A failure of the whole call, like the
+     * store being unreachable, says nothing against any document and is retried until
+     * it passes.
+     */
+    private void apply(Map<String, SyncDocument> batch) throws InterruptedException {
+        Map<String, Integer> attempts = new HashMap<>();
+        Map<String, SyncDocument> pending = batch;
+        long backoffMs = Math.min(1000, retryMaxMs);
+        while (true) {
+            SyncResult result;
+            try {
+                result = syncService.syncToFirestore(new SyncChanges(new ArrayList<>(pending.values()), List.of()));
+            } catch (RuntimeException e) {
+                log.warn("Applying the ingest journal failed, retrying in {} ms: {}", backoffMs, e.getMessage());
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, retryMaxMs);
+                continue;
+            }
+            Map<String, SyncDocument> failed = new LinkedHashMap<>();
+            for (SyncWriteResult write : result.getResults()) {
+                if (write.isSuccess()) {
+                    continue;
+                }
+                String key = key(write.getCollection(), write.getDocumentId());
+                // Only entries journaled before versioned documents were applied directly can conflict
+                int attempt = write.isConflict() ? maxAttempts : attempts.merge(key, 1, Integer::sum);
+                if (attempt >= maxAttempts) {
+                    deadLetter(pending.get(key), write.getError());
+                    continue;
+                }
+                failed.put(key, pending.get(key));
+            }
+            if (failed.isEmpty()) {
+                return;
+            }
+            log.warn("{} journaled documents failed to apply, retrying in {} ms", failed.size(), backoffMs);
+            Thread.sleep(backoffMs);
+            backoffMs = Math.min(backoffMs * 2, retryMaxMs);
+            pending = failed;
+        }
+    }
+
+    // One JSON line per document, with what it would have written, for an operator to replay or discard
+    private void deadLetter(SyncDocument document, String error) {
+        String collection = document.collection().getCollection();
+        log.error("Moving journaled document {}/{} to the dead-letter file: {}", collection, document.documentId(), error);
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("collection", collection);
+        line.put("documentId", document.documentId());
+        line.put("error", error);
+        line.put("failedAt", System.currentTimeMillis());
+        line.put("data", document.data());
+        try (FileChannel channel = FileChannel.open(Path.of(path).resolve(DEAD_LETTER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            byte[] json = objectMapper.writeValueAsBytes(line);
+            byte[] record = Arrays.copyOf(json, json.length + 1);
+            record[json.length] = '\n';
+            channel.write(ByteBuffer.wrap(record));
+            channel.force(false);
+        } catch (IOException e) {
+            // Stops the drain, so the document stays in the journal rather than being lost
+            throw new UncheckedIOException("Failed to write the dead-letter file", e);
+        }
+        deadLetters.increment();
+    }
+
+    private static String key(String collection, String documentId) {
+        return collection + "/" + documentId;
+    }
+
+    private static void complete(List<Waiter> waiters, long sequence) {
+        synchronized (waiters) {
+            waiters.removeIf(waiter -> {
+                if (waiter.sequence() > sequence) {
+                    return false;
+                }
+                waiter.future().complete(null);
+                return true;
+            });
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.paysync.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.StoredDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * In-memory aggregates of the transactions that share a value of one field, such as a
+ * user's or an event's. An aggregate is loaded with a paged scan on first use, kept
+ * current from transaction change notifications, and evicted by total transaction count
+ * and TTL. A transaction that moves to another key leaves the old key's aggregate.
+ */
+final class LedgerCache<L extends LedgerCache.Ledger> {
+
+    /**
+     * What a cached aggregate does with each change. Calls come from writers on any
+     * thread, so implementations guard their own state.
+     */
+    interface Ledger {
+        void upsert(LedgerEntry entry);
+
+        void remove(String transactionId);
+
+        int size();
+
+        // Once for each change notification that reached this aggregate, after it was applied
+        default void notified() {
+        }
+    }
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final DocumentStore documentStore;
+    private final String field;
+    private final Function<LedgerEntry, String> keyOf;
+    private final Function<String, L> empty;
+    private final Cache<String, L> ledgers;
+
+    /**
+     * @param field the transaction field the aggregates are keyed by
+     * @param keyOf that field's value in a change notification
+     * @param empty a new aggregate for a key, created before its scan starts
+     */
+    LedgerCache(DocumentStore documentStore, String field, Function<LedgerEntry, String> keyOf,
+                Function<String, L> empty, long maxTransactions, Duration ttl,
+                MeterRegistry meterRegistry, String metricName) {
+        this.documentStore = documentStore;
+        this.field = field;
+        this.keyOf = keyOf;
+        this.empty = empty;
+        this.ledgers = Caffeine.newBuilder()
+            .maximumWeight(maxTransactions)
+            .weigher((String key, L ledger) -> Math.max(1, ledger.size()))
+            .expireAfterWrite(ttl)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, ledgers, metricName);
+    }
+
+    L get(String key) {
+        return ledgers.get(key, this::load);
+    }
+
+    // Scans the key's transactions again, replacing what was kept
+    L reload(String key) {
+        L ledger = load(key);
+        ledgers.put(key, ledger);
+        return ledger;
+    }
+
+    void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        // Only aggregates already in memory need updating; others load fresh on next use
+        String previousKey = before == null ? null : keyOf.apply(before);
+        String key = after == null ? null : keyOf.apply(after);
+        if (previousKey != null && !previousKey.equals(key)) {
+            L previous = ledgers.getIfPresent(previousKey);
+            if (previous != null) {
+                previous.remove(before.getTransactionId());
+                previous.notified();
+            }
+        }
+        if (key != null) {
+            L ledger = ledgers.getIfPresent(key);
+            if (ledger != null) {
+                ledger.upsert(after);
+                ledger.notified();
+            }
+        }
+    }
+
+    private L load(String key) {
+        L ledger = empty.apply(key);
+        DocumentQuery query = DocumentQuery.create()
+            .whereEqualTo(field, key)
+            .orderByDocumentId()
+            .limit(PAGE_SIZE);
+
+        try {
+            while (true) {
+                List<StoredDocument> docs = documentStore.query(DocumentStore.TRANSACTIONS, query).get();
+                for (StoredDocument doc : docs) {
+                    ledger.upsert(LedgerEntry.fromDocument(doc.getId(), doc.getData()));
+                }
+                if (docs.size() < PAGE_SIZE) {
+                    return ledger;
+                }
+                query.startAfter(docs.get(docs.size() - 1).getId());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error loading transactions by " + field, e);
+        }
+    }
+}
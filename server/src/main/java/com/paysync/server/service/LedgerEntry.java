@@ -0,0 +1,116 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.Transaction;
+
+import java.util.Map;
+
+import static com.paysync.server.repository.DocumentValues.asBoolean;
+import static com.paysync.server.repository.DocumentValues.asDouble;
+import static com.paysync.server.repository.DocumentValues.asString;
+import static com.paysync.server.repository.DocumentValues.toEpochMillis;
+
+/**
+ * The fields of a transaction that server-side aggregates depend on. Transactions
+ * written through the REST API are typed, while documents synced from the app carry
+ * SQLite values (0/1 flags, ISO-8601 strings), so both are read through this view.
+ * A normalized amount is NaN when it couldn't be converted; documents written before
+ * amounts were normalized have none, and their own amount stands in for it.
+ */
+public final class LedgerEntry {
+    private final String transactionId;
+    private final String userId;
+    private final String eventId;
+    private final boolean online;
+    private final boolean credit;
+    private final double amount;
+    private final double eventAmount;
+    private final double userAmount;
+    private final String currency;
+    private final String paymentMethod;
+    private final long epochMillis;
+    private final boolean recurring;
+
+    public LedgerEntry(String transactionId, String userId, String eventId, boolean online, boolean credit,
+                       double amount, String currency, String paymentMethod, long epochMillis) {
+        this(transactionId, userId, eventId, online, credit, amount, amount, amount, currency, paymentMethod, epochMillis, false);
+    }
+
+    public LedgerEntry(String transactionId, String userId, String eventId, boolean online, boolean credit,
+                       double amount, double eventAmount, double userAmount, String currency,
+                       String paymentMethod, long epochMillis, boolean recurring) {
+        this.transactionId = transactionId;
+        this.userId = userId;
+        this.eventId = eventId;
+        this.online = online;
+        this.credit = credit;
+        this.amount = amount;
+        this.eventAmount = eventAmount;
+        this.userAmount = userAmount;
+        this.currency = currency;
+        this.paymentMethod = paymentMethod;
+        this.epochMillis = epochMillis;
+        this.recurring = recurring;
+    }
+
+    // For a transaction normalized by CurrencyService, where a null amount couldn't be converted
+    public static LedgerEntry fromTransaction(Transaction transaction) {
+        double amount = transaction.getAmount() == null ? 0.0 : transaction.getAmount();
+        return new LedgerEntry(
+            transaction.getTransactionId(),
+            transaction.getUserId(),
+            transaction.getEventId(),
+            Boolean.TRUE.equals(transaction.getIsOnline()),
+            Boolean.TRUE.equals(transaction.getIsCredit()),
+            amount,
+            transaction.getAmountInEventCurrency() == null ? Double.NaN : transaction.getAmountInEventCurrency(),
+            transaction.getAmountInUserCurrency() == null ? Double.NaN : transaction.getAmountInUserCurrency(),
+            transaction.getCurrency(),
+            transaction.getPaymentMethod(),
+            toEpochMillis(transaction.getDateTime()),
+            Boolean.TRUE.equals(transaction.getRecurring()));
+    }
+
+    public static LedgerEntry fromDocument(String transactionId, Map<String, Object> data) {
+        double amount = asDouble(data.get("amount"));
+        return new LedgerEntry(
+            transactionId,
+            asString(data.get("userId")),
+            asString(data.get("eventId")),
+            asBoolean(data.get("isOnline")),
+            asBoolean(data.get("isCredit")),
+            amount,
+            normalizedAmount(data, CurrencyService.EVENT_AMOUNT_FIELD, amount),
+            normalizedAmount(data, CurrencyService.USER_AMOUNT_FIELD, amount),
+            asString(data.get("currency")),
+            asString(data.get("paymentMethod")),
+            toEpochMillis(data.get("dateTime")),
+            asBoolean(data.get("recurring")));
+    }
+
+    private static double normalizedAmount(Map<String, Object> data, String field, double amount) {
+        if (!data.containsKey(field)) {
+            return amount;
+        }
+        Object value = data.get(field);
+        return value == null ? Double.NaN : asDouble(value);
+    }
+
+    public String getTransactionId() { return transactionId; }
+    public String getUserId() { return userId; }
+    public String getEventId() { return eventId; }
+    public boolean isOnline() { return online; }
+    public boolean isCredit() { return credit; }
+    public double getAmount() { return amount; }
+    public double getEventAmount() { return eventAmount; }
+    public double getUserAmount() { return userAmount; }
+    public String getCurrency() { return currency; }
+    public String getPaymentMethod() { return paymentMethod; }
+    public long getEpochMillis() { return epochMillis; }
+    // Marked recurring, so it may be the template of a recurring series
+    public boolean isRecurring() { return recurring; }
+
+    // Credits add to a balance and debits subtract, as in the app's event totals
+    public double signedAmount() {
+        return credit ? amount : -amount;
+    }
+}
@@ -0,0 +1,258 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.StoredDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import static com.paysync.server.repository.DocumentValues.asBoolean;
+import static com.paysync.server.repository.DocumentValues.asDouble;
+import static com.paysync.server.repository.DocumentValues.toEpochMillis;
+
+/**
+ * Streams a user's or an event's transactions as CSV or NDJSON, optionally gzip
+ * compressed. Transactions are read in document-id ordered pages with only the
+ * requested fields projected, and each page is written and flushed before the next
+ * is read, so heap use stays flat however long the ledger is. Values are written
+ * the same way whether a transaction came from the API or from app sync: flags as
+ * booleans, amounts as numbers and times as ISO-8601 instants.
+ */
+@Service
+public class LedgerExportService {
+
+    public enum Format { CSV, NDJSON }
+
+    // Export columns in output order; transactionId is the document id
+    static final List<String> FIELDS = List.of(
+        "transactionId", "userId", "eventId", "dateTime", "amount", "currency", "isCredit", "isOnline",
+        "paymentMethod", "location", "note", "imageUrl", "recurring", "recurringType",
+        CurrencyService.EVENT_AMOUNT_FIELD, CurrencyService.USER_AMOUNT_FIELD, "createdAt", "updatedAt");
+
+    private static final Set<String> BOOLEAN_FIELDS = Set.of("isCredit", "isOnline", "recurring");
+    private static final Set<String> NUMBER_FIELDS = Set.of(
+        "amount", CurrencyService.EVENT_AMOUNT_FIELD, CurrencyService.USER_AMOUNT_FIELD);
+    private static final Set<String> TIME_FIELDS = Set.of("dateTime", "createdAt", "updatedAt");
+
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    @Value("${paysync.export.page-size:500}")
+    private int pageSize;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * What to export, validated up front so a bad request fails before the response
+     * starts streaming.
+     */
+    public static final class Request {
+        private final String ownerField;
+        private final String ownerId;
+        private final Format format;
+        private final List<String> fields;
+        private final Long from;
+        private final Long to;
+
+        private Request(String ownerField, String ownerId, Format format, List<String> fields, Long from, Long to) {
+            this.ownerField = ownerField;
+            this.ownerId = ownerId;
+            this.format = format;
+            this.fields = fields;
+            this.from = from;
+            this.to = to;
+        }
+
+        // format: csv or ndjson; fields: comma-separated export columns (blank for all); from/to: epoch millis
+        public static Request of(String ownerField, String ownerId, String format, String fields, Long from, Long to) {
+            Format parsedFormat;
+            switch (format.toLowerCase()) {
+                case "csv": parsedFormat = Format.CSV; break;
+                case "ndjson": parsedFormat = Format.NDJSON; break;
+                default: throw new IllegalArgumentException("Unknown format: " + format);
+            }
+            if (from != null && to != null && from >= to) {
+                throw new IllegalArgumentException("from must be before to");
+            }
+            return new Request(ownerField, ownerId, parsedFormat, parseFields(fields), from, to);
+        }
+
+        public Format getFormat() { return format; }
+    }
+
+    static List<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return FIELDS;
+        }
+        Set<String> selected = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Unknown field: " + name);
+            }
+            selected.add(name);
+        }
+        return new ArrayList<>(selected);
+    }
+
+    public void export(Request request, OutputStream out, boolean gzip) throws IOException {
+        // Sync flushes push each page through the compressor, which keeps the output rate steady
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(out, WRITE_BUFFER_SIZE, true) : null;
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(compressed != null ? compressed : out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        RowWriter rows = request.format == Format.CSV ? new CsvWriter(writer, request.fields) : new NdjsonWriter(writer, request.fields);
+
+        Set<String> projection = new LinkedHashSet<>(request.fields);
+        projection.remove("transactionId");
+        boolean ranged = request.from != null || request.to != null;
+        if (ranged) {
+            projection.add("dateTime");
+        }
+        DocumentQuery query = DocumentQuery.create()
+            .whereEqualTo(request.ownerField, request.ownerId)
+            .orderByDocumentId()
+            .limit(pageSize)
+            .select(projection.toArray(new String[0]));
+
+        try {
+            while (true) {
+                List<StoredDocument> page = documentStore.query(DocumentStore.TRANSACTIONS, query).get();
+                for (StoredDocument doc : page) {
+                    // dateTime is a Timestamp or an ISO string depending on the writer, so the range is applied here
+                    if (ranged && !inRange(toEpochMillis(doc.get("dateTime")), request.from, request.to)) {
+                        continue;
+                    }
+                    rows.write(doc);
+                }
+                rows.flush();
+                if (page.size() < pageSize) {
+                    break;
+                }
+                query.startAfter(page.get(page.size() - 1).getId());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to export transactions", e);
+        }
+
+        rows.flush();
+        if (compressed != null) {
+            // Finish rather than close, the container owns the response stream
+            compressed.finish();
+        }
+    }
+
+    private static boolean inRange(long time, Long from, Long to) {
+        return (from == null || time >= from) && (to == null || time < to);
+    }
+
+    static Object exportValue(String field, StoredDocument doc) {
+        if (field.equals("transactionId")) {
+            return doc.getId();
+        }
+        Object value = doc.get(field);
+        if (value == null) {
+            return null;
+        }
+        if (BOOLEAN_FIELDS.contains(field)) {
+            return asBoolean(value);
+        }
+        if (NUMBER_FIELDS.contains(field)) {
+            return asDouble(value);
+        }
+        if (TIME_FIELDS.contains(field)) {
+            return Instant.ofEpochMilli(toEpochMillis(value)).toString();
+        }
+        return value.toString();
+    }
+
+    private interface RowWriter {
+        void write(StoredDocument doc) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    private static final class CsvWriter implements RowWriter {
+        private final Writer writer;
+        private final List<String> fields;
+
+        CsvWriter(Writer writer, List<String> fields) throws IOException {
+            this.writer = writer;
+            this.fields = fields;
+            writer.write(String.join(",", fields));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(StoredDocument doc) throws IOException {
+            for (int i = 0; i < fields.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = exportValue(fields.get(i), doc);
+                if (value != null) {
+                    writer.write(csvField(value.toString()));
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private final class NdjsonWriter implements RowWriter {
+        private final JsonGenerator json;
+        private final List<String> fields;
+
+        NdjsonWriter(Writer writer, List<String> fields) throws IOException {
+            this.json = objectMapper.getFactory().createGenerator(writer);
+            this.json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.fields = fields;
+        }
+
+        @Override
+        public void write(StoredDocument doc) throws IOException {
+            json.writeStartObject();
+            for (String field : fields) {
+                json.writeObjectField(field, exportValue(field, doc));
+            }
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            json.flush();
+        }
+    }
+
+    // RFC 4180 quoting, only where needed
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,60 @@
+package com.paysync.server.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of exchange rates against a base currency. Currency codes map
+ * to a slot in a primitive array, so a conversion is two array reads.
+ */
+final class RateTable {
+    private final String base;
+    private final Map<String, Integer> slots;
+    private final double[] perBase;
+
+    RateTable(String base, Map<String, Double> rates) {
+        this.base = base.toUpperCase();
+        this.slots = new HashMap<>();
+        this.perBase = new double[rates.size() + 1];
+        slots.put(this.base, 0);
+        perBase[0] = 1.0;
+        for (Map.Entry<String, Double> rate : rates.entrySet()) {
+            String code = rate.getKey().toUpperCase();
+            if (rate.getValue() == null || rate.getValue() <= 0 || slots.containsKey(code)) {
+                continue;
+            }
+            int slot = slots.size();
+            slots.put(code, slot);
+            perBase[slot] = rate.getValue();
+        }
+    }
+
+    String getBase() { return base; }
+
+    int size() { return slots.size(); }
+
+    // Units of {@code to} per one unit of {@code from}, or NaN if either is unknown
+    double factor(String from, String to) {
+        Integer fromSlot = from == null ? null : slots.get(from.toUpperCase());
+        Integer toSlot = to == null ? null : slots.get(to.toUpperCase());
+        if (fromSlot == null || toSlot == null) {
+            return Double.NaN;
+        }
+        return perBase[toSlot] / perBase[fromSlot];
+    }
+
+    /**
+     * Factors for converting each of {@code currencies} into {@code target}, index for
+     * index, so a column of dictionary codes can be converted with one multiply per row.
+     * Null currencies are treated as already being in the target currency.
+     */
+    double[] factors(List<String> currencies, String target) {
+        double[] factors = new double[currencies.size()];
+        for (int i = 0; i < factors.length; i++) {
+            String currency = currencies.get(i);
+            factors[i] = currency == null ? 1.0 : factor(currency, target);
+        }
+        return factors;
+    }
+}
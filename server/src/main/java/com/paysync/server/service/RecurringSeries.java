@@ -0,0 +1,232 @@
+package com.paysync.server.service;
+
+import com.google.cloud.Timestamp;
+import com.google.common.hash.Hashing;
+import com.paysync.server.repository.DocumentValues;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A recurring transaction and the instances it repeats as. Instance {@code n} falls
+ * {@code n} periods after the template's dateTime, counted on the calendar so monthly
+ * instances keep their day of month (clamped in shorter months). Templates are told
+ * apart by what they post rather than by id, since the app creates the next instance
+ * itself as another recurring transaction with the same details.
+ */
+final class RecurringSeries {
+
+    // Set on instances the server posts, with the id of the template they came from
+    static final String TEMPLATE_ID_FIELD = "recurringTemplateId";
+    static final String PERIOD_FIELD = "recurringPeriod";
+
+    // As Dart's DateTime.toIso8601String() writes local times
+    private static final DateTimeFormatter LOCAL_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    enum Period {
+        DAILY(86_400_000L),
+        WEEKLY(7 * 86_400_000L),
+        MONTHLY(2_629_746_000L),
+        YEARLY(31_556_952_000L);
+
+        // Average length, for estimating which instance a time falls on
+        private final long approximateMillis;
+
+        Period(long approximateMillis) {
+            this.approximateMillis = approximateMillis;
+        }
+
+        // The app's recurringType values: Daily, Weekly, Monthly, Yearly
+        static Period parse(String recurringType) {
+            if (recurringType == null) {
+                return null;
+            }
+            for (Period period : values()) {
+                if (period.name().equalsIgnoreCase(recurringType.trim())) {
+                    return period;
+                }
+            }
+            return null;
+        }
+
+        OffsetDateTime after(OffsetDateTime anchor, long periods) {
+            switch (this) {
+                case DAILY: return anchor.plusDays(periods);
+                case WEEKLY: return anchor.plusWeeks(periods);
+                case MONTHLY: return anchor.plusMonths(periods);
+                default: return anchor.plusYears(periods);
+            }
+        }
+    }
+
+    private final String templateId;
+    private final Map<String, Object> template;
+    private final Period period;
+    private final OffsetDateTime anchor;
+    private final String key;
+
+    private RecurringSeries(String templateId, Map<String, Object> template, Period period, OffsetDateTime anchor) {
+        this.templateId = templateId;
+        this.template = template;
+        this.period = period;
+        this.anchor = anchor;
+        this.key = seriesKey(template);
+    }
+
+    /**
+     * The series a transaction document starts, or null if it doesn't repeat: it isn't
+     * marked recurring, has no known recurringType or no dateTime, or is itself an
+     * instance the server posted.
+     */
+    static RecurringSeries of(String transactionId, Map<String, Object> data) {
+        if (data == null || !DocumentValues.asBoolean(data.get("recurring")) || data.containsKey(TEMPLATE_ID_FIELD)) {
+            return null;
+        }
+        Period period = Period.parse(DocumentValues.asString(data.get("recurringType")));
+        OffsetDateTime anchor = parseDateTime(data.get("dateTime"));
+        if (period == null || anchor == null) {
+            return null;
+        }
+        return new RecurringSeries(transactionId, data, period, anchor);
+    }
+
+    String getTemplateId() { return templateId; }
+    Map<String, Object> getTemplate() { return template; }
+    Period getPeriod() { return period; }
+    OffsetDateTime getAnchor() { return anchor; }
+    String getKey() { return key; }
+
+    /**
+     * Identifies a series by what its instances post, so the template and the copies
+     * the app makes of it share one schedule. Editing any of these fields starts a new
+     * series.
+     */
+    static String seriesKey(Map<String, Object> data) {
+        String signature = String.join("\u0000",
+            String.valueOf(DocumentValues.asString(data.get("userId"))),
+            String.valueOf(DocumentValues.asString(data.get("eventId"))),
+            String.valueOf(Period.parse(DocumentValues.asString(data.get("recurringType")))),
+            String.valueOf(DocumentValues.asDouble(data.get("amount"))),
+            String.valueOf(DocumentValues.asString(data.get("currency"))),
+            String.valueOf(DocumentValues.asBoolean(data.get("isCredit"))),
+            String.valueOf(DocumentValues.asBoolean(data.get("isOnline"))),
+            String.valueOf(DocumentValues.asString(data.get("paymentMethod"))),
+            String.valueOf(DocumentValues.asString(data.get("note"))));
+        return "rec-" + Hashing.murmur3_128().hashString(signature, StandardCharsets.UTF_8).toString().substring(0, 20);
+    }
+
+    // The same series counted from another start, such as the one its schedule was created with
+    RecurringSeries anchoredAt(Object dateTime) {
+        OffsetDateTime other = parseDateTime(dateTime);
+        return other == null ? this : new RecurringSeries(templateId, template, period, other);
+    }
+
+    static String instanceId(String seriesKey, long period) {
+        return seriesKey + "-" + period;
+    }
+
+    OffsetDateTime occurrence(long n) {
+        return period.after(anchor, n);
+    }
+
+    long occurrenceMillis(long n) {
+        return occurrence(n).toInstant().toEpochMilli();
+    }
+
+    // The first instance after the template that falls after the given time
+    long firstPeriodAfter(long epochMillis) {
+        long n = Math.max(1, (epochMillis - anchor.toInstant().toEpochMilli()) / period.approximateMillis);
+        while (n > 1 && occurrenceMillis(n - 1) > epochMillis) {
+            n--;
+        }
+        while (occurrenceMillis(n) <= epochMillis) {
+            n++;
+        }
+        return n;
+    }
+
+    // Which instance falls exactly at the given dateTime, or -1 if none after the template does
+    long periodAt(Object dateTime) {
+        OffsetDateTime at = parseDateTime(dateTime);
+        if (at == null) {
+            return -1;
+        }
+        long millis = at.toInstant().toEpochMilli();
+        long estimate = Math.round((double) (millis - anchor.toInstant().toEpochMilli()) / period.approximateMillis);
+        for (long n = Math.max(1, estimate - 1); n <= estimate + 1; n++) {
+            if (occurrenceMillis(n) == millis) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Instance {@code n} as a transaction document, in the same shape as the template.
+     * Dates keep the template's form, instances aren't recurring themselves, and the
+     * template's running balances are left out for the scheduler to work out again.
+     */
+    Map<String, Object> instance(long n, long nowMillis) {
+        Map<String, Object> instance = new HashMap<>(template);
+        instance.remove("lastSynced");
+        instance.remove("onlineBalanceAfter");
+        instance.remove("offlineBalanceAfter");
+        String instanceId = instanceId(key, n);
+        instance.put("transactionId", instanceId);
+        instance.put("dateTime", formatLike(template.get("dateTime"), occurrence(n)));
+        instance.put("recurring", template.get("recurring") instanceof Boolean ? (Object) false : (Object) 0);
+        instance.put(TEMPLATE_ID_FIELD, templateId);
+        instance.put(PERIOD_FIELD, n);
+        OffsetDateTime now = Instant.ofEpochMilli(nowMillis).atOffset(ZoneOffset.UTC);
+        Object dateTime = template.get("dateTime");
+        instance.put("createdAt", formatLike(template.getOrDefault("createdAt", dateTime), now));
+        instance.put("updatedAt", formatLike(template.getOrDefault("updatedAt", dateTime), now));
+        instance.put("lastSynced", nowMillis);
+        return instance;
+    }
+
+    // The app writes ISO-8601 without an offset, which the server reads as UTC
+    static OffsetDateTime parseDateTime(Object value) {
+        if (value instanceof String) {
+            String text = (String) value;
+            try {
+                return OffsetDateTime.parse(text);
+            } catch (DateTimeParseException e) {
+                // Dart's toIso8601String() omits the offset for local times
+            }
+            try {
+                return LocalDateTime.parse(text).atOffset(ZoneOffset.UTC);
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        if (value == null) {
+            return null;
+        }
+        long millis = DocumentValues.toEpochMillis(value);
+        return millis == 0 ? null : Instant.ofEpochMilli(millis).atOffset(ZoneOffset.UTC);
+    }
+
+    private static Object formatLike(Object example, OffsetDateTime value) {
+        if (example instanceof String) {
+            String text = (String) example;
+            try {
+                OffsetDateTime.parse(text);
+                return value.toString();
+            } catch (DateTimeParseException e) {
+                return LOCAL_DATE_TIME.format(value.toLocalDateTime());
+            }
+        }
+        if (example instanceof Number) {
+            return value.toInstant().toEpochMilli();
+        }
+        return Timestamp.ofTimeMicroseconds(value.toInstant().toEpochMilli() * 1000);
+    }
+}
@@ -0,0 +1,480 @@
+package com.paysync.server.service;
+
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentValues;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.StoredDocument;
+import com.paysync.server.repository.TransactionDocuments;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts the instances of recurring transactions when they fall due, instead of leaving
+ * the app to catch up in a burst whenever it is next opened. Each series has a
+ * schedule document in {@code recurring_schedules} holding the next period to post.
+ * Instances have ids derived from the series and period and are committed before the
+ * schedule moves past them, so a round cut short is repeated and only posts what isn't
+ * there yet, and its summary totals count each instance once. A schedule only ever
+ * moves forward, so a period the app posted itself is never posted again.
+ * Like a copy the app posts itself, an instance moves its user's {@code onlineAmount} or
+ * {@code offlineAmount} and records the balances after it, in the same commit and only
+ * if the user document hasn't changed since it was read.
+ * Schedules are split into shards leased between instances ({@link ShardLeases}), and
+ * each instance keeps the schedules of its shards in a due queue ordered by time.
+ * Periods that fell due before a series was first seen are left to the app.
+ */
+@Component
+@Slf4j
+public class RecurringTransactionScheduler implements TransactionChangeListener {
+
+    static final String SCHEDULES = "recurring_schedules";
+
+    // Each instance may bring a summary increment and a user balance update, so commits
+    // stay under Firestore's 500-write limit
+    private static final int MAX_COMMIT_WRITES = 160;
+
+    @Value("${paysync.recurring.enabled:true}")
+    private boolean enabled;
+
+    @Value("${paysync.recurring.shards:16}")
+    private int shards;
+
+    @Value("${paysync.recurring.lease-ttl-ms:30000}")
+    private long leaseTtlMs;
+
+    @Value("${paysync.recurring.tick-ms:1000}")
+    private long tickMs;
+
+    // Series posted per round
+    @Value("${paysync.recurring.batch-size:100}")
+    private int batchSize;
+
+    // Instances one series may post per round when catching up after downtime
+    @Value("${paysync.recurring.max-catch-up:31}")
+    private int maxCatchUp;
+
+    // How often each shard is checked for schedules created or advanced by other instances
+    @Value("${paysync.recurring.reload-interval-ms:60000}")
+    private long reloadIntervalMs;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private EventSummaryService eventSummaryService;
+
+    @Autowired
+    private TransactionCache transactionCache;
+
+    @Autowired
+    private List<TransactionChangeListener> changeListeners;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Only touched from the scheduler thread, apart from the gauge reading its size
+    private final PriorityQueue<Due> queue = new PriorityQueue<>(Comparator.comparingLong(due -> due.dueAt));
+    private final Map<String, Long> queued = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> reloadedAt = new HashMap<>();
+    // Recurring transactions written since the last round, from any path
+    private final Set<String> changedTemplates = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService executor;
+    private ShardLeases leases;
+    private long leasesRefreshedAt;
+    private Counter posted;
+
+    private static final class Due {
+        private final String seriesKey;
+        private final int shard;
+        private final long dueAt;
+
+        Due(String seriesKey, int shard, long dueAt) {
+            this.seriesKey = seriesKey;
+            this.shard = shard;
+            this.dueAt = dueAt;
+        }
+    }
+
+    // Instances and schedule deletes committed together, then the schedules they advance
+    private static final class Round {
+        private final List<DocumentWrite> writes = new ArrayList<>();
+        private final Map<String, Map<String, Object>> instances = new LinkedHashMap<>();
+        private final List<Due> next = new ArrayList<>();
+        // The period each series' schedule moves to once the instances are in
+        private final Map<String, Long> nextPeriods = new HashMap<>();
+    }
+
+    @PostConstruct
+    public void start() {
+        posted = Counter.builder("paysync.recurring.posted")
+            .description("Recurring transaction instances posted by the scheduler")
+            .register(meterRegistry);
+        Gauge.builder("paysync.recurring.queued", queued, Map::size)
+            .description("Recurring series in this instance's due queue")
+            .register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        leases = new ShardLeases(documentStore, "recurring", shards, leaseTtlMs, UUID.randomUUID().toString());
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recurring-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::tick, 0, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        leases.releaseAll();
+    }
+
+    @Override
+    public void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        if (enabled && after != null && after.isRecurring()) {
+            changedTemplates.add(after.getTransactionId());
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            if (now - leasesRefreshedAt >= leaseTtlMs / 3) {
+                Set<Integer> acquired = leases.refresh();
+                leasesRefreshedAt = now;
+                reloadedAt.keySet().retainAll(leases.heldShards());
+                acquired.forEach(reloadedAt::remove);
+                // Whoever holds shard 0 picks up templates written before the scheduler existed
+                if (acquired.contains(0)) {
+                    scanTemplates();
+                }
+            }
+            for (Integer shard : leases.heldShards()) {
+                Long last = reloadedAt.get(shard);
+                if (last == null || now - last >= reloadIntervalMs) {
+                    load(shard, last);
+                    reloadedAt.put(shard, now);
+                }
+            }
+            trackChangedTemplates();
+            postDue();
+        } catch (RuntimeException e) {
+            log.error("Recurring transaction round failed: ", e);
+        }
+    }
+
+    // Every schedule of the shard, or those changed since the last load (with a margin for clock skew)
+    private void load(int shard, Long since) {
+        DocumentQuery query = DocumentQuery.create().whereEqualTo("shard", shard);
+        if (since != null) {
+            query.whereGreaterThan("updatedAt", since - reloadIntervalMs);
+        }
+        for (StoredDocument schedule : await(documentStore.query(SCHEDULES, query), "load recurring schedules")) {
+            enqueue(schedule.getId(), shard, (long) DocumentValues.asDouble(schedule.get("nextDue")));
+        }
+    }
+
+    private void scanTemplates() {
+        for (Object flag : new Object[] {true, 1L}) {
+            List<StoredDocument> templates = await(documentStore.query(DocumentStore.TRANSACTIONS,
+                DocumentQuery.create().whereEqualTo("recurring", flag)), "scan recurring transactions");
+            for (StoredDocument template : templates) {
+                track(template.getId(), template.getData());
+            }
+        }
+    }
+
+    private void trackChangedTemplates() {
+        if (changedTemplates.isEmpty()) {
+            return;
+        }
+        List<String> transactionIds = new ArrayList<>(changedTemplates);
+        changedTemplates.removeAll(transactionIds);
+        await(documentStore.getAll(DocumentStore.TRANSACTIONS, transactionIds), "read recurring transactions")
+            .forEach(this::track);
+    }
+
+    /**
+     * Creates the schedule of a series the first time one of its transactions is seen.
+     * A later one on the series' calendar is a copy the app posted itself, so the
+     * schedule moves past its period.
+     */
+    private void track(String transactionId, Map<String, Object> data) {
+        RecurringSeries series = RecurringSeries.of(transactionId, data);
+        if (series == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int shard = leases.shardOf(series.getKey());
+        Map<String, Object> schedule = await(documentStore.compute(SCHEDULES, series.getKey(), current -> {
+            if (current == null) {
+                return schedule(series, shard, series.firstPeriodAfter(now), now);
+            }
+            RecurringSeries scheduled = series.anchoredAt(current.get("anchor"));
+            long period = scheduled.periodAt(data.get("dateTime"));
+            if (period < (long) DocumentValues.asDouble(current.get("nextPeriod"))) {
+                return null;
+            }
+            Map<String, Object> advanced = new HashMap<>(current);
+            advanced.put("nextPeriod", period + 1);
+            advanced.put("nextDue", scheduled.occurrenceMillis(period + 1));
+            advanced.put("updatedAt", now);
+            return advanced;
+        }), "track recurring transaction");
+        if (leases.holds(shard)) {
+            enqueue(series.getKey(), shard, (long) DocumentValues.asDouble(schedule.get("nextDue")));
+        }
+    }
+
+    private static Map<String, Object> schedule(RecurringSeries series, int shard, long nextPeriod, long now) {
+        Map<String, Object> schedule = new HashMap<>();
+        schedule.put("templateId", series.getTemplateId());
+        schedule.put("userId", series.getTemplate().get("userId"));
+        schedule.put("recurringType", series.getTemplate().get("recurringType"));
+        schedule.put("anchor", series.getTemplate().get("dateTime"));
+        schedule.put("shard", shard);
+        schedule.put("nextPeriod", nextPeriod);
+        schedule.put("nextDue", series.occurrenceMillis(nextPeriod));
+        schedule.put("updatedAt", now);
+        return schedule;
+    }
+
+    private void enqueue(String seriesKey, int shard, long dueAt) {
+        Long previous = queued.put(seriesKey, dueAt);
+        if (!Objects.equals(previous, dueAt)) {
+            queue.add(new Due(seriesKey, shard, dueAt));
+        }
+    }
+
+    private void postDue() {
+        long now = System.currentTimeMillis();
+        List<Due> due = new ArrayList<>();
+        List<Due> deferred = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().dueAt <= now && due.size() < batchSize) {
+            Due next = queue.poll();
+            if (!Objects.equals(queued.get(next.seriesKey), next.dueAt)) {
+                continue;
+            }
+            if (!leases.holds(next.shard)) {
+                // Another instance has the shard now
+                queued.remove(next.seriesKey);
+            } else if (!leases.isSafe(next.shard)) {
+                deferred.add(next);
+            } else {
+                due.add(next);
+            }
+        }
+        queue.addAll(deferred);
+        if (due.isEmpty()) {
+            return;
+        }
+
+        // Read again, since another instance may have advanced a schedule while it held the shard
+        Set<String> seriesKeys = new HashSet<>();
+        due.forEach(next -> seriesKeys.add(next.seriesKey));
+        Map<String, Map<String, Object>> schedules = await(documentStore.getAll(SCHEDULES, seriesKeys), "read recurring schedules");
+        Set<String> templateIds = new HashSet<>();
+        schedules.values().forEach(schedule -> templateIds.add(DocumentValues.asString(schedule.get("templateId"))));
+        Map<String, Map<String, Object>> templates = await(documentStore.getAll(DocumentStore.TRANSACTIONS, templateIds),
+            "read recurring templates");
+
+        Round round = new Round();
+        for (Due next : due) {
+            queued.remove(next.seriesKey);
+            Map<String, Object> schedule = schedules.get(next.seriesKey);
+            if (schedule == null) {
+                continue;
+            }
+            String templateId = DocumentValues.asString(schedule.get("templateId"));
+            RecurringSeries series = RecurringSeries.of(templateId, templates.get(templateId));
+            if (series == null || !series.getKey().equals(next.seriesKey)) {
+                // The template was deleted, stopped recurring or was edited into another series
+                round.writes.add(DocumentWrite.delete(SCHEDULES, next.seriesKey));
+                continue;
+            }
+            series = series.anchoredAt(schedule.get("anchor"));
+
+            long period = (long) DocumentValues.asDouble(schedule.get("nextPeriod"));
+            Map<String, Map<String, Object>> instances = new LinkedHashMap<>();
+            while (instances.size() < maxCatchUp && series.occurrenceMillis(period) <= now) {
+                instances.put(RecurringSeries.instanceId(next.seriesKey, period), series.instance(period, now));
+                period++;
+            }
+            if (round.writes.size() + round.instances.size() + instances.size() + 1 > MAX_COMMIT_WRITES) {
+                commit(round);
+                round = new Round();
+            }
+            round.instances.putAll(instances);
+            round.nextPeriods.put(next.seriesKey, period);
+            round.next.add(new Due(next.seriesKey, next.shard, series.occurrenceMillis(period)));
+        }
+        commit(round);
+    }
+
+    private void commit(Round round) {
+        if (round.writes.isEmpty() && round.nextPeriods.isEmpty()) {
+            return;
+        }
+        // Instances an earlier round committed before failing to advance their schedule
+        Map<String, Map<String, Object>> fresh = new LinkedHashMap<>(round.instances);
+        try {
+            if (!fresh.isEmpty()) {
+                fresh.keySet().removeAll(documentStore.getAll(DocumentStore.TRANSACTIONS, fresh.keySet()).get().keySet());
+            }
+            List<DocumentWrite> writes = new ArrayList<>(round.writes);
+            writes.addAll(balanceUpdates(fresh));
+            EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+            fresh.forEach((instanceId, instance) -> {
+                // A round that posted it before this one read is refused, and retried
+                writes.add(DocumentWrite.set(DocumentStore.TRANSACTIONS, instanceId, instance).ifVersion(0));
+                deltas.add(null, LedgerEntry.fromDocument(instanceId, instance));
+            });
+            writes.addAll(eventSummaryService.writes(deltas));
+            if (!writes.isEmpty()) {
+                documentStore.commit(writes).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while posting recurring transactions", e);
+        } catch (ExecutionException e) {
+            // Nothing was written, or it was and the retry finds it; try these series again after a pause
+            log.error("Failed to post {} recurring transactions: ", fresh.size(), e.getCause());
+            long retryAt = System.currentTimeMillis() + leaseTtlMs;
+            round.next.forEach(next -> enqueue(next.seriesKey, next.shard, retryAt));
+            return;
+        }
+
+        fresh.forEach((instanceId, instance) -> {
+            transactionCache.created(TransactionDocuments.fromDocument(instanceId, instance));
+            LedgerEntry entry = LedgerEntry.fromDocument(instanceId, instance);
+            for (TransactionChangeListener listener : changeListeners) {
+                listener.onTransactionChanged(null, entry);
+            }
+        });
+        posted.increment(fresh.size());
+        for (Due next : round.next) {
+            Map<String, Object> schedule;
+            try {
+                schedule = advance(next.seriesKey, round.nextPeriods.get(next.seriesKey), next.dueAt);
+            } catch (RuntimeException e) {
+                // The instances are in; the next attempt finds them and only moves the schedule
+                log.error("Failed to advance recurring schedule {}: ", next.seriesKey, e);
+                enqueue(next.seriesKey, next.shard, System.currentTimeMillis() + leaseTtlMs);
+                continue;
+            }
+            if (schedule != null) {
+                enqueue(next.seriesKey, next.shard, (long) DocumentValues.asDouble(schedule.get("nextDue")));
+            }
+        }
+    }
+
+    /**
+     * Applies the instances to their users' balances as the app does when it posts one:
+     * in date order, each moves the online or offline amount by its signed amount and
+     * records both balances after it. Returns the user updates, each conditional on the
+     * version read, so a balance the app changed meanwhile fails the commit. Instances of
+     * users that don't exist are posted without balances.
+     */
+    private List<DocumentWrite> balanceUpdates(Map<String, Map<String, Object>> instances)
+            throws InterruptedException, ExecutionException {
+        Set<String> userIds = new HashSet<>();
+        instances.values().forEach(instance -> userIds.add(DocumentValues.asString(instance.get("userId"))));
+        userIds.remove(null);
+        if (userIds.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Map<String, Object>> users = documentStore.getAll(DocumentStore.USERS, userIds).get();
+
+        Map<String, double[]> balances = new HashMap<>();
+        List<Map<String, Object>> byDate = new ArrayList<>(instances.values());
+        byDate.sort(Comparator.comparing(instance -> RecurringSeries.parseDateTime(instance.get("dateTime"))));
+        for (Map<String, Object> instance : byDate) {
+            Map<String, Object> user = users.get(DocumentValues.asString(instance.get("userId")));
+            if (user == null) {
+                continue;
+            }
+            double[] balance = balances.computeIfAbsent(DocumentValues.asString(instance.get("userId")), userId ->
+                new double[] {DocumentValues.asDouble(user.get("onlineAmount")), DocumentValues.asDouble(user.get("offlineAmount"))});
+            LedgerEntry entry = LedgerEntry.fromDocument(null, instance);
+            balance[entry.isOnline() ? 0 : 1] += entry.signedAmount();
+            instance.put("onlineBalanceAfter", balance[0]);
+            instance.put("offlineBalanceAfter", balance[1]);
+        }
+
+        long now = System.currentTimeMillis();
+        List<DocumentWrite> updates = new ArrayList<>(balances.size());
+        balances.forEach((userId, balance) -> {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("onlineAmount", balance[0]);
+            fields.put("offlineAmount", balance[1]);
+            // Delta sync delivers the new balances to the user's devices by this stamp
+            fields.put("lastSynced", now);
+            Object version = users.get(userId).get(DocumentStore.VERSION);
+            updates.add(DocumentWrite.update(DocumentStore.USERS, userId, fields)
+                .ifVersion(version instanceof Number ? ((Number) version).longValue() : 0L));
+        });
+        return updates;
+    }
+
+    /**
+     * Moves a schedule forward to {@code period}, unless it is already there or past it
+     * because the app posted a later period in the meantime. Completes with the schedule
+     * as it stands, or null if it was deleted.
+     */
+    private Map<String, Object> advance(String seriesKey, long period, long nextDue) {
+        long now = System.currentTimeMillis();
+        return await(documentStore.compute(SCHEDULES, seriesKey, current -> {
+            if (current == null || period <= (long) DocumentValues.asDouble(current.get("nextPeriod"))) {
+                return null;
+            }
+            Map<String, Object> advanced = new HashMap<>(current);
+            advanced.put("nextPeriod", period);
+            advanced.put("nextDue", nextDue);
+            advanced.put("updatedAt", now);
+            return advanced;
+        }), "advance recurring schedule");
+    }
+
+    private static <T> T await(CompletableFuture<T> future, String action) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while trying to " + action, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to " + action, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.Settlement;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentValues;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Who owes whom in each event. An event's per-member balances are loaded from its
+ * transactions on first use, kept current from transaction change notifications, and
+ * evicted by total transaction count and TTL. Each settlement reads the event document
+ * and its summary; the summary's revision counts the changes to the event's
+ * transactions, so balances that are behind it, because another instance wrote to the
+ * event or a change landed while they loaded, are loaded again. The transfers are worked
+ * out again only when the transactions or the event document have changed since the
+ * last request.
+ */
+@Service
+public class SettlementService implements TransactionChangeListener {
+
+    @Value("${paysync.settlement.max-transactions:2000000}")
+    private long maxTransactions;
+
+    @Value("${paysync.settlement.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    private LedgerCache<EventBalances> balances;
+
+    @PostConstruct
+    public void initialize() {
+        balances = new LedgerCache<>(documentStore, "eventId", LedgerEntry::getEventId, this::empty,
+            maxTransactions, Duration.ofMinutes(ttlMinutes), meterRegistry, "settlement.events");
+    }
+
+    public Settlement getSettlement(String eventId) {
+        CompletableFuture<Map<String, Object>> eventFuture = documentStore.get(DocumentStore.EVENTS, eventId);
+        CompletableFuture<Map<String, Object>> summaryFuture = documentStore.get(EventSummaryService.COLLECTION_NAME, eventId);
+        EventBalances event = balances.get(eventId);
+
+        Map<String, Object> eventDoc;
+        try {
+            if (event.isBehind(revision(summaryFuture.get()))) {
+                event = balances.reload(eventId);
+            }
+            eventDoc = eventFuture.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error fetching event for settlement", e);
+        }
+        if (eventDoc == null) {
+            return event.settle(eventId, null, null, List.of());
+        }
+        Object version = eventDoc.get(DocumentStore.VERSION);
+        return event.settle(eventId,
+            version instanceof Number ? ((Number) version).longValue() : null,
+            DocumentValues.asString(eventDoc.get("currency")),
+            SyncService.memberIdsOf(eventDoc));
+    }
+
+    @Override
+    public void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        balances.onTransactionChanged(before, after);
+    }
+
+    // Read before the scan, so a change that lands during it leaves the balances behind
+    private EventBalances empty(String eventId) {
+        try {
+            return new EventBalances(revision(documentStore.get(EventSummaryService.COLLECTION_NAME, eventId).get()));
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error loading transactions for settlement", e);
+        }
+    }
+
+    private static long revision(Map<String, Object> summary) {
+        Long revision = EventSummaryService.revisionOf(summary);
+        return revision == null ? 0 : revision;
+    }
+}
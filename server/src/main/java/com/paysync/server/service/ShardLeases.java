@@ -0,0 +1,173 @@
+package com.paysync.server.service;
+
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentValues;
+import com.paysync.server.repository.DocumentWrite;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Splits a fixed number of shards between running instances with leases kept in the
+ * document store. Each instance heartbeats into {@code lease_nodes}, takes its fair
+ * share of the shards (rounded up) from those that are free or expired, renews what it
+ * holds on every {@link #refresh()} and gives back shards beyond its share as other
+ * instances join. Work for a shard should only be written while {@link #isSafe} holds,
+ * which leaves a third of the TTL for a write to land before another instance can
+ * take the shard over. Lease times come from each instance's clock, so clock skew
+ * between instances has to stay well under that margin.
+ */
+@Slf4j
+class ShardLeases {
+
+    private static final String LEASES = "leases";
+    private static final String NODES = "lease_nodes";
+
+    private final DocumentStore documentStore;
+    private final String name;
+    private final int shards;
+    private final long ttlMs;
+    private final String nodeId;
+
+    // Shard to lease expiry, for the leases this instance holds
+    private final Map<Integer, Long> held = new ConcurrentHashMap<>();
+
+    ShardLeases(DocumentStore documentStore, String name, int shards, long ttlMs, String nodeId) {
+        this.documentStore = documentStore;
+        this.name = name;
+        this.shards = shards;
+        this.ttlMs = ttlMs;
+        this.nodeId = nodeId;
+    }
+
+    int shardOf(String key) {
+        return Math.floorMod(key.hashCode(), shards);
+    }
+
+    boolean holds(int shard) {
+        Long expiresAt = held.get(shard);
+        return expiresAt != null && expiresAt > System.currentTimeMillis();
+    }
+
+    boolean isSafe(int shard) {
+        Long expiresAt = held.get(shard);
+        return expiresAt != null && expiresAt - System.currentTimeMillis() > ttlMs / 3;
+    }
+
+    Set<Integer> heldShards() {
+        return new HashSet<>(held.keySet());
+    }
+
+    /**
+     * Heartbeats, renews, rebalances and acquires; call at least every third of the
+     * TTL. Returns the shards newly acquired, whose work the caller should load.
+     */
+    Set<Integer> refresh() {
+        long now = System.currentTimeMillis();
+        try {
+            Map<String, Object> heartbeat = new HashMap<>();
+            heartbeat.put("name", name);
+            heartbeat.put("nodeId", nodeId);
+            heartbeat.put("heartbeatAt", now);
+            documentStore.commit(List.of(DocumentWrite.set(NODES, nodeDocumentId(), heartbeat))).get();
+            int live = Math.max(1, documentStore.query(NODES, DocumentQuery.create()
+                .whereEqualTo("name", name)
+                .whereGreaterThan("heartbeatAt", now - ttlMs)).get().size());
+            int share = (shards + live - 1) / live;
+
+            for (Integer shard : new ArrayList<>(held.keySet())) {
+                if (!tryHold(shard, now)) {
+                    log.info("Lost {} shard {}", name, shard);
+                }
+            }
+            List<Integer> holding = new ArrayList<>(held.keySet());
+            holding.sort(null);
+            for (int i = holding.size() - 1; i >= 0 && held.size() > share; i--) {
+                release(holding.get(i));
+            }
+
+            // Start from a per-instance offset so instances don't all contend for the same shards
+            Set<Integer> acquired = new HashSet<>();
+            int start = Math.floorMod(nodeId.hashCode(), shards);
+            for (int i = 0; i < shards && held.size() < share; i++) {
+                int shard = (start + i) % shards;
+                if (!held.containsKey(shard) && tryHold(shard, now)) {
+                    acquired.add(shard);
+                }
+            }
+            if (!acquired.isEmpty()) {
+                log.info("Acquired {} shards {} ({} live instances)", name, acquired, live);
+            }
+            return acquired;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while refreshing " + name + " leases", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to refresh " + name + " leases", e.getCause());
+        }
+    }
+
+    // Gives every lease back and stops heartbeating, so other instances take over straight away
+    void releaseAll() {
+        try {
+            for (Integer shard : new ArrayList<>(held.keySet())) {
+                release(shard);
+            }
+            documentStore.commit(List.of(DocumentWrite.delete(NODES, nodeDocumentId()))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) {
+            log.warn("Failed to release {} leases: {}", name, e.getMessage());
+        }
+    }
+
+    private boolean tryHold(int shard, long now) throws InterruptedException, ExecutionException {
+        long expiresAt = now + ttlMs;
+        Map<String, Object> lease = documentStore.compute(LEASES, leaseDocumentId(shard), current -> {
+            if (current != null && !nodeId.equals(current.get("owner"))
+                    && DocumentValues.toEpochMillis(current.get("expiresAt")) > now) {
+                return null;
+            }
+            Map<String, Object> next = new HashMap<>();
+            next.put("name", name);
+            next.put("shard", shard);
+            next.put("owner", nodeId);
+            next.put("expiresAt", expiresAt);
+            return next;
+        }).get();
+        if (lease != null && nodeId.equals(lease.get("owner"))) {
+            held.put(shard, expiresAt);
+            return true;
+        }
+        held.remove(shard);
+        return false;
+    }
+
+    private void release(int shard) throws InterruptedException, ExecutionException {
+        held.remove(shard);
+        documentStore.compute(LEASES, leaseDocumentId(shard), current -> {
+            if (current == null || !nodeId.equals(current.get("owner"))) {
+                return null;
+            }
+            Map<String, Object> next = new HashMap<>(current);
+            next.put("expiresAt", 0L);
+            return next;
+        }).get();
+    }
+
+    private String leaseDocumentId(int shard) {
+        return name + "-" + shard;
+    }
+
+    private String nodeDocumentId() {
+        return name + "-" + nodeId;
+    }
+}
@@ -0,0 +1,58 @@
+package com.paysync.server.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers asking for the same key share one call. A caller that
+ * arrives while a call for its key is running gets that call's result; the key is
+ * released before the result is handed out, so a caller arriving afterwards starts a
+ * new call and results are never reused once complete. Every caller gets its own copy
+ * of the future, so one caller timing out or cancelling doesn't affect the others, but
+ * they do share the result value, which must therefore not be modified.
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong joined = new AtomicLong();
+
+    CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> started = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, started);
+        if (running != null) {
+            joined.incrementAndGet();
+            return running.copy();
+        }
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, error) -> {
+            inFlight.remove(key, started);
+            if (error != null) {
+                started.completeExceptionally(error);
+            } else {
+                started.complete(value);
+            }
+        });
+        return started.copy();
+    }
+
+    // Callers arriving from now on start a new call; those already waiting keep the running one
+    void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    void forgetAll() {
+        inFlight.clear();
+    }
+
+    // Callers so far that shared another caller's call instead of starting their own
+    long joined() {
+        return joined.get();
+    }
+}
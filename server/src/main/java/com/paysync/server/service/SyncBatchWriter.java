@@ -0,0 +1,353 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.SyncWriteResult;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.VersionConflictException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Writes sync documents to the document store in atomic commit chunks.
+ * Documents are grouped by collection, chunked by operation count and estimated
+ * request size, and the chunks are committed concurrently with a bounded number
+ * in flight. A chunk that fails is retried document by document so a single bad
+ * record only fails itself. Each written document is reported with the version the
+ * commit gave it; a conditional write whose document has moved on is reported as a
+ * conflict and left for the app to resolve.
+ * <p>
+ * Transactions are committed together with the event summary increments of the
+ * change. Their commit reads the transactions first and writes each one only at the
+ * version read, so the increments describe exactly what was replaced. A commit that
+ * loses that race to another writer reads again and retries.
+ */
+@Component
+@Slf4j
+public class SyncBatchWriter {
+
+    // Firestore rejects commits with more than 500 writes or a 10 MiB request
+    private static final int FIRESTORE_MAX_BATCH_WRITES = 500;
+
+    // Times a transaction commit reads again after another writer got in between
+    private static final int MAX_GUARD_ATTEMPTS = 3;
+
+    @Value("${paysync.sync.batch-size:500}")
+    private int batchSize;
+
+    @Value("${paysync.sync.batch-max-bytes:9437184}")
+    private long batchMaxBytes;
+
+    @Value("${paysync.sync.max-in-flight-batches:8}")
+    private int maxInFlight;
+
+    public static class PendingWrite {
+        private final String collection;
+        private final String documentId;
+        private final Map<String, Object> data;
+        private final boolean patch;
+        private final Long expectedVersion;
+        private final long estimatedBytes;
+
+        public PendingWrite(String collection, String documentId, Map<String, Object> data) {
+            this(collection, documentId, data, false, null);
+        }
+
+        private PendingWrite(String collection, String documentId, Map<String, Object> data, boolean patch, Long expectedVersion) {
+            this.collection = collection;
+            this.documentId = documentId;
+            this.data = data;
+            this.patch = patch;
+            this.expectedVersion = expectedVersion;
+            this.estimatedBytes = estimateDocumentSize(collection, documentId, data);
+        }
+
+        // Overwrites only the given fields of a document that must already exist
+        public static PendingWrite patch(String collection, String documentId, Map<String, Object> fields) {
+            return new PendingWrite(collection, documentId, fields, true, null);
+        }
+
+        // This write, applied only if the document is still at the version the app last saw; see DocumentWrite#ifVersion
+        public PendingWrite ifVersion(long version) {
+            return new PendingWrite(collection, documentId, data, patch, version);
+        }
+
+        public String getCollection() { return collection; }
+        public String getDocumentId() { return documentId; }
+        public Map<String, Object> getData() { return data; }
+        public boolean isPatch() { return patch; }
+        public Long getExpectedVersion() { return expectedVersion; }
+        public long getEstimatedBytes() { return estimatedBytes; }
+
+        /**
+         * This write followed by {@code next}, as a single write. A whole document
+         * replaces whatever came before it; a patch is laid over it.
+         */
+        PendingWrite then(PendingWrite next) {
+            if (!next.patch) {
+                return next;
+            }
+            Map<String, Object> combined = new HashMap<>(data);
+            combined.putAll(next.data);
+            return new PendingWrite(collection, documentId, combined, patch, expectedVersion);
+        }
+
+        DocumentWrite toDocumentWrite() {
+            return toDocumentWrite(null);
+        }
+
+        // The app's own condition wins over the version the server read, which it must match anyway
+        private DocumentWrite toDocumentWrite(Long readVersion) {
+            DocumentWrite write = patch ? DocumentWrite.update(collection, documentId, data) : DocumentWrite.set(collection, documentId, data);
+            Long version = expectedVersion != null ? expectedVersion : readVersion;
+            return version == null ? write : write.ifVersion(version);
+        }
+    }
+
+    /**
+     * How one document's write ended. For a transaction written, {@code replaced} is the
+     * version it replaced, or null if it created the transaction; it is always null for
+     * other collections.
+     */
+    public record Written(SyncWriteResult result, Map<String, Object> replaced) {}
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private EventSummaryService eventSummaryService;
+
+    // How a commit ended: its time, or the cause it failed with
+    private record Committed(Instant time, Throwable failure) {}
+
+    public List<Written> write(List<PendingWrite> writes) {
+        List<List<PendingWrite>> chunks = chunk(writes);
+        List<Written> results = new ArrayList<>(writes.size());
+        // Transactions each commit replaced, by id; those it created are absent
+        Map<String, Map<String, Object>> replaced = new ConcurrentHashMap<>();
+
+        try {
+            List<Supplier<CompletableFuture<Instant>>> commits = new ArrayList<>(chunks.size());
+            for (List<PendingWrite> chunk : chunks) {
+                commits.add(() -> commit(chunk, replaced, 1));
+            }
+            List<Committed> chunkCommits = commitAll(commits);
+
+            // Isolate the bad records and conflicts in failed chunks by retrying them one by one
+            List<PendingWrite> retries = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                Throwable failure = chunkCommits.get(i).failure();
+                if (failure == null) {
+                    for (PendingWrite write : chunks.get(i)) {
+                        results.add(written(write, chunkCommits.get(i), replaced));
+                    }
+                } else {
+                    log.warn("Batch of {} writes failed, retrying individually: {}", chunks.get(i).size(), failure.getMessage());
+                    retries.addAll(chunks.get(i));
+                }
+            }
+
+            if (!retries.isEmpty()) {
+                List<Supplier<CompletableFuture<Instant>>> singles = new ArrayList<>(retries.size());
+                for (PendingWrite write : retries) {
+                    singles.add(() -> commit(List.of(write), replaced, 1));
+                }
+                List<Committed> singleCommits = commitAll(singles);
+                for (int i = 0; i < retries.size(); i++) {
+                    results.add(written(retries.get(i), singleCommits.get(i), replaced));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while syncing documents", e);
+        }
+
+        return results;
+    }
+
+    private CompletableFuture<Instant> commit(List<PendingWrite> chunk, Map<String, Map<String, Object>> replaced, int attempt) {
+        if (!chunk.get(0).getCollection().equals(DocumentStore.TRANSACTIONS)) {
+            List<DocumentWrite> batch = new ArrayList<>(chunk.size());
+            for (PendingWrite write : chunk) {
+                batch.add(write.toDocumentWrite());
+            }
+            return documentStore.commit(batch);
+        }
+
+        List<String> transactionIds = new ArrayList<>(chunk.size());
+        chunk.forEach(write -> transactionIds.add(write.getDocumentId()));
+        return documentStore.getAll(DocumentStore.TRANSACTIONS, transactionIds).thenCompose(previous -> {
+            List<DocumentWrite> batch = new ArrayList<>(chunk.size() * 2);
+            EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+            for (PendingWrite write : chunk) {
+                Map<String, Object> before = previous.get(write.getDocumentId());
+                // A patch of a missing transaction fails by itself, so it needs no condition
+                Long readVersion = before != null ? versionOf(before) : write.isPatch() ? null : Long.valueOf(0);
+                batch.add(write.toDocumentWrite(readVersion));
+                if (before != null || !write.isPatch()) {
+                    deltas.add(before == null ? null : LedgerEntry.fromDocument(write.getDocumentId(), before),
+                        LedgerEntry.fromDocument(write.getDocumentId(), resulting(write, before)));
+                }
+            }
+            batch.addAll(eventSummaryService.writes(deltas));
+            return documentStore.commit(batch).thenApply(time -> {
+                for (PendingWrite write : chunk) {
+                    Map<String, Object> before = previous.get(write.getDocumentId());
+                    if (before != null) {
+                        replaced.put(write.getDocumentId(), before);
+                    } else {
+                        replaced.remove(write.getDocumentId());
+                    }
+                }
+                return time;
+            });
+        }).exceptionallyCompose(failure -> {
+            // Only the server's own conditions can have failed when the app set none
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            boolean raced = cause instanceof VersionConflictException
+                && chunk.stream().allMatch(write -> write.getExpectedVersion() == null);
+            return raced && attempt < MAX_GUARD_ATTEMPTS
+                ? commit(chunk, replaced, attempt + 1)
+                : CompletableFuture.failedFuture(cause);
+        });
+    }
+
+    private static long versionOf(Map<String, Object> document) {
+        Object version = document.get(DocumentStore.VERSION);
+        return version instanceof Number ? ((Number) version).longValue() : 0L;
+    }
+
+    // What a write leaves in the store, given the version it replaces
+    private static Map<String, Object> resulting(PendingWrite write, Map<String, Object> before) {
+        if (!write.isPatch()) {
+            return write.getData();
+        }
+        Map<String, Object> result = new HashMap<>(before);
+        result.putAll(write.getData());
+        return result;
+    }
+
+    List<List<PendingWrite>> chunk(List<PendingWrite> writes) {
+        int maxWrites = Math.max(1, Math.min(batchSize, FIRESTORE_MAX_BATCH_WRITES));
+
+        Map<String, List<PendingWrite>> byCollection = new LinkedHashMap<>();
+        for (PendingWrite write : writes) {
+            byCollection.computeIfAbsent(write.getCollection(), k -> new ArrayList<>()).add(write);
+        }
+
+        List<List<PendingWrite>> chunks = new ArrayList<>();
+        for (Map.Entry<String, List<PendingWrite>> collection : byCollection.entrySet()) {
+            // Leaves room for one summary increment per transaction in the same commit
+            int collectionMaxWrites = collection.getKey().equals(DocumentStore.TRANSACTIONS) ? Math.max(1, maxWrites / 2) : maxWrites;
+            List<PendingWrite> current = new ArrayList<>();
+            long currentBytes = 0;
+            for (PendingWrite write : collection.getValue()) {
+                if (!current.isEmpty()
+                        && (current.size() >= collectionMaxWrites || currentBytes + write.getEstimatedBytes() > batchMaxBytes)) {
+                    chunks.add(current);
+                    current = new ArrayList<>();
+                    currentBytes = 0;
+                }
+                current.add(write);
+                currentBytes += write.getEstimatedBytes();
+            }
+            if (!current.isEmpty()) {
+                chunks.add(current);
+            }
+        }
+        return chunks;
+    }
+
+    private static Written written(PendingWrite write, Committed committed, Map<String, Map<String, Object>> replaced) {
+        if (committed.failure() == null) {
+            return new Written(SyncWriteResult.ok(write.getCollection(), write.getDocumentId(),
+                ChronoUnit.MICROS.between(Instant.EPOCH, committed.time())),
+                write.getCollection().equals(DocumentStore.TRANSACTIONS) ? replaced.get(write.getDocumentId()) : null);
+        }
+        // Without a version from the app, a conflict is the server losing repeated races, not one for the app to merge
+        if (committed.failure() instanceof VersionConflictException && write.getExpectedVersion() != null) {
+            return new Written(SyncWriteResult.conflict(write.getCollection(), write.getDocumentId(),
+                committed.failure().getMessage()), null);
+        }
+        return new Written(SyncWriteResult.failed(write.getCollection(), write.getDocumentId(),
+            committed.failure().getMessage()), null);
+    }
+
+    /**
+     * Starts every commit with at most {@code maxInFlight} outstanding and waits
+     * for all of them. Returns how each commit ended, in order.
+     */
+    private List<Committed> commitAll(List<Supplier<CompletableFuture<Instant>>> commits) throws InterruptedException {
+        Semaphore permits = new Semaphore(Math.max(1, maxInFlight));
+        List<CompletableFuture<Instant>> futures = new ArrayList<>(commits.size());
+
+        for (Supplier<CompletableFuture<Instant>> commit : commits) {
+            permits.acquire();
+            CompletableFuture<Instant> future;
+            try {
+                future = commit.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((result, failure) -> permits.release());
+            futures.add(future);
+        }
+
+        List<Committed> committed = new ArrayList<>(futures.size());
+        for (CompletableFuture<Instant> future : futures) {
+            try {
+                committed.add(new Committed(future.get(), null));
+            } catch (ExecutionException e) {
+                committed.add(new Committed(null, e.getCause() != null ? e.getCause() : e));
+            }
+        }
+        return committed;
+    }
+
+    // Follows Firestore's storage size rules closely enough to keep commits under the request limit
+    static long estimateDocumentSize(String collection, String documentId, Map<String, Object> data) {
+        return collection.length() + documentId.length() + 16 + 32 + estimateValueSize(data);
+    }
+
+    static long estimateValueSize(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() + 1;
+        }
+        if (value instanceof Number) {
+            return 8;
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 1 + estimateValueSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof List) {
+            long size = 0;
+            for (Object element : (List<?>) value) {
+                size += estimateValueSize(element);
+            }
+            return size;
+        }
+        return 16;
+    }
+}
@@ -0,0 +1,56 @@
+package com.paysync.server.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a paginated delta sync: the collection being read and the
+ * (lastSynced, documentId) key of the last document returned from it.
+ * Encoded as an opaque URL-safe token.
+ */
+final class SyncCursor {
+    private final int collectionIndex;
+    private final long lastSynced;
+    private final String documentId;
+
+    SyncCursor(int collectionIndex, long lastSynced, String documentId) {
+        this.collectionIndex = collectionIndex;
+        this.lastSynced = lastSynced;
+        this.documentId = documentId;
+    }
+
+    static SyncCursor start() {
+        return new SyncCursor(0, 0, null);
+    }
+
+    int getCollectionIndex() { return collectionIndex; }
+    long getLastSynced() { return lastSynced; }
+    String getDocumentId() { return documentId; }
+
+    boolean hasPosition() {
+        return documentId != null;
+    }
+
+    String encode() {
+        String raw = collectionIndex + ":" + lastSynced + ":" + (documentId == null ? "" : documentId);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static SyncCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            int collectionIndex = Integer.parseInt(parts[0]);
+            if (collectionIndex < 0) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            return new SyncCursor(collectionIndex, Long.parseLong(parts[1]), parts[2].isEmpty() ? null : parts[2]);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and Base64 decoding errors are both IllegalArgumentExceptions
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+}
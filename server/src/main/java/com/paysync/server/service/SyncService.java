@@ -1,181 +1,753 @@
 package com.paysync.server.service;
 
-import com.google.cloud.firestore.CollectionReference;
-import com.google.cloud.firestore.DocumentSnapshot;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QuerySnapshot;
-import com.google.firebase.cloud.FirestoreClient;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.SyncChanges;
+import com.paysync.server.model.SyncCollection;
+import com.paysync.server.model.SyncDocument;
+import com.paysync.server.model.SyncPage;
+import com.paysync.server.model.SyncResult;
+import com.paysync.server.model.SyncWriteResult;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.StoredDocument;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import com.google.cloud.firestore.FieldPath;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
 public class SyncService {
 
-    public void syncToFirestore(Map<String, Object> changes) {
-        Firestore db = FirestoreClient.getFirestore();
-        
-        try {
-            // Process each change
-            for (Map.Entry<String, Object> entry : changes.entrySet()) {
-                String collection = entry.getKey();
-                Map<String, Object> documents = (Map<String, Object>) entry.getValue();
-                
-                for (Map.Entry<String, Object> doc : documents.entrySet()) {
-                    String documentId = doc.getKey();
-                    Map<String, Object> data = (Map<String, Object>) doc.getValue();
-                    
-                    // Add sync timestamp
-                    data.put("lastSynced", System.currentTimeMillis());
-                    
-                    // Update or create document in Firestore
-                    db.collection(collection).document(documentId)
-                        .set(data)
-                        .get();
+    private static final String[] SYNC_COLLECTIONS = {"users", "events", "transactions", "savings_goals"};
+
+    // Collections whose documents carry the owning user's id
+    private static final String[] USER_OWNED_COLLECTIONS = {"transactions", "savings_goals"};
+
+    // Normalized list forms of Event.members and User.events, maintained on ingest
+    static final String MEMBER_IDS_FIELD = SyncCollection.EVENTS.getNormalizedIdsField();
+    static final String EVENT_IDS_FIELD = SyncCollection.USERS.getNormalizedIdsField();
+
+    // The version is among them: the app learns it from the write results, not from the documents it downloads
+    private static final String[] SERVER_FIELDS = {
+        MEMBER_IDS_FIELD, EVENT_IDS_FIELD, CurrencyService.EVENT_AMOUNT_FIELD, CurrencyService.USER_AMOUNT_FIELD,
+        EventSummaryService.PUBLISHED_REVISION_FIELD, DocumentStore.VERSION
+    };
+
+    // Events are looked up in chunks of this many ids when streaming
+    private static final int EVENT_CHUNK_SIZE = 30;
+
+    // Steps of an ingest timed by paysync.sync.phase, and what paysync.sync.documents counts
+    private static final String[] PHASES = {"read-previous", "normalize", "write", "derive"};
+    private static final String[] DOCUMENT_OPERATIONS = {
+        "ingest", "patch", "unchanged", "delta", "user-delta", "page", "full-account"
+    };
+
+    @Autowired
+    private SyncWriteCoalescer writeCoalescer;
+
+    @Autowired
+    private DocumentHashCache documentHashes;
+
+    @Autowired
+    private UserDataReads userDataReads;
+
+    @Autowired
+    private BlockingTasks blockingTasks;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TransactionCache transactionCache;
+
+    @Autowired
+    private EventSummaryService eventSummaryService;
+
+    @Autowired
+    private List<TransactionChangeListener> changeListeners;
+
+    @Autowired
+    private CurrencyService currencyService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${paysync.sync.stream-page-size:500}")
+    private int streamPageSize;
+
+    @Value("${paysync.sync.max-page-size:1000}")
+    private int maxPageSize;
+
+    private final Map<String, Timer> phaseTimers = new HashMap<>();
+    private final Map<String, DistributionSummary> documentCounts = new HashMap<>();
+
+    @PostConstruct
+    public void initialize() {
+        for (String phase : PHASES) {
+            phaseTimers.put(phase, Timer.builder("paysync.sync.phase")
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        }
+        for (String operation : DOCUMENT_OPERATIONS) {
+            documentCounts.put(operation, DistributionSummary.builder("paysync.sync.documents")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Writes documents the app sent whole. A document carrying the {@code version} the
+     * app last received is written only if the server still has that version, and is
+     * otherwise reported back as a conflict for the app to merge; one without is
+     * written regardless. Written documents are reported with their new version.
+     */
+    public SyncResult syncToFirestore(SyncChanges changes) {
+        return ingest(changes, false);
+    }
+
+    // For callers holding a change set as plain maps; it is bound as if it had arrived in a request
+    public SyncResult syncToFirestore(Map<String, Object> changes) {
+        return syncToFirestore(objectMapper.convertValue(changes, SyncChanges.class));
+    }
+
+    /**
+     * Applies documents that hold only the fields the app changed. Each is written as
+     * a field update without reading it first, so edits from two devices to different
+     * fields of a document both survive. Patching a document the server doesn't have
+     * fails that document, and the app sends it whole instead.
+     */
+    public SyncResult syncPatches(SyncChanges patches) {
+        return ingest(patches, true);
+    }
+
+    private SyncResult ingest(SyncChanges changes, boolean patch) {
+        // Documents that failed the schema were set aside while the payload was read
+        List<SyncWriteResult> rejected = new ArrayList<>(changes.getRejected());
+        List<SyncWriteResult> unchanged = new ArrayList<>();
+        List<SyncBatchWriter.PendingWrite> writes = new ArrayList<>();
+        Map<SyncBatchWriter.PendingWrite, Long> contentHashes = new IdentityHashMap<>();
+        long syncedAt = System.currentTimeMillis();
+
+        for (SyncDocument document : changes.getDocuments()) {
+            String collection = document.collection().getCollection();
+            String documentId = document.documentId();
+            Map<String, Object> data = document.data();
+
+            if (patch) {
+                String invalid = invalidPatch(data);
+                if (invalid != null) {
+                    rejected.add(SyncWriteResult.failed(collection, documentId, invalid));
+                    continue;
+                }
+                data.put("lastSynced", syncedAt);
+                putNormalizedIds(document, true);
+                SyncBatchWriter.PendingWrite write = SyncBatchWriter.PendingWrite.patch(collection, documentId, data);
+                writes.add(document.expectedVersion() == null ? write : write.ifVersion(document.expectedVersion()));
+                continue;
+            }
+
+            // A resend of what sync last wrote, over the version that write gave it, is acknowledged without a write
+            long contentHash = DocumentHashCache.contentHash(data);
+            if (documentHashes.isUnchanged(collection, documentId, contentHash, document.expectedVersion())) {
+                unchanged.add(SyncWriteResult.ok(collection, documentId, document.expectedVersion()));
+                continue;
+            }
+
+            // Add sync timestamp
+            data.put("lastSynced", syncedAt);
+            putNormalizedIds(document, false);
+            SyncBatchWriter.PendingWrite write = new SyncBatchWriter.PendingWrite(collection, documentId, data);
+            if (document.expectedVersion() != null) {
+                write = write.ifVersion(document.expectedVersion());
+            }
+            writes.add(write);
+            contentHashes.put(write, contentHash);
+        }
+
+        recordDocuments(patch ? "patch" : "ingest", writes.size() + unchanged.size() + rejected.size());
+        recordDocuments("unchanged", unchanged.size());
+
+        // Current versions of patched transactions, to complete the patches against. The batch writer
+        // reads every transaction again as it commits, for the event totals of what it replaces
+        long phaseStart = System.nanoTime();
+        Map<String, Map<String, Object>> previousTransactions = patch ? fetchPreviousTransactions(writes) : new HashMap<>();
+        phaseStart = recordPhase("read-previous", phaseStart);
+
+        if (patch) {
+            writes = patchableTransactions(writes, previousTransactions, rejected);
+        }
+        normalizeCurrencies(writes, previousTransactions);
+        phaseStart = recordPhase("normalize", phaseStart);
+
+        List<SyncWriteResult> results = new ArrayList<>(rejected);
+        results.addAll(unchanged);
+        // Versions that reached the store; a version superseded within the coalescing window has no effect of its own
+        List<SyncBatchWriter.PendingWrite> written = new ArrayList<>(writes.size());
+        Map<SyncBatchWriter.PendingWrite, Long> writtenVersions = new IdentityHashMap<>();
+        Map<SyncBatchWriter.PendingWrite, Map<String, Object>> replaced = new IdentityHashMap<>();
+        if (!writes.isEmpty()) {
+            for (SyncWriteCoalescer.Outcome outcome : writeCoalescer.write(writes)) {
+                SyncWriteResult result = outcome.getResult();
+                results.add(result);
+                if (result.isSuccess() && !outcome.isSuperseded()) {
+                    written.add(outcome.getWrite());
+                    writtenVersions.put(outcome.getWrite(), result.getVersion());
+                    replaced.put(outcome.getWrite(), outcome.getReplaced());
                 }
             }
+        }
+        phaseStart = recordPhase("write", phaseStart);
+
+        // Event totals were incremented in the same commits; the versions replaced there give the listeners' changes
+        List<String> uploadedEvents = new ArrayList<>();
+        for (SyncBatchWriter.PendingWrite write : written) {
+            if (write.getCollection().equals("transactions")) {
+                Map<String, Object> previous = replaced.get(write);
+                Map<String, Object> resulting = resultingDocument(write, previous);
+                // Transactions may have moved between users or events, so invalidate both sides
+                transactionCache.synced(write.getDocumentId(), previous, resulting);
+                LedgerEntry before = previous == null ? null : LedgerEntry.fromDocument(write.getDocumentId(), previous);
+                LedgerEntry after = LedgerEntry.fromDocument(write.getDocumentId(), resulting);
+                for (TransactionChangeListener listener : changeListeners) {
+                    listener.onTransactionChanged(before, after);
+                }
+            } else if (write.getCollection().equals("users")) {
+                userDataReads.written(write.getDocumentId());
+            } else if (write.getCollection().equals("events")) {
+                Object memberIds = write.getData().get(MEMBER_IDS_FIELD);
+                if (memberIds instanceof List) {
+                    ((List<String>) memberIds).forEach(userDataReads::written);
+                } else {
+                    userDataReads.writtenUnknown();
+                }
+                // The app uploads its own figures for the totals, so the server's are copied back over them
+                if (!write.isPatch() || write.getData().containsKey("onlineAmountOfEvent")
+                        || write.getData().containsKey("offlineAmountOfEvent")) {
+                    uploadedEvents.add(write.getDocumentId());
+                }
+            }
+        }
+        eventSummaryService.republish(uploadedEvents);
+        // Recorded after the change listeners, which forget hashes for every transaction they see.
+        // A patch, or a version that absorbed one, leaves a document whose full content isn't known here
+        for (SyncBatchWriter.PendingWrite write : written) {
+            Long contentHash = contentHashes.get(write);
+            Long version = writtenVersions.get(write);
+            if (contentHash != null && version != null) {
+                documentHashes.written(write.getCollection(), write.getDocumentId(), contentHash, version);
+            } else {
+                documentHashes.forget(write.getCollection(), write.getDocumentId());
+            }
+        }
+        recordPhase("derive", phaseStart);
+        return new SyncResult(results);
+    }
+
+    /**
+     * Stores the queryable list form of a user's events or an event's members beside
+     * the app's own field. A patch that doesn't change the field leaves it alone; a
+     * whole document without it gets an empty list.
+     */
+    private static void putNormalizedIds(SyncDocument document, boolean patch) {
+        String field = document.collection().getNormalizedIdsField();
+        if (field != null && (document.ids() != null || !patch)) {
+            document.data().put(field, document.ids() != null ? document.ids() : new ArrayList<>());
+        }
+    }
+
+    // Null when the patch can be applied
+    private static String invalidPatch(Map<String, Object> fields) {
+        if (fields.isEmpty()) {
+            return "Patch must change at least one field";
+        }
+        for (String field : fields.keySet()) {
+            if (field.isEmpty() || field.contains(".") || field.startsWith("__")) {
+                return "Invalid field name: " + field;
+            }
+            for (String serverField : SERVER_FIELDS) {
+                if (serverField.equals(field)) {
+                    return "Field is maintained by the server: " + field;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops transaction patches for documents the server doesn't have, since their
+     * totals can't be worked out, and reports them as failed.
+     */
+    private static List<SyncBatchWriter.PendingWrite> patchableTransactions(List<SyncBatchWriter.PendingWrite> writes,
+                                                                          Map<String, Map<String, Object>> previousTransactions,
+                                                                          List<SyncWriteResult> rejected) {
+        List<SyncBatchWriter.PendingWrite> patchable = new ArrayList<>(writes.size());
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            if (write.getCollection().equals("transactions") && !previousTransactions.containsKey(write.getDocumentId())) {
+                rejected.add(SyncWriteResult.failed(write.getCollection(), write.getDocumentId(),
+                    "No document to patch; send the whole document"));
+            } else {
+                patchable.add(write);
+            }
+        }
+        return patchable;
+    }
+
+    /**
+     * Converts transaction amounts. A transaction patch that changes none of the
+     * conversion inputs isn't converted, so it can't overwrite amounts another device's
+     * edit just set. One that does is converted against the stored document with the
+     * patch applied, and the converted amounts are added to the patch.
+     */
+    private void normalizeCurrencies(List<SyncBatchWriter.PendingWrite> writes,
+                                     Map<String, Map<String, Object>> previousTransactions) {
+        List<SyncBatchWriter.PendingWrite> inputs = new ArrayList<>(writes.size());
+        Map<SyncBatchWriter.PendingWrite, SyncBatchWriter.PendingWrite> completedPatches = new IdentityHashMap<>();
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            if (!write.isPatch() || !write.getCollection().equals("transactions")) {
+                inputs.add(write);
+            } else if (CurrencyService.affectsConversion(write.getData())) {
+                SyncBatchWriter.PendingWrite whole = new SyncBatchWriter.PendingWrite(write.getCollection(),
+                    write.getDocumentId(), resultingDocument(write, previousTransactions.get(write.getDocumentId())));
+                inputs.add(whole);
+                completedPatches.put(write, whole);
+            }
+        }
+        currencyService.normalizeDocuments(inputs);
+        completedPatches.forEach((patch, whole) -> {
+            patch.getData().put(CurrencyService.EVENT_AMOUNT_FIELD, whole.getData().get(CurrencyService.EVENT_AMOUNT_FIELD));
+            patch.getData().put(CurrencyService.USER_AMOUNT_FIELD, whole.getData().get(CurrencyService.USER_AMOUNT_FIELD));
+        });
+    }
+
+    // What a write leaves in the store, given the version it was applied to
+    private static Map<String, Object> resultingDocument(SyncBatchWriter.PendingWrite write, Map<String, Object> previous) {
+        if (!write.isPatch()) {
+            return write.getData();
+        }
+        Map<String, Object> result = previous == null ? new HashMap<>() : new HashMap<>(previous);
+        result.putAll(write.getData());
+        return result;
+    }
+
+    // Time spent in one step of syncToFirestore; returns the start of the next step
+    private long recordPhase(String phase, long start) {
+        long now = System.nanoTime();
+        phaseTimers.get(phase).record(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    private void recordDocuments(String operation, int count) {
+        documentCounts.get(operation).record(count);
+    }
+
+    private static int countDocuments(Map<String, Object> changes) {
+        int count = 0;
+        for (Object documents : changes.values()) {
+            if (documents instanceof Map) {
+                count += ((Map<?, ?>) documents).size();
+            }
+        }
+        return count;
+    }
+
+    private Map<String, Map<String, Object>> fetchPreviousTransactions(List<SyncBatchWriter.PendingWrite> writes) {
+        List<String> transactionIds = new ArrayList<>();
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            if (write.getCollection().equals("transactions")) {
+                transactionIds.add(write.getDocumentId());
+            }
+        }
+        if (transactionIds.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        try {
+            return documentStore.getAll("transactions", transactionIds).get();
         } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Failed to sync with Firestore", e);
+            throw new RuntimeException("Failed to read previous transactions", e);
         }
     }
 
     public Map<String, Object> getChangesFromFirestore(String lastSyncTimestamp) {
-        Firestore db = FirestoreClient.getFirestore();
-        Map<String, Object> changes = new HashMap<>();
         long lastSync = Long.parseLong(lastSyncTimestamp);
 
+        // Start every collection query at once so the delta costs as much as the slowest one
+        Map<String, CompletableFuture<List<StoredDocument>>> queries = new LinkedHashMap<>();
+        for (String collection : SYNC_COLLECTIONS) {
+            queries.put(collection, documentStore.query(collection,
+                DocumentQuery.create().whereGreaterThan("lastSynced", lastSync)));
+        }
+
         try {
-            // Get changes for each collection
-            String[] collections = {"users", "events", "transactions", "savings_goals"};
-            for (String collection : collections) {
+            // Collect the events of every changed user once, across all users
+            Set<String> memberEventIds = new LinkedHashSet<>();
+            for (StoredDocument userDoc : queries.get("users").get()) {
+                memberEventIds.addAll(eventIdsOf(userDoc.getData()));
+            }
+            CompletableFuture<Map<String, Map<String, Object>>> eventLookup = memberEventIds.isEmpty()
+                ? CompletableFuture.completedFuture(new HashMap<>())
+                : documentStore.getAll("events", memberEventIds);
+
+            Map<String, Object> changes = new HashMap<>();
+            for (Map.Entry<String, CompletableFuture<List<StoredDocument>>> query : queries.entrySet()) {
+                Map<String, Object> collectionChanges = new HashMap<>();
+                query.getValue().get().forEach(doc -> {
+                    Map<String, Object> data = doc.getData();
+                    stripServerFields(data);
+                    collectionChanges.put(doc.getId(), data);
+                });
+                if (!collectionChanges.isEmpty()) {
+                    changes.put(query.getKey(), collectionChanges);
+                }
+            }
+
+            Map<String, Object> events = (Map<String, Object>) changes.computeIfAbsent("events", k -> new HashMap<String, Object>());
+            try {
+                eventLookup.get().forEach((eventId, data) -> {
+                    stripServerFields(data);
+                    events.putIfAbsent(eventId, data);
+                });
+            } catch (ExecutionException e) {
+                log.error("Error fetching user events: ", e);
+            }
+            if (events.isEmpty()) {
+                changes.remove("events");
+            }
+
+            recordDocuments("delta", countDocuments(changes));
+            return changes;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to fetch changes", e);
+        }
+    }
+
+    /**
+     * Returns the documents changed since {@code lastSyncTimestamp} that belong to one user:
+     * their user document, their transactions and savings goals, and the events they are a
+     * member of. Each collection is a single indexed query, so the cost follows that user's
+     * own change rate rather than the size of the whole database.
+     */
+    public Map<String, Object> getUserChangesFromFirestore(String userId, String lastSyncTimestamp) {
+        long lastSync = Long.parseLong(lastSyncTimestamp);
+
+        CompletableFuture<Map<String, Object>> userFuture = documentStore.get("users", userId);
+        Map<String, CompletableFuture<List<StoredDocument>>> queries = new LinkedHashMap<>();
+        queries.put("events", documentStore.query("events", DocumentQuery.create()
+            .whereArrayContains(MEMBER_IDS_FIELD, userId)
+            .whereGreaterThan("lastSynced", lastSync)));
+        for (String collection : USER_OWNED_COLLECTIONS) {
+            queries.put(collection, documentStore.query(collection, DocumentQuery.create()
+                .whereEqualTo("userId", userId)
+                .whereGreaterThan("lastSynced", lastSync)));
+        }
+
+        try {
+            Map<String, Object> changes = new HashMap<>();
+
+            Map<String, Object> userData = userFuture.get();
+            Object userSynced = userData == null ? null : userData.get("lastSynced");
+            if (userSynced instanceof Number && ((Number) userSynced).longValue() > lastSync) {
+                stripServerFields(userData);
+                changes.put("users", Collections.singletonMap(userId, userData));
+            }
+
+            for (Map.Entry<String, CompletableFuture<List<StoredDocument>>> query : queries.entrySet()) {
                 Map<String, Object> collectionChanges = new HashMap<>();
-                
-                // Get documents modified after last sync
-                QuerySnapshot querySnapshot = db.collection(collection)
+                query.getValue().get().forEach(doc -> {
+                    Map<String, Object> data = doc.getData();
+                    stripServerFields(data);
+                    collectionChanges.put(doc.getId(), data);
+                });
+                if (!collectionChanges.isEmpty()) {
+                    changes.put(query.getKey(), collectionChanges);
+                }
+            }
+
+            recordDocuments("user-delta", countDocuments(changes));
+            return changes;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to fetch user changes", e);
+        }
+    }
+
+    /**
+     * Returns at most {@code limit} changed documents, ordered by collection and then by
+     * (lastSynced, documentId). The returned token resumes right after the last document
+     * of the page, so a client that loses a page only re-requests that page.
+     */
+    public SyncPage getChangesPage(String lastSyncTimestamp, String pageToken, int limit) {
+        long lastSync = Long.parseLong(lastSyncTimestamp);
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        SyncCursor cursor = pageToken == null || pageToken.isEmpty() ? SyncCursor.start() : SyncCursor.decode(pageToken);
+
+        Map<String, Object> changes = new HashMap<>();
+        Set<String> memberEventIds = new LinkedHashSet<>();
+        int remaining = pageSize;
+        int collectionIndex = cursor.getCollectionIndex();
+        SyncCursor next = null;
+
+        try {
+            while (collectionIndex < SYNC_COLLECTIONS.length && remaining > 0) {
+                String collection = SYNC_COLLECTIONS[collectionIndex];
+                DocumentQuery query = DocumentQuery.create()
                     .whereGreaterThan("lastSynced", lastSync)
-                    .get()
-                    .get();
-                
-                querySnapshot.getDocuments().forEach(doc -> {
-                    collectionChanges.put(doc.getId(), doc.getData());
-                    
-                    // If this is a user document, fetch their events
-                    if (collection.equals("users")) {
-                                            String eventIdsStr = (String) doc.getData().get("events");
-                        if (eventIdsStr != null && !eventIdsStr.isEmpty()) {
-                            List<String> eventIds = Arrays.asList(eventIdsStr.split(","));
-                            try {
-                                // Fetch all events in the user's events list
-                                db.collection("events")
-                                    .whereIn(FieldPath.documentId(), eventIds)
-                                    .get()
-                                    .get()
-                                    .getDocuments()
-                                    .forEach(eventDoc -> {
-                                        Map<String, Object> eventData = eventDoc.getData();
-                                        if (!changes.containsKey("events")) {
-                                            changes.put("events", new HashMap<String, Object>());
-                                        }
-                                        ((Map<String, Object>) changes.get("events"))
-                                            .put(eventDoc.getId(), eventData);
-                                    });
-                            } catch (InterruptedException | ExecutionException e) {
-                                log.error("Error fetching user events: ", e);
-                            }
+                    .orderBy("lastSynced")
+                    .limit(remaining);
+                if (cursor.hasPosition() && cursor.getCollectionIndex() == collectionIndex) {
+                    query.startAfter(cursor.getLastSynced(), cursor.getDocumentId());
+                }
+
+                List<StoredDocument> docs = documentStore.query(collection, query).get();
+                if (!docs.isEmpty()) {
+                    Map<String, Object> collectionChanges = (Map<String, Object>) changes.computeIfAbsent(collection, k -> new HashMap<String, Object>());
+                    for (StoredDocument doc : docs) {
+                        if (collection.equals("users")) {
+                            memberEventIds.addAll(eventIdsOf(doc.getData()));
                         }
+                        stripServerFields(doc.getData());
+                        collectionChanges.put(doc.getId(), doc.getData());
                     }
-                });
-                
-                if (!collectionChanges.isEmpty()) {
-                    changes.put(collection, collectionChanges);
+                }
+
+                if (docs.size() == remaining) {
+                    // Page is full; the collection may have more after the last document
+                    StoredDocument last = docs.get(docs.size() - 1);
+                    Object lastSynced = last.get("lastSynced");
+                    next = new SyncCursor(collectionIndex,
+                        lastSynced instanceof Number ? ((Number) lastSynced).longValue() : lastSync, last.getId());
+                    break;
+                }
+                remaining -= docs.size();
+                collectionIndex++;
+            }
+
+            // Events of the users on this page, as in the unpaginated delta
+            if (!memberEventIds.isEmpty()) {
+                Map<String, Object> events = (Map<String, Object>) changes.computeIfAbsent("events", k -> new HashMap<String, Object>());
+                try {
+                    documentStore.getAll("events", memberEventIds).get().forEach((eventId, data) -> {
+                        stripServerFields(data);
+                        events.putIfAbsent(eventId, data);
+                    });
+                } catch (ExecutionException e) {
+                    log.error("Error fetching user events: ", e);
+                }
+                if (events.isEmpty()) {
+                    changes.remove("events");
                 }
             }
         } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Failed to fetch changes from Firestore", e);
+            throw new RuntimeException("Failed to fetch changes", e);
         }
 
-        return changes;
+        recordDocuments("page", countDocuments(changes));
+        return new SyncPage(changes, next == null ? null : next.encode());
+    }
+
+    // Fields the server derives on write; the app's SQLite tables have no columns for them
+    static void stripServerFields(Map<String, Object> data) {
+        for (String field : SERVER_FIELDS) {
+            data.remove(field);
+        }
+    }
+
+    // Users synced before eventIds was kept only have the app's own events field
+    static List<String> eventIdsOf(Map<String, Object> user) {
+        Object eventIds = user.get(EVENT_IDS_FIELD);
+        return eventIds instanceof List ? (List<String>) eventIds : parseIdList(user.get("events"));
+    }
+
+    // Events written outside sync only have the app's own members field
+    static List<String> memberIdsOf(Map<String, Object> event) {
+        Object memberIds = event.get(MEMBER_IDS_FIELD);
+        return memberIds instanceof List ? (List<String>) memberIds : parseIdList(event.get("members"));
+    }
+
+    // User.events and Event.members have been stored both as a comma-separated String and as a List
+    static List<String> parseIdList(Object idsObj) {
+        List<String> ids = new ArrayList<>();
+        if (idsObj instanceof String) {
+            for (String id : ((String) idsObj).split(",")) {
+                if (!id.isBlank()) {
+                    ids.add(id.trim());
+                }
+            }
+        } else if (idsObj instanceof List) {
+            for (Object id : (List<?>) idsObj) {
+                if (id != null && !id.toString().isBlank()) {
+                    ids.add(id.toString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * {@link #getUserDataFromFirestore(String)} on a blocking task, shared with any
+     * request for the same user that is already reading. The result may be handed to
+     * several requests at once and must not be modified.
+     */
+    public CompletableFuture<Map<String, Object>> readUserData(String userId) {
+        return userDataReads.read(userId, () -> blockingTasks.submit(() -> getUserDataFromFirestore(userId)));
     }
 
     public Map<String, Object> getUserDataFromFirestore(String userId) {
-        Firestore db = FirestoreClient.getFirestore();
         Map<String, Object> allData = new HashMap<>();
         
         try {
             // Get user data
-            DocumentSnapshot userDoc = db.collection("users").document(userId).get().get();
+            Map<String, Object> userData = documentStore.get("users", userId).get();
             
-            if (userDoc.exists()) {
-                Map<String, Object> userData = userDoc.getData();
-                if (userData != null) {
-                    userData.remove("lastSynced"); // Remove sync timestamp
-                    allData.put("users", Collections.singletonMap(userId, userData));
-                    
-                    // Get user's events - handle both String and ArrayList formats
-                    Object eventsObj = userData.get("events");
-                    List<String> eventIds = new ArrayList<>();
-                    
-                    if (eventsObj instanceof String) {
-                        // Handle comma-separated string format
-                        String eventIdsStr = (String) eventsObj;
-                        if (eventIdsStr != null && !eventIdsStr.isEmpty()) {
-                            eventIds = Arrays.asList(eventIdsStr.split(","));
-                        }
-                    } else if (eventsObj instanceof List) {
-                        // Handle ArrayList format
-                        eventIds = (List<String>) eventsObj;
-                    }
-                    
-                    if (!eventIds.isEmpty()) {
-                        Map<String, Object> events = new HashMap<>();
-                        
-                        // Fetch all events in the user's events list
-                        db.collection("events")
-                            .whereIn(FieldPath.documentId(), eventIds)
-                            .get()
-                            .get()
-                            .getDocuments()
-                            .forEach(doc -> {
-                                Map<String, Object> eventData = doc.getData();
-                                eventData.remove("lastSynced"); // Remove sync timestamp
-                                events.put(doc.getId(), eventData);
-                            });
-                            
-                        if (!events.isEmpty()) {
-                            allData.put("events", events);
-                        }
+            if (userData != null) {
+                userData.remove("lastSynced"); // Remove sync timestamp
+                allData.put("users", Collections.singletonMap(userId, userData));
+
+                List<String> eventIds = eventIdsOf(userData);
+                stripServerFields(userData);
+
+                if (!eventIds.isEmpty()) {
+                    Map<String, Object> events = new HashMap<>();
+
+                    // Fetch all events in the user's events list
+                    documentStore.getAll("events", eventIds).get().forEach((id, eventData) -> {
+                        eventData.remove("lastSynced"); // Remove sync timestamp
+                        stripServerFields(eventData);
+                        events.put(id, eventData);
+                    });
+
+                    if (!events.isEmpty()) {
+                        allData.put("events", events);
                     }
                 }
 
                 // Get user's transactions
-                CollectionReference transactionsRef = db.collection("transactions");
-                QuerySnapshot transactionDocs = transactionsRef
-                    .whereEqualTo("userId", userId)
-                    .get()
-                    .get();
                 Map<String, Object> transactions = new HashMap<>();
-                transactionDocs.forEach(doc -> {
+                documentStore.query("transactions", DocumentQuery.create().whereEqualTo("userId", userId)).get().forEach(doc -> {
                     Map<String, Object> transactionData = doc.getData();
                     transactionData.remove("lastSynced"); // Remove sync timestamp
+                    stripServerFields(transactionData);
                     transactions.put(doc.getId(), transactionData);
                 });
                 if (!transactions.isEmpty()) {
                     allData.put("transactions", transactions);
                 }
             }
-            
+
+            recordDocuments("full-account", countDocuments(allData));
             return allData;
         } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Failed to fetch user data from Firestore", e);
+            throw new RuntimeException("Failed to fetch user data", e);
+        }
+    }
+
+    /**
+     * Writes the same document tree as {@link #getUserDataFromFirestore(String)} straight
+     * to {@code out}, one document at a time. Transactions are read in key-ordered pages
+     * so memory use doesn't depend on the size of the account.
+     */
+    public void streamUserData(String userId, OutputStream out) throws IOException {
+        streamUserData(userId, out, objectMapper);
+    }
+
+    // Writes with the given mapper's encoding, so the same stream can be JSON, Smile or CBOR
+    public void streamUserData(String userId, OutputStream out, ObjectMapper mapper) throws IOException {
+        try (JsonGenerator json = mapper.getFactory().createGenerator(out)) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.writeStartObject();
+
+            int streamed = 0;
+            Map<String, Object> userData = documentStore.get("users", userId).get();
+            if (userData != null) {
+                streamed++;
+                userData.remove("lastSynced"); // Remove sync timestamp
+                List<String> eventIds = eventIdsOf(userData);
+                stripServerFields(userData);
+                json.writeObjectFieldStart("users");
+                json.writeObjectField(userId, userData);
+                json.writeEndObject();
+                json.flush();
+
+                // Events are looked up chunk by chunk so only one chunk is held at a time
+                boolean eventsStarted = false;
+                for (int i = 0; i < eventIds.size(); i += EVENT_CHUNK_SIZE) {
+                    List<String> chunk = eventIds.subList(i, Math.min(i + EVENT_CHUNK_SIZE, eventIds.size()));
+                    List<StoredDocument> eventDocs = new ArrayList<>();
+                    documentStore.getAll("events", chunk).get().forEach((id, data) -> eventDocs.add(new StoredDocument(id, data)));
+                    eventsStarted = writeDocuments(json, "events", eventDocs, eventsStarted);
+                    streamed += eventDocs.size();
+                }
+                if (eventsStarted) {
+                    json.writeEndObject();
+                }
+
+                // Page through the user's transactions
+                DocumentQuery transactionsQuery = DocumentQuery.create()
+                    .whereEqualTo("userId", userId)
+                    .orderByDocumentId()
+                    .limit(streamPageSize);
+                boolean transactionsStarted = false;
+                while (true) {
+                    List<StoredDocument> docs = documentStore.query("transactions", transactionsQuery).get();
+                    transactionsStarted = writeDocuments(json, "transactions", docs, transactionsStarted);
+                    streamed += docs.size();
+                    if (docs.size() < streamPageSize) {
+                        break;
+                    }
+                    transactionsQuery.startAfter(docs.get(docs.size() - 1).getId());
+                }
+                if (transactionsStarted) {
+                    json.writeEndObject();
+                }
+            }
+
+            json.writeEndObject();
+            recordDocuments("full-account", streamed);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to stream user data", e);
+        }
+    }
+
+    // Opens the collection object on the first document so empty collections are omitted
+    private boolean writeDocuments(JsonGenerator json, String field, List<StoredDocument> docs, boolean started)
+            throws IOException {
+        for (StoredDocument doc : docs) {
+            if (!started) {
+                json.writeObjectFieldStart(field);
+                started = true;
+            }
+            Map<String, Object> data = doc.getData();
+            data.remove("lastSynced"); // Remove sync timestamp
+            stripServerFields(data);
+            json.writeObjectField(doc.getId(), data);
         }
+        json.flush();
+        return started;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,213 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.SyncWriteResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds sync writes for up to {@code paysync.sync.coalesce-window-ms} so concurrent
+ * sync requests share commits, and a document written again within the window is
+ * committed once. Later whole documents replace earlier versions and later patches
+ * are laid over them. Callers still wait for the commit that carries their documents.
+ * A version folded into a later one is reported as superseded and shares the outcome
+ * of the version that absorbed it. A window of 0 writes straight through, and so do
+ * conditional writes, which are checked against the version the app saw and can't be
+ * folded into another.
+ */
+@Component
+@Slf4j
+public class SyncWriteCoalescer {
+
+    @Value("${paysync.sync.coalesce-window-ms:50}")
+    private long windowMs;
+
+    // Flushes early once this many distinct documents are waiting
+    @Value("${paysync.sync.coalesce-max-documents:5000}")
+    private int maxDocuments;
+
+    @Autowired
+    private SyncBatchWriter batchWriter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Object lock = new Object();
+    private Map<String, Slot> buffer = new LinkedHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sync-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService committers = Executors.newVirtualThreadPerTaskExecutor();
+    private Counter superseded;
+
+    public static final class Outcome {
+        private final SyncBatchWriter.PendingWrite write;
+        private final SyncBatchWriter.Written written;
+        private final boolean superseded;
+
+        Outcome(SyncBatchWriter.PendingWrite write, SyncBatchWriter.Written written, boolean superseded) {
+            this.write = write;
+            this.written = written;
+            this.superseded = superseded;
+        }
+
+        // What was committed for this version, including any earlier versions folded into it
+        public SyncBatchWriter.PendingWrite getWrite() { return write; }
+        public SyncWriteResult getResult() { return written.result(); }
+        // The transaction the commit replaced; see SyncBatchWriter.Written
+        public Map<String, Object> getReplaced() { return written.replaced(); }
+        // This version never reached the store by itself; a later one from the same window carried it
+        public boolean isSuperseded() { return superseded; }
+    }
+
+    // One document in the window: the write that will be committed for it and everyone waiting on it
+    private static final class Slot {
+        private SyncBatchWriter.PendingWrite combined;
+        private final List<SyncBatchWriter.PendingWrite> versions = new ArrayList<>();
+        private final List<CompletableFuture<Outcome>> waiters = new ArrayList<>();
+    }
+
+    @PostConstruct
+    public void initialize() {
+        superseded = Counter.builder("paysync.sync.coalesced")
+            .description("Sync writes replaced by a later version before they were committed")
+            .register(meterRegistry);
+    }
+
+    public List<Outcome> write(List<SyncBatchWriter.PendingWrite> writes) {
+        if (windowMs <= 0) {
+            return writeThrough(writes);
+        }
+
+        // Null where the write is conditional and committed by this thread instead
+        List<CompletableFuture<Outcome>> futures = new ArrayList<>(writes.size());
+        List<SyncBatchWriter.PendingWrite> conditional = new ArrayList<>();
+        synchronized (lock) {
+            boolean idle = buffer.isEmpty();
+            for (SyncBatchWriter.PendingWrite write : writes) {
+                if (write.getExpectedVersion() != null) {
+                    conditional.add(write);
+                    futures.add(null);
+                    continue;
+                }
+                Slot slot = buffer.computeIfAbsent(key(write), k -> new Slot());
+                if (slot.combined != null) {
+                    superseded.increment();
+                    slot.combined = slot.combined.then(write);
+                } else {
+                    slot.combined = write;
+                }
+                slot.versions.add(write);
+                CompletableFuture<Outcome> future = new CompletableFuture<>();
+                slot.waiters.add(future);
+                futures.add(future);
+            }
+            if (idle && !buffer.isEmpty()) {
+                timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+            if (buffer.size() >= maxDocuments) {
+                flush();
+            }
+        }
+
+        Iterator<Outcome> direct = writeThrough(conditional).iterator();
+        List<Outcome> outcomes = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<Outcome> future : futures) {
+                outcomes.add(future == null ? direct.next() : future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while syncing documents", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to sync documents", e.getCause());
+        }
+        return outcomes;
+    }
+
+    private List<Outcome> writeThrough(List<SyncBatchWriter.PendingWrite> writes) {
+        if (writes.isEmpty()) {
+            return List.of();
+        }
+        Map<String, SyncBatchWriter.Written> results = byDocument(batchWriter.write(writes));
+        List<Outcome> outcomes = new ArrayList<>(writes.size());
+        for (SyncBatchWriter.PendingWrite write : writes) {
+            outcomes.add(new Outcome(write, results.get(key(write)), false));
+        }
+        return outcomes;
+    }
+
+    private void flush() {
+        Map<String, Slot> window;
+        synchronized (lock) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            window = buffer;
+            buffer = new LinkedHashMap<>();
+        }
+        // Committed off the timer thread so the next window isn't held up
+        committers.execute(() -> commit(window));
+    }
+
+    private void commit(Map<String, Slot> window) {
+        List<SyncBatchWriter.PendingWrite> combined = new ArrayList<>(window.size());
+        window.values().forEach(slot -> combined.add(slot.combined));
+        Map<String, SyncBatchWriter.Written> results;
+        try {
+            results = byDocument(batchWriter.write(combined));
+        } catch (RuntimeException e) {
+            log.error("Coalesced sync commit of {} documents failed", combined.size(), e);
+            window.values().forEach(slot -> slot.waiters.forEach(waiter -> waiter.completeExceptionally(e)));
+            return;
+        }
+        for (Map.Entry<String, Slot> entry : window.entrySet()) {
+            Slot slot = entry.getValue();
+            SyncBatchWriter.Written result = results.get(entry.getKey());
+            int last = slot.waiters.size() - 1;
+            for (int i = 0; i < last; i++) {
+                slot.waiters.get(i).complete(new Outcome(slot.versions.get(i), result, true));
+            }
+            slot.waiters.get(last).complete(new Outcome(slot.combined, result, false));
+        }
+    }
+
+    private static Map<String, SyncBatchWriter.Written> byDocument(List<SyncBatchWriter.Written> results) {
+        Map<String, SyncBatchWriter.Written> byDocument = new HashMap<>();
+        for (SyncBatchWriter.Written written : results) {
+            byDocument.put(written.result().getCollection() + "/" + written.result().getDocumentId(), written);
+        }
+        return byDocument;
+    }
+
+    private static String key(SyncBatchWriter.PendingWrite write) {
+        return write.getCollection() + "/" + write.getDocumentId();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        timer.shutdown();
+        committers.shutdown();
+    }
+}
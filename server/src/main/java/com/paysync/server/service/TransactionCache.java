@@ -0,0 +1,162 @@
+package com.paysync.server.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.paysync.server.model.Transaction;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache for transactions, holding single documents and the per-user and
+ * per-event ledgers. Entries expire after a TTL and are evicted by Caffeine's W-TinyLFU
+ * policy once the size bound is reached. Writes invalidate exactly the ledgers that
+ * contained the old or contain the new version of a transaction; writers pass the
+ * previous version they read with the write, so this never searches the cache. Loads
+ * are asynchronous and shared by concurrent callers; an invalidation during a load
+ * keeps its result out of the cache. Callers get and hand over copies, so a cached
+ * transaction is never changed in place.
+ */
+@Component
+public class TransactionCache {
+
+    @Value("${paysync.cache.transactions.max-entries:10000}")
+    private long maxEntries;
+
+    // Bound on the total number of transactions held across all cached ledgers
+    @Value("${paysync.cache.transactions.max-list-weight:200000}")
+    private long maxListWeight;
+
+    @Value("${paysync.cache.transactions.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private AsyncCache<String, Transaction> byId;
+    private AsyncCache<String, List<Transaction>> byUser;
+    private AsyncCache<String, List<Transaction>> byEvent;
+
+    @PostConstruct
+    public void initialize() {
+        byId = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .buildAsync();
+        byUser = listCache();
+        byEvent = listCache();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "transactions.byId");
+        CaffeineCacheMetrics.monitor(meterRegistry, byUser, "transactions.byUser");
+        CaffeineCacheMetrics.monitor(meterRegistry, byEvent, "transactions.byEvent");
+    }
+
+    private AsyncCache<String, List<Transaction>> listCache() {
+        return Caffeine.newBuilder()
+            .maximumWeight(maxListWeight)
+            .weigher((String key, List<Transaction> value) -> Math.max(1, value.size()))
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .buildAsync();
+    }
+
+    public CompletableFuture<Transaction> getTransaction(String transactionId, Supplier<CompletableFuture<Transaction>> loader) {
+        return byId.get(transactionId, (id, executor) -> loader.get()).thenApply(TransactionCache::copy);
+    }
+
+    public CompletableFuture<List<Transaction>> getUserTransactions(String userId, Supplier<CompletableFuture<List<Transaction>>> loader) {
+        return byUser.get(userId, (id, executor) -> load(loader)).thenApply(TransactionCache::copies);
+    }
+
+    public CompletableFuture<List<Transaction>> getEventTransactions(String eventId, Supplier<CompletableFuture<List<Transaction>>> loader) {
+        return byEvent.get(eventId, (id, executor) -> load(loader)).thenApply(TransactionCache::copies);
+    }
+
+    /**
+     * Ledger loads don't warm the single-document cache: a ledger read before a write
+     * to one of its transactions could complete after the write invalidated that id and
+     * put the old version back for a whole TTL.
+     */
+    private CompletableFuture<List<Transaction>> load(Supplier<CompletableFuture<List<Transaction>>> loader) {
+        return loader.get().thenApply(List::copyOf);
+    }
+
+    // A new transaction can't be in any cached ledger yet, only its owners' ledgers are stale
+    public void created(Transaction transaction) {
+        if (transaction.getUserId() != null) {
+            byUser.synchronous().invalidate(transaction.getUserId());
+        }
+        if (transaction.getEventId() != null) {
+            byEvent.synchronous().invalidate(transaction.getEventId());
+        }
+        byId.put(transaction.getTransactionId(), CompletableFuture.completedFuture(copy(transaction)));
+    }
+
+    /**
+     * Records an updated transaction. {@code previous} is the stored document the write
+     * replaced, or null if there was none; the ledgers of both it and the new version
+     * are dropped, then the new version is cached.
+     */
+    public void written(Transaction transaction, Map<String, Object> previous) {
+        evictOwners(previous);
+        evictOwners(transaction.getUserId(), transaction.getEventId());
+        byId.put(transaction.getTransactionId(), CompletableFuture.completedFuture(copy(transaction)));
+    }
+
+    public void deleted(String transactionId, Map<String, Object> previous) {
+        evictOwners(previous);
+        byId.synchronous().invalidate(transactionId);
+    }
+
+    /**
+     * Invalidates a transaction written through the sync path, where only the raw
+     * documents are available: the one read before the write, or null, and the result.
+     */
+    public void synced(String transactionId, Map<String, Object> previous, Map<String, Object> data) {
+        evictOwners(previous);
+        evictOwners(asString(data.get("userId")), asString(data.get("eventId")));
+        byId.synchronous().invalidate(transactionId);
+    }
+
+    private void evictOwners(Map<String, Object> document) {
+        if (document != null) {
+            evictOwners(asString(document.get("userId")), asString(document.get("eventId")));
+        }
+    }
+
+    private void evictOwners(String userId, String eventId) {
+        if (userId != null) {
+            byUser.synchronous().invalidate(userId);
+        }
+        if (eventId != null) {
+            byEvent.synchronous().invalidate(eventId);
+        }
+    }
+
+    private static Transaction copy(Transaction transaction) {
+        return transaction == null ? null : new Transaction(transaction);
+    }
+
+    private static List<Transaction> copies(List<Transaction> transactions) {
+        List<Transaction> copies = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            copies.add(new Transaction(transaction));
+        }
+        return copies;
+    }
+
+    private String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+}
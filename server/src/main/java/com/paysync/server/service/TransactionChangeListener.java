@@ -0,0 +1,11 @@
+package com.paysync.server.service;
+
+/**
+ * Notified after a transaction write has been committed, from both the REST
+ * and the sync paths. {@code before} is null for new or previously unknown
+ * transactions and {@code after} is null for deletes.
+ */
+public interface TransactionChangeListener {
+
+    void onTransactionChanged(LedgerEntry before, LedgerEntry after);
+}
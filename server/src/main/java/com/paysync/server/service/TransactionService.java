@@ -1,96 +1,188 @@
 package com.paysync.server.service;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.*;
-import com.google.firebase.cloud.FirestoreClient;
 import com.paysync.server.model.Transaction;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.StoredDocument;
+import com.paysync.server.repository.TransactionDocuments;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 public class TransactionService {
 
-    private static final String COLLECTION_NAME = "transactions";
+    private static final String COLLECTION_NAME = DocumentStore.TRANSACTIONS;
 
-    private Firestore getFirestore() {
-        return FirestoreClient.getFirestore();
+    @Autowired
+    private TransactionCache transactionCache;
+
+    @Autowired
+    private EventSummaryService eventSummaryService;
+
+    @Autowired
+    private CurrencyService currencyService;
+
+    @Autowired
+    private List<TransactionChangeListener> changeListeners;
+
+    @Autowired
+    private DocumentStore documentStore;
+
+    public CompletableFuture<Transaction> createTransaction(Transaction transaction) {
+        transaction.setTransactionId(documentStore.newDocumentId(COLLECTION_NAME));
+        CompletableFuture<Transaction> created = currencyService.normalize(transaction).thenCompose(normalized -> {
+            // Write the transaction and its event totals together
+            LedgerEntry entry = LedgerEntry.fromTransaction(normalized);
+            EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+            deltas.add(null, entry);
+            List<DocumentWrite> writes = new ArrayList<>();
+            writes.add(DocumentWrite.set(COLLECTION_NAME, normalized.getTransactionId(), TransactionDocuments.toDocument(normalized)));
+            writes.addAll(eventSummaryService.writes(deltas));
+            return documentStore.commit(writes).thenApply(commitTime -> {
+                transactionCache.created(normalized);
+                notifyListeners(null, entry);
+                return normalized;
+            });
+        });
+        return describeFailure(created, "Error creating transaction");
     }
 
-    public Transaction createTransaction(Transaction transaction) {
-        try {
-            DocumentReference docRef = getFirestore().collection(COLLECTION_NAME).document();
-            transaction.setTransactionId(docRef.getId());
-            docRef.set(transaction).get();
-            return transaction;
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Error creating transaction", e);
-        }
+    public CompletableFuture<Transaction> getTransaction(String transactionId) {
+        return transactionCache.getTransaction(transactionId, () -> fetchTransaction(transactionId));
     }
 
-    public Transaction getTransaction(String transactionId) {
-        try {
-            DocumentReference docRef = getFirestore().collection(COLLECTION_NAME).document(transactionId);
-            ApiFuture<DocumentSnapshot> future = docRef.get();
-            DocumentSnapshot document = future.get();
-            
-            if (document.exists()) {
-                return document.toObject(Transaction.class);
-            } else {
-                throw new RuntimeException("Transaction not found");
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Error fetching transaction", e);
-        }
+    private CompletableFuture<Transaction> fetchTransaction(String transactionId) {
+        return describeFailure(documentStore.get(COLLECTION_NAME, transactionId), "Error fetching transaction")
+            .thenApply(document -> {
+                if (document != null) {
+                    return TransactionDocuments.fromDocument(transactionId, document);
+                } else {
+                    throw new RuntimeException("Transaction not found");
+                }
+            });
     }
 
-    public List<Transaction> getUserTransactions(String userId) {
-        try {
-            Query query = getFirestore().collection(COLLECTION_NAME).whereEqualTo("userId", userId);
-            return executeQuery(query);
-        } catch (Exception e) {
-            throw new RuntimeException("Error fetching user transactions", e);
-        }
+    public CompletableFuture<List<Transaction>> getUserTransactions(String userId) {
+        return transactionCache.getUserTransactions(userId, () -> describeFailure(
+            executeQuery(DocumentQuery.create().whereEqualTo("userId", userId)), "Error fetching user transactions"));
     }
 
-    public List<Transaction> getEventTransactions(String eventId) {
-        try {
-            Query query = getFirestore().collection(COLLECTION_NAME).whereEqualTo("eventId", eventId);
-            return executeQuery(query);
-        } catch (Exception e) {
-            throw new RuntimeException("Error fetching event transactions", e);
-        }
+    public CompletableFuture<List<Transaction>> getEventTransactions(String eventId) {
+        return transactionCache.getEventTransactions(eventId, () -> describeFailure(
+            executeQuery(DocumentQuery.create().whereEqualTo("eventId", eventId)), "Error fetching event transactions"));
     }
 
-    public Transaction updateTransaction(String transactionId, Transaction transaction) {
-        try {
-            DocumentReference docRef = getFirestore().collection(COLLECTION_NAME).document(transactionId);
-            transaction.setTransactionId(transactionId);
-            docRef.set(transaction).get();
-            return transaction;
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Error updating transaction", e);
-        }
+    public CompletableFuture<Transaction> updateTransaction(String transactionId, Transaction transaction) {
+        transaction.setTransactionId(transactionId);
+        CompletableFuture<Transaction> updated = currencyService.normalize(transaction).thenCompose(normalized -> {
+            // The old version is read atomically with the write so the totals delta is exact
+            LedgerEntry entry = LedgerEntry.fromTransaction(normalized);
+            return documentStore.replace(COLLECTION_NAME, transactionId,
+                TransactionDocuments.toDocument(normalized), previousData -> {
+                    EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+                    deltas.add(previousData == null ? null : LedgerEntry.fromDocument(transactionId, previousData), entry);
+                    return eventSummaryService.writes(deltas);
+                }).thenApply(previous -> {
+                    LedgerEntry before = previous == null ? null : LedgerEntry.fromDocument(transactionId, previous);
+                    transactionCache.written(normalized, previous);
+                    notifyListeners(before, entry);
+                    return normalized;
+                });
+        });
+        return describeFailure(updated, "Error updating transaction");
     }
 
-    public void deleteTransaction(String transactionId) {
-        try {
-            DocumentReference docRef = getFirestore().collection(COLLECTION_NAME).document(transactionId);
-            docRef.delete().get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException("Error deleting transaction", e);
-        }
+    /**
+     * Overwrites only the given fields, so edits to different fields of a transaction
+     * don't undo each other. When the patch changes the amount, currency or owners the
+     * normalized amounts are worked out from the current version and patched too. The
+     * patch is stamped with lastSynced, as synced patches are, so the app downloads it.
+     */
+    public CompletableFuture<Transaction> patchTransaction(String transactionId, Map<String, Object> fields) {
+        Map<String, Object> patch = TransactionDocuments.toFields(transactionId, fields);
+        patch.put("lastSynced", System.currentTimeMillis());
+        CompletableFuture<Map<String, Object>> completed = !CurrencyService.affectsConversion(patch)
+            ? CompletableFuture.completedFuture(patch)
+            : getTransaction(transactionId).thenCompose(current -> {
+                Map<String, Object> whole = TransactionDocuments.toDocument(current);
+                whole.putAll(patch);
+                return currencyService.normalize(TransactionDocuments.fromDocument(transactionId, whole));
+            }).thenApply(normalized -> {
+                patch.put(CurrencyService.EVENT_AMOUNT_FIELD, normalized.getAmountInEventCurrency());
+                patch.put(CurrencyService.USER_AMOUNT_FIELD, normalized.getAmountInUserCurrency());
+                return patch;
+            });
+        CompletableFuture<Transaction> patched = completed.thenCompose(update ->
+            // The old version is read atomically with the write so the totals delta is exact
+            documentStore.patch(COLLECTION_NAME, transactionId, update, previousData -> {
+                EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+                deltas.add(LedgerEntry.fromDocument(transactionId, previousData),
+                    LedgerEntry.fromDocument(transactionId, patched(previousData, update)));
+                return eventSummaryService.writes(deltas);
+            }).thenApply(previous -> {
+                if (previous == null) {
+                    throw new RuntimeException("Transaction not found");
+                }
+                Transaction transaction = TransactionDocuments.fromDocument(transactionId, patched(previous, update));
+                transactionCache.written(transaction, previous);
+                notifyListeners(LedgerEntry.fromDocument(transactionId, previous),
+                    LedgerEntry.fromDocument(transactionId, patched(previous, update)));
+                return transaction;
+            }));
+        return describeFailure(patched, "Error patching transaction");
     }
 
-    private List<Transaction> executeQuery(Query query) throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> future = query.get();
-        List<Transaction> transactions = new ArrayList<>();
-        QuerySnapshot querySnapshot = future.get();
-        for (DocumentSnapshot document : querySnapshot.getDocuments()) {
-            transactions.add(document.toObject(Transaction.class));
+    private static Map<String, Object> patched(Map<String, Object> previous, Map<String, Object> fields) {
+        Map<String, Object> result = new HashMap<>(previous);
+        result.putAll(fields);
+        return result;
+    }
+
+    public CompletableFuture<Void> deleteTransaction(String transactionId) {
+        CompletableFuture<Void> deleted = documentStore.replace(COLLECTION_NAME, transactionId, null, previousData -> {
+            EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+            if (previousData != null) {
+                deltas.add(LedgerEntry.fromDocument(transactionId, previousData), null);
+            }
+            return eventSummaryService.writes(deltas);
+        }).thenAccept(previous -> {
+            LedgerEntry before = previous == null ? null : LedgerEntry.fromDocument(transactionId, previous);
+            transactionCache.deleted(transactionId, previous);
+            if (before != null) {
+                notifyListeners(before, null);
+            }
+        });
+        return describeFailure(deleted, "Error deleting transaction");
+    }
+
+    private void notifyListeners(LedgerEntry before, LedgerEntry after) {
+        for (TransactionChangeListener listener : changeListeners) {
+            listener.onTransactionChanged(before, after);
         }
-        return transactions;
+    }
+
+    private CompletableFuture<List<Transaction>> executeQuery(DocumentQuery query) {
+        return documentStore.query(COLLECTION_NAME, query).thenApply(documents -> {
+            List<Transaction> transactions = new ArrayList<>(documents.size());
+            for (StoredDocument document : documents) {
+                transactions.add(TransactionDocuments.fromDocument(document.getId(), document.getData()));
+            }
+            return transactions;
+        });
+    }
+
+    // Same wrapping the blocking versions of these methods used
+    private static <T> CompletableFuture<T> describeFailure(CompletableFuture<T> future, String message) {
+        return future.exceptionally(e -> {
+            throw new RuntimeException(message, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package com.paysync.server.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Shares full-account reads between concurrent requests for the same user, so devices
+ * on one account and the app's retries reconnecting together cost one read. A write
+ * that touches an account releases its key, so a request that arrives after the write
+ * is acknowledged never gets a result read before it. {@code paysync.reads.shared}
+ * counts the requests that were answered by another request's read.
+ */
+@Component
+public class UserDataReads implements TransactionChangeListener {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SingleFlight<String, Map<String, Object>> flights = new SingleFlight<>();
+
+    @PostConstruct
+    public void initialize() {
+        FunctionCounter.builder("paysync.reads.shared", flights, SingleFlight::joined)
+            .description("Requests answered by a read another request had already started")
+            .tag("read", "user-data")
+            .register(meterRegistry);
+    }
+
+    public CompletableFuture<Map<String, Object>> read(String userId, Supplier<CompletableFuture<Map<String, Object>>> read) {
+        return flights.run(userId, read);
+    }
+
+    public void written(String userId) {
+        if (userId != null) {
+            flights.forget(userId);
+        }
+    }
+
+    // For writes whose affected accounts aren't known
+    public void writtenUnknown() {
+        flights.forgetAll();
+    }
+
+    @Override
+    public void onTransactionChanged(LedgerEntry before, LedgerEntry after) {
+        if (before != null) {
+            written(before.getUserId());
+        }
+        if (after != null) {
+            written(after.getUserId());
+        }
+    }
+}
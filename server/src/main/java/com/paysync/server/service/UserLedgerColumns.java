@@ -0,0 +1,291 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.InsightBucket;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One user's transactions stored column by column in primitive arrays, with the
+ * string columns dictionary-encoded. Aggregations scan the arrays directly and only
+ * allocate per output group, never per row. Instances are guarded by their own lock.
+ */
+final class UserLedgerColumns implements LedgerCache.Ledger {
+
+    enum Dimension { PAYMENT_METHOD, EVENT, CURRENCY, TYPE, MODE }
+
+    enum Granularity { DAY, WEEK, MONTH }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final int MAX_TIME_BUCKETS = 10_000;
+    private static final byte ONLINE = 1;
+    private static final byte CREDIT = 2;
+
+    private final Dictionary paymentMethods = new Dictionary();
+    private final Dictionary currencies = new Dictionary();
+    private final Dictionary events = new Dictionary();
+    private final Map<String, Integer> rowById = new HashMap<>();
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private double[] amounts = new double[INITIAL_CAPACITY];
+    private double[] userAmounts = new double[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] paymentMethodCodes = new int[INITIAL_CAPACITY];
+    private int[] currencyCodes = new int[INITIAL_CAPACITY];
+    private int[] eventCodes = new int[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    // Maps strings to dense int codes; code 0 is always null
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        Dictionary() {
+            codes.put(null, 0);
+            values.add(null);
+        }
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void upsert(LedgerEntry entry) {
+        Integer row = rowById.get(entry.getTransactionId());
+        if (row == null) {
+            ensureCapacity(size + 1);
+            row = size++;
+            ids[row] = entry.getTransactionId();
+            rowById.put(entry.getTransactionId(), row);
+        }
+        amounts[row] = entry.getAmount();
+        userAmounts[row] = entry.getUserAmount();
+        times[row] = entry.getEpochMillis();
+        paymentMethodCodes[row] = paymentMethods.encode(entry.getPaymentMethod());
+        currencyCodes[row] = currencies.encode(entry.getCurrency());
+        eventCodes[row] = events.encode(entry.getEventId());
+        flags[row] = (byte) ((entry.isOnline() ? ONLINE : 0) | (entry.isCredit() ? CREDIT : 0));
+    }
+
+    // Moves the last row into the removed slot to keep the columns dense
+    @Override
+    public synchronized void remove(String transactionId) {
+        Integer row = rowById.remove(transactionId);
+        if (row == null) {
+            return;
+        }
+        int last = --size;
+        if (row != last) {
+            ids[row] = ids[last];
+            amounts[row] = amounts[last];
+            userAmounts[row] = userAmounts[last];
+            times[row] = times[last];
+            paymentMethodCodes[row] = paymentMethodCodes[last];
+            currencyCodes[row] = currencyCodes[last];
+            eventCodes[row] = eventCodes[last];
+            flags[row] = flags[last];
+            rowById.put(ids[row], row);
+        }
+        ids[last] = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        userAmounts = Arrays.copyOf(userAmounts, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        paymentMethodCodes = Arrays.copyOf(paymentMethodCodes, newCapacity);
+        currencyCodes = Arrays.copyOf(currencyCodes, newCapacity);
+        eventCodes = Arrays.copyOf(eventCodes, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+    }
+
+    /**
+     * Credit and debit totals per value of {@code dimension} for rows with
+     * {@code from <= time < to}. Amounts are in the user's default currency, or converted
+     * into {@code currency} when one is given.
+     */
+    synchronized List<InsightBucket> groupBy(Dimension dimension, long from, long to, RateTable rates, String currency) {
+        double[] factors = conversionFactors(rates, currency);
+        int groups;
+        switch (dimension) {
+            case PAYMENT_METHOD: groups = paymentMethods.size(); break;
+            case EVENT: groups = events.size(); break;
+            case CURRENCY: groups = currencies.size(); break;
+            default: groups = 2;
+        }
+        double[] credit = new double[groups];
+        double[] debit = new double[groups];
+        long[] count = new long[groups];
+
+        for (int row = 0; row < size; row++) {
+            long time = times[row];
+            if (time < from || time >= to) {
+                continue;
+            }
+            int group;
+            switch (dimension) {
+                case PAYMENT_METHOD: group = paymentMethodCodes[row]; break;
+                case EVENT: group = eventCodes[row]; break;
+                case CURRENCY: group = currencyCodes[row]; break;
+                case TYPE: group = (flags[row] & CREDIT) != 0 ? 0 : 1; break;
+                default: group = (flags[row] & ONLINE) != 0 ? 0 : 1;
+            }
+            double amount = amountOf(row, factors);
+            if (Double.isNaN(amount)) {
+                continue;
+            }
+            if ((flags[row] & CREDIT) != 0) {
+                credit[group] += amount;
+            } else {
+                debit[group] += amount;
+            }
+            count[group]++;
+        }
+
+        List<InsightBucket> buckets = new ArrayList<>();
+        for (int group = 0; group < groups; group++) {
+            if (count[group] > 0) {
+                buckets.add(new InsightBucket(groupLabel(dimension, group), credit[group], debit[group], count[group]));
+            }
+        }
+        return buckets;
+    }
+
+    // One factor per currency code, computed once per query; null means use the stored normalized amount
+    private double[] conversionFactors(RateTable rates, String currency) {
+        return currency == null || rates == null ? null : rates.factors(currencies.values, currency);
+    }
+
+    // NaN when the row's currency can't be converted, or it has no amount in the user's currency, so the row is left out
+    private double amountOf(int row, double[] factors) {
+        return factors == null ? userAmounts[row] : amounts[row] * factors[currencyCodes[row]];
+    }
+
+    private String groupLabel(Dimension dimension, int group) {
+        switch (dimension) {
+            case PAYMENT_METHOD: return paymentMethods.decode(group);
+            case EVENT: return events.decode(group);
+            case CURRENCY: return currencies.decode(group);
+            case TYPE: return group == 0 ? "credit" : "debit";
+            default: return group == 0 ? "online" : "offline";
+        }
+    }
+
+    /**
+     * Credit and debit totals per day, week (starting Monday) or calendar month for rows
+     * with {@code from <= time < to}. Times are shifted by {@code offsetMillis} first so
+     * buckets follow the caller's local calendar. Empty buckets between the first and
+     * last non-empty one are included. Amounts are converted as in {@link #groupBy}.
+     */
+    synchronized List<InsightBucket> timeBuckets(Granularity granularity, long from, long to, long offsetMillis,
+                                                 RateTable rates, String currency) {
+        double[] factors = conversionFactors(rates, currency);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            long time = times[row];
+            if (time < from || time >= to) {
+                continue;
+            }
+            long bucket = bucketOf(granularity, time + offsetMillis);
+            min = Math.min(min, bucket);
+            max = Math.max(max, bucket);
+        }
+        if (min > max) {
+            return new ArrayList<>();
+        }
+
+        if (max - min >= MAX_TIME_BUCKETS) {
+            throw new IllegalArgumentException("Too many time buckets, narrow the from/to range");
+        }
+        int span = (int) (max - min + 1);
+        double[] credit = new double[span];
+        double[] debit = new double[span];
+        long[] count = new long[span];
+        for (int row = 0; row < size; row++) {
+            long time = times[row];
+            if (time < from || time >= to) {
+                continue;
+            }
+            double amount = amountOf(row, factors);
+            if (Double.isNaN(amount)) {
+                continue;
+            }
+            int index = (int) (bucketOf(granularity, time + offsetMillis) - min);
+            if ((flags[row] & CREDIT) != 0) {
+                credit[index] += amount;
+            } else {
+                debit[index] += amount;
+            }
+            count[index]++;
+        }
+
+        List<InsightBucket> buckets = new ArrayList<>(span);
+        for (int index = 0; index < span; index++) {
+            buckets.add(new InsightBucket(bucketLabel(granularity, min + index), credit[index], debit[index], count[index]));
+        }
+        return buckets;
+    }
+
+    static long bucketOf(Granularity granularity, long localMillis) {
+        long day = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        switch (granularity) {
+            case DAY: return day;
+            // 1970-01-01 was a Thursday, so shifting by 3 days puts Mondays on multiples of 7
+            case WEEK: return Math.floorDiv(day + 3, 7);
+            default: return monthOf(day);
+        }
+    }
+
+    // Months since year 0 for an epoch day, using integer civil-calendar arithmetic
+    static long monthOf(long epochDay) {
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 12 + month - 1;
+    }
+
+    static String bucketLabel(Granularity granularity, long bucket) {
+        switch (granularity) {
+            case DAY: return LocalDate.ofEpochDay(bucket).toString();
+            case WEEK: return LocalDate.ofEpochDay(bucket * 7 - 3).toString();
+            default: return String.format("%04d-%02d", Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1);
+        }
+    }
+}
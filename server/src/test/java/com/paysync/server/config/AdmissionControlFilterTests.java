@@ -0,0 +1,44 @@
+package com.paysync.server.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControlFilterTests {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	@Test
+	void findsTheUserInThePath() {
+		assertEquals("u1", AdmissionControlFilter.userOf("/api/sync/users/u1"));
+		assertEquals("u1", AdmissionControlFilter.userOf("/api/sync/users/u1/changes"));
+		assertEquals("u1", AdmissionControlFilter.userOf("/transactions/user/u1/export"));
+		assertEquals("u1", AdmissionControlFilter.userOf("/insights/u1/totals"));
+		assertNull(AdmissionControlFilter.userOf("/api/sync/changes"));
+		assertNull(AdmissionControlFilter.userOf("/transactions/t1"));
+	}
+
+	@Test
+	void bucketAdmitsABurstThenRefills() {
+		TokenBucket bucket = new TokenBucket(3, 2, 0);
+
+		assertEquals(0, bucket.tryTake(0));
+		assertEquals(0, bucket.tryTake(0));
+		assertEquals(0, bucket.tryTake(0));
+		assertEquals(SECOND / 2, bucket.tryTake(0));
+		assertEquals(SECOND / 4, bucket.tryTake(SECOND / 4));
+		assertEquals(0, bucket.tryTake(SECOND / 2));
+		assertTrue(bucket.tryTake(SECOND / 2) > 0);
+	}
+
+	@Test
+	void bucketNeverHoldsMoreThanItsCapacity() {
+		TokenBucket bucket = new TokenBucket(2, 1, 0);
+
+		assertEquals(0, bucket.tryTake(100 * SECOND));
+		assertEquals(0, bucket.tryTake(100 * SECOND));
+		assertEquals(SECOND, bucket.tryTake(100 * SECOND));
+	}
+}
@@ -0,0 +1,23 @@
+package com.paysync.server.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SyncWireFormatTests {
+
+	@Test
+	void defaultsToJson() {
+		assertEquals(SyncWireFormat.JSON, SyncWireFormat.negotiate(null));
+		assertEquals(SyncWireFormat.JSON, SyncWireFormat.negotiate("*/*"));
+		assertEquals(SyncWireFormat.JSON, SyncWireFormat.negotiate("text/html, application/xml;q=0.9"));
+	}
+
+	@Test
+	void picksHighestQualityFormat() {
+		assertEquals(SyncWireFormat.SMILE, SyncWireFormat.negotiate("application/x-jackson-smile, application/json;q=0.5"));
+		assertEquals(SyncWireFormat.CBOR, SyncWireFormat.negotiate("application/json;q=0.8, application/cbor"));
+		assertEquals(SyncWireFormat.JSON, SyncWireFormat.negotiate("application/json, application/cbor"));
+		assertEquals(SyncWireFormat.JSON, SyncWireFormat.negotiate("application/cbor;q=0, */*"));
+	}
+}
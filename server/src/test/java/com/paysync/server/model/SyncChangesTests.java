@@ -0,0 +1,69 @@
+package com.paysync.server.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SyncChangesTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private SyncChanges read(String json) throws Exception {
+		return objectMapper.readValue(json.replace('\'', '"'), SyncChanges.class);
+	}
+
+	@Test
+	void mistypedDocumentsAreRejectedAndTheRestRead() throws Exception {
+		SyncChanges changes = read("{'transactions': {"
+			+ "'t1': {'amount': 12.5, 'isCredit': 1, 'dateTime': '2024-03-01T10:00:00Z', 'balanceAfter': 40},"
+			+ "'t2': {'amount': 'twelve', 'isCredit': 0},"
+			+ "'t3': {'isOnline': 2}},"
+			+ "'ledgers': {'l1': {}}}");
+
+		assertEquals(1, changes.getDocuments().size());
+		SyncDocument document = changes.getDocuments().get(0);
+		assertEquals(SyncCollection.TRANSACTIONS, document.collection());
+		assertEquals("t1", document.documentId());
+		assertEquals(Map.of("amount", 12.5, "isCredit", 1, "dateTime", "2024-03-01T10:00:00Z", "balanceAfter", 40),
+			document.data());
+
+		assertEquals(3, changes.getRejected().size());
+		assertEquals("Invalid amount: expected a number", changes.getRejected().get(0).getError());
+		assertEquals("Invalid isOnline: expected a boolean or 0/1", changes.getRejected().get(1).getError());
+		assertEquals("ledgers", changes.getRejected().get(2).getCollection());
+		assertEquals("Unknown collection", changes.getRejected().get(2).getError());
+	}
+
+	@Test
+	void versionIsTakenOutAndIdListsNormalized() throws Exception {
+		SyncChanges changes = read("{'events': {'e1': {'members': 'u1, ,u2', 'version': 1700000000000000}},"
+			+ "'users': {'u1': {'events': ['e1', ' e2 ']}, 'u2': {'version': -1}}}");
+
+		assertEquals(2, changes.getDocuments().size());
+		SyncDocument event = changes.getDocuments().get(0);
+		assertEquals(1700000000000000L, event.expectedVersion());
+		assertEquals(List.of("u1", "u2"), event.ids());
+		assertEquals(Map.of("members", "u1, ,u2"), event.data());
+
+		SyncDocument user = changes.getDocuments().get(1);
+		assertNull(user.expectedVersion());
+		assertEquals(List.of("e1", "e2"), user.ids());
+		assertEquals("Invalid version: -1", changes.getRejected().get(0).getError());
+	}
+
+	@Test
+	void writtenChangesReadBackTheSame() throws Exception {
+		SyncChanges changes = read("{'events': {'e1': {'nameOfEvent': 'Trip', 'version': 5}, 'e1': {'nameOfEvent': 'Goa'}},"
+			+ "'savings_goals': {'g1': {'targetAmount': 900, 'extra': {'nested': [1, 2]}}}}");
+		SyncChanges again = objectMapper.readValue(objectMapper.writeValueAsBytes(changes), SyncChanges.class);
+
+		assertEquals(changes.toWire(), again.toWire());
+		assertEquals(Map.of("nameOfEvent", "Goa"), again.getDocuments().get(0).data());
+		assertNull(again.getDocuments().get(0).expectedVersion());
+	}
+}
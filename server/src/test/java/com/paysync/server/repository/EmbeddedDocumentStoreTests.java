@@ -0,0 +1,219 @@
+package com.paysync.server.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddedDocumentStoreTests {
+
+	@TempDir
+	Path directory;
+
+	private EmbeddedDocumentStore open() throws Exception {
+		return new EmbeddedDocumentStore(new ObjectMapper(), directory, false);
+	}
+
+	private Map<String, Object> transaction(String userId, String eventId, long lastSynced) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("userId", userId);
+		data.put("eventId", eventId);
+		data.put("lastSynced", lastSynced);
+		return data;
+	}
+
+	private List<String> ids(List<StoredDocument> documents) {
+		List<String> ids = new ArrayList<>();
+		documents.forEach(doc -> ids.add(doc.getId()));
+		return ids;
+	}
+
+	private static long micros(Instant instant) {
+		return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+	}
+
+	@Test
+	void queriesFilterByEqualityAndRangeInOrder() throws Exception {
+		EmbeddedDocumentStore store = open();
+		store.commit(List.of(
+			DocumentWrite.set("transactions", "t1", transaction("u1", "e1", 100)),
+			DocumentWrite.set("transactions", "t2", transaction("u1", "e2", 300)),
+			DocumentWrite.set("transactions", "t3", transaction("u2", "e1", 200)),
+			DocumentWrite.set("transactions", "t4", transaction("u1", "e1", 200)))).get();
+
+		assertEquals(List.of("t1", "t2", "t4"),
+			ids(store.query("transactions", DocumentQuery.create().whereEqualTo("userId", "u1")).get()));
+		assertEquals(List.of("t4", "t2"), ids(store.query("transactions", DocumentQuery.create()
+			.whereEqualTo("userId", "u1")
+			.whereGreaterThan("lastSynced", 100L)).get()));
+		assertEquals(List.of("t3", "t4"), ids(store.query("transactions", DocumentQuery.create()
+			.whereGreaterThan("lastSynced", 100L)
+			.orderBy("lastSynced")
+			.limit(2)).get()));
+		assertEquals(List.of("t4", "t2"), ids(store.query("transactions", DocumentQuery.create()
+			.whereGreaterThan("lastSynced", 100L)
+			.orderBy("lastSynced")
+			.startAfter(200L, "t3")).get()));
+	}
+
+	@Test
+	void projectionReturnsOnlySelectedFields() throws Exception {
+		EmbeddedDocumentStore store = open();
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", transaction("u1", "e1", 100)))).get();
+
+		List<StoredDocument> documents = store.query("transactions", DocumentQuery.create()
+			.whereEqualTo("userId", "u1")
+			.select("eventId", "note")).get();
+
+		assertEquals(Map.of("eventId", "e1"), documents.get(0).getData());
+	}
+
+	@Test
+	void arrayContainsUsesMemberIds() throws Exception {
+		EmbeddedDocumentStore store = open();
+		Map<String, Object> event = new HashMap<>();
+		event.put("memberIds", List.of("u1", "u2"));
+		event.put("lastSynced", 5L);
+		store.commit(List.of(DocumentWrite.set("events", "e1", event))).get();
+
+		assertEquals(List.of("e1"), ids(store.query("events", DocumentQuery.create()
+			.whereArrayContains("memberIds", "u2")
+			.whereGreaterThan("lastSynced", 1L)).get()));
+		assertTrue(store.query("events", DocumentQuery.create().whereArrayContains("memberIds", "u3")).get().isEmpty());
+	}
+
+	@Test
+	void replaceReturnsPreviousVersionAndAppliesRelatedWrites() throws Exception {
+		EmbeddedDocumentStore store = open();
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", transaction("u1", "e1", 1)))).get();
+
+		Map<String, Object> previous = store.replace("transactions", "t1", transaction("u2", "e1", 2),
+			before -> List.of(DocumentWrite.increment("event_summaries", "e1", Map.of("transactionCount", 1L, "offlineDebit", 2.5)))).get();
+
+		assertEquals("u1", previous.get("userId"));
+		assertTrue(store.query("transactions", DocumentQuery.create().whereEqualTo("userId", "u1")).get().isEmpty());
+		Map<String, Object> summary = store.get("event_summaries", "e1").get();
+		assertEquals(1L, summary.get("transactionCount"));
+		assertEquals(2.5, summary.get("offlineDebit"));
+	}
+
+	@Test
+	void patchKeepsOtherFieldsAndSkipsMissingDocuments() throws Exception {
+		EmbeddedDocumentStore store = open();
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", transaction("u1", "e1", 1)))).get();
+
+		Map<String, Object> previous = store.patch("transactions", "t1", Map.of("eventId", "e2"),
+			before -> List.of(DocumentWrite.increment("event_summaries", "e2", Map.of("transactionCount", 1L)))).get();
+		Map<String, Object> missing = store.patch("transactions", "t2", Map.of("eventId", "e2"),
+			before -> List.of(DocumentWrite.increment("event_summaries", "e2", Map.of("transactionCount", 1L)))).get();
+
+		assertEquals("e1", previous.get("eventId"));
+		assertNull(missing);
+		assertNull(store.get("transactions", "t2").get());
+		Map<String, Object> patched = store.get("transactions", "t1").get();
+		patched.remove(DocumentStore.VERSION);
+		assertEquals(transaction("u1", "e2", 1), patched);
+		assertEquals(1L, store.get("event_summaries", "e2").get().get("transactionCount"));
+	}
+
+	@Test
+	void failedUpdateLeavesTheGroupUnapplied() throws Exception {
+		EmbeddedDocumentStore store = open();
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> store.commit(List.of(
+			DocumentWrite.set("users", "u1", Map.of("name", "a")),
+			DocumentWrite.update("users", "missing", Map.of("name", "b")))).get());
+
+		assertTrue(failure.getCause() instanceof IllegalStateException);
+		assertNull(store.get("users", "u1").get());
+	}
+
+	@Test
+	void conditionalWritesApplyOnlyAtTheExpectedVersion() throws Exception {
+		EmbeddedDocumentStore store = open();
+		long created = micros(store.commit(List.of(
+			DocumentWrite.set("transactions", "t1", transaction("u1", "e1", 1)).ifVersion(0))).get());
+		assertEquals(created, store.get("transactions", "t1").get().get(DocumentStore.VERSION));
+
+		ExecutionException exists = assertThrows(ExecutionException.class, () -> store.commit(List.of(
+			DocumentWrite.set("transactions", "t1", transaction("u2", "e1", 2)).ifVersion(0))).get());
+		assertTrue(exists.getCause() instanceof VersionConflictException);
+
+		long updated = micros(store.commit(List.of(
+			DocumentWrite.set("transactions", "t1", Map.of("note", "lunch")).ifVersion(created))).get());
+		assertTrue(updated > created);
+
+		ExecutionException stale = assertThrows(ExecutionException.class, () -> store.commit(List.of(
+			DocumentWrite.set("users", "u1", Map.of("name", "a")),
+			DocumentWrite.update("transactions", "t1", Map.of("note", "dinner")).ifVersion(created))).get());
+		assertTrue(stale.getCause() instanceof VersionConflictException);
+		assertNull(store.get("users", "u1").get());
+		store.close();
+
+		Map<String, Object> t1 = open().get("transactions", "t1").get();
+		// A conditional SET replaces the document, dropping the fields it leaves out, as on Firestore
+		assertEquals("lunch", t1.get("note"));
+		assertNull(t1.get("userId"));
+		assertEquals(updated, t1.get(DocumentStore.VERSION));
+	}
+
+	@Test
+	void reopeningReplaysTheLog() throws Exception {
+		EmbeddedDocumentStore store = open();
+		Map<String, Object> data = transaction("u1", "e1", 7);
+		data.put("dateTime", Timestamp.ofTimeSecondsAndNanos(1_700_000_000L, 0));
+		data.put("amount", 12);
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", data))).get();
+		store.commit(List.of(DocumentWrite.set("transactions", "t2", transaction("u1", "e1", 8)))).get();
+		store.commit(List.of(DocumentWrite.merge("transactions", "t1", Map.of("note", "lunch")))).get();
+		store.commit(List.of(DocumentWrite.delete("transactions", "t2"))).get();
+		store.close();
+
+		EmbeddedDocumentStore reopened = open();
+		Map<String, Object> t1 = reopened.get("transactions", "t1").get();
+		assertEquals("lunch", t1.get("note"));
+		assertEquals(12L, t1.get("amount"));
+		assertEquals(Timestamp.ofTimeSecondsAndNanos(1_700_000_000L, 0), t1.get("dateTime"));
+		assertNull(reopened.get("transactions", "t2").get());
+		assertEquals(List.of("t1"), ids(reopened.query("transactions", DocumentQuery.create().whereEqualTo("eventId", "e1")).get()));
+	}
+
+	@Test
+	void listenersSeeCurrentMatchesThenCommittedChanges() throws Exception {
+		EmbeddedDocumentStore store = new EmbeddedDocumentStore(new ObjectMapper());
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", transaction("u1", "e1", 100)))).get();
+
+		BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+		DocumentSubscription subscription = store.listen("transactions",
+			DocumentQuery.create().whereEqualTo("eventId", "e1"),
+			documents -> batches.add(ids(documents)), error -> {});
+		assertEquals(List.of("t1"), batches.poll(5, TimeUnit.SECONDS));
+
+		store.commit(List.of(
+			DocumentWrite.set("transactions", "t2", transaction("u2", "e1", 200)),
+			DocumentWrite.set("transactions", "t3", transaction("u2", "e2", 200)),
+			DocumentWrite.delete("transactions", "t1"))).get();
+		assertEquals(List.of("t2"), batches.poll(5, TimeUnit.SECONDS));
+
+		subscription.close();
+		store.commit(List.of(DocumentWrite.set("transactions", "t4", transaction("u1", "e1", 300)))).get();
+		assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,132 @@
+package com.paysync.server.repository;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.Invocation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FirestoreDocumentStoreTests {
+
+	private static final long VERSION = 1_700_000_000_000_001L;
+
+	private final Firestore firestore = mock(Firestore.class);
+	private final DocumentReference ref = mock(DocumentReference.class);
+	private final DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+	private final WriteBatch batch = mock(WriteBatch.class);
+	private final FirestoreDocumentStore store = new FirestoreDocumentStore(firestore, new SimpleMeterRegistry());
+
+	FirestoreDocumentStoreTests() {
+		CollectionReference collection = mock(CollectionReference.class);
+		when(firestore.collection("transactions")).thenReturn(collection);
+		when(collection.document("t1")).thenReturn(ref);
+		when(ref.getPath()).thenReturn("transactions/t1");
+		when(firestore.getAll(ref)).thenReturn(ApiFutures.immediateFuture(List.of(snapshot)));
+		when(snapshot.getReference()).thenReturn(ref);
+
+		WriteResult result = mock(WriteResult.class);
+		when(result.getUpdateTime()).thenReturn(Timestamp.ofTimeMicroseconds(VERSION + 1));
+		when(firestore.batch()).thenReturn(batch);
+		when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of(result)));
+	}
+
+	private void stored(long version, Map<String, Object> data) {
+		when(snapshot.exists()).thenReturn(true);
+		when(snapshot.getUpdateTime()).thenReturn(Timestamp.ofTimeMicroseconds(version));
+		when(snapshot.getData()).thenReturn(new HashMap<>(data));
+	}
+
+	// The fields and values of the one field-path update staged on the batch
+	private Map<Object, Object> stagedUpdate() {
+		Map<Object, Object> fields = new HashMap<>();
+		for (Invocation invocation : mockingDetails(batch).getInvocations()) {
+			if (invocation.getMethod().getName().equals("update")) {
+				Object[] arguments = invocation.getRawArguments();
+				assertEquals(ref, arguments[0]);
+				assertEquals(Precondition.updatedAt(Timestamp.ofTimeMicroseconds(VERSION)), arguments[1]);
+				fields.put(arguments[2], arguments[3]);
+				Object[] more = (Object[]) arguments[4];
+				for (int i = 0; i < more.length; i += 2) {
+					fields.put(more[i], more[i + 1]);
+				}
+			}
+		}
+		return fields;
+	}
+
+	@Test
+	void conditionalReplaceDeletesTheFieldsItDrops() throws Exception {
+		stored(VERSION, Map.of("amount", 10.0, "note", "Lunch", "a.b", 1));
+		Map<String, Object> replacement = new HashMap<>();
+		replacement.put("amount", 12.0);
+		replacement.put("a.b", 2);
+		replacement.put(DocumentStore.VERSION, VERSION);
+
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", replacement).ifVersion(VERSION))).get();
+
+		// Keys are literal field names, and the version read back is never written
+		assertEquals(Map.of(FieldPath.of("amount"), 12.0, FieldPath.of("a.b"), 2, FieldPath.of("note"), FieldValue.delete()),
+			stagedUpdate());
+	}
+
+	@Test
+	void conditionalReplaceOfAMovedDocumentConflictsWithoutCommitting() {
+		stored(VERSION + 5, Map.of("amount", 10.0));
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> store.commit(List.of(
+			DocumentWrite.set("transactions", "t1", Map.of("amount", 12.0)).ifVersion(VERSION))).get());
+
+		assertInstanceOf(VersionConflictException.class, failure.getCause());
+		verify(batch, never()).commit();
+	}
+
+	@Test
+	void conditionalReplaceOfAMissingDocumentConflicts() {
+		when(snapshot.exists()).thenReturn(false);
+
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> store.commit(List.of(
+			DocumentWrite.set("transactions", "t1", Map.of("amount", 12.0)).ifVersion(VERSION))).get());
+
+		assertInstanceOf(VersionConflictException.class, failure.getCause());
+	}
+
+	@Test
+	void deleteOfADocumentThatMustNotExist() throws Exception {
+		when(snapshot.exists()).thenReturn(false);
+		DocumentWrite delete = DocumentWrite.delete("transactions", "t1").ifVersion(0);
+
+		store.commit(List.of(delete)).get();
+		verify(batch, never()).delete(any(DocumentReference.class));
+		verify(batch, never()).delete(any(DocumentReference.class), any(Precondition.class));
+
+		stored(VERSION, Map.of("amount", 10.0));
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> store.commit(List.of(delete)).get());
+		assertInstanceOf(VersionConflictException.class, failure.getCause());
+		assertTrue(stagedUpdate().isEmpty());
+	}
+}
@@ -0,0 +1,84 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkTransactionImporterTests {
+
+	@Test
+	void parsesCsvStrings() {
+		Map<String, String> row = new HashMap<>();
+		row.put("userId", "u1");
+		row.put("eventId", "");
+		row.put("amount", "12.50");
+		row.put("isCredit", "1");
+		row.put("isOnline", "false");
+		row.put("currency", "inr");
+		row.put("dateTime", "2024-03-01T10:15:00");
+		row.put("note", " Groceries ");
+
+		Transaction transaction = BulkTransactionImporter.parseRow(row);
+
+		assertEquals("u1", transaction.getUserId());
+		assertNull(transaction.getEventId());
+		assertEquals(12.5, transaction.getAmount());
+		assertTrue(transaction.getIsCredit());
+		assertFalse(transaction.getIsOnline());
+		assertFalse(transaction.getRecurring());
+		assertEquals("INR", transaction.getCurrency());
+		assertEquals(1_709_288_100L, transaction.getDateTime().getSeconds());
+		assertEquals("Groceries", transaction.getNote());
+	}
+
+	@Test
+	void parsesJsonValues() {
+		Map<String, Object> row = new HashMap<>();
+		row.put("userId", "u1");
+		row.put("amount", 7);
+		row.put("isCredit", true);
+		row.put("dateTime", 1_709_288_100_000L);
+
+		Transaction transaction = BulkTransactionImporter.parseRow(row);
+
+		assertEquals(7.0, transaction.getAmount());
+		assertTrue(transaction.getIsCredit());
+		assertEquals(1_709_288_100L, transaction.getDateTime().getSeconds());
+	}
+
+	@Test
+	void acceptsPlainDatesAndOffsets() {
+		assertEquals(1_709_251_200L, parse("dateTime", "2024-03-01").getDateTime().getSeconds());
+		assertEquals(1_709_268_300L, parse("dateTime", "2024-03-01T10:15:00+05:30").getDateTime().getSeconds());
+	}
+
+	@Test
+	void rejectsInvalidRows() {
+		assertThrows(IllegalArgumentException.class, () -> parse("userId", " "));
+		assertThrows(IllegalArgumentException.class, () -> parse("userId", "a/b"));
+		assertThrows(IllegalArgumentException.class, () -> parse("amount", "twelve"));
+		assertThrows(IllegalArgumentException.class, () -> parse("amount", "-3"));
+		assertThrows(IllegalArgumentException.class, () -> parse("amount", "NaN"));
+		assertThrows(IllegalArgumentException.class, () -> parse("isCredit", "yes"));
+		assertThrows(IllegalArgumentException.class, () -> parse("currency", "RUPEE"));
+		assertThrows(IllegalArgumentException.class, () -> parse("dateTime", "01/03/2024"));
+	}
+
+	// A valid row with one field replaced
+	private static Transaction parse(String field, String value) {
+		Map<String, String> row = new HashMap<>();
+		row.put("userId", "u1");
+		row.put("amount", "1");
+		row.put("dateTime", "2024-03-01T00:00:00Z");
+		row.put(field, value);
+		return BulkTransactionImporter.parseRow(row);
+	}
+}
@@ -0,0 +1,144 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeFeedServiceTests {
+
+	private static final long OVERLAP_MS = 5_000;
+
+	// Records the changes messages instead of writing them to a response
+	private static final class RecordingEmitter extends SseEmitter {
+		private final BlockingQueue<Map<String, Map<String, Object>>> messages = new LinkedBlockingQueue<>();
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void send(SseEventBuilder builder) {
+			for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+				if (part.getData() instanceof Map) {
+					messages.add((Map<String, Map<String, Object>>) part.getData());
+				}
+			}
+		}
+
+		// The documents of the messages that arrive within the timeout, by collection
+		Map<String, Map<String, Object>> received(long timeoutMs) throws InterruptedException {
+			Map<String, Map<String, Object>> documents = new HashMap<>();
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			Map<String, Map<String, Object>> message;
+			while ((message = messages.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) != null) {
+				message.forEach((collection, byId) -> documents.computeIfAbsent(collection, k -> new HashMap<>()).putAll(byId));
+			}
+			return documents;
+		}
+	}
+
+	// Stands in for the user delta, recording the cursors it is read from
+	private static final class FakeSync extends SyncService {
+		private final List<String> cursors = new ArrayList<>();
+
+		@Override
+		public synchronized Map<String, Object> getUserChangesFromFirestore(String userId, String lastSyncTimestamp) {
+			cursors.add(lastSyncTimestamp);
+			return Map.of();
+		}
+	}
+
+	private final EmbeddedDocumentStore store = new EmbeddedDocumentStore(new ObjectMapper());
+	private final FakeSync sync = new FakeSync();
+	private final ChangeFeedService feed = new ChangeFeedService();
+	private final long now = System.currentTimeMillis();
+
+	ChangeFeedServiceTests() throws Exception {
+		ReflectionTestUtils.setField(feed, "maxQueuedDocuments", 100);
+		ReflectionTestUtils.setField(feed, "batchWindowMs", 20L);
+		ReflectionTestUtils.setField(feed, "maxBatchDocuments", 500);
+		ReflectionTestUtils.setField(feed, "heartbeatMs", 60_000L);
+		ReflectionTestUtils.setField(feed, "connectionTtlMs", 60_000L);
+		ReflectionTestUtils.setField(feed, "listenOverlapMs", OVERLAP_MS);
+		ReflectionTestUtils.setField(feed, "documentStore", store);
+		ReflectionTestUtils.setField(feed, "syncService", sync);
+		ReflectionTestUtils.setField(feed, "meterRegistry", new SimpleMeterRegistry());
+		feed.initialize();
+	}
+
+	@AfterEach
+	void shutdown() {
+		feed.shutdown();
+	}
+
+	private static Map<String, Object> event(List<String> memberIds, long lastSynced) {
+		Map<String, Object> event = new HashMap<>();
+		event.put("eventId", "e1");
+		event.put(SyncService.MEMBER_IDS_FIELD, memberIds);
+		event.put("lastSynced", lastSynced);
+		return event;
+	}
+
+	private static Map<String, Object> transaction(String userId, String eventId, long lastSynced) {
+		Map<String, Object> transaction = new HashMap<>();
+		transaction.put("userId", userId);
+		transaction.put("eventId", eventId);
+		transaction.put("lastSynced", lastSynced);
+		return transaction;
+	}
+
+	@Test
+	void catchUpReachesBackForWritesCommittedAfterTheCursor() throws Exception {
+		// Stamped before the cursor the app holds, but committed after that was sent
+		store.commit(List.of(
+			DocumentWrite.set(DocumentStore.EVENTS, "e1", event(List.of("u1", "u2"), now - 60_000)),
+			DocumentWrite.set(DocumentStore.TRANSACTIONS, "late", transaction("u2", "e1", now - 100)),
+			DocumentWrite.set(DocumentStore.TRANSACTIONS, "old", transaction("u2", "e1", now - OVERLAP_MS - 100)))).join();
+		RecordingEmitter emitter = new RecordingEmitter();
+
+		feed.subscribe("u1", now, emitter);
+
+		Map<String, Map<String, Object>> received = emitter.received(500);
+		assertNotNull(received.get(DocumentStore.TRANSACTIONS));
+		assertTrue(received.get(DocumentStore.TRANSACTIONS).containsKey("late"));
+		assertFalse(received.get(DocumentStore.TRANSACTIONS).containsKey("old"));
+		assertEquals(List.of(Long.toString(now - OVERLAP_MS)), sync.cursors);
+	}
+
+	@Test
+	void removedMemberIsSentTheEventBeforeLeavingIt() throws Exception {
+		store.commit(List.of(DocumentWrite.set(DocumentStore.EVENTS, "e1", event(List.of("u1", "u2"), now - 60_000)))).join();
+		RecordingEmitter emitter = new RecordingEmitter();
+		feed.subscribe("u1", now, emitter);
+		emitter.received(200);
+
+		store.commit(List.of(DocumentWrite.set(DocumentStore.EVENTS, "e1", event(List.of("u2"), now + 1)))).join();
+		Map<String, Map<String, Object>> removal = emitter.received(500);
+		assertNotNull(removal.get(DocumentStore.EVENTS));
+		assertTrue(removal.get(DocumentStore.EVENTS).containsKey("e1"));
+
+		// The event's transactions stop, while the user's own still arrive
+		store.commit(List.of(DocumentWrite.set(DocumentStore.TRANSACTIONS, "theirs", transaction("u2", "e1", now + 2)))).join();
+		store.commit(List.of(DocumentWrite.set(DocumentStore.TRANSACTIONS, "mine", transaction("u1", null, now + 3)))).join();
+		Map<String, Object> transactions = emitter.received(500).get(DocumentStore.TRANSACTIONS);
+		assertNotNull(transactions);
+		assertEquals(List.of("mine"), new ArrayList<>(transactions.keySet()));
+	}
+}
@@ -0,0 +1,58 @@
+package com.paysync.server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvRowReaderTests {
+
+	@Test
+	void readsRecordsKeyedByHeader() throws IOException {
+		CsvRowReader csv = new CsvRowReader(new StringReader("\uFEFFuserId, amount\r\nu1,12.5\r\n\r\nu2,3\n"));
+
+		assertEquals(List.of("userId", "amount"), csv.getHeader());
+		assertEquals(Map.of("userId", "u1", "amount", "12.5"), csv.next());
+		assertEquals(2, csv.getRecordLine());
+		assertEquals(Map.of("userId", "u2", "amount", "3"), csv.next());
+		assertEquals(4, csv.getRecordLine());
+		assertNull(csv.next());
+	}
+
+	@Test
+	void quotedFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+		CsvRowReader csv = new CsvRowReader(new StringReader("note,amount\n\"Lunch, \"\"team\"\"\nday\",4\nnext,5"));
+
+		assertEquals(Map.of("note", "Lunch, \"team\"\nday", "amount", "4"), csv.next());
+		assertEquals(Map.of("note", "next", "amount", "5"), csv.next());
+		assertEquals(4, csv.getRecordLine());
+	}
+
+	@Test
+	void missingTrailingFieldsAreLeftOut() throws IOException {
+		CsvRowReader csv = new CsvRowReader(new StringReader("userId,amount,note\nu1,2\n"));
+
+		assertEquals(Map.of("userId", "u1", "amount", "2"), csv.next());
+	}
+
+	@Test
+	void extraFieldsFailOnlyThatRow() throws IOException {
+		CsvRowReader csv = new CsvRowReader(new StringReader("userId,amount\nu1,2,3\nu2,4\n"));
+
+		assertThrows(IllegalArgumentException.class, csv::next);
+		assertEquals(Map.of("userId", "u2", "amount", "4"), csv.next());
+	}
+
+	@Test
+	void unterminatedQuoteIsMalformed() throws IOException {
+		CsvRowReader csv = new CsvRowReader(new StringReader("note\n\"never closed\n"));
+
+		assertThrows(CsvRowReader.MalformedRowException.class, csv::next);
+	}
+}
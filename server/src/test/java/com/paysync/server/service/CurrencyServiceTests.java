@@ -0,0 +1,62 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CurrencyServiceTests {
+
+	private final EmbeddedDocumentStore store = new EmbeddedDocumentStore(new ObjectMapper());
+	private final CurrencyService service = new CurrencyService();
+
+	CurrencyServiceTests() throws Exception {
+		ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(service, "documentStore", store);
+		ReflectionTestUtils.setField(service, "ratesFile", "");
+		service.initialize();
+	}
+
+	private static SyncBatchWriter.PendingWrite transaction(String transactionId, String eventId, String currency) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("userId", "u1");
+		data.put("eventId", eventId);
+		data.put("amount", 100.0);
+		data.put("currency", currency);
+		return new SyncBatchWriter.PendingWrite(DocumentStore.TRANSACTIONS, transactionId, data);
+	}
+
+	@Test
+	void amountsThatCantBeConvertedAreStoredAsNull() {
+		store.commit(List.of(
+			DocumentWrite.set(DocumentStore.EVENTS, "usd", Map.of("currency", "USD")),
+			DocumentWrite.set(DocumentStore.EVENTS, "unknown", Map.of("currency", "XYZ")),
+			DocumentWrite.set(DocumentStore.USERS, "u1", Map.of("defaultCurrency", "INR")))).join();
+		List<SyncBatchWriter.PendingWrite> writes = List.of(
+			transaction("t1", "usd", "EUR"),
+			transaction("t2", "unknown", "USD"),
+			transaction("t3", "usd", "XYZ"));
+
+		service.normalizeDocuments(writes);
+
+		assertEquals(100 / 0.92, (Double) writes.get(0).getData().get(CurrencyService.EVENT_AMOUNT_FIELD), 1e-9);
+		assertNull(writes.get(1).getData().get(CurrencyService.EVENT_AMOUNT_FIELD));
+		assertEquals(8310.0, (Double) writes.get(1).getData().get(CurrencyService.USER_AMOUNT_FIELD), 1e-9);
+		assertNull(writes.get(2).getData().get(CurrencyService.EVENT_AMOUNT_FIELD));
+		assertNull(writes.get(2).getData().get(CurrencyService.USER_AMOUNT_FIELD));
+
+		// Read back as not converted, while a document from before normalization uses its own amount
+		assertTrue(Double.isNaN(LedgerEntry.fromDocument("t2", writes.get(1).getData()).getEventAmount()));
+		assertEquals(100.0, LedgerEntry.fromDocument("t0", Map.of("amount", 100.0)).getEventAmount());
+	}
+}
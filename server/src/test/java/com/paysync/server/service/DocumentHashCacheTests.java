@@ -0,0 +1,91 @@
+package com.paysync.server.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentHashCacheTests {
+
+	@Test
+	void hashIgnoresFieldOrder() {
+		Map<String, Object> first = new LinkedHashMap<>();
+		first.put("amount", 12.5);
+		first.put("note", "Lunch");
+		first.put("tags", List.of("food", "work"));
+		Map<String, Object> second = new LinkedHashMap<>();
+		second.put("tags", List.of("food", "work"));
+		second.put("note", "Lunch");
+		second.put("amount", 12.5);
+
+		assertEquals(DocumentHashCache.contentHash(first), DocumentHashCache.contentHash(second));
+	}
+
+	@Test
+	void hashIgnoresServerFields() {
+		Map<String, Object> sent = new HashMap<>();
+		sent.put("amount", 12.5);
+		sent.put("members", "u1,u2");
+		Map<String, Object> stamped = new HashMap<>(sent);
+		stamped.put("lastSynced", 1_700_000_000_000L);
+		stamped.put(SyncService.MEMBER_IDS_FIELD, List.of("u1", "u2"));
+		stamped.put(CurrencyService.EVENT_AMOUNT_FIELD, 0.15);
+
+		assertEquals(DocumentHashCache.contentHash(sent), DocumentHashCache.contentHash(stamped));
+	}
+
+	@Test
+	void hashDistinguishesTypesAndBoundaries() {
+		assertNotEquals(DocumentHashCache.contentHash(Map.of("isCredit", "1")),
+			DocumentHashCache.contentHash(Map.of("isCredit", 1)));
+		assertNotEquals(DocumentHashCache.contentHash(Map.of("ab", "c")),
+			DocumentHashCache.contentHash(Map.of("a", "bc")));
+		assertNotEquals(DocumentHashCache.contentHash(Map.of("amount", 12.5)),
+			DocumentHashCache.contentHash(Map.of("amount", 12.25)));
+	}
+
+	private static DocumentHashCache cache() {
+		DocumentHashCache cache = new DocumentHashCache();
+		ReflectionTestUtils.setField(cache, "maxEntries", 100L);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 30L);
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		cache.initialize();
+		return cache;
+	}
+
+	@Test
+	void onlyAResendOverTheVersionSyncWroteIsUnchanged() {
+		DocumentHashCache cache = cache();
+		long hash = DocumentHashCache.contentHash(Map.of("amount", 12.5));
+		cache.written("transactions", "t1", hash, 100L);
+
+		assertTrue(cache.isUnchanged("transactions", "t1", hash, 100L));
+		// Without a version nothing says the stored document is still the one written
+		assertFalse(cache.isUnchanged("transactions", "t1", hash, null));
+		// The app saw a later version, written somewhere else
+		assertFalse(cache.isUnchanged("transactions", "t1", hash, 200L));
+		assertFalse(cache.isUnchanged("transactions", "t1", DocumentHashCache.contentHash(Map.of("amount", 13)), 100L));
+	}
+
+	@Test
+	void writeOnAnotherPathBetweenIdenticalUploadsIsNotSkipped() {
+		DocumentHashCache cache = cache();
+		long hash = DocumentHashCache.contentHash(Map.of("amount", 12.5));
+		cache.written("transactions", "t1", hash, 100L);
+
+		// A REST patch of the same transaction on this instance
+		LedgerEntry entry = LedgerEntry.fromDocument("t1", Map.of("amount", 12.5));
+		cache.onTransactionChanged(entry, entry);
+
+		assertFalse(cache.isUnchanged("transactions", "t1", hash, 100L));
+	}
+}
@@ -0,0 +1,149 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.Settlement;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventBalancesTests {
+
+	private static LedgerEntry spent(String transactionId, String userId, double amount) {
+		return new LedgerEntry(transactionId, userId, "e1", true, false, amount, "INR", "UPI", 0L);
+	}
+
+	private static LedgerEntry received(String transactionId, String userId, double amount) {
+		return new LedgerEntry(transactionId, userId, "e1", true, true, amount, "INR", "UPI", 0L);
+	}
+
+	private static Map<String, Double> nets(Settlement settlement) {
+		Map<String, Double> nets = new HashMap<>();
+		settlement.getBalances().forEach(balance -> nets.put(balance.getUserId(), balance.getNet()));
+		return nets;
+	}
+
+	@Test
+	void spendingIsSplitBetweenMembersAndSettledGreedily() {
+		EventBalances event = new EventBalances();
+		event.upsert(spent("t1", "a", 90));
+		event.upsert(spent("t2", "b", 30));
+		event.upsert(received("t3", "a", 30));
+
+		Settlement settlement = event.settle("e1", 1L, "INR", List.of("a", "b", "c"));
+
+		assertEquals(90.0, settlement.getTotalSpent());
+		assertEquals(Map.of("a", 30.0, "b", 0.0, "c", -30.0), nets(settlement));
+		assertEquals(1, settlement.getTransfers().size());
+		Settlement.Transfer transfer = settlement.getTransfers().get(0);
+		assertEquals("c", transfer.getFrom());
+		assertEquals("a", transfer.getTo());
+		assertEquals(30.0, transfer.getAmount());
+	}
+
+	@Test
+	void changesReplaceWhatATransactionContributedBefore() {
+		EventBalances event = new EventBalances();
+		event.upsert(spent("t1", "a", 10));
+		event.upsert(spent("t1", "a", 10));
+		event.upsert(spent("t2", "d", 10));
+		event.upsert(spent("t2", "b", 40));
+		event.remove("t1");
+		event.remove("missing");
+
+		Settlement settlement = event.settle("e1", 1L, "INR", List.of("a", "b"));
+
+		// d has no transactions left in the event and isn't a member, so takes no share
+		assertEquals(Map.of("a", -20.0, "b", 20.0), nets(settlement));
+		assertEquals(1, event.size());
+	}
+
+	@Test
+	void unconvertedTransactionsAreLeftOutAndCounted() {
+		EventBalances event = new EventBalances();
+		event.upsert(spent("t1", "a", 40));
+		event.upsert(spent("t2", "b", 30));
+		// t2 moves to a currency the rate table doesn't have
+		event.upsert(new LedgerEntry("t2", "b", "e1", true, false, 30, Double.NaN, 30, "XYZ", "UPI", 0L, false));
+
+		Settlement settlement = event.settle("e1", 1L, "INR", List.of("a", "b"));
+		assertEquals(Map.of("a", 20.0, "b", -20.0), nets(settlement));
+		assertEquals(1, settlement.getUnconvertedTransactions());
+
+		event.remove("t2");
+		assertEquals(0, event.settle("e1", 1L, "INR", List.of("a", "b")).getUnconvertedTransactions());
+	}
+
+	@Test
+	void unevenSplitsLeaveNoRemainder() {
+		EventBalances event = new EventBalances();
+		event.upsert(spent("t1", "a", 100));
+
+		Settlement settlement = event.settle("e1", 1L, "INR", List.of("a", "b", "c"));
+
+		assertEquals(Map.of("a", 66.66, "b", -33.33, "c", -33.33), nets(settlement));
+		double transferred = settlement.getTransfers().stream().mapToDouble(Settlement.Transfer::getAmount).sum();
+		assertEquals(66.66, transferred, 1e-9);
+	}
+
+	@Test
+	void amountsAreSplitInTheCurrencysOwnMinorUnit() {
+		EventBalances event = new EventBalances();
+		event.upsert(spent("t1", "a", 100));
+		event.upsert(spent("t2", "b", 0.4));
+
+		Settlement settlement = event.settle("e1", 1L, "JPY", List.of("a", "b", "c"));
+
+		assertEquals(100.0, settlement.getTotalSpent());
+		assertEquals(Map.of("a", 66.0, "b", -33.0, "c", -33.0), nets(settlement));
+		assertEquals(Map.of("a", 66.53, "b", -33.07, "c", -33.46),
+			nets(event.settle("e1", 1L, "INR", List.of("a", "b", "c"))));
+	}
+
+	@Test
+	void settlementIsReusedUntilTransactionsOrEventChange() {
+		EventBalances event = new EventBalances();
+		event.upsert(spent("t1", "a", 10));
+		List<String> members = List.of("a", "b");
+
+		Settlement first = event.settle("e1", 1L, "INR", members);
+		assertSame(first, event.settle("e1", 1L, "INR", List.of("a", "b")));
+
+		Settlement renamed = event.settle("e1", 2L, "INR", members);
+		assertNotSame(first, renamed);
+		event.upsert(spent("t2", "b", 10));
+		assertEquals(Map.of("a", 0.0, "b", 0.0), nets(event.settle("e1", 2L, "INR", members)));
+	}
+
+	@Test
+	void largeEventsSettleInFewerTransfersThanMembers() {
+		Random random = new Random(7);
+		EventBalances event = new EventBalances();
+		List<String> members = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			members.add(String.format("user-%03d", i));
+		}
+		for (int i = 0; i < 20_000; i++) {
+			event.upsert(spent("t" + i, members.get(random.nextInt(members.size())), random.nextInt(100_000) / 100.0));
+		}
+
+		Settlement settlement = event.settle("e1", 1L, "INR", members);
+
+		assertTrue(settlement.getTransfers().size() < members.size());
+		Map<String, Long> remaining = new HashMap<>();
+		settlement.getBalances().forEach(balance -> remaining.put(balance.getUserId(), Math.round(balance.getNet() * 100)));
+		for (Settlement.Transfer transfer : settlement.getTransfers()) {
+			long amount = Math.round(transfer.getAmount() * 100);
+			remaining.merge(transfer.getFrom(), amount, Long::sum);
+			remaining.merge(transfer.getTo(), -amount, Long::sum);
+		}
+		remaining.values().forEach(net -> assertEquals(0L, net));
+	}
+}
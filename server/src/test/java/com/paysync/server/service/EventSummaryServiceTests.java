@@ -0,0 +1,129 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import com.paysync.server.repository.StoredDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventSummaryServiceTests {
+
+	// Commits the queued writes once, just as the first scan of the transactions starts
+	private static final class RacingStore extends EmbeddedDocumentStore {
+		private final List<DocumentWrite> duringScan = new ArrayList<>();
+
+		RacingStore() throws Exception {
+			super(new ObjectMapper());
+		}
+
+		@Override
+		public CompletableFuture<List<StoredDocument>> query(String collection, DocumentQuery query) {
+			if (collection.equals(DocumentStore.TRANSACTIONS) && !duringScan.isEmpty()) {
+				List<DocumentWrite> writes = new ArrayList<>(duringScan);
+				duringScan.clear();
+				commit(writes).join();
+			}
+			return super.query(collection, query);
+		}
+	}
+
+	private final RacingStore store = new RacingStore();
+	private final EventSummaryService service = new EventSummaryService();
+
+	EventSummaryServiceTests() throws Exception {
+		ReflectionTestUtils.setField(service, "documentStore", store);
+	}
+
+	private static LedgerEntry spent(String transactionId, String eventId, double amount) {
+		return new LedgerEntry(transactionId, "u1", eventId, true, false, amount, "INR", "UPI", 0L);
+	}
+
+	private static Map<String, Object> document(LedgerEntry entry) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("userId", entry.getUserId());
+		data.put("eventId", entry.getEventId());
+		data.put("isOnline", entry.isOnline());
+		data.put("isCredit", entry.isCredit());
+		data.put("amount", entry.getAmount());
+		return data;
+	}
+
+	// The transaction and its increment, as every write path commits them
+	private List<DocumentWrite> created(LedgerEntry entry) {
+		EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+		deltas.add(null, entry);
+		List<DocumentWrite> writes = new ArrayList<>();
+		writes.add(DocumentWrite.set(DocumentStore.TRANSACTIONS, entry.getTransactionId(), document(entry)));
+		writes.addAll(service.writes(deltas));
+		return writes;
+	}
+
+	private Map<String, Object> summary(String eventId) {
+		return store.get(EventSummaryService.COLLECTION_NAME, eventId).join();
+	}
+
+	@Test
+	void incrementsAreCopiedOntoTheEventButNeverOverANewerRevision() throws Exception {
+		store.commit(List.of(DocumentWrite.set(DocumentStore.EVENTS, "e1", Map.of("nameOfEvent", "Trip")))).get();
+		store.commit(created(spent("t1", "e1", 40))).get();
+		store.commit(created(spent("t2", "e1", 2))).get();
+		assertEquals(2L, summary("e1").get(EventSummaryService.REVISION));
+
+		service.publish(List.of("e1", "missing")).get();
+		Map<String, Object> event = store.get(DocumentStore.EVENTS, "e1").get();
+		assertEquals(-42.0, event.get("onlineAmountOfEvent"));
+		assertEquals(2L, event.get(EventSummaryService.PUBLISHED_REVISION_FIELD));
+		assertEquals("Trip", event.get("nameOfEvent"));
+		assertEquals(null, store.get(DocumentStore.EVENTS, "missing").get());
+
+		// A copy from a later revision is already there
+		Map<String, Object> newer = new HashMap<>(event);
+		newer.put(EventSummaryService.PUBLISHED_REVISION_FIELD, 3L);
+		newer.put("onlineAmountOfEvent", -50.0);
+		store.commit(List.of(DocumentWrite.set(DocumentStore.EVENTS, "e1", newer))).get();
+		service.publish(List.of("e1")).get();
+		assertEquals(-50.0, store.get(DocumentStore.EVENTS, "e1").get().get("onlineAmountOfEvent"));
+	}
+
+	@Test
+	void rebuildScansAgainWhenAnIncrementLandsDuringItsScan() {
+		store.commit(created(spent("t1", "e1", 10))).join();
+		// Drifted, as a summary written before increments were atomic could be
+		store.commit(List.of(DocumentWrite.increment(EventSummaryService.COLLECTION_NAME, "e1", Map.of("onlineDebit", 5.0)))).join();
+		store.duringScan.addAll(created(spent("t2", "e1", 7)));
+
+		service.rebuild("e1");
+
+		assertEquals(17.0, summary("e1").get("onlineDebit"));
+		assertEquals(2L, summary("e1").get("transactionCount"));
+		assertEquals(3L, summary("e1").get(EventSummaryService.REVISION));
+	}
+
+	@Test
+	void rebuildAllLeavesSummariesThatChangedDuringItsScan() {
+		store.commit(created(spent("t1", "e1", 10))).join();
+		store.commit(created(spent("t2", "gone", 5))).join();
+		store.commit(List.of(DocumentWrite.delete(DocumentStore.TRANSACTIONS, "t2"))).join();
+		store.duringScan.addAll(created(spent("t3", "new", 8)));
+
+		int rebuilt = service.rebuildAll();
+
+		assertEquals(2, rebuilt);
+		assertEquals(10.0, summary("e1").get("onlineDebit"));
+		// Zeroed rather than deleted, and the event created meanwhile keeps its increment
+		assertEquals(0.0, summary("gone").get("onlineDebit"));
+		assertEquals(0L, summary("gone").get("transactionCount"));
+		assertEquals(8.0, summary("new").get("onlineDebit"));
+	}
+}
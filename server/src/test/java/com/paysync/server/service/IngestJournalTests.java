@@ -0,0 +1,110 @@
+package com.paysync.server.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IngestJournalTests {
+
+	@TempDir
+	Path directory;
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> drain(IngestJournal journal) {
+		List<String> payloads = new ArrayList<>();
+		IngestJournal.Entry entry;
+		while ((entry = journal.next()) != null) {
+			payloads.add(entry.sequence() + ":" + new String(entry.payload(), StandardCharsets.UTF_8));
+		}
+		return payloads;
+	}
+
+	private long segmentCount() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.toString().endsWith(".journal")).count();
+		}
+	}
+
+	@Test
+	void entriesAreReadOnceDurableAndReplayedAfterTheCheckpoint() throws Exception {
+		IngestJournal journal = IngestJournal.open(directory, 4096, 1 << 20);
+		journal.append(bytes("a"));
+		journal.append(bytes("b"));
+
+		assertNull(journal.next());
+		assertEquals(2, journal.sync());
+		assertEquals(List.of("1:a", "2:b"), drain(journal));
+
+		journal.append(bytes("c"));
+		journal.sync();
+		journal.checkpoint(1);
+		journal.close();
+
+		IngestJournal reopened = IngestJournal.open(directory, 4096, 1 << 20);
+		assertEquals(List.of("2:b", "3:c"), drain(reopened));
+		assertEquals(4, reopened.append(bytes("d")));
+	}
+
+	@Test
+	void tornEntryEndsTheJournal() throws Exception {
+		IngestJournal journal = IngestJournal.open(directory, 4096, 1 << 20);
+		journal.append(bytes("first"));
+		journal.append(bytes("second"));
+		journal.sync();
+		journal.close();
+
+		// Flip a byte of the second payload, as a write cut short by a crash would leave it
+		Path segment;
+		try (Stream<Path> files = Files.list(directory)) {
+			segment = files.filter(path -> path.toString().endsWith(".journal")).findFirst().orElseThrow();
+		}
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			long offset = IngestJournal.HEADER_BYTES * 2 + "first".length();
+			file.seek(offset);
+			file.write('S');
+		}
+
+		IngestJournal reopened = IngestJournal.open(directory, 4096, 1 << 20);
+		assertEquals(List.of("1:first"), drain(reopened));
+		assertEquals(2, reopened.append(bytes("again")));
+		reopened.sync();
+		assertEquals(List.of("2:again"), drain(reopened));
+	}
+
+	@Test
+	void segmentsRollOverAndAreDeletedOnceApplied() throws Exception {
+		IngestJournal journal = IngestJournal.open(directory, 64, 256);
+		for (int i = 0; i < 6; i++) {
+			journal.append(bytes("entry-" + i + "-padding"));
+		}
+		journal.sync();
+
+		assertEquals(3, segmentCount());
+		assertThrows(RejectedExecutionException.class, () -> {
+			for (int i = 0; i < 4; i++) {
+				journal.append(bytes("overflow-" + i + "-padding"));
+			}
+		});
+		journal.sync();
+		assertEquals(7, drain(journal).size());
+
+		journal.checkpoint(7);
+		assertEquals(1, segmentCount());
+		assertEquals(8, journal.append(bytes("after")));
+	}
+}
@@ -0,0 +1,156 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.SyncChanges;
+import com.paysync.server.model.SyncDocument;
+import com.paysync.server.model.SyncResult;
+import com.paysync.server.model.SyncWriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JournaledIngestTests {
+
+	@TempDir
+	Path directory;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	// Stands in for the store, recording the documents of every call
+	private static final class FakeSync extends SyncService {
+		private final List<String> applied = new ArrayList<>();
+		private final Function<SyncDocument, SyncWriteResult> write;
+
+		FakeSync(Function<SyncDocument, SyncWriteResult> write) {
+			this.write = write;
+		}
+
+		@Override
+		public synchronized SyncResult syncToFirestore(SyncChanges changes) {
+			List<SyncWriteResult> results = new ArrayList<>();
+			for (SyncDocument document : changes.getDocuments()) {
+				applied.add(document.documentId());
+				results.add(write.apply(document));
+			}
+			return new SyncResult(results);
+		}
+
+		synchronized List<String> applied() {
+			return new ArrayList<>(applied);
+		}
+	}
+
+	private static SyncWriteResult ok(SyncDocument document) {
+		return SyncWriteResult.ok(document.collection().getCollection(), document.documentId());
+	}
+
+	private JournaledIngest start(SyncService syncService) throws Exception {
+		JournaledIngest ingest = new JournaledIngest();
+		ReflectionTestUtils.setField(ingest, "enabled", true);
+		ReflectionTestUtils.setField(ingest, "path", directory.toString());
+		ReflectionTestUtils.setField(ingest, "segmentBytes", 1 << 16);
+		ReflectionTestUtils.setField(ingest, "maxBytes", 1L << 20);
+		ReflectionTestUtils.setField(ingest, "groupCommitMs", 0L);
+		ReflectionTestUtils.setField(ingest, "drainBatchDocuments", 100);
+		ReflectionTestUtils.setField(ingest, "maxAttempts", 3);
+		ReflectionTestUtils.setField(ingest, "retryMaxMs", 5L);
+		ReflectionTestUtils.setField(ingest, "syncService", syncService);
+		ReflectionTestUtils.setField(ingest, "objectMapper", objectMapper);
+		ReflectionTestUtils.setField(ingest, "meterRegistry", new SimpleMeterRegistry());
+		ingest.start();
+		return ingest;
+	}
+
+	private SyncChanges changes(String json) throws Exception {
+		return objectMapper.readValue(json.replace('\'', '"'), SyncChanges.class);
+	}
+
+	@Test
+	void refusedDocumentIsRetriedThenDeadLetteredWhileTheRestApply() throws Exception {
+		FakeSync sync = new FakeSync(document -> document.documentId().equals("t2")
+			? SyncWriteResult.failed("transactions", "t2", "Document too large")
+			: ok(document));
+		JournaledIngest ingest = start(sync);
+
+		SyncResult acknowledged = ingest.accept(changes("{'transactions': {'t1': {'amount': 1}, 't2': {'amount': 2}}}")).get();
+		assertFalse(acknowledged.hasFailures());
+		ingest.drained().get(5, TimeUnit.SECONDS);
+		ingest.shutdown();
+
+		assertEquals(List.of("t1", "t2", "t2", "t2"), sync.applied());
+		List<String> deadLetters = Files.readAllLines(directory.resolve(JournaledIngest.DEAD_LETTER_FILE));
+		assertEquals(1, deadLetters.size());
+		assertEquals("t2", objectMapper.readTree(deadLetters.get(0)).get("documentId").asText());
+		assertEquals(2, objectMapper.readTree(deadLetters.get(0)).get("data").get("amount").asInt());
+	}
+
+	@Test
+	void versionedChangeSetsAreNotJournaled() throws Exception {
+		JournaledIngest ingest = start(new FakeSync(JournaledIngestTests::ok));
+		SyncChanges versioned = changes("{'transactions': {'t1': {'amount': 1, 'version': 5}}}");
+
+		assertFalse(JournaledIngest.isJournaled(versioned));
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> ingest.accept(versioned).get());
+		assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+		ingest.shutdown();
+	}
+
+	@Test
+	void stoppedDrainerRefusesAppendsAndFailsHealth() throws Exception {
+		// The dead-letter file can't be written, so giving up on t1 stops the drainer
+		Files.createDirectory(directory.resolve(JournaledIngest.DEAD_LETTER_FILE));
+		JournaledIngest ingest = start(new FakeSync(document -> SyncWriteResult.failed("transactions", "t1", "Refused")));
+
+		ingest.accept(changes("{'transactions': {'t1': {'amount': 1}}}")).get();
+		ExecutionException drain = assertThrows(ExecutionException.class, () -> ingest.drained().get(5, TimeUnit.SECONDS));
+		assertInstanceOf(RejectedExecutionException.class, drain.getCause());
+
+		assertEquals(Status.DOWN, ingest.health().getStatus());
+		ExecutionException append = assertThrows(ExecutionException.class,
+			() -> ingest.accept(changes("{'transactions': {'t2': {'amount': 2}}}")).get());
+		assertInstanceOf(RejectedExecutionException.class, append.getCause());
+		ingest.shutdown();
+	}
+
+	@Test
+	void restartAppliesWhatWasAcknowledgedButNotApplied() throws Exception {
+		SyncService unreachable = new FakeSync(document -> {
+			throw new IllegalStateException("Store unavailable");
+		});
+		JournaledIngest ingest = start(unreachable);
+		ingest.accept(changes("{'transactions': {'t1': {'amount': 1}}}")).get();
+		ingest.accept(changes("{'transactions': {'t1': {'amount': 3}, 't2': {'amount': 2}}}")).get();
+		assertEquals(Status.UP, ingest.health().getStatus());
+		ingest.shutdown();
+
+		List<SyncDocument> written = new ArrayList<>();
+		FakeSync sync = new FakeSync(document -> {
+			written.add(document);
+			return ok(document);
+		});
+		JournaledIngest restarted = start(sync);
+		restarted.drained().get(5, TimeUnit.SECONDS);
+		restarted.shutdown();
+
+		// The later version of t1 is the one applied
+		assertEquals(List.of("t1", "t2"), sync.applied());
+		assertEquals(3, written.get(0).data().get("amount"));
+		assertEquals(Status.UP, restarted.health().getStatus());
+	}
+}
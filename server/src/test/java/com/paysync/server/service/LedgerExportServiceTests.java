@@ -0,0 +1,46 @@
+package com.paysync.server.service;
+
+import com.paysync.server.repository.StoredDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LedgerExportServiceTests {
+
+	@Test
+	void quotesOnlyFieldsThatNeedIt() {
+		assertEquals("Groceries", LedgerExportService.csvField("Groceries"));
+		assertEquals("\"Dinner, drinks\"", LedgerExportService.csvField("Dinner, drinks"));
+		assertEquals("\"the \"\"good\"\" cafe\"", LedgerExportService.csvField("the \"good\" cafe"));
+		assertEquals("\"line one\nline two\"", LedgerExportService.csvField("line one\nline two"));
+	}
+
+	@Test
+	void selectsFieldsInRequestedOrder() {
+		assertEquals(LedgerExportService.FIELDS, LedgerExportService.parseFields(null));
+		assertEquals(List.of("amount", "transactionId"), LedgerExportService.parseFields(" amount,transactionId,amount"));
+		assertThrows(IllegalArgumentException.class, () -> LedgerExportService.parseFields("amount,password"));
+		assertThrows(IllegalArgumentException.class,
+			() -> LedgerExportService.Request.of("userId", "u1", "xml", null, null, null));
+		assertThrows(IllegalArgumentException.class,
+			() -> LedgerExportService.Request.of("userId", "u1", "csv", null, 2_000L, 1_000L));
+	}
+
+	@Test
+	void normalizesStoredValues() {
+		StoredDocument doc = new StoredDocument("t1", Map.of(
+			"isCredit", "true",
+			"amount", 12,
+			"dateTime", "2024-03-01T10:15:00Z"));
+
+		assertEquals("t1", LedgerExportService.exportValue("transactionId", doc));
+		assertEquals(true, LedgerExportService.exportValue("isCredit", doc));
+		assertEquals(12.0, LedgerExportService.exportValue("amount", doc));
+		assertEquals("2024-03-01T10:15:00Z", LedgerExportService.exportValue("dateTime", doc));
+		assertEquals(null, LedgerExportService.exportValue("note", doc));
+	}
+}
@@ -0,0 +1,33 @@
+package com.paysync.server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateTableTests {
+
+	private final RateTable rates = new RateTable("USD", Map.of("EUR", 0.5, "INR", 80.0));
+
+	@Test
+	void convertsThroughTheBaseCurrency() {
+		assertEquals(160.0, rates.factor("EUR", "INR"), 1e-9);
+		assertEquals(1.0, rates.factor("usd", "USD"), 1e-9);
+	}
+
+	@Test
+	void unknownCurrencyHasNoFactor() {
+		assertTrue(Double.isNaN(rates.factor("XYZ", "USD")));
+	}
+
+	@Test
+	void factorsFollowDictionaryOrder() {
+		double[] factors = rates.factors(Arrays.asList(null, "EUR", "USD"), "INR");
+
+		assertArrayEquals(new double[] {1.0, 160.0, 80.0}, factors, 1e-9);
+	}
+}
@@ -0,0 +1,95 @@
+package com.paysync.server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RecurringSeriesTests {
+
+	@Test
+	void monthlyInstancesKeepTheDayOfMonth() {
+		RecurringSeries series = RecurringSeries.of("t1", template("Monthly", "2024-01-31T09:30:00.000"));
+
+		assertEquals(OffsetDateTime.of(2024, 2, 29, 9, 30, 0, 0, ZoneOffset.UTC), series.occurrence(1));
+		assertEquals(OffsetDateTime.of(2024, 3, 31, 9, 30, 0, 0, ZoneOffset.UTC), series.occurrence(2));
+		assertEquals(OffsetDateTime.of(2025, 1, 31, 9, 30, 0, 0, ZoneOffset.UTC), series.occurrence(12));
+	}
+
+	@Test
+	void firstPeriodAfterSkipsInstancesAlreadyDue() {
+		RecurringSeries series = RecurringSeries.of("t1", template("Weekly", "2024-01-01T08:00:00.000"));
+		long third = series.occurrenceMillis(3);
+
+		assertEquals(1, series.firstPeriodAfter(series.occurrenceMillis(0)));
+		assertEquals(4, series.firstPeriodAfter(third));
+		assertEquals(3, series.firstPeriodAfter(third - 1));
+	}
+
+	@Test
+	void copiesTheAppPostsFallOnTheSeries() {
+		RecurringSeries series = RecurringSeries.of("t1", template("Monthly", "2024-01-31T09:30:00.000"));
+		Map<String, Object> copy = template("Monthly", "2024-03-31T09:30:00.000");
+
+		assertEquals(series.getKey(), RecurringSeries.seriesKey(copy));
+		assertEquals(2, series.periodAt(copy.get("dateTime")));
+		assertEquals(-1, series.periodAt("2024-03-30T09:30:00.000"));
+		assertEquals(-1, series.periodAt("2024-01-31T09:30:00.000"));
+	}
+
+	@Test
+	void onlyRecurringTemplatesStartASeries() {
+		Map<String, Object> once = template("Monthly", "2024-01-31T09:30:00.000");
+		once.put("recurring", false);
+		Map<String, Object> unknown = template("Fortnightly", "2024-01-31T09:30:00.000");
+		Map<String, Object> posted = template("Monthly", "2024-01-31T09:30:00.000");
+		posted.put(RecurringSeries.TEMPLATE_ID_FIELD, "t0");
+
+		assertNull(RecurringSeries.of("t1", once));
+		assertNull(RecurringSeries.of("t1", unknown));
+		assertNull(RecurringSeries.of("t1", posted));
+		assertNotNull(RecurringSeries.of("t1", template("daily", "2024-01-31T09:30:00.000")));
+	}
+
+	@Test
+	void instancesKeepTheTemplateShape() {
+		Map<String, Object> template = template("Daily", "2024-01-31T09:30:00.000");
+		template.put("recurring", 1);
+		template.put("onlineBalanceAfter", 120.0);
+		RecurringSeries series = RecurringSeries.of("t1", template);
+
+		Map<String, Object> instance = series.instance(2, 1_706_800_000_000L);
+
+		assertEquals(RecurringSeries.instanceId(series.getKey(), 2), instance.get("transactionId"));
+		assertEquals("2024-02-02T09:30:00.000", instance.get("dateTime"));
+		assertEquals(0, instance.get("recurring"));
+		assertEquals("t1", instance.get(RecurringSeries.TEMPLATE_ID_FIELD));
+		assertEquals(2L, instance.get(RecurringSeries.PERIOD_FIELD));
+		assertEquals(1_706_800_000_000L, instance.get("lastSynced"));
+		assertFalse(instance.containsKey("onlineBalanceAfter"));
+		assertNull(RecurringSeries.of((String) instance.get("transactionId"), instance));
+	}
+
+	private static Map<String, Object> template(String recurringType, String dateTime) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("userId", "u1");
+		data.put("eventId", "e1");
+		data.put("amount", 25.0);
+		data.put("currency", "USD");
+		data.put("isCredit", false);
+		data.put("isOnline", true);
+		data.put("paymentMethod", "card");
+		data.put("note", "Rent");
+		data.put("recurring", true);
+		data.put("recurringType", recurringType);
+		data.put("dateTime", dateTime);
+		return data;
+	}
+}
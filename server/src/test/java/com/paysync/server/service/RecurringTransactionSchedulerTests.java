@@ -0,0 +1,121 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecurringTransactionSchedulerTests {
+
+	private static final long LEASE_TTL_MS = 300;
+
+	// Fails moving schedules forward the given number of times, once instances have been posted
+	private static final class FailingStore extends EmbeddedDocumentStore {
+		private final AtomicInteger advanceFailures = new AtomicInteger();
+
+		FailingStore() throws Exception {
+			super(new ObjectMapper());
+		}
+
+		@Override
+		public CompletableFuture<Map<String, Object>> compute(String collection, String documentId,
+															  UnaryOperator<Map<String, Object>> update) {
+			if (collection.equals(RecurringTransactionScheduler.SCHEDULES)
+					&& get(DocumentStore.TRANSACTIONS, RecurringSeries.instanceId(documentId, 1)).join() != null
+					&& advanceFailures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+				return CompletableFuture.failedFuture(new IllegalStateException("Store unavailable"));
+			}
+			return super.compute(collection, documentId, update);
+		}
+	}
+
+	private final FailingStore store = new FailingStore();
+	private final EventSummaryService summaries = new EventSummaryService();
+	private final RecurringTransactionScheduler scheduler = new RecurringTransactionScheduler();
+
+	RecurringTransactionSchedulerTests() throws Exception {
+		TransactionCache cache = new TransactionCache();
+		ReflectionTestUtils.setField(cache, "maxEntries", 100L);
+		ReflectionTestUtils.setField(cache, "maxListWeight", 1000L);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		cache.initialize();
+		ReflectionTestUtils.setField(summaries, "documentStore", store);
+
+		ReflectionTestUtils.setField(scheduler, "enabled", true);
+		ReflectionTestUtils.setField(scheduler, "shards", 1);
+		ReflectionTestUtils.setField(scheduler, "leaseTtlMs", LEASE_TTL_MS);
+		ReflectionTestUtils.setField(scheduler, "batchSize", 100);
+		ReflectionTestUtils.setField(scheduler, "maxCatchUp", 31);
+		ReflectionTestUtils.setField(scheduler, "reloadIntervalMs", 60_000L);
+		ReflectionTestUtils.setField(scheduler, "documentStore", store);
+		ReflectionTestUtils.setField(scheduler, "eventSummaryService", summaries);
+		ReflectionTestUtils.setField(scheduler, "transactionCache", cache);
+		ReflectionTestUtils.setField(scheduler, "changeListeners", List.of());
+		ReflectionTestUtils.setField(scheduler, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(scheduler, "leases", new ShardLeases(store, "recurring", 1, LEASE_TTL_MS, "n1"));
+		ReflectionTestUtils.setField(scheduler, "posted", new SimpleMeterRegistry().counter("posted"));
+	}
+
+	private void tick() {
+		ReflectionTestUtils.invokeMethod(scheduler, "tick");
+	}
+
+	@Test
+	void instancesCommittedWithoutTheirScheduleAreNotPostedAgain() throws Exception {
+		// A daily series whose first two instances are due, with the schedule waiting for the first
+		Map<String, Object> template = new HashMap<>();
+		template.put("userId", "u1");
+		template.put("eventId", "e1");
+		template.put("amount", 10.0);
+		template.put("currency", "INR");
+		template.put("isOnline", true);
+		template.put("isCredit", false);
+		template.put("recurring", true);
+		template.put("recurringType", "Daily");
+		template.put("dateTime", LocalDateTime.now(ZoneOffset.UTC).minusHours(60).toString());
+		RecurringSeries series = RecurringSeries.of("t1", template);
+		Map<String, Object> schedule = new HashMap<>();
+		schedule.put("templateId", "t1");
+		schedule.put("anchor", template.get("dateTime"));
+		schedule.put("shard", 0);
+		schedule.put("nextPeriod", 1L);
+		schedule.put("nextDue", series.occurrenceMillis(1));
+		schedule.put("updatedAt", System.currentTimeMillis());
+		store.commit(List.of(
+			DocumentWrite.set(DocumentStore.USERS, "u1", Map.of("onlineAmount", 100.0, "offlineAmount", 5.0)),
+			DocumentWrite.set(DocumentStore.TRANSACTIONS, "t1", template),
+			DocumentWrite.set(RecurringTransactionScheduler.SCHEDULES, series.getKey(), schedule))).join();
+		store.advanceFailures.set(1);
+
+		tick();
+		assertEquals(1L, store.get(RecurringTransactionScheduler.SCHEDULES, series.getKey()).join().get("nextPeriod"));
+
+		// Retried once the pause after the failure is over
+		Thread.sleep(LEASE_TTL_MS + 100);
+		tick();
+
+		assertEquals(3L, store.get(RecurringTransactionScheduler.SCHEDULES, series.getKey()).join().get("nextPeriod"));
+		Map<String, Object> user = store.get(DocumentStore.USERS, "u1").join();
+		assertEquals(80.0, user.get("onlineAmount"));
+		assertEquals(5.0, user.get("offlineAmount"));
+		Map<String, Object> second = store.get(DocumentStore.TRANSACTIONS, RecurringSeries.instanceId(series.getKey(), 2)).join();
+		assertEquals(80.0, second.get("onlineBalanceAfter"));
+		assertEquals(5.0, second.get("offlineBalanceAfter"));
+		assertEquals(2L, store.get(EventSummaryService.COLLECTION_NAME, "e1").join().get("transactionCount"));
+	}
+}
@@ -0,0 +1,109 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.model.Settlement;
+import com.paysync.server.repository.DocumentQuery;
+import com.paysync.server.repository.DocumentStore;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import com.paysync.server.repository.StoredDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SettlementServiceTests {
+
+	// Counts the scans of transactions, so a reload can be told from a cache hit
+	private static final class CountingStore extends EmbeddedDocumentStore {
+		private final AtomicInteger scans = new AtomicInteger();
+
+		CountingStore() throws Exception {
+			super(new ObjectMapper());
+		}
+
+		@Override
+		public CompletableFuture<List<StoredDocument>> query(String collection, DocumentQuery query) {
+			if (collection.equals(DocumentStore.TRANSACTIONS)) {
+				scans.incrementAndGet();
+			}
+			return super.query(collection, query);
+		}
+	}
+
+	private final CountingStore store = new CountingStore();
+	private final EventSummaryService summaries = new EventSummaryService();
+	private final SettlementService service = new SettlementService();
+
+	SettlementServiceTests() throws Exception {
+		ReflectionTestUtils.setField(summaries, "documentStore", store);
+		ReflectionTestUtils.setField(service, "documentStore", store);
+		ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(service, "maxTransactions", 1000L);
+		ReflectionTestUtils.setField(service, "ttlMinutes", 30L);
+		service.initialize();
+		store.commit(List.of(DocumentWrite.set(DocumentStore.EVENTS, "e1",
+			Map.of("currency", "INR", SyncService.MEMBER_IDS_FIELD, List.of("a", "b"))))).join();
+	}
+
+	private static LedgerEntry spent(String transactionId, String userId, double amount) {
+		return new LedgerEntry(transactionId, userId, "e1", true, false, amount, "INR", "UPI", 0L);
+	}
+
+	// Commits a change with its summary increment, as every write path does
+	private void commit(LedgerEntry before, LedgerEntry after) {
+		EventSummaryService.Deltas deltas = new EventSummaryService.Deltas();
+		deltas.add(before, after);
+		Map<String, Object> data = new HashMap<>();
+		data.put("userId", after.getUserId());
+		data.put("eventId", after.getEventId());
+		data.put("isOnline", after.isOnline());
+		data.put("isCredit", after.isCredit());
+		data.put("amount", after.getAmount());
+		List<DocumentWrite> writes = new ArrayList<>();
+		writes.add(DocumentWrite.set(DocumentStore.TRANSACTIONS, after.getTransactionId(), data));
+		writes.addAll(summaries.writes(deltas));
+		store.commit(writes).join();
+	}
+
+	private static Map<String, Double> nets(Settlement settlement) {
+		Map<String, Double> nets = new HashMap<>();
+		settlement.getBalances().forEach(balance -> nets.put(balance.getUserId(), balance.getNet()));
+		return nets;
+	}
+
+	@Test
+	void changesNotifiedHereAreAppliedWithoutReloading() {
+		commit(null, spent("t1", "a", 40));
+		assertEquals(Map.of("a", 20.0, "b", -20.0), nets(service.getSettlement("e1")));
+		assertEquals(1, store.scans.get());
+
+		commit(null, spent("t2", "b", 20));
+		service.onTransactionChanged(null, spent("t2", "b", 20));
+
+		assertEquals(Map.of("a", 10.0, "b", -10.0), nets(service.getSettlement("e1")));
+		assertEquals(1, store.scans.get());
+	}
+
+	@Test
+	void changesMadeElsewhereAreLoadedFromTheStore() {
+		commit(null, spent("t1", "a", 40));
+		service.getSettlement("e1");
+
+		// Another instance gives the transaction to b, which leaves the event's totals as they were
+		commit(spent("t1", "a", 40), spent("t1", "b", 40));
+
+		assertEquals(Map.of("a", -20.0, "b", 20.0), nets(service.getSettlement("e1")));
+		assertEquals(2, store.scans.get());
+		service.getSettlement("e1");
+		assertEquals(2, store.scans.get());
+	}
+}
@@ -0,0 +1,44 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardLeasesTests {
+
+	private static final long TTL_MS = 500;
+
+	private final EmbeddedDocumentStore store = new EmbeddedDocumentStore(new ObjectMapper());
+
+	ShardLeasesTests() throws Exception {
+	}
+
+	@Test
+	void leasesMoveOnlyWhenGivenBackOrExpired() throws Exception {
+		ShardLeases first = new ShardLeases(store, "test", 4, TTL_MS, "n1");
+		ShardLeases second = new ShardLeases(store, "test", 4, TTL_MS, "n2");
+
+		assertEquals(Set.of(0, 1, 2, 3), first.refresh());
+		// Two instances are live, but every shard is still leased to the first
+		assertEquals(Set.of(), second.refresh());
+
+		// The first gives back what is beyond its share, which the second then takes
+		assertEquals(Set.of(), first.refresh());
+		assertEquals(Set.of(0, 1), first.heldShards());
+		assertEquals(Set.of(2, 3), second.refresh());
+		assertTrue(second.isSafe(2));
+
+		// The first stops renewing, and once its leases run out the second takes them over
+		Thread.sleep(TTL_MS + 100);
+		assertFalse(first.holds(0));
+		assertFalse(first.isSafe(0));
+		assertEquals(Set.of(0, 1), second.refresh());
+		assertEquals(Set.of(0, 1, 2, 3), second.heldShards());
+	}
+}
@@ -0,0 +1,62 @@
+package com.paysync.server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTests {
+
+	@Test
+	void concurrentCallersShareOneCall() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+		CompletableFuture<String> pending = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flights.run("u1", () -> { calls.incrementAndGet(); return pending; });
+		CompletableFuture<String> second = flights.run("u1", () -> { calls.incrementAndGet(); return pending; });
+		CompletableFuture<String> other = flights.run("u2", () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture("b"); });
+		pending.complete("a");
+
+		assertEquals("a", first.get());
+		assertEquals("a", second.get());
+		assertEquals("b", other.get());
+		assertEquals(2, calls.get());
+		assertEquals(1, flights.joined());
+	}
+
+	@Test
+	void completedAndForgottenCallsAreNotShared() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> pending = new CompletableFuture<>();
+
+		assertEquals("a", flights.run("u1", () -> CompletableFuture.completedFuture("a")).get());
+		assertEquals("b", flights.run("u1", () -> CompletableFuture.completedFuture("b")).get());
+
+		CompletableFuture<String> before = flights.run("u1", () -> pending);
+		flights.forget("u1");
+		CompletableFuture<String> after = flights.run("u1", () -> CompletableFuture.completedFuture("fresh"));
+		pending.complete("stale");
+
+		assertEquals("stale", before.get());
+		assertEquals("fresh", after.get());
+		assertEquals(0, flights.joined());
+	}
+
+	@Test
+	void oneCallerCancellingLeavesTheOthersWaiting() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> pending = new CompletableFuture<>();
+
+		CompletableFuture<String> first = flights.run("u1", () -> pending);
+		CompletableFuture<String> second = flights.run("u1", () -> pending);
+		first.cancel(true);
+		pending.complete("a");
+
+		assertTrue(first.isCancelled());
+		assertEquals("a", second.get());
+	}
+}
@@ -0,0 +1,143 @@
+package com.paysync.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paysync.server.repository.DocumentWrite;
+import com.paysync.server.repository.EmbeddedDocumentStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncBatchWriterTests {
+
+	private SyncBatchWriter writer(int batchSize, long maxBytes) {
+		SyncBatchWriter writer = new SyncBatchWriter();
+		ReflectionTestUtils.setField(writer, "batchSize", batchSize);
+		ReflectionTestUtils.setField(writer, "batchMaxBytes", maxBytes);
+		ReflectionTestUtils.setField(writer, "maxInFlight", 4);
+		return writer;
+	}
+
+	private static Map<String, Object> transaction(double amount) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("eventId", "e1");
+		data.put("amount", amount);
+		return data;
+	}
+
+	private SyncBatchWriter.PendingWrite write(String collection, String id, String note) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("note", note);
+		return new SyncBatchWriter.PendingWrite(collection, id, data);
+	}
+
+	@Test
+	void chunksAreGroupedByCollectionAndCappedByCount() {
+		List<SyncBatchWriter.PendingWrite> writes = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			writes.add(write("savings_goals", "g" + i, "x"));
+			writes.add(write("events", "e" + i, "x"));
+		}
+
+		List<List<SyncBatchWriter.PendingWrite>> chunks = writer(2, Long.MAX_VALUE).chunk(writes);
+
+		assertEquals(6, chunks.size());
+		for (List<SyncBatchWriter.PendingWrite> chunk : chunks) {
+			assertEquals(1, chunk.stream().map(SyncBatchWriter.PendingWrite::getCollection).distinct().count());
+		}
+	}
+
+	@Test
+	void chunksNeverExceedFirestoreWriteLimit() {
+		List<SyncBatchWriter.PendingWrite> writes = new ArrayList<>();
+		List<SyncBatchWriter.PendingWrite> transactions = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			writes.add(write("savings_goals", "g" + i, "x"));
+			transactions.add(write("transactions", "t" + i, "x"));
+		}
+
+		List<List<SyncBatchWriter.PendingWrite>> chunks = writer(10_000, Long.MAX_VALUE).chunk(writes);
+
+		assertEquals(3, chunks.size());
+		assertEquals(500, chunks.get(0).size());
+		assertEquals(200, chunks.get(2).size());
+		// Transactions leave room for their summary increments in the same commit
+		assertEquals(250, writer(10_000, Long.MAX_VALUE).chunk(transactions).get(0).size());
+	}
+
+	@Test
+	void chunksAreSplitByEstimatedSize() {
+		String note = "x".repeat(1000);
+		List<SyncBatchWriter.PendingWrite> writes = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			writes.add(write("transactions", "t" + i, note));
+		}
+
+		List<List<SyncBatchWriter.PendingWrite>> chunks = writer(500, 2500).chunk(writes);
+
+		assertEquals(2, chunks.size());
+		assertEquals(2, chunks.get(0).size());
+	}
+
+	@Test
+	void laterPatchesAreLaidOverEarlierVersions() {
+		SyncBatchWriter.PendingWrite whole = write("transactions", "t1", "Lunch");
+		whole.getData().put("amount", 10.0);
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("amount", 12.0);
+
+		SyncBatchWriter.PendingWrite combined = whole.then(SyncBatchWriter.PendingWrite.patch("transactions", "t1", fields));
+		SyncBatchWriter.PendingWrite replaced = combined.then(write("transactions", "t1", "Dinner"));
+
+		assertFalse(combined.isPatch());
+		assertEquals(Map.of("note", "Lunch", "amount", 12.0), combined.getData());
+		assertEquals(Map.of("note", "Dinner"), replaced.getData());
+		assertTrue(SyncBatchWriter.PendingWrite.patch("transactions", "t1", fields)
+			.then(SyncBatchWriter.PendingWrite.patch("transactions", "t1", Map.of("note", "Tea"))).isPatch());
+	}
+
+	@Test
+	void transactionsCommitWithTheirSummaryIncrementsAtTheVersionRead() throws Exception {
+		AtomicBoolean raced = new AtomicBoolean(true);
+		EmbeddedDocumentStore store = new EmbeddedDocumentStore(new ObjectMapper()) {
+			@Override
+			public CompletableFuture<Instant> commit(List<DocumentWrite> writes) {
+				// Another writer changes t1 between the batch's read and its commit
+				if (writes.size() > 1 && raced.compareAndSet(false, true)) {
+					super.commit(List.of(DocumentWrite.set("transactions", "t1", transaction(20)),
+						DocumentWrite.increment(EventSummaryService.COLLECTION_NAME, "e1", Map.of("offlineDebit", 10.0)))).join();
+				}
+				return super.commit(writes);
+			}
+		};
+		EventSummaryService summaries = new EventSummaryService();
+		ReflectionTestUtils.setField(summaries, "documentStore", store);
+		SyncBatchWriter writer = writer(500, Long.MAX_VALUE);
+		ReflectionTestUtils.setField(writer, "documentStore", store);
+		ReflectionTestUtils.setField(writer, "eventSummaryService", summaries);
+		store.commit(List.of(DocumentWrite.set("transactions", "t1", transaction(10)),
+			DocumentWrite.increment(EventSummaryService.COLLECTION_NAME, "e1", Map.of("offlineDebit", 10.0, "transactionCount", 1L)))).get();
+		raced.set(false);
+
+		List<SyncBatchWriter.Written> written = writer.write(List.of(
+			new SyncBatchWriter.PendingWrite("transactions", "t1", transaction(15)),
+			new SyncBatchWriter.PendingWrite("transactions", "t2", transaction(5))));
+
+		assertTrue(written.stream().allMatch(result -> result.result().isSuccess()));
+		assertEquals(20.0, written.get(0).replaced().get("amount"));
+		assertEquals(null, written.get(1).replaced());
+		// Worked out against the version the race left, not the one first read
+		assertEquals(20.0, summaries.getSummary("e1").getOfflineDebit());
+		assertEquals(2L, summaries.getSummary("e1").getTransactionCount());
+	}
+}
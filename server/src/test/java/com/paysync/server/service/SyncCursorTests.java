@@ -0,0 +1,31 @@
+package com.paysync.server.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SyncCursorTests {
+
+	@Test
+	void tokenRoundTripsPosition() {
+		SyncCursor cursor = new SyncCursor(2, 1_700_000_000_000L, "doc:with:colons");
+
+		SyncCursor decoded = SyncCursor.decode(cursor.encode());
+
+		assertEquals(2, decoded.getCollectionIndex());
+		assertEquals(1_700_000_000_000L, decoded.getLastSynced());
+		assertEquals("doc:with:colons", decoded.getDocumentId());
+	}
+
+	@Test
+	void startCursorHasNoPosition() {
+		assertFalse(SyncCursor.decode(SyncCursor.start().encode()).hasPosition());
+	}
+
+	@Test
+	void malformedTokenIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> SyncCursor.decode("not a token!"));
+	}
+}
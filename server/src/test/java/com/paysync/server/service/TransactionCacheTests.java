@@ -0,0 +1,76 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.Transaction;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TransactionCacheTests {
+
+	private static TransactionCache cache() {
+		TransactionCache cache = new TransactionCache();
+		ReflectionTestUtils.setField(cache, "maxEntries", 100L);
+		ReflectionTestUtils.setField(cache, "maxListWeight", 1000L);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		cache.initialize();
+		return cache;
+	}
+
+	private static Transaction transaction(String note) {
+		Transaction transaction = new Transaction();
+		transaction.setTransactionId("t1");
+		transaction.setUserId("u1");
+		transaction.setEventId("e1");
+		transaction.setNote(note);
+		return transaction;
+	}
+
+	@Test
+	void ledgerLoadCompletingAfterADeleteLeavesTheTransactionUncached() throws Exception {
+		TransactionCache cache = cache();
+		CompletableFuture<List<Transaction>> ledger = new CompletableFuture<>();
+		CompletableFuture<List<Transaction>> loading = cache.getUserTransactions("u1", () -> ledger);
+
+		// Deleted while the ledger, which still has it, is being read
+		cache.deleted("t1", Map.of("userId", "u1", "eventId", "e1"));
+		ledger.complete(List.of(transaction("Lunch")));
+		assertEquals(1, loading.get().size());
+
+		AtomicInteger reads = new AtomicInteger();
+		Transaction read = cache.getTransaction("t1", () -> {
+			reads.incrementAndGet();
+			return CompletableFuture.completedFuture(null);
+		}).get();
+		assertNull(read);
+		assertEquals(1, reads.get());
+
+		// The ledger read before the delete isn't kept either
+		List<Transaction> reloaded = cache.getUserTransactions("u1", () -> CompletableFuture.completedFuture(List.of())).get();
+		assertEquals(0, reloaded.size());
+	}
+
+	@Test
+	void ledgerLoadCompletingAfterAnUpdateKeepsTheNewVersion() throws Exception {
+		TransactionCache cache = cache();
+		CompletableFuture<List<Transaction>> ledger = new CompletableFuture<>();
+		cache.getEventTransactions("e1", () -> ledger);
+
+		cache.written(transaction("Dinner"), Map.of("userId", "u1", "eventId", "e1", "note", "Lunch"));
+		ledger.complete(List.of(transaction("Lunch")));
+
+		Transaction cached = cache.getTransaction("t1", () -> CompletableFuture.failedFuture(new AssertionError())).get();
+		assertEquals("Dinner", cached.getNote());
+		List<Transaction> reloaded = cache.getEventTransactions("e1",
+			() -> CompletableFuture.completedFuture(List.of(transaction("Dinner")))).get();
+		assertEquals("Dinner", reloaded.get(0).getNote());
+	}
+}
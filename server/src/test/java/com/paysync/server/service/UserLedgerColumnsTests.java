@@ -0,0 +1,76 @@
+package com.paysync.server.service;
+
+import com.paysync.server.model.InsightBucket;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UserLedgerColumnsTests {
+
+	private static long millis(String date) {
+		return LocalDate.parse(date).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	private static LedgerEntry entry(String id, String date, double amount, boolean credit, String method) {
+		return new LedgerEntry(id, "u1", "e1", true, credit, amount, "USD", method, millis(date));
+	}
+
+	@Test
+	void groupsByPaymentMethodWithCreditAndDebitSeparated() {
+		UserLedgerColumns columns = new UserLedgerColumns();
+		columns.upsert(entry("t1", "2024-03-01", 10, false, "card"));
+		columns.upsert(entry("t2", "2024-03-02", 5, true, "card"));
+		columns.upsert(entry("t3", "2024-03-02", 7, false, "cash"));
+
+		List<InsightBucket> buckets = columns.groupBy(UserLedgerColumns.Dimension.PAYMENT_METHOD, Long.MIN_VALUE, Long.MAX_VALUE, null, null);
+
+		assertEquals(2, buckets.size());
+		assertEquals("card", buckets.get(0).getKey());
+		assertEquals(5.0, buckets.get(0).getCredit());
+		assertEquals(10.0, buckets.get(0).getDebit());
+		assertEquals(7.0, buckets.get(1).getDebit());
+	}
+
+	@Test
+	void upsertReplacesAndRemoveKeepsColumnsDense() {
+		UserLedgerColumns columns = new UserLedgerColumns();
+		columns.upsert(entry("t1", "2024-03-01", 10, false, "card"));
+		columns.upsert(entry("t2", "2024-03-01", 20, false, "card"));
+		columns.upsert(entry("t1", "2024-03-01", 15, false, "card"));
+		columns.remove("t2");
+
+		List<InsightBucket> buckets = columns.groupBy(UserLedgerColumns.Dimension.TYPE, Long.MIN_VALUE, Long.MAX_VALUE, null, null);
+
+		assertEquals(1, columns.size());
+		assertEquals(15.0, buckets.get(0).getDebit());
+	}
+
+	@Test
+	void monthlyBucketsIncludeEmptyMonths() {
+		UserLedgerColumns columns = new UserLedgerColumns();
+		columns.upsert(entry("t1", "2023-12-31", 10, false, "card"));
+		columns.upsert(entry("t2", "2024-02-29", 4, false, "card"));
+
+		List<InsightBucket> buckets = columns.timeBuckets(UserLedgerColumns.Granularity.MONTH, Long.MIN_VALUE, Long.MAX_VALUE, 0, null, null);
+
+		assertEquals(3, buckets.size());
+		assertEquals("2023-12", buckets.get(0).getKey());
+		assertEquals(0L, buckets.get(1).getCount());
+		assertEquals("2024-02", buckets.get(2).getKey());
+	}
+
+	@Test
+	void weeksStartOnMonday() {
+		long sunday = millis("2024-03-10");
+		long monday = millis("2024-03-11");
+
+		long sundayWeek = UserLedgerColumns.bucketOf(UserLedgerColumns.Granularity.WEEK, sunday);
+
+		assertEquals(sundayWeek + 1, UserLedgerColumns.bucketOf(UserLedgerColumns.Granularity.WEEK, monday));
+		assertEquals("2024-03-11", UserLedgerColumns.bucketLabel(UserLedgerColumns.Granularity.WEEK, sundayWeek + 1));
+	}
+}